@@ -0,0 +1,64 @@
+package com.floss83.javaswitch.audit;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Spring wiring for the audit trail.
+ * <p>
+ * Provides the {@link AuditLog} that tokenization and the TCP listener
+ * publish to, chosen by {@code audit.mode}:
+ * </p>
+ * <ul>
+ * <li>{@code file} (default): rolling JSONL segments in
+ * {@code audit.directory}, forced every {@code audit.fsync-interval-ms}.</li>
+ * <li>{@code console}: the same lines on stdout, still written by the
+ * writer thread rather than by the transaction.</li>
+ * </ul>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+@Configuration
+public class AuditConfig {
+
+    /**
+     * @param meterRegistry   registry for the log's {@code audit.*} meters
+     * @param mode            file or console
+     * @param directory       segment directory (file mode)
+     * @param segmentMb       segment size at which the next one is started, in MiB
+     * @param fsyncIntervalMs longest time written events stay unforced, in milliseconds; 0 forces every
+     *                        batch, -1 leaves it to the OS
+     * @param ringSize        ring buffer slots, a power of two
+     * @param overflow        block or drop, when the ring is full
+     * @return the started audit log; written out, forced and closed by Spring on shutdown
+     * @throws IOException if the segment directory cannot be created
+     */
+    @Bean
+    public AuditLog auditLog(MeterRegistry meterRegistry,
+            @Value("${audit.mode:file}") String mode,
+            @Value("${audit.directory:logs/audit}") String directory,
+            @Value("${audit.segment-mb:64}") long segmentMb,
+            @Value("${audit.fsync-interval-ms:100}") long fsyncIntervalMs,
+            @Value("${audit.ring-size:65536}") int ringSize,
+            @Value("${audit.overflow:block}") String overflow) throws IOException {
+        AuditOverflowPolicy policy = AuditOverflowPolicy.forName(overflow);
+        AuditLog auditLog = switch (mode.trim().toLowerCase()) {
+            case "file" -> new AuditLog(Path.of(directory), segmentMb << 20, Duration.ofMillis(fsyncIntervalMs),
+                    ringSize, policy);
+            case "console" -> new AuditLog(System.out, ringSize, policy);
+            default -> throw new IllegalArgumentException("Unknown audit.mode: " + mode);
+        };
+        auditLog.bindTo(meterRegistry);
+        auditLog.start();
+        System.out.println("[BOOT] " + auditLog);
+        return auditLog;
+    }
+}
@@ -0,0 +1,38 @@
+package com.floss83.javaswitch.audit;
+
+/**
+ * One slot of the {@link AuditLog} ring buffer. Slots are allocated once,
+ * with the ring, and reused: a publisher fills the fields of the slot it
+ * claimed and then sets {@link #sequence}, whose volatile write hands the
+ * slot to the writer thread; the writer clears the references once the
+ * event is serialized.
+ * <p>
+ * Values are already masked by the publisher: the ring never holds
+ * cardholder data.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+final class AuditEvent {
+
+    /** Ring sequence of the event in this slot; -1 until the first is published. */
+    volatile long sequence = -1;
+
+    long timeMillis;
+    String type;
+    String reference;
+    /** A String, a String[] (batch) or null. */
+    Object input;
+    /** A String, a String[] (batch) or null. */
+    Object output;
+    String status;
+
+    void clear() {
+        type = null;
+        reference = null;
+        input = null;
+        output = null;
+        status = null;
+    }
+}
@@ -0,0 +1,637 @@
+package com.floss83.javaswitch.audit;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * ========================================
+ * Audit Logger
+ * ========================================
+ *
+ * <b>Purpose:</b> the switch's append-only audit trail, one JSON object per
+ * line (JSONL), written off the transaction path:
+ *
+ * <pre>
+ * {"seq":7,"ts":"2026-10-18T09:30:00.123Z","event":"TOKENIZE_BATCH","in":["***7899","***"],"out":["***","***"],"status":"SUCCESS"}
+ * </pre>
+ *
+ * <b>Publishing:</b> connection and HSM threads call {@link #publish}, which
+ * claims the next slot of a preallocated ring buffer with one CAS, fills in
+ * the event and publishes it with a volatile write: no lock, no I/O, no
+ * formatting and no allocation on the caller's thread. Values must already
+ * be masked. When the ring is full the {@link AuditOverflowPolicy} decides:
+ * wait until the writer frees slots, or drop the event and count it.
+ *
+ * <b>Writing:</b> a single writer thread takes events in sequence order,
+ * serializes them into a buffer and writes whatever has accumulated with
+ * one call, up to 2048 events (group commit). To a directory,
+ * it writes rolling segments {@code audit-000001.jsonl},
+ * {@code audit-000002.jsonl}, ... of about {@code segmentBytes} each, never
+ * reopening an existing file, and {@code fsync}s at most once per
+ * {@code fsyncInterval}: every batch is forced with a zero interval, none
+ * with a negative one (left to the OS).
+ * Events published but not yet forced are lost if the machine fails; at
+ * most one interval's worth. Without a directory the lines go to a console
+ * stream instead.
+ *
+ * <b>Usage:</b>
+ *
+ * <pre>
+ * AuditLog audit = new AuditLog(Path.of("audit"), 64 &lt;&lt; 20, Duration.ofMillis(100), 65536,
+ *         AuditOverflowPolicy.BLOCK);
+ * audit.start();
+ * audit.publish("TOKENIZE_PAN", null, "***7899", "***", "SUCCESS");
+ * audit.close(); // writes and forces everything published
+ * </pre>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class AuditLog implements AutoCloseable, MeterBinder {
+
+    /** Serialization buffer; one write call per buffer-full at most. */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /** Writer's sleep with nothing to write and nothing to force. */
+    private static final long IDLE_PARK_NANOS = Duration.ofMillis(100).toNanos();
+
+    /** Longest wait of a publisher for a free slot before it looks again (BLOCK). */
+    private static final long FULL_WAIT_NANOS = Duration.ofMillis(1).toNanos();
+
+    /** Events the writer takes between wake-ups of publishers waiting for slots. */
+    private static final int SIGNAL_EVERY = 1024;
+
+    /**
+     * Most events written as one batch (one write, at most one fsync), so
+     * that fsyncs keep their pace under sustained load.
+     */
+    private static final int MAX_BATCH = 2048;
+
+    /** How long {@link #close()} waits for the writer to drain the ring. */
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".jsonl";
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long fsyncIntervalNanos;
+    private final AuditOverflowPolicy overflow;
+    private final PrintStream console;
+
+    private final AuditEvent[] ring;
+    private final int mask;
+    /** Next sequence to claim. */
+    private final AtomicLong claimed = new AtomicLong();
+    /** Sequences below this are written and their slots free. */
+    private final AtomicLong consumed = new AtomicLong();
+
+    /** Publishers wait here for the writer to free slots (BLOCK). */
+    private final ReentrantLock fullLock = new ReentrantLock();
+    private final Condition notFull = fullLock.newCondition();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+
+    private volatile boolean running;
+    private volatile boolean idle;
+    private volatile Thread writer;
+
+    // Writer thread only
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private int bufferedEvents;
+    private long timestampMillis = Long.MIN_VALUE;
+    private byte[] timestamp;
+    private FileChannel segment;
+    private volatile Path segmentPath;
+    private int segmentIndex;
+    private long segmentSize;
+    private boolean unforced;
+
+    /**
+     * Audit log writing rolling segment files.
+     *
+     * @param directory     directory for the segments; created if missing
+     * @param segmentBytes  size at which a segment is closed and the next started
+     * @param fsyncInterval longest time written events stay unforced; zero to force every batch,
+     *                      negative never to force
+     * @param capacity      ring slots, a power of two
+     * @param overflow      what to do when the ring is full
+     * @throws IllegalArgumentException if the capacity is not a power of two or the segment size is not positive
+     */
+    public AuditLog(Path directory, long segmentBytes, Duration fsyncInterval, int capacity,
+            AuditOverflowPolicy overflow) {
+        this(directory, segmentBytes, fsyncInterval, capacity, overflow, null);
+        if (segmentBytes <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentBytes);
+        }
+    }
+
+    /**
+     * Audit log writing to a console stream instead of files; nothing is
+     * forced.
+     *
+     * @param console  stream the lines go to, e.g. {@code System.out}
+     * @param capacity ring slots, a power of two
+     * @param overflow what to do when the ring is full
+     * @throws IllegalArgumentException if the capacity is not a power of two
+     */
+    public AuditLog(PrintStream console, int capacity, AuditOverflowPolicy overflow) {
+        this(null, Long.MAX_VALUE, Duration.ofNanos(-1), capacity, overflow, console);
+    }
+
+    private AuditLog(Path directory, long segmentBytes, Duration fsyncInterval, int capacity,
+            AuditOverflowPolicy overflow, PrintStream console) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Audit ring capacity must be a power of two: " + capacity);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsyncIntervalNanos = fsyncInterval.toNanos();
+        this.overflow = overflow;
+        this.console = console;
+        this.ring = new AuditEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new AuditEvent();
+        }
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Finds where the previous run's segments end and starts the writer
+     * thread. Events published before are kept and written then; with
+     * {@link AuditOverflowPolicy#BLOCK}, one finding the ring full waits for it.
+     *
+     * @throws IOException if the directory cannot be created or listed
+     */
+    public void start() throws IOException {
+        if (directory != null) {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                segmentIndex = files.mapToInt(AuditLog::segmentIndexOf).max().orElse(0);
+            }
+        }
+        Thread thread = new Thread(this::writeEvents, "audit-writer");
+        thread.setDaemon(true);
+        running = true;
+        writer = thread;
+        thread.start();
+    }
+
+    /**
+     * Publishes one event.
+     *
+     * @param type      event type, e.g. {@code TOKENIZE_PAN}
+     * @param reference what the event belongs to, e.g. a request's STAN/RRN/terminal ID; null for none
+     * @param input     masked input value, or null
+     * @param output    masked output value, or null
+     * @param status    {@code SUCCESS} or {@code FAIL: <reason>}
+     * @return true if queued; false if dropped (ring full, {@link AuditOverflowPolicy#DROP}) or closed
+     */
+    public boolean publish(String type, String reference, String input, String output, String status) {
+        return publishEvent(type, reference, input, output, status);
+    }
+
+    /**
+     * Publishes one event for several values, e.g. a tokenization batch; they
+     * are written as JSON arrays.
+     *
+     * @param type      event type, e.g. {@code TOKENIZE_BATCH}
+     * @param reference what the event belongs to; null for none
+     * @param inputs    masked input values, or null
+     * @param outputs   masked output values, or null; not modified afterwards by the caller
+     * @param status    {@code SUCCESS} or {@code FAIL: <reason>}
+     * @return true if queued; false if dropped or closed
+     */
+    public boolean publish(String type, String reference, String[] inputs, String[] outputs, String status) {
+        return publishEvent(type, reference, inputs, outputs, status);
+    }
+
+    /**
+     * @return events queued so far
+     */
+    public long getPublished() {
+        return claimed.get();
+    }
+
+    /**
+     * @return events handed to the file system (or console) so far
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return events discarded because the ring was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return events lost to write errors
+     */
+    public long getLost() {
+        return lost.get();
+    }
+
+    /**
+     * @return fsync calls so far
+     */
+    public long getFsyncs() {
+        return fsyncs.get();
+    }
+
+    /**
+     * @return events waiting for the writer
+     */
+    public long getQueued() {
+        return claimed.get() - consumed.get();
+    }
+
+    /**
+     * @return segment being written, or null (console, or none opened yet)
+     */
+    public Path getSegment() {
+        return segmentPath;
+    }
+
+    /**
+     * Publishes the counters under {@code audit.*}.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("audit.events.written", this, AuditLog::getWritten)
+                .description("Audit events written")
+                .register(registry);
+        FunctionCounter.builder("audit.events.dropped", this, AuditLog::getDropped)
+                .description("Audit events dropped because the ring buffer was full")
+                .register(registry);
+        FunctionCounter.builder("audit.events.lost", this, AuditLog::getLost)
+                .description("Audit events lost to write errors")
+                .register(registry);
+        FunctionCounter.builder("audit.fsyncs", this, AuditLog::getFsyncs)
+                .description("Audit segment fsync calls")
+                .register(registry);
+        Gauge.builder("audit.queued", this, AuditLog::getQueued)
+                .description("Audit events waiting for the writer")
+                .register(registry);
+    }
+
+    /**
+     * Refuses new events, then waits for the writer to write and force the
+     * ones already published and close the segment. An event published
+     * while this runs may miss the log.
+     */
+    @Override
+    public void close() {
+        running = false;
+        Thread current = writer;
+        if (current == null) {
+            return;
+        }
+        LockSupport.unpark(current);
+        try {
+            if (!current.join(CLOSE_TIMEOUT)) {
+                System.err.println("[AUDIT] Writer did not finish within " + CLOSE_TIMEOUT.toSeconds() + " s; "
+                        + getQueued() + " event(s) unwritten");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        String target = directory != null
+                ? "segments of " + (segmentBytes >> 20) + " MiB in " + directory + ", fsync "
+                        + (fsyncIntervalNanos < 0 ? "never" : "every " + fsyncIntervalNanos / 1_000_000 + " ms")
+                : "console";
+        return "AuditLog: " + target + ", " + ring.length + " slots, " + overflow.getName() + " when full";
+    }
+
+    private boolean publishEvent(String type, String reference, Object input, Object output, String status) {
+        if (!running && writer != null) {
+            return false;
+        }
+        long sequence;
+        while (true) {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= ring.length) {
+                if (overflow == AuditOverflowPolicy.DROP) {
+                    dropped.increment();
+                    return false;
+                }
+                wakeWriter();
+                if (!awaitSlot()) {
+                    dropped.increment();
+                    return false;
+                }
+                continue;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        AuditEvent event = ring[(int) (sequence & mask)];
+        event.timeMillis = System.currentTimeMillis();
+        event.type = type;
+        event.reference = reference;
+        event.input = input;
+        event.output = output;
+        event.status = status;
+        event.sequence = sequence; // hands the slot to the writer
+        wakeWriter();
+        return true;
+    }
+
+    private void wakeWriter() {
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Waits until the ring has a free slot.
+     *
+     * @return false if the log was closed or the thread interrupted meanwhile
+     */
+    private boolean awaitSlot() {
+        waiting.incrementAndGet();
+        fullLock.lock();
+        try {
+            while (claimed.get() - consumed.get() >= ring.length) {
+                if (!running && writer != null) {
+                    return false;
+                }
+                notFull.awaitNanos(FULL_WAIT_NANOS);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            fullLock.unlock();
+            waiting.decrementAndGet();
+        }
+    }
+
+    /** Wakes publishers waiting for slots, if any. */
+    private void signalNotFull() {
+        if (waiting.get() > 0) {
+            fullLock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                fullLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writer thread body: drains the ring in sequence order, writes, forces
+     * when due and rolls segments, until closed and drained.
+     */
+    private void writeEvents() {
+        long next = 0;
+        long lastForce = System.nanoTime();
+        while (true) {
+            int drained = 0;
+            AuditEvent event;
+            while (drained < MAX_BATCH && (event = ring[(int) (next & mask)]).sequence == next) {
+                append(event, next);
+                event.clear();
+                consumed.lazySet(++next);
+                if (++drained % SIGNAL_EVERY == 0) {
+                    signalNotFull();
+                }
+            }
+            if (drained > 0) {
+                signalNotFull();
+                flush();
+            }
+            long now = System.nanoTime();
+            if (unforced && fsyncIntervalNanos >= 0 && now - lastForce >= fsyncIntervalNanos) {
+                force();
+                lastForce = now;
+            }
+            if (drained > 0) {
+                continue;
+            }
+            if (!running && next == claimed.get()) {
+                break;
+            }
+            idle = true;
+            if (ring[(int) (next & mask)].sequence != next && running) {
+                long park = unforced && fsyncIntervalNanos >= 0
+                        ? Math.max(0, fsyncIntervalNanos - (now - lastForce))
+                        : IDLE_PARK_NANOS;
+                LockSupport.parkNanos(this, park);
+            } else if (!running) {
+                Thread.onSpinWait(); // a publisher that claimed before close is still filling its slot
+            }
+            idle = false;
+        }
+        if (unforced) {
+            force();
+        }
+        closeSegment();
+        signalNotFull(); // publishers still waiting give up
+    }
+
+    /** Serializes one event into the buffer, starting a new segment first if this one is full. */
+    private void append(AuditEvent event, long sequence) {
+        if (directory != null && segmentSize + buffer.position() >= segmentBytes) {
+            flush();
+            if (unforced && fsyncIntervalNanos >= 0) {
+                force();
+            }
+            closeSegment();
+        }
+        putAscii("{\"seq\":");
+        putLong(sequence);
+        putAscii(",\"ts\":\"");
+        if (event.timeMillis != timestampMillis) { // under load, many events share a millisecond
+            timestampMillis = event.timeMillis;
+            timestamp = Instant.ofEpochMilli(timestampMillis).toString().getBytes(StandardCharsets.US_ASCII);
+        }
+        for (byte b : timestamp) {
+            putByte((char) b);
+        }
+        putAscii("\",\"event\":");
+        putJson(event.type);
+        if (event.reference != null) {
+            putAscii(",\"ref\":");
+            putJson(event.reference);
+        }
+        putAscii(",\"in\":");
+        putJson(event.input);
+        putAscii(",\"out\":");
+        putJson(event.output);
+        putAscii(",\"status\":");
+        putJson(event.status);
+        putAscii("}\n");
+        bufferedEvents++;
+    }
+
+    private void putJson(Object value) {
+        if (value instanceof String[] values) {
+            putByte('[');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    putByte(',');
+                }
+                putJsonString(values[i]);
+            }
+            putByte(']');
+        } else {
+            putJsonString((String) value);
+        }
+    }
+
+    /** A JSON string in plain ASCII: quotes, backslashes, control and non-ASCII characters escaped. */
+    private void putJsonString(String value) {
+        if (value == null) {
+            putAscii("null");
+            return;
+        }
+        putByte('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                putByte('\\');
+                putByte(c);
+            } else if (c >= 0x20 && c < 0x7f) {
+                putByte(c);
+            } else {
+                putAscii(String.format("\\u%04x", (int) c));
+            }
+        }
+        putByte('"');
+    }
+
+    private void putLong(long value) {
+        if (value >= 10) {
+            putLong(value / 10);
+        }
+        putByte((char) ('0' + value % 10));
+    }
+
+    private void putAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            putByte(text.charAt(i));
+        }
+    }
+
+    private void putByte(char c) {
+        if (!buffer.hasRemaining()) {
+            flush(); // an event longer than the buffer goes out in pieces of one segment
+        }
+        buffer.put((byte) c);
+    }
+
+    /** Writes the buffer to the segment (opening one if needed) or the console. */
+    private void flush() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        int events = bufferedEvents;
+        bufferedEvents = 0;
+        try {
+            if (console != null) {
+                console.write(buffer.array(), 0, buffer.limit());
+                console.flush();
+            } else {
+                if (segment == null) {
+                    openSegment();
+                }
+                int bytes = buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    segment.write(buffer);
+                }
+                segmentSize += bytes;
+                unforced = true;
+            }
+            written.addAndGet(events);
+        } catch (IOException e) {
+            System.err.println("[AUDIT] Write error on " + segmentPath + ": " + e.getMessage() + "; " + events
+                    + " event(s) lost");
+            lost.addAndGet(events);
+            closeSegment(); // the next write starts a new segment
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void force() {
+        unforced = false;
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.force(false);
+            fsyncs.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("[AUDIT] fsync error on " + segmentPath + ": " + e.getMessage());
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segmentIndex++;
+        Path path = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX));
+        segment = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segmentPath = path;
+        segmentSize = 0;
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            System.err.println("[AUDIT] Close error on " + segmentPath + ": " + e.getMessage());
+        }
+        segment = null;
+        segmentSize = 0;
+        unforced = false;
+    }
+
+    /** Index of a segment file name, 0 for any other file. */
+    private static int segmentIndexOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
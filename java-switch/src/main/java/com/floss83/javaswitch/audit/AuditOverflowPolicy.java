@@ -0,0 +1,51 @@
+package com.floss83.javaswitch.audit;
+
+/**
+ * What {@link AuditLog#publish} does when the ring buffer is full, i.e. the
+ * writer thread (and the disk behind it) has fallen a whole ring behind.
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public enum AuditOverflowPolicy {
+
+    /**
+     * The publishing thread waits for a free slot: no event is lost, and a
+     * slow disk slows transactions down.
+     */
+    BLOCK("block"),
+
+    /**
+     * The event is discarded and counted ({@code audit.events.dropped}):
+     * transactions never wait on the audit trail, which may then have gaps.
+     */
+    DROP("drop");
+
+    private final String name;
+
+    AuditOverflowPolicy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return property value for this policy
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name {@code block} or {@code drop}, any case
+     * @return the policy
+     * @throws IllegalArgumentException for any other name
+     */
+    public static AuditOverflowPolicy forName(String name) {
+        String policy = name.trim().toLowerCase();
+        for (AuditOverflowPolicy value : values()) {
+            if (value.name.equals(policy)) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Unknown audit overflow policy: " + name);
+    }
+}
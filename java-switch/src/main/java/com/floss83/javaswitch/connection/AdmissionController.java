@@ -0,0 +1,270 @@
+package com.floss83.javaswitch.connection;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Bounds the requests one listener processes at once, so that a traffic
+ * spike is shed at the door instead of queueing and slowing every terminal
+ * down.
+ * <p>
+ * A request is admitted only while the listener is below its concurrency
+ * limit and its terminal (field 41) is below {@code maxPerTerminal}; anything
+ * else is refused immediately and the caller answers it with a decline code
+ * (see {@link Iso8583RequestHandler}). Nothing waits for a slot.
+ * </p>
+ * <p>
+ * With {@code adaptive} on, the limit follows measured latency, gradient
+ * style: admitted requests report how long they took, and once per window
+ * the average is compared with a slow-moving baseline. While latency stays
+ * within twice the baseline and the limit is actually in use, the limit grows
+ * by about its square root; as latency climbs past that, it shrinks in
+ * proportion. It always stays between {@code minLimit} and
+ * {@code maxConcurrency}. Without it the limit is fixed at
+ * {@code maxConcurrency}.
+ * </p>
+ * <p>
+ * Each distinct terminal ID seen keeps a small counter for the life of the
+ * controller, which is bounded by the terminal estate.
+ * </p>
+ * <p>
+ * All methods are thread-safe and lock-free on the request path; the limit
+ * update runs under a {@code tryLock}, so a thread that finds it taken skips
+ * the update rather than waiting.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class AdmissionController implements MeterBinder {
+
+    /** Minimum time between two limit updates. */
+    private static final long WINDOW_NANOS = 100_000_000L;
+
+    /** Minimum latency samples behind a limit update. */
+    private static final int MIN_WINDOW_SAMPLES = 10;
+
+    /** Latency may grow to this multiple of the baseline before the limit shrinks. */
+    private static final double TOLERANCE = 2.0;
+
+    /** Weight of a window's average in the latency baseline when it is above it (~50 s to adapt upwards). */
+    private static final double BASELINE_WEIGHT = 0.002;
+
+    /** Weight of a newly computed limit against the current one. */
+    private static final double SMOOTHING = 0.2;
+
+    private final String name;
+    private final int maxConcurrency;
+    private final int maxPerTerminal;
+    private final int minLimit;
+    private final boolean adaptive;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ConcurrentHashMap<String, AtomicInteger> terminals = new ConcurrentHashMap<>();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shedCapacity = new LongAdder();
+    private final LongAdder shedTerminal = new LongAdder();
+
+    // Adaptive state: samples are added lock-free, the update runs under the lock
+    private final LongAdder windowNanos = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private volatile long windowStart = System.nanoTime();
+    private double baselineNanos;
+    private double exactLimit;
+    private volatile int limit;
+
+    /**
+     * @param name           listener name, used as the {@code listener} metric tag
+     * @param maxConcurrency most requests processed at once across the listener
+     * @param maxPerTerminal most requests processed at once per terminal ID; 0 for no per-terminal bound
+     * @param adaptive       true to move the limit with measured latency, false to keep it at maxConcurrency
+     * @param minLimit       floor for the adaptive limit
+     * @throws IllegalArgumentException if a limit is out of range
+     */
+    public AdmissionController(String name, int maxConcurrency, int maxPerTerminal, boolean adaptive,
+            int minLimit) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+        }
+        if (maxPerTerminal < 0) {
+            throw new IllegalArgumentException("maxPerTerminal must not be negative: " + maxPerTerminal);
+        }
+        if (minLimit < 1 || minLimit > maxConcurrency) {
+            throw new IllegalArgumentException("minLimit must be between 1 and " + maxConcurrency + ": " + minLimit);
+        }
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+        this.maxPerTerminal = maxPerTerminal;
+        this.minLimit = minLimit;
+        this.adaptive = adaptive;
+        this.exactLimit = maxConcurrency;
+        this.limit = maxConcurrency;
+    }
+
+    /**
+     * Admits a request or refuses it at once. Every {@code true} must be
+     * followed by exactly one {@link #release(String, long)} with the same
+     * terminal ID.
+     *
+     * @param terminalId the request's field 41, or null if absent
+     * @return true if the request may proceed
+     */
+    public boolean tryAcquire(String terminalId) {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit) {
+                shedCapacity.increment();
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+
+        if (terminalId != null && maxPerTerminal > 0) {
+            AtomicInteger terminal = terminals.computeIfAbsent(terminalId, k -> new AtomicInteger());
+            if (terminal.incrementAndGet() > maxPerTerminal) {
+                terminal.decrementAndGet();
+                inFlight.decrementAndGet();
+                shedTerminal.increment();
+                return false;
+            }
+        }
+        admitted.increment();
+        return true;
+    }
+
+    /**
+     * Ends an admitted request.
+     *
+     * @param terminalId   the terminal ID given to {@link #tryAcquire(String)}
+     * @param latencyNanos how long the request took; feeds the adaptive limit
+     */
+    public void release(String terminalId, long latencyNanos) {
+        if (terminalId != null && maxPerTerminal > 0) {
+            AtomicInteger terminal = terminals.get(terminalId);
+            if (terminal != null) {
+                terminal.decrementAndGet();
+            }
+        }
+        int inFlightBefore = inFlight.getAndDecrement();
+        if (adaptive) {
+            windowNanos.add(latencyNanos);
+            windowSamples.increment();
+            long now = System.nanoTime();
+            if (now - windowStart >= WINDOW_NANOS && updateLock.tryLock()) {
+                try {
+                    updateLimit(now, inFlightBefore);
+                } finally {
+                    updateLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Called under {@link #updateLock} once a window has elapsed.
+     */
+    private void updateLimit(long now, int inFlightNow) {
+        if (now - windowStart < WINDOW_NANOS) {
+            return; // another thread has just closed the window
+        }
+        long samples = windowSamples.sum();
+        if (samples < MIN_WINDOW_SAMPLES) {
+            return;
+        }
+        double average = (double) windowNanos.sumThenReset() / windowSamples.sumThenReset();
+        windowStart = now;
+
+        if (baselineNanos == 0 || average < baselineNanos) {
+            baselineNanos = average; // quick to follow improvements, slow to accept degradation
+        } else {
+            baselineNanos += (average - baselineNanos) * BASELINE_WEIGHT;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * baselineNanos / average));
+        double target = exactLimit * gradient;
+        if (gradient == 1.0 && inFlightNow < exactLimit / 2) {
+            return; // healthy but underused: no evidence the limit can go higher
+        }
+        if (gradient == 1.0) {
+            target += Math.sqrt(exactLimit);
+        }
+        exactLimit = Math.max(minLimit, Math.min(maxConcurrency, exactLimit + (target - exactLimit) * SMOOTHING));
+        limit = (int) exactLimit;
+    }
+
+    /**
+     * @return requests processed at this moment
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return current concurrency limit (fixed at maxConcurrency unless adaptive)
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return requests admitted so far
+     */
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return requests refused because the listener was at its limit
+     */
+    public long getShedCapacity() {
+        return shedCapacity.sum();
+    }
+
+    /**
+     * @return requests refused because their terminal was at its limit
+     */
+    public long getShedTerminal() {
+        return shedTerminal.sum();
+    }
+
+    /**
+     * Publishes the counters as {@code iso8583.admission.*} meters, tagged
+     * with the listener name, for {@code /actuator/metrics}.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("iso8583.admission.admitted", this, AdmissionController::getAdmitted)
+                .tag("listener", name)
+                .description("Requests admitted for processing")
+                .register(registry);
+        FunctionCounter.builder("iso8583.admission.shed", this, AdmissionController::getShedCapacity)
+                .tags("listener", name, "reason", "capacity")
+                .description("Requests declined because the listener was at its concurrency limit")
+                .register(registry);
+        FunctionCounter.builder("iso8583.admission.shed", this, AdmissionController::getShedTerminal)
+                .tags("listener", name, "reason", "terminal")
+                .description("Requests declined because their terminal was at its concurrency limit")
+                .register(registry);
+        Gauge.builder("iso8583.admission.in.flight", this, AdmissionController::getInFlight)
+                .tag("listener", name)
+                .description("Requests being processed")
+                .register(registry);
+        Gauge.builder("iso8583.admission.limit", this, AdmissionController::getLimit)
+                .tag("listener", name)
+                .description("Current concurrency limit")
+                .register(registry);
+    }
+
+    @Override
+    public String toString() {
+        return name + ": limit=" + limit + ", inFlight=" + inFlight.get() + ", admitted=" + admitted.sum()
+                + ", shedCapacity=" + shedCapacity.sum() + ", shedTerminal=" + shedTerminal.sum();
+    }
+}
@@ -0,0 +1,325 @@
+package com.floss83.javaswitch.connection;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.Set;
+
+import com.floss83.javaswitch.audit.AuditLog;
+import com.floss83.javaswitch.iso8583.Iso8583Encoding;
+import com.floss83.javaswitch.iso8583.Iso8583FieldMask;
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+import com.floss83.javaswitch.iso8583.Iso8583PackException;
+import com.floss83.javaswitch.iso8583.Iso8583ParseException;
+import com.floss83.javaswitch.iso8583.Iso8583Parser;
+import com.floss83.javaswitch.iso8583.Iso8583ResponseTemplate;
+import com.floss83.javaswitch.issuer.Authorization;
+import com.floss83.javaswitch.issuer.Authorizer;
+import com.floss83.javaswitch.tokenization.TokenizationService;
+
+/**
+ * Parse → tokenize → authorize → respond pipeline for one ISO 8583 request,
+ * shared by every TCP listener mode so that they only differ in how bytes are
+ * moved. Without an {@link Authorizer} every well-formed request is answered
+ * 00.
+ * <p>
+ * The handler holds no per-request state: the caller supplies the
+ * (reusable) {@link Iso8583Message} to parse into and the buffer to write the
+ * response to, so one instance serves any number of threads or connections.
+ * Requests that cannot be parsed or answered get a plain-text
+ * {@code ERR: <reason>} payload instead of an ISO 8583 response.
+ * </p>
+ * <p>
+ * On pipelined connections responses may leave in any order; the client
+ * matches them to requests by STAN (11), RRN (37) and terminal ID (41), which
+ * the response template echoes. A request whose key is already in flight on
+ * the same connection is answered at once with response code 94 (duplicate
+ * transmission) instead of being processed twice.
+ * </p>
+ * <p>
+ * A PAN (field 2) that fails the Luhn check is answered 14 (invalid card
+ * number) without being tokenized or authorized.
+ * </p>
+ * <p>
+ * With an {@link AdmissionController}, a parsed request that the controller
+ * refuses is answered at once with the configured decline code (91, issuer
+ * or switch inoperative, by default) and skips tokenization entirely.
+ * </p>
+ * <p>
+ * With an {@link AuditLog}, every request leaves an {@code ISO_REQUEST}
+ * event: its MTI, the response code answered (or the {@code ERR} reason)
+ * and its STAN/RRN/terminal ID as reference.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class Iso8583RequestHandler {
+
+    private static final int FIELD_PAN = 2;
+    private static final int FIELD_TERMINAL_ID = 41;
+
+    /** Response code for a request already in flight on the same connection. */
+    static final String RESPONSE_DUPLICATE = "94";
+
+    private final Iso8583Parser parser;
+    private final Iso8583ResponseTemplate responseTemplate;
+    private final SensitiveFieldPolicy sensitiveFields;
+    private final boolean logMessages;
+    private final AdmissionController admission;
+    private final String rejectCode;
+    private final Authorizer authorizer;
+    private final AuditLog auditLog;
+
+    /**
+     * @param parser              shared parser compiled for the listener's dialect and wire encoding
+     * @param tokenizationService the PCI-compliant tokenization service to use; null to leave sensitive fields
+     *                            as received (e.g. an issuer stand-in behind the switch)
+     * @param logMessages         true to print each request and its (post-tokenization) fields
+     */
+    public Iso8583RequestHandler(Iso8583Parser parser, TokenizationService tokenizationService,
+            boolean logMessages) {
+        this(parser, tokenizationService, logMessages, null, null);
+    }
+
+    /**
+     * @param parser              shared parser compiled for the listener's dialect and wire encoding
+     * @param tokenizationService the PCI-compliant tokenization service to use; null to leave sensitive fields
+     *                            as received (e.g. an issuer stand-in behind the switch)
+     * @param logMessages         true to print each request and its (post-tokenization) fields
+     * @param admission           admission control for this listener; null to admit everything
+     * @param rejectCode          response code (field 39) for requests the controller refuses, e.g. "91" or "96"
+     * @throws IllegalArgumentException if an admission controller is given without a two-character reject code
+     */
+    public Iso8583RequestHandler(Iso8583Parser parser, TokenizationService tokenizationService,
+            boolean logMessages, AdmissionController admission, String rejectCode) {
+        this(parser, tokenizationService, logMessages, admission, rejectCode, null);
+    }
+
+    /**
+     * @param parser              shared parser compiled for the listener's dialect and wire encoding
+     * @param tokenizationService the PCI-compliant tokenization service to use; null to leave sensitive fields
+     *                            as received (e.g. an issuer stand-in behind the switch)
+     * @param logMessages         true to print each request and its (post-tokenization) fields
+     * @param admission           admission control for this listener; null to admit everything
+     * @param rejectCode          response code (field 39) for requests the controller refuses, e.g. "91" or "96"
+     * @param authorizer          approve/decline decision for tokenized requests; null to approve all
+     * @throws IllegalArgumentException if an admission controller is given without a two-character reject code
+     */
+    public Iso8583RequestHandler(Iso8583Parser parser, TokenizationService tokenizationService,
+            boolean logMessages, AdmissionController admission, String rejectCode, Authorizer authorizer) {
+        this(parser, tokenizationService, logMessages, admission, rejectCode, authorizer, null);
+    }
+
+    /**
+     * @param parser              shared parser compiled for the listener's dialect and wire encoding
+     * @param tokenizationService the PCI-compliant tokenization service to use; null to leave sensitive fields
+     *                            as received (e.g. an issuer stand-in behind the switch)
+     * @param logMessages         true to print each request and its (post-tokenization) fields
+     * @param admission           admission control for this listener; null to admit everything
+     * @param rejectCode          response code (field 39) for requests the controller refuses, e.g. "91" or "96"
+     * @param authorizer          approve/decline decision for tokenized requests; null to approve all
+     * @param auditLog            audit trail for every request and its outcome; null for none
+     * @throws IllegalArgumentException if an admission controller is given without a two-character reject code
+     */
+    public Iso8583RequestHandler(Iso8583Parser parser, TokenizationService tokenizationService,
+            boolean logMessages, AdmissionController admission, String rejectCode, Authorizer authorizer,
+            AuditLog auditLog) {
+        if (admission != null && (rejectCode == null || rejectCode.length() != 2)) {
+            throw new IllegalArgumentException("Reject code must be two characters: " + rejectCode);
+        }
+        this.parser = parser;
+        this.responseTemplate = Iso8583ResponseTemplate.defaultTemplate(parser.getSpec(), parser.getEncoding());
+        this.sensitiveFields = tokenizationService != null
+                ? new SensitiveFieldPolicy(parser.getSpec(), tokenizationService)
+                : null;
+        this.logMessages = logMessages;
+        this.admission = admission;
+        this.rejectCode = rejectCode;
+        this.authorizer = authorizer;
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * @return the parser requests are decoded with
+     */
+    public Iso8583Parser getParser() {
+        return parser;
+    }
+
+    /**
+     * @return true if requests are printed to stdout
+     */
+    public boolean isLogMessages() {
+        return logMessages;
+    }
+
+    /**
+     * @return true if {@link #handle} may wait on the authorizer (see {@link Authorizer#isBlocking()}), so
+     *         that an event loop must not call it
+     */
+    public boolean isBlocking() {
+        return authorizer != null && authorizer.isBlocking();
+    }
+
+    /**
+     * @return admission control in front of tokenization, or null if none
+     */
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Handles one complete request.
+     *
+     * @param message reusable message to parse into; reset by this call
+     * @param request buffer positioned at the first MTI byte, limited to the end of the request;
+     *                its position is advanced to the limit
+     * @param out     buffer the response (without framing) is written to
+     * @return number of response bytes written
+     */
+    public int handle(Iso8583Message message, ByteBuffer request, ByteBuffer out) {
+        return handle(message, request, out, null);
+    }
+
+    /**
+     * Handles one request of a pipelined connection.
+     *
+     * @param message  reusable message to parse into; reset by this call
+     * @param request  buffer positioned at the first MTI byte, limited to the end of the request;
+     *                 its position is advanced to the limit
+     * @param out      buffer the response (without framing) is written to
+     * @param inFlight correlation keys of the connection's requests in progress (thread-safe);
+     *                 null to skip duplicate detection
+     * @return number of response bytes written
+     */
+    public int handle(Iso8583Message message, ByteBuffer request, ByteBuffer out, Set<String> inFlight) {
+        int start = out.position();
+        if (logMessages) {
+            logRequest(request);
+        }
+        String key = null;
+        String admittedTerminal = null;
+        boolean admitted = false;
+        long admittedAt = 0;
+        String responseCode = null;
+        String failure = null;
+        try {
+            // 1. Parse ISO8583 message structure
+            parser.parseInto(message, request, Iso8583FieldMask.ALL);
+
+            // 1b. Refuse a second copy of a request that is still being processed; the MTI
+            // class is part of the key, as a 0400 reversal echoes its 0200's STAN/RRN/TID
+            if (inFlight != null) {
+                String candidate = message.getCorrelationKey();
+                if (candidate != null) {
+                    candidate = message.getMti().charAt(1) + candidate;
+                }
+                if (candidate != null && !inFlight.add(candidate)) {
+                    System.err.println("[TCP] Duplicate in-flight request: " + message.getMti() + " " + candidate);
+                    responseCode = RESPONSE_DUPLICATE;
+                    return responseTemplate.writeResponse(message, RESPONSE_DUPLICATE, out);
+                }
+                key = candidate;
+            }
+
+            // 1c. A PAN with a wrong check digit is no card: decline it without tokenizing it
+            if (message.hasDataElement(FIELD_PAN) && !message.isLuhnValid(FIELD_PAN)) {
+                responseCode = Authorization.INVALID_CARD.getResponseCode();
+                return responseTemplate.writeResponse(message, responseCode, out);
+            }
+
+            // 1d. Shed load: decline at once rather than queue behind a saturated listener
+            if (admission != null) {
+                admittedTerminal = message.getDataElement(FIELD_TERMINAL_ID);
+                if (!admission.tryAcquire(admittedTerminal)) {
+                    responseCode = rejectCode;
+                    return responseTemplate.writeResponse(message, rejectCode, out);
+                }
+                admitted = true;
+                admittedAt = System.nanoTime();
+            }
+
+            // 2. Tokenize every cardholder-data field (PAN, track data, PIN block) for PCI
+            // compliance, in one HSM batch
+            if (sensitiveFields != null) {
+                sensitiveFields.apply(message);
+            }
+
+            // 3. Print all fields (post-tokenization)
+            if (logMessages) {
+                System.out.println("[TCP] Parsed MTI: " + message.getMti());
+                message.getMutableDataElements().forEach((field, value) -> {
+                    System.out.println("[TCP] Field " + field + ": " + value);
+                });
+            }
+
+            // 4. Authorize and answer with a packed ISO 8583 response (fields 38/39)
+            if (authorizer == null) {
+                responseCode = "00";
+                return responseTemplate.writeResponse(message, responseCode, out);
+            }
+            Authorization decision = authorizer.authorize(message);
+            if (logMessages) {
+                System.out.println("[TCP] Authorization: " + decision);
+            }
+            responseCode = decision.getResponseCode();
+            return responseTemplate.writeResponse(message, decision.getAuthorizationId(), responseCode, out);
+        } catch (Iso8583ParseException ex) {
+            System.err.println("[TCP] Parse Error: " + ex.getMessage());
+            failure = ex.getMessage();
+            return writeError(failure, out, start);
+        } catch (Iso8583PackException ex) {
+            System.err.println("[TCP] Response Error: " + ex.getMessage());
+            failure = ex.getMessage();
+            return writeError(failure, out, start);
+        } catch (IllegalArgumentException | IllegalStateException ex) {
+            // Tokenization rejected a field, or a deferred field failed validation
+            System.err.println("[TCP] Request Error: " + ex.getMessage());
+            failure = ex.getMessage();
+            return writeError(failure, out, start);
+        } finally {
+            if (admitted) {
+                admission.release(admittedTerminal, System.nanoTime() - admittedAt);
+            }
+            if (key != null) {
+                inFlight.remove(key);
+            }
+            if (auditLog != null) {
+                auditLog.publish("ISO_REQUEST", message.getCorrelationKey(), message.getMti(),
+                        failure == null ? responseCode : null, failure == null ? "SUCCESS" : "FAIL: " + failure);
+            }
+        }
+    }
+
+    private void logRequest(ByteBuffer request) {
+        int position = request.position();
+        int length = request.remaining();
+        byte[] raw = new byte[length];
+        request.get(position, raw);
+        System.out.println("[TCP] Message length: " + length);
+        System.out.println("[TCP] Received: " + (parser.getEncoding() == Iso8583Encoding.ASCII
+                ? new String(raw, StandardCharsets.ISO_8859_1)
+                : HexFormat.of().withUpperCase().formatHex(raw)));
+    }
+
+    /**
+     * Replaces anything already written for this request with an
+     * {@code ERR: <reason>} line.
+     *
+     * @param reason what went wrong
+     * @param out    response buffer
+     * @param start  position the response began at
+     * @return the response length
+     */
+    static int writeError(String reason, ByteBuffer out, int start) {
+        out.position(start);
+        String text = "ERR: " + reason;
+        int length = Math.min(text.length(), out.remaining());
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            out.put((byte) (c < 0x80 ? c : '?'));
+        }
+        return length;
+    }
+}
@@ -9,9 +9,10 @@
  *    - Everything after this class works only with tokens (never raw secrets), minimizing audit/compliance risk.
  *
  * 2. How Tokenization Works Here:
- *    - Controller parses incoming ISO 8583, extracts Field 2 (PAN) and Field 52 (CVV, if present).
- *    - Calls TokenizationService to tokenize PAN and CVV.
- *    - Audit logs are written for every operation, PCI-style masking enforced.
+ *    - Controller parses incoming ISO 8583; SensitiveFieldPolicy picks out every cardholder-data field
+ *      the field metadata flags: PAN (2), track data (35, 36, 45, incl. the PAN inside track 2), PIN/CVV (52).
+ *    - Calls TokenizationService to tokenize them all in one HSM batch (the TCP pipeline shares the policy).
+ *    - One audit line per batch is written, PCI-style masking enforced.
  *    - Downstream logic gets only tokens, not secrets.
  *
  * 3. Real-World Precedent:
@@ -28,7 +29,8 @@
  *        +-----------+-------------+
  *        | IsoMessageController    |
  *        | - parses ISO 8583       |
- *        | - tokenizes PAN, CVV    |
+ *        | - tokenizes PAN, tracks,|
+ *        |   PIN/CVV (one batch)   |
  *        | - logs audit (masked)   |
  *        +-----------+-------------+
  *                    |
@@ -43,34 +45,85 @@
  */
 package com.floss83.javaswitch.connection;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeMap;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.floss83.javaswitch.iso8583.Iso8583FieldMask;
+import com.floss83.javaswitch.iso8583.Iso8583LengthHeader;
 import com.floss83.javaswitch.iso8583.Iso8583Message;
+import com.floss83.javaswitch.iso8583.Iso8583PackException;
 import com.floss83.javaswitch.iso8583.Iso8583ParseException;
 import com.floss83.javaswitch.iso8583.Iso8583Parser;
+import com.floss83.javaswitch.iso8583.Iso8583ResponseTemplate;
+import com.floss83.javaswitch.issuer.Authorization;
+import com.floss83.javaswitch.issuer.Authorizer;
 import com.floss83.javaswitch.tokenization.TokenizationService;
 
+import jakarta.servlet.http.HttpServletResponse;
+
 @RestController
 @RequestMapping("/api/iso8583")
 public class IsoMessageController {
 
-    private static final int FIELD_PAN = 2;
-    private static final int FIELD_CVV = 52;
+    /** Largest message accepted by the batch endpoint (the binary2 header limit). */
+    private static final int MAX_BATCH_MESSAGE = 0xFFFF;
+
+    /** Response bytes allowed beyond the request length (MTI change, fields 38/39, secondary bitmap). */
+    private static final int RESPONSE_HEADROOM = 256;
+
+    /** Results written between two flushes of the batch response. */
+    private static final int BATCH_FLUSH_INTERVAL = 1024;
+
+    /** JSON property names of fields 0-128, built once rather than per message. */
+    private static final String[] FIELD_NAMES = new String[129];
+
+    static {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            FIELD_NAMES[i] = String.valueOf(i);
+        }
+    }
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Iso8583Parser parser;
+    private final Iso8583ResponseTemplate responseTemplate;
+    private final SensitiveFieldPolicy sensitiveFields;
+    private final Authorizer authorizer;
 
-    private final Iso8583Parser parser = new Iso8583Parser();
-    private final TokenizationService tokenizationService;
+    /** Sensitive fields and their JSON property names once tokenized (null for other fields). */
+    private final int[] tokenizedFields;
+    private final String[] tokenizedNames = new String[FIELD_NAMES.length];
 
-    public IsoMessageController(TokenizationService tokenizationService) {
-        this.tokenizationService = tokenizationService;
+    public IsoMessageController(Iso8583Parser parser, TokenizationService tokenizationService,
+            Authorizer authorizer) {
+        this.parser = parser;
+        this.responseTemplate = Iso8583ResponseTemplate.defaultTemplate(parser.getSpec());
+        this.sensitiveFields = new SensitiveFieldPolicy(parser.getSpec(), tokenizationService);
+        this.authorizer = authorizer;
+        this.tokenizedFields = parser.getSpec().getSensitiveFields();
+        for (int field : tokenizedFields) {
+            tokenizedNames[field] = sensitiveFields.tokenizedName(field);
+        }
     }
 
     @PostMapping(produces = "application/json")
@@ -80,38 +133,37 @@ public class IsoMessageController {
 
         try {
             Iso8583Message parsed = parser.parse(isoMessage);
-            Map<Integer, String> fields = new TreeMap<>(parsed.getMutableDataElements());
 
-            // Tokenize PAN and CVV (if present)
-            String panToken = null, cvvToken = null;
-            if (fields.containsKey(FIELD_PAN)) {
-                panToken = tokenizationService.tokenizePan(fields.get(FIELD_PAN));
-            }
-            if (fields.containsKey(FIELD_CVV)) {
-                cvvToken = tokenizationService.tokenizeCvv(fields.get(FIELD_CVV));
-            }
+            // Tokenize PAN, track data and PIN block/CVV (if present), in one HSM batch
+            sensitiveFields.apply(parsed);
+            Map<Integer, String> fields = new TreeMap<>(parsed.getMutableDataElements());
 
-            // Build per-field output (for both response and logs)
+            // Build per-field output (for both response and logs): tokenized fields first
             Map<String, Object> outputFields = new LinkedHashMap<>();
-            if (panToken != null)
-                outputFields.put("2_PAN_tokenized", panToken);
-            if (cvvToken != null)
-                outputFields.put("52_CVV_tokenized", cvvToken);
             for (Map.Entry<Integer, String> e : fields.entrySet()) {
-                int field = e.getKey();
-                if (field == FIELD_PAN || field == FIELD_CVV)
-                    continue;
-                outputFields.put(String.valueOf(field), e.getValue());
+                if (sensitiveFields.isSensitive(e.getKey()))
+                    outputFields.put(sensitiveFields.tokenizedName(e.getKey()), e.getValue());
+            }
+            for (Map.Entry<Integer, String> e : fields.entrySet()) {
+                if (!sensitiveFields.isSensitive(e.getKey()))
+                    outputFields.put(String.valueOf(e.getKey()), e.getValue());
             }
 
-            // Per-field breakdown log: PAN/CVV as tokens, rest as is
+            // Per-field breakdown log: sensitive fields as tokens, rest as is
             System.out.println("[HTTP] Parsed MTI: " + parsed.getMti());
             outputFields.forEach((k, v) -> System.out.println("[HTTP] Field " + k + ": " + v));
 
+            // Issuer decision, packed as the ISO 8583 response (0210/0110/0810)
+            Authorization decision = authorizer.authorize(parsed);
+            // A response echoes request fields: sized like the batch path, never a fixed cap
+            ByteBuffer packed = ByteBuffer.allocate(isoMessage.length() + RESPONSE_HEADROOM);
+            responseTemplate.writeResponse(parsed, decision.getAuthorizationId(), decision.getResponseCode(), packed);
+
             // Build JSON response
             Map<String, Object> result = new LinkedHashMap<>();
             result.put("mti", parsed.getMti());
             result.put("fields", outputFields);
+            result.put("response", new String(packed.array(), 0, packed.position(), StandardCharsets.US_ASCII));
 
             return ResponseEntity.ok(result);
 
@@ -120,6 +172,258 @@ public class IsoMessageController {
             ex.printStackTrace();
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(Map.of("error", "Parse error: " + ex.getMessage()));
+        } catch (Iso8583PackException ex) {
+            System.err.println("[HTTP] Response Error: " + ex.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", "Response error: " + ex.getMessage()));
+        }
+    }
+
+    /**
+     * Batch endpoint for replay and test harnesses: a stream of raw ISO 8583
+     * messages in, one NDJSON result line per message out, in order.
+     * <p>
+     * {@code text/plain} bodies carry one message per line (blank lines are
+     * skipped); {@code application/octet-stream} bodies carry messages framed
+     * by the {@code header} length header ({@code binary2} or
+     * {@code ascii4}). Each message goes through the same parse → tokenize →
+     * authorize → respond steps as {@link #receiveIsoMessage(String)}, but is parsed into
+     * one reused message and written straight to the response, so neither
+     * the request nor the response is ever held in memory as a whole, and
+     * nothing is printed per message. A message that fails gets an
+     * {@code error} line and the stream carries on; a broken frame ends it.
+     * </p>
+     *
+     * <pre>
+     * {"seq":0,"mti":"0200","fields":{"2_PAN_tokenized":"...","3":"000000",...},"response":"0210..."}
+     * {"seq":1,"error":"Parse error: ..."}
+     * </pre>
+     */
+    @PostMapping(path = "/batch", consumes = { MediaType.TEXT_PLAIN_VALUE,
+            MediaType.APPLICATION_OCTET_STREAM_VALUE }, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void receiveIsoBatch(@RequestHeader("Content-Type") String contentType,
+            @RequestParam(name = "header", defaultValue = "binary2") String header, InputStream body,
+            HttpServletResponse response) throws IOException {
+        boolean framed = contentType.startsWith(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        Iso8583LengthHeader lengthHeader;
+        try {
+            lengthHeader = Iso8583LengthHeader.forName(header);
+        } catch (IllegalArgumentException ex) {
+            lengthHeader = Iso8583LengthHeader.NONE;
+        }
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        if (framed && lengthHeader == Iso8583LengthHeader.NONE) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getOutputStream().write(("{\"error\":\"Unsupported length header: " + header.replace('"', '\'')
+                    + "\"}\n").getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        long start = System.nanoTime();
+        BatchWriter writer = new BatchWriter(new BufferedOutputStream(response.getOutputStream(), 1 << 16));
+        try {
+            if (framed) {
+                readFrames(body, lengthHeader, writer);
+            } else {
+                readLines(body, writer);
+            }
+        } finally {
+            writer.close();
+        }
+        System.out.printf("[HTTP] Batch: %d message(s), %d error(s) in %d ms%n", writer.sequence, writer.errors,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Splits a newline-delimited body into messages.
+     */
+    private void readLines(InputStream body, BatchWriter writer) throws IOException {
+        byte[] chunk = new byte[1 << 16];
+        LineBuffer line = new LineBuffer();
+        int n;
+        while ((n = body.read(chunk)) != -1) {
+            int from = 0;
+            for (int i = 0; i < n; i++) {
+                if (chunk[i] == '\n') {
+                    line.append(chunk, from, i - from);
+                    processLine(line, writer);
+                    from = i + 1;
+                }
+            }
+            line.append(chunk, from, n - from);
+        }
+        if (line.length != 0) {
+            processLine(line, writer);
+        }
+    }
+
+    /**
+     * Bytes of the current line, which may span several reads; grows up to
+     * {@link #MAX_BATCH_MESSAGE} (plus CRLF) and is reused across lines.
+     */
+    private static final class LineBuffer {
+
+        byte[] bytes = new byte[1024];
+        /** Bytes held, or -1 once the line has grown past the limit. */
+        int length;
+
+        void append(byte[] src, int from, int count) {
+            if (length < 0 || count == 0) {
+                return;
+            }
+            int needed = length + count;
+            if (needed > MAX_BATCH_MESSAGE + 2) {
+                length = -1;
+                return;
+            }
+            if (needed > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(needed, Math.min(bytes.length * 2, MAX_BATCH_MESSAGE + 2)));
+            }
+            System.arraycopy(src, from, bytes, length, count);
+            length = needed;
+        }
+    }
+
+    /**
+     * Trims surrounding whitespace (including the CR of CRLF), processes the
+     * line unless blank, and empties the buffer.
+     */
+    private void processLine(LineBuffer buffer, BatchWriter writer) throws IOException {
+        int length = buffer.length;
+        byte[] line = buffer.bytes;
+        buffer.length = 0;
+        if (length < 0) {
+            writer.error("Message exceeds " + MAX_BATCH_MESSAGE + " bytes");
+            return;
+        }
+        int start = 0;
+        while (start < length && line[start] <= ' ') {
+            start++;
+        }
+        while (length > start && line[length - 1] <= ' ') {
+            length--;
+        }
+        if (start < length) {
+            process(line, start, length - start, writer);
+        }
+    }
+
+    /**
+     * Reads length-prefixed messages until end of stream or a broken frame.
+     */
+    private void readFrames(InputStream body, Iso8583LengthHeader lengthHeader, BatchWriter writer)
+            throws IOException {
+        int headerLength = lengthHeader.getLength();
+        byte[] frame = new byte[1024];
+        while (true) {
+            int read = body.readNBytes(frame, 0, headerLength);
+            if (read == 0) {
+                return;
+            }
+            int length = read == headerLength ? lengthHeader.read(frame, 0) : -1;
+            if (length < 0) {
+                writer.error("Framing error: bad or truncated " + lengthHeader.getName() + " length header");
+                return;
+            }
+            if (frame.length < length) {
+                frame = new byte[Math.max(length, frame.length * 2)];
+            }
+            if (body.readNBytes(frame, 0, length) != length) {
+                writer.error("Framing error: stream ended mid-message");
+                return;
+            }
+            process(frame, 0, length, writer);
+        }
+    }
+
+    /**
+     * Parse → tokenize → respond for one batch message, written as one result line.
+     */
+    private void process(byte[] buf, int offset, int length, BatchWriter writer) throws IOException {
+        Iso8583Message message = writer.message;
+        try {
+            parser.parseInto(message, buf, offset, length, Iso8583FieldMask.ALL);
+            sensitiveFields.apply(message);
+            Authorization decision = authorizer.authorize(message);
+            ByteBuffer packed = writer.responseBuffer(length);
+            responseTemplate.writeResponse(message, decision.getAuthorizationId(), decision.getResponseCode(),
+                    packed);
+            writer.result(message, packed);
+        } catch (Iso8583ParseException ex) {
+            writer.error("Parse error: " + ex.getMessage());
+        } catch (Iso8583PackException ex) {
+            writer.error("Response error: " + ex.getMessage());
+        } catch (IllegalArgumentException | IllegalStateException ex) {
+            writer.error("Request error: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Per-request state of a batch: the reused message and response buffer,
+     * and the NDJSON generator writing straight to the servlet stream.
+     */
+    private final class BatchWriter {
+
+        final Iso8583Message message = new Iso8583Message();
+        private final JsonGenerator json;
+        private ByteBuffer packed = ByteBuffer.allocate(1024);
+        long sequence;
+        long errors;
+
+        BatchWriter(OutputStream out) throws IOException {
+            json = jsonFactory.createGenerator(out);
+            json.setRootValueSeparator(new SerializedString("\n"));
+        }
+
+        ByteBuffer responseBuffer(int requestLength) {
+            if (packed.capacity() < requestLength + RESPONSE_HEADROOM) {
+                packed = ByteBuffer.allocate(requestLength + RESPONSE_HEADROOM);
+            }
+            return packed.clear();
+        }
+
+        void result(Iso8583Message message, ByteBuffer response) throws IOException {
+            json.writeStartObject();
+            json.writeNumberField("seq", sequence);
+            json.writeStringField("mti", message.getMti());
+            json.writeObjectFieldStart("fields");
+            for (int field : tokenizedFields) {
+                if (message.hasDataElement(field)) { // the policy removes track data it cannot tokenize
+                    json.writeStringField(tokenizedNames[field], message.getDataElement(field));
+                }
+            }
+            for (int field = 2; field < FIELD_NAMES.length; field++) {
+                if (tokenizedNames[field] == null && message.isFieldPresent(field)) {
+                    json.writeStringField(FIELD_NAMES[field], message.getDataElement(field));
+                }
+            }
+            json.writeEndObject();
+            json.writeStringField("response",
+                    new String(response.array(), 0, response.position(), StandardCharsets.US_ASCII));
+            json.writeEndObject();
+            next();
+        }
+
+        void error(String reason) throws IOException {
+            json.writeStartObject();
+            json.writeNumberField("seq", sequence);
+            json.writeStringField("error", reason);
+            json.writeEndObject();
+            errors++;
+            next();
+        }
+
+        private void next() throws IOException {
+            if (++sequence % BATCH_FLUSH_INTERVAL == 0) {
+                json.flush();
+            }
+        }
+
+        void close() throws IOException {
+            if (sequence > 0) {
+                json.writeRaw('\n');
+            }
+            json.close();
         }
     }
 
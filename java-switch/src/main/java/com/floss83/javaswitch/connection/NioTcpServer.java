@@ -0,0 +1,639 @@
+package com.floss83.javaswitch.connection;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.floss83.javaswitch.iso8583.Iso8583Encoding;
+import com.floss83.javaswitch.iso8583.Iso8583LengthHeader;
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+
+/**
+ * =========================
+ * ISO 8583 NIO TCP Server
+ * =========================
+ *
+ * <b>Purpose:</b>
+ * <ul>
+ * <li>Serves many terminal connections from one selector thread: no thread
+ * per connection, and a slow client never blocks the others.</li>
+ * <li>With a length header ({@code binary2} or {@code ascii4}) connections
+ * are persistent: each framed request is answered with a response framed the
+ * same way, for as long as the terminal keeps the socket open.</li>
+ * <li>With no header the connection carries one request, delimited by the
+ * client shutting down its output, and is answered newline-terminated and
+ * closed (the {@link TcpServer} contract).</li>
+ * </ul>
+ *
+ * <b>Pipelining:</b>
+ * <ul>
+ * <li>With {@code maxInFlight > 1}, a framed connection may send requests
+ * back to back without waiting. Each is handed to a virtual thread and its
+ * response is written as soon as it is ready, so one slow authorization does
+ * not hold up the requests behind it; responses can therefore overtake each
+ * other and are matched by STAN/RRN/terminal ID (see
+ * {@link Iso8583RequestHandler}).</li>
+ * <li>Once {@code maxInFlight} requests of a connection are in progress,
+ * reading from it pauses until one completes.</li>
+ * <li>With {@code maxInFlight == 1} requests are handled strictly in order:
+ * on the loop thread, or, when the handler may block on its authorizer
+ * ({@link Iso8583RequestHandler#isBlocking()}), on a virtual thread one at a
+ * time, so that the loop never waits on an issuer. The same goes for the
+ * single request of an unframed connection.</li>
+ * </ul>
+ *
+ * <b>Buffers:</b>
+ * <ul>
+ * <li>Reads land in one reusable direct buffer owned by the loop, and
+ * complete frames are parsed straight out of it (copied out only when
+ * handed to a virtual thread); in-order responses are written from a second direct
+ * buffer.</li>
+ * <li>A connection only gets heap buffers of its own while it holds a partial
+ * frame or unsent response bytes, so idle connections cost a
+ * {@link SelectionKey} and a small state object.</li>
+ * <li>If a client stops reading, its unsent responses are capped and reading
+ * from it is paused until they drain.</li>
+ * </ul>
+ *
+ * <b>Sharding:</b>
+ * <ul>
+ * <li>One instance is one event loop on one thread. {@link ShardedNioTcpServer}
+ * runs several, either each binding the port with {@code SO_REUSEPORT} or
+ * fed by a shared acceptor through {@link #adopt(SocketChannel)}. A
+ * connection stays on the loop that first registered it, so its state is
+ * never shared between threads.</li>
+ * </ul>
+ *
+ * <b>Usage:</b>
+ *
+ * <pre>
+ * NioTcpServer server = new NioTcpServer(5000, handler, Iso8583LengthHeader.BINARY2, 32);
+ * new Thread(server).start();
+ * </pre>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class NioTcpServer implements Runnable {
+
+    /** Pending connection queue length handed to bind(). */
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    /** Largest unframed (read-to-end-of-stream) request accepted. */
+    private static final int MAX_UNFRAMED_LENGTH = 64 * 1024;
+
+    /** Default size of the loop's read buffer. */
+    public static final int DEFAULT_READ_BUFFER = 64 * 1024;
+
+    /** Default unsent response bytes at which reading from a connection is paused. */
+    public static final int DEFAULT_MAX_OUTBOUND = 256 * 1024;
+
+    /** Port value for a loop that does not listen and only serves adopted connections. */
+    static final int NO_LISTENER = -1;
+
+    /** Largest frame the length headers can describe (binary2). */
+    private static final int MAX_FRAME_LENGTH = 0xFFFF;
+
+    /** Response bytes allowed beyond the request length (MTI change, fields 38/39, secondary bitmap). */
+    private static final int RESPONSE_HEADROOM = 256;
+
+    private final int port;
+    private final Iso8583RequestHandler handler;
+    private final Iso8583LengthHeader lengthHeader;
+    private final int maxInFlight;
+    private final boolean reusePort;
+    private final int maxOutbound;
+
+    private final ByteBuffer readBuffer;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(8 + MAX_FRAME_LENGTH + RESPONSE_HEADROOM);
+    private final Iso8583Message message = new Iso8583Message();
+
+    /** Runs pipelined or blocking requests; null when every request is answered on the loop. */
+    private final ExecutorService workers;
+
+    /** Framed responses of pipelined requests, waiting for the loop thread to send them. */
+    private final Queue<Completion> completions = new ConcurrentLinkedQueue<>();
+
+    /** Connections accepted elsewhere, waiting to be registered with this loop. */
+    private final Queue<SocketChannel> adopted = new ConcurrentLinkedQueue<>();
+
+    private volatile Selector selector;
+    private volatile boolean running = true;
+    private int connections;
+
+    /**
+     * Per-connection state, attached to its {@link SelectionKey}. Only the
+     * loop thread touches it, except {@link #inFlightKeys}.
+     */
+    private static final class Connection {
+        /** Bytes of an incomplete request (write mode); null while there are none. */
+        ByteBuffer pending;
+        /** Response bytes the socket has not accepted yet (write mode); null while there are none. */
+        ByteBuffer outbound;
+        /** True once the last response is queued; the socket closes when it drains. */
+        boolean closeAfterFlush;
+        /** Pipelined requests dispatched and not yet answered. */
+        int inFlight;
+        /** Correlation keys of the pipelined requests in progress. */
+        Set<String> inFlightKeys;
+    }
+
+    /** A finished pipelined request: its framed response and where it goes. */
+    private static final class Completion {
+        final SelectionKey key;
+        final ByteBuffer response;
+
+        Completion(SelectionKey key, ByteBuffer response) {
+            this.key = key;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Creates a server that answers each connection's requests in order.
+     *
+     * @param port         TCP port to listen on (e.g., 5000)
+     * @param handler      parse/tokenize/respond pipeline
+     * @param lengthHeader length header framing requests and responses
+     */
+    public NioTcpServer(int port, Iso8583RequestHandler handler, Iso8583LengthHeader lengthHeader) {
+        this(port, handler, lengthHeader, 1);
+    }
+
+    /**
+     * @param port         TCP port to listen on (e.g., 5000)
+     * @param handler      parse/tokenize/respond pipeline
+     * @param lengthHeader length header framing requests and responses
+     * @param maxInFlight  pipelined requests processed concurrently per connection (1 = in order, on the loop)
+     * @throws IllegalArgumentException if maxInFlight is not positive
+     */
+    public NioTcpServer(int port, Iso8583RequestHandler handler, Iso8583LengthHeader lengthHeader,
+            int maxInFlight) {
+        this(port, handler, lengthHeader, maxInFlight, DEFAULT_READ_BUFFER, DEFAULT_MAX_OUTBOUND, false);
+    }
+
+    /**
+     * @param port         TCP port to listen on, or {@code NO_LISTENER} to serve adopted connections only
+     * @param handler      parse/tokenize/respond pipeline
+     * @param lengthHeader length header framing requests and responses
+     * @param maxInFlight  pipelined requests processed concurrently per connection (1 = in order, on the loop)
+     * @param readBuffer   size of the loop's direct read buffer in bytes
+     * @param maxOutbound  unsent response bytes per connection at which reading from it pauses
+     * @param reusePort    bind with {@code SO_REUSEPORT} so that other loops can share the port
+     * @throws IllegalArgumentException if a count or size is out of range
+     */
+    public NioTcpServer(int port, Iso8583RequestHandler handler, Iso8583LengthHeader lengthHeader,
+            int maxInFlight, int readBuffer, int maxOutbound, boolean reusePort) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        if (readBuffer < 1024) {
+            throw new IllegalArgumentException("Read buffer must be at least 1024 bytes: " + readBuffer);
+        }
+        if (maxOutbound < 1) {
+            throw new IllegalArgumentException("maxOutbound must be positive: " + maxOutbound);
+        }
+        this.port = port;
+        this.handler = handler;
+        this.lengthHeader = lengthHeader;
+        this.maxInFlight = lengthHeader == Iso8583LengthHeader.NONE ? 1 : maxInFlight;
+        this.readBuffer = ByteBuffer.allocateDirect(readBuffer);
+        this.maxOutbound = maxOutbound;
+        this.reusePort = reusePort;
+        this.workers = this.maxInFlight > 1 || handler.isBlocking() ? Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("iso8583-req-", 0).factory()) : null;
+    }
+
+    /**
+     * Event loop: accepts, reads and writes until {@link #close()}.
+     */
+    @Override
+    public void run() {
+        System.out.println("[TCP] NIO " + (port == NO_LISTENER ? "event loop" : "server") + " starting on "
+                + (port == NO_LISTENER ? "adopted connections" : "port " + port) + " (" + lengthHeader.getName()
+                + " framing, " + maxInFlight + " in flight per connection" + (reusePort ? ", SO_REUSEPORT" : "")
+                + ") ...");
+        try (Selector sel = Selector.open();
+                ServerSocketChannel server = port == NO_LISTENER ? null : ServerSocketChannel.open()) {
+            selector = sel;
+            if (server != null) {
+                server.configureBlocking(false);
+                server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                if (reusePort) {
+                    server.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                server.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+                server.register(sel, SelectionKey.OP_ACCEPT);
+            }
+
+            while (running) {
+                registerAdopted(sel);
+                drainCompletions();
+                sel.select();
+                Iterator<SelectionKey> keys = sel.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(server, sel);
+                            continue;
+                        }
+                        if (key.isWritable()) {
+                            flush(key);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("[TCP] Client handling error: " + e.getMessage());
+                        close(key);
+                    }
+                }
+            }
+            for (SelectionKey key : sel.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    close(key);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[TCP] Server exception: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+            SocketChannel orphan;
+            while ((orphan = adopted.poll()) != null) {
+                closeQuietly(orphan);
+            }
+        }
+    }
+
+    /**
+     * Hands this loop a connection accepted elsewhere (by the acceptor of a
+     * {@link ShardedNioTcpServer}); it is registered on the loop thread and
+     * served there from then on. Thread-safe.
+     *
+     * @param channel connected socket channel, in any blocking mode
+     */
+    public void adopt(SocketChannel channel) {
+        adopted.add(channel);
+        Selector sel = selector;
+        if (sel != null) {
+            sel.wakeup();
+        }
+    }
+
+    /**
+     * Stops the event loop and closes every connection.
+     */
+    public void close() {
+        running = false;
+        Selector sel = selector;
+        if (sel != null) {
+            sel.wakeup();
+        }
+    }
+
+    /**
+     * @return connections currently open (read from the loop thread for an exact value)
+     */
+    public int getConnectionCount() {
+        return connections;
+    }
+
+    private void accept(ServerSocketChannel server, Selector sel) throws IOException {
+        SocketChannel client;
+        while ((client = server.accept()) != null) {
+            register(client, sel);
+        }
+    }
+
+    private void registerAdopted(Selector sel) {
+        SocketChannel client;
+        while ((client = adopted.poll()) != null) {
+            try {
+                register(client, sel);
+            } catch (IOException e) {
+                System.err.println("[TCP] Client handling error: " + e.getMessage());
+                closeQuietly(client);
+            }
+        }
+    }
+
+    private void register(SocketChannel client, Selector sel) throws IOException {
+        client.configureBlocking(false);
+        client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        client.register(sel, SelectionKey.OP_READ, new Connection());
+        connections++;
+        if (handler.isLogMessages()) {
+            System.out.println("[TCP] Connection from " + client.getRemoteAddress() + " (" + connections
+                    + " open)");
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        readBuffer.clear();
+        int n = channel.read(readBuffer);
+        if (n < 0) {
+            if (lengthHeader == Iso8583LengthHeader.NONE && connection.pending != null) {
+                respondUnframed(key, connection);
+            } else {
+                close(key);
+            }
+            return;
+        }
+        readBuffer.flip();
+
+        if (lengthHeader == Iso8583LengthHeader.NONE) {
+            connection.pending = append(connection.pending, readBuffer);
+            if (connection.pending.position() > MAX_UNFRAMED_LENGTH) {
+                System.err.println("[TCP] Framing Error: unframed request exceeds " + MAX_UNFRAMED_LENGTH
+                        + " bytes");
+                close(key);
+            }
+            return;
+        }
+        if (connection.pending == null) {
+            processFrames(key, connection, readBuffer);
+            if (key.isValid() && readBuffer.hasRemaining()) {
+                connection.pending = append(null, readBuffer);
+            }
+        } else {
+            connection.pending = append(connection.pending, readBuffer);
+            processPending(key, connection);
+        }
+    }
+
+    /**
+     * Answers (or dispatches) the complete frames buffered for a connection.
+     */
+    private void processPending(SelectionKey key, Connection connection) throws IOException {
+        ByteBuffer pending = connection.pending.flip();
+        processFrames(key, connection, pending);
+        connection.pending = pending.hasRemaining() ? pending.compact() : null;
+    }
+
+    /**
+     * Answers or dispatches every complete frame in {@code in}, leaving it
+     * positioned at the first byte not yet consumed: an incomplete frame, or
+     * a frame held back because the connection has too many in flight.
+     */
+    private void processFrames(SelectionKey key, Connection connection, ByteBuffer in) throws IOException {
+        int headerLength = lengthHeader.getLength();
+        while (in.remaining() >= headerLength && key.isValid() && connection.inFlight < maxInFlight) {
+            int frameStart = in.position();
+            int length = lengthHeader.read(in, frameStart);
+            if (length < 0) {
+                System.err.println("[TCP] Framing Error: bad " + lengthHeader.getName() + " length header");
+                close(key);
+                return;
+            }
+            if (in.remaining() < headerLength + length) {
+                return;
+            }
+            int limit = in.limit();
+            int frameEnd = frameStart + headerLength + length;
+            in.limit(frameEnd).position(frameStart + headerLength);
+            if (workers != null) {
+                dispatch(key, connection, in);
+            } else {
+                respond(key, connection, in);
+            }
+            in.limit(limit).position(frameEnd);
+        }
+        if (key.isValid()) {
+            updateInterest(key, connection);
+        }
+    }
+
+    /**
+     * Handles one request on the loop thread and sends its framed response.
+     */
+    private void respond(SelectionKey key, Connection connection, ByteBuffer request) throws IOException {
+        int headerLength = lengthHeader.getLength();
+        writeBuffer.clear().position(headerLength);
+        int length = handler.handle(message, request, writeBuffer);
+        frame(writeBuffer, length);
+        send(key, connection, writeBuffer);
+    }
+
+    /**
+     * Copies one request off the read buffer and handles it on a
+     * worker; its response comes back through {@link #completions}.
+     */
+    private void dispatch(SelectionKey key, Connection connection, ByteBuffer request) {
+        byte[] copy = new byte[request.remaining()];
+        request.get(copy);
+        if (connection.inFlightKeys == null) {
+            connection.inFlightKeys = ConcurrentHashMap.newKeySet();
+        }
+        Set<String> inFlightKeys = connection.inFlightKeys;
+        connection.inFlight++;
+        workers.execute(() -> {
+            int headerLength = lengthHeader.getLength();
+            ByteBuffer response = ByteBuffer.allocate(headerLength + copy.length + RESPONSE_HEADROOM);
+            response.position(headerLength);
+            int length = -1;
+            try {
+                length = handler.handle(new Iso8583Message(), ByteBuffer.wrap(copy), response, inFlightKeys);
+            } catch (RuntimeException e) {
+                System.err.println("[TCP] Client handling error: " + e.getMessage());
+            } finally {
+                // Always answered: the loop counts this request in flight until its completion arrives
+                if (length < 0) {
+                    length = Iso8583RequestHandler.writeError("Internal error", response, headerLength);
+                }
+                frame(response, length);
+                completions.add(new Completion(key, response));
+                selector.wakeup();
+            }
+        });
+    }
+
+    /**
+     * Loop thread: sends the responses of finished pipelined requests and
+     * resumes connections that were held at their in-flight limit.
+     */
+    private void drainCompletions() {
+        Completion completion;
+        while ((completion = completions.poll()) != null) {
+            SelectionKey key = completion.key;
+            if (!key.isValid()) {
+                continue; // connection closed while the request was in progress
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+                connection.inFlight--;
+                send(key, connection, completion.response);
+                if (connection.closeAfterFlush && connection.outbound == null) {
+                    close(key); // unframed request answered
+                    continue;
+                }
+                if (key.isValid() && connection.pending != null) {
+                    processPending(key, connection);
+                }
+                if (key.isValid()) {
+                    updateInterest(key, connection);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[TCP] Client handling error: " + e.getMessage());
+                close(key);
+            }
+        }
+    }
+
+    /**
+     * Writes the length header in front of a response (or the newline after
+     * it, unframed) and flips the buffer for sending.
+     */
+    private void frame(ByteBuffer response, int length) {
+        if (lengthHeader == Iso8583LengthHeader.NONE) {
+            response.put((byte) '\n');
+        } else {
+            int end = response.position();
+            response.position(0);
+            lengthHeader.write(length, response);
+            response.position(end);
+        }
+        response.flip();
+    }
+
+    /**
+     * End of stream on an unframed connection: the accumulated bytes are the
+     * request. Answers it, then closes once the response is sent.
+     */
+    private void respondUnframed(SelectionKey key, Connection connection) throws IOException {
+        ByteBuffer request = connection.pending.flip();
+        connection.pending = null;
+        if (handler.getParser().getEncoding() == Iso8583Encoding.ASCII) {
+            int start = request.position();
+            int end = request.limit();
+            while (start < end && request.get(start) <= ' ') {
+                start++;
+            }
+            while (end > start && request.get(end - 1) <= ' ') {
+                end--;
+            }
+            request.limit(end).position(start);
+        }
+        connection.closeAfterFlush = true;
+        if (workers != null) {
+            dispatch(key, connection, request);
+            updateInterest(key, connection);
+            return;
+        }
+        respond(key, connection, request);
+        if (key.isValid()) {
+            if (connection.outbound == null) {
+                close(key);
+            } else {
+                updateInterest(key, connection);
+            }
+        }
+    }
+
+    /**
+     * Writes as much of {@code data} as the socket takes and queues the rest.
+     */
+    private void send(SelectionKey key, Connection connection, ByteBuffer data) throws IOException {
+        if (connection.outbound == null) {
+            ((SocketChannel) key.channel()).write(data);
+            if (!data.hasRemaining()) {
+                return;
+            }
+        }
+        connection.outbound = append(connection.outbound, data);
+        updateInterest(key, connection);
+    }
+
+    /**
+     * Write readiness: drains queued response bytes.
+     */
+    private void flush(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        if (connection.outbound != null) {
+            connection.outbound.flip();
+            ((SocketChannel) key.channel()).write(connection.outbound);
+            if (connection.outbound.hasRemaining()) {
+                connection.outbound.compact();
+            } else {
+                connection.outbound = null;
+                if (connection.closeAfterFlush) {
+                    close(key);
+                    return;
+                }
+            }
+        }
+        updateInterest(key, connection);
+    }
+
+    /**
+     * Write interest while response bytes are queued; read interest unless
+     * the connection is finishing, has too much unsent, or is at its
+     * in-flight limit.
+     */
+    private void updateInterest(SelectionKey key, Connection connection) {
+        int ops = connection.outbound != null ? SelectionKey.OP_WRITE : 0;
+        if (!connection.closeAfterFlush && connection.inFlight < maxInFlight
+                && (connection.outbound == null || connection.outbound.position() < maxOutbound)) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            System.err.println("[TCP] Close error: " + e.getMessage());
+        }
+        if (key.attachment() instanceof Connection) {
+            key.attach(null);
+            connections--;
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("[TCP] Close error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends the remaining bytes of {@code src} to a write-mode heap buffer,
+     * allocating or growing it as needed.
+     */
+    private static ByteBuffer append(ByteBuffer dst, ByteBuffer src) {
+        if (dst == null) {
+            dst = ByteBuffer.allocate(Math.max(src.remaining(), 1024));
+        } else if (dst.remaining() < src.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(dst.capacity() * 2, dst.position() + src.remaining()));
+            dst.flip();
+            grown.put(dst);
+            dst = grown;
+        }
+        return dst.put(src);
+    }
+}
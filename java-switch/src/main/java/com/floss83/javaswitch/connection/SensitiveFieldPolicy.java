@@ -0,0 +1,186 @@
+package com.floss83.javaswitch.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+import com.floss83.javaswitch.iso8583.Iso8583Sensitivity;
+import com.floss83.javaswitch.iso8583.Iso8583Spec;
+import com.floss83.javaswitch.tokenization.TokenizationService;
+import com.floss83.javaswitch.tokenization.TokenizationService.ValueType;
+
+/**
+ * Replaces every cardholder-data field of a parsed message with tokens,
+ * driven by the field metadata ({@link Iso8583Spec#getSensitivity(int)}):
+ * the PAN (2), track data (35, 36, 45) and the PIN block/CVV (52) out of the
+ * box. Shared by the TCP pipeline ({@link Iso8583RequestHandler}) and the
+ * HTTP endpoints ({@link IsoMessageController}).
+ * <p>
+ * One pass over the spec's sensitive fields collects the values present,
+ * taking the PAN out of track 2; all of them go to
+ * {@link TokenizationService#tokenizeBatch(List, List)} as one batch (one
+ * HSM round trip, one audit line), and the tokens are put back. What is put
+ * back still fits the field's type and length, so that the message can be
+ * packed and forwarded:
+ * </p>
+ * <ul>
+ * <li>PAN: its PAN token. With an in-process HSM and format-preserving
+ * tokens the PAN is instead tokenized inside the message buffer, which costs
+ * no round trip; that rewrite waits until the batch has succeeded.</li>
+ * <li>Track 2: with format-preserving (all-digit) PAN tokens,
+ * {@code <PAN token><separator><expiry><service code>}, read as a PAN is read
+ * from track 2; the discretionary data (PVV, CVV) is dropped. Base64 tokens
+ * do not fit the field ({@code z..37}), which is then removed.</li>
+ * <li>Other track data: removed. No token fits their type and length, and
+ * the PAN and expiry are carried by fields 2, 14 and 35.</li>
+ * <li>PIN block/CVV: a token of the whole value, for the switch's own use;
+ * it is not forwarded to the issuer.</li>
+ * </ul>
+ * <p>
+ * Stateless once built; one instance serves any number of threads.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public final class SensitiveFieldPolicy {
+
+    /** Track 2 characters kept after the separator: expiry (YYMM) and service code. */
+    private static final int TRACK_2_KEPT = 7;
+
+    private final Iso8583Spec spec;
+    private final TokenizationService tokenizationService;
+    private final int[] fields;
+    private final Iso8583Sensitivity[] sensitivities;
+
+    /**
+     * @param spec                field specification of the messages to protect
+     * @param tokenizationService tokenization service to send values to
+     */
+    public SensitiveFieldPolicy(Iso8583Spec spec, TokenizationService tokenizationService) {
+        this.spec = spec;
+        this.tokenizationService = tokenizationService;
+        this.fields = spec.getSensitiveFields();
+        this.sensitivities = new Iso8583Sensitivity[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            sensitivities[i] = spec.getSensitivity(fields[i]);
+        }
+    }
+
+    /**
+     * Tokenizes (or removes) every sensitive field present in the message.
+     *
+     * @param message parsed message; its sensitive fields are replaced
+     * @return number of fields replaced or removed
+     * @throws IllegalArgumentException if a value is invalid for its field (nothing is replaced then)
+     * @throws IllegalStateException    if the HSM cannot be reached in time (nothing is replaced then)
+     */
+    public int apply(Iso8583Message message) {
+        int replaced = 0;
+        boolean panInPlace = tokenizationService.canTokenizePanInPlace();
+        boolean formatPreserving = tokenizationService.getFormat().isFormatPreserving();
+        List<String> values = new ArrayList<>(fields.length);
+        List<ValueType> types = new ArrayList<>(fields.length);
+        int[] pending = new int[fields.length]; // index into fields of each value's field
+        String[] suffixes = new String[fields.length]; // kept after the track 2 PAN token, null for other fields
+        int[] removed = new int[fields.length];
+        int removedCount = 0;
+        int inPlace = -1; // PAN field to tokenize inside the buffer once the batch has succeeded
+        for (int i = 0; i < fields.length; i++) {
+            int field = fields[i];
+            if (!message.isFieldPresent(field)) {
+                continue;
+            }
+            String suffix = null;
+            switch (sensitivities[i]) {
+                case PAN -> {
+                    if (panInPlace && inPlace < 0) {
+                        inPlace = field;
+                        continue;
+                    }
+                    values.add(message.getDataElement(field));
+                    types.add(ValueType.PAN);
+                }
+                case TRACK_2 -> {
+                    String track = message.getDataElement(field);
+                    int at = formatPreserving ? track2Separator(track) : -1;
+                    if (at < 0) {
+                        removed[removedCount++] = field;
+                        continue;
+                    }
+                    values.add(track.substring(0, at));
+                    types.add(ValueType.PAN);
+                    suffix = track.substring(at, Math.min(track.length(), at + 1 + TRACK_2_KEPT));
+                }
+                case TRACK_DATA -> {
+                    removed[removedCount++] = field;
+                    continue;
+                }
+                case PIN_OR_CVV -> {
+                    values.add(message.getDataElement(field));
+                    types.add(ValueType.PIN_OR_CVV);
+                }
+                case NONE -> {
+                    continue;
+                }
+            }
+            pending[values.size() - 1] = i;
+            suffixes[values.size() - 1] = suffix;
+        }
+
+        // Tokenize first: if a value is rejected, the message is left as it was
+        List<String> tokens = values.isEmpty() ? List.of() : tokenizationService.tokenizeBatch(values, types);
+        Map<Integer, String> elements = message.getMutableDataElements();
+        if (inPlace >= 0) {
+            // Validates before writing, so a rejected PAN still leaves the message as it was
+            if (!message.rewriteInPlace(inPlace, tokenizationService::tokenizePanInPlace)) {
+                elements.put(inPlace, tokenizationService.tokenizePan(message.getDataElement(inPlace)));
+            }
+            replaced++;
+        }
+        for (int v = 0; v < tokens.size(); v++) {
+            String token = tokens.get(v);
+            elements.put(fields[pending[v]], suffixes[v] != null ? token + suffixes[v] : token);
+        }
+        for (int r = 0; r < removedCount; r++) {
+            elements.remove(removed[r]);
+        }
+        return replaced + tokens.size() + removedCount;
+    }
+
+    /**
+     * @param fieldNumber data element number
+     * @return true if this policy replaces the field with tokens
+     */
+    public boolean isSensitive(int fieldNumber) {
+        return spec.getSensitivity(fieldNumber) != Iso8583Sensitivity.NONE;
+    }
+
+    /**
+     * @param fieldNumber data element number
+     * @return name for the field's tokens in output, e.g. {@code 2_PAN_tokenized}; null if not sensitive
+     */
+    public String tokenizedName(int fieldNumber) {
+        Iso8583Sensitivity sensitivity = spec.getSensitivity(fieldNumber);
+        return sensitivity == Iso8583Sensitivity.NONE ? null
+                : fieldNumber + "_" + sensitivity.getLabel() + "_tokenized";
+    }
+
+    /**
+     * Index of the field separator ('=' or 'D') after a 13-19 digit PAN in
+     * track 2 data; -1 if there is no such PAN.
+     */
+    private static int track2Separator(String track) {
+        for (int i = 0; i < track.length() && i <= 19; i++) {
+            char c = track.charAt(i);
+            if (c == '=' || c == 'D') {
+                return i >= 13 ? i : -1;
+            }
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
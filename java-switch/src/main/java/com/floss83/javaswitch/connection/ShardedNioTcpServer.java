@@ -0,0 +1,186 @@
+package com.floss83.javaswitch.connection;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import com.floss83.javaswitch.iso8583.Iso8583LengthHeader;
+
+/**
+ * ========================================
+ * ISO 8583 Sharded NIO TCP Server
+ * ========================================
+ *
+ * <b>Purpose:</b>
+ * <ul>
+ * <li>Spreads the listener over several cores: N independent
+ * {@link NioTcpServer} event loops, each on its own platform thread, with
+ * its own selector, buffers and connections.</li>
+ * <li>Where the OS supports {@code SO_REUSEPORT} (Linux, BSD) every shard
+ * binds the port itself and the kernel balances new connections between
+ * them, so there is no shared accept path at all.</li>
+ * <li>Elsewhere, or with {@code reusePort} off, this thread accepts and
+ * hands connections to the shards round-robin via
+ * {@link NioTcpServer#adopt(SocketChannel)}.</li>
+ * <li>Either way a connection stays on one shard for its whole life, so
+ * per-connection state needs no locks.</li>
+ * </ul>
+ *
+ * <b>Usage:</b>
+ *
+ * <pre>
+ * ShardedNioTcpServer server = new ShardedNioTcpServer(5000, handler, Iso8583LengthHeader.BINARY2, 32,
+ *         0, NioTcpServer.DEFAULT_READ_BUFFER, NioTcpServer.DEFAULT_MAX_OUTBOUND, true);
+ * new Thread(server).start();
+ * </pre>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class ShardedNioTcpServer implements Runnable {
+
+    /** Pending connection queue length handed to bind() by the shared acceptor. */
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    private final int port;
+    private final NioTcpServer[] shards;
+    private final boolean reusePort;
+
+    private volatile ServerSocketChannel acceptor;
+    private volatile boolean running = true;
+
+    /**
+     * @param port         TCP port to listen on (e.g., 5000)
+     * @param handler      parse/tokenize/respond pipeline, shared by every shard
+     * @param lengthHeader length header framing requests and responses
+     * @param maxInFlight  pipelined requests processed concurrently per connection
+     * @param shardCount   event loops to run; 0 for one per available processor
+     * @param readBuffer   size of each loop's direct read buffer in bytes
+     * @param maxOutbound  unsent response bytes per connection at which reading from it pauses
+     * @param reusePort    let each shard bind the port with {@code SO_REUSEPORT} when the OS supports it;
+     *                     false always uses the shared acceptor
+     * @throws IllegalArgumentException if a count or size is out of range
+     */
+    public ShardedNioTcpServer(int port, Iso8583RequestHandler handler, Iso8583LengthHeader lengthHeader,
+            int maxInFlight, int shardCount, int readBuffer, int maxOutbound, boolean reusePort) {
+        if (shardCount < 0) {
+            throw new IllegalArgumentException("Shard count must not be negative: " + shardCount);
+        }
+        int count = shardCount == 0 ? Runtime.getRuntime().availableProcessors() : shardCount;
+        this.port = port;
+        this.reusePort = count > 1 && reusePort && isReusePortSupported();
+        this.shards = new NioTcpServer[count];
+        for (int i = 0; i < count; i++) {
+            // One shard needs neither: it binds the port alone
+            int shardPort = count == 1 || this.reusePort ? port : NioTcpServer.NO_LISTENER;
+            shards[i] = new NioTcpServer(shardPort, handler, lengthHeader, maxInFlight, readBuffer, maxOutbound,
+                    this.reusePort);
+        }
+    }
+
+    /**
+     * Starts the shards, then accepts for them (when not using
+     * {@code SO_REUSEPORT}) or waits for them until {@link #close()}.
+     */
+    @Override
+    public void run() {
+        System.out.println("[TCP] Sharded NIO server starting on port " + port + ": " + shards.length
+                + " event loop(s), " + (shards.length == 1 ? "single listener"
+                        : reusePort ? "SO_REUSEPORT" : "shared acceptor"));
+        Thread[] threads = new Thread[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            threads[i] = new Thread(shards[i], "iso8583-nio-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        if (shards.length > 1 && !reusePort) {
+            acceptLoop();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops accepting and closes every shard with its connections.
+     */
+    public void close() {
+        running = false;
+        ServerSocketChannel server = acceptor;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println("[TCP] Close error: " + e.getMessage());
+            }
+        }
+        for (NioTcpServer shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * @return event loops serving the port
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return true if the shards share the port through {@code SO_REUSEPORT}
+     */
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    /**
+     * @return connections currently open across all shards (approximate while they are busy)
+     */
+    public int getConnectionCount() {
+        int total = 0;
+        for (NioTcpServer shard : shards) {
+            total += shard.getConnectionCount();
+        }
+        return total;
+    }
+
+    /**
+     * Shared acceptor: blocking accepts, dealt round-robin to the shards.
+     */
+    private void acceptLoop() {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            acceptor = server;
+            if (!running) {
+                return; // closed while binding
+            }
+            int next = 0;
+            while (running) {
+                SocketChannel client = server.accept();
+                shards[next].adopt(client);
+                next = next + 1 == shards.length ? 0 : next + 1;
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("[TCP] Server exception: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static boolean isReusePortSupported() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
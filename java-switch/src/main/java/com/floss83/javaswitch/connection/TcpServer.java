@@ -1,13 +1,17 @@
 package com.floss83.javaswitch.connection;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+import com.floss83.javaswitch.iso8583.Iso8583Encoding;
+import com.floss83.javaswitch.iso8583.Iso8583LengthHeader;
 import com.floss83.javaswitch.iso8583.Iso8583Message;
-import com.floss83.javaswitch.iso8583.Iso8583ParseException;
+import com.floss83.javaswitch.iso8583.Iso8583MessagePool;
 import com.floss83.javaswitch.iso8583.Iso8583Parser;
 import com.floss83.javaswitch.tokenization.TokenizationService;
 
@@ -22,10 +26,18 @@ import com.floss83.javaswitch.tokenization.TokenizationService;
  * or test tools.</li>
  * <li>Each incoming connection is treated as a single request/response session
  * (blocking I/O).</li>
+ * <li>Successful requests are answered with a packed ISO 8583 response
+ * (0200 → 0210, 0100 → 0110, 0800 → 0810) carrying field 39 = "00".</li>
+ * <li>The wire encoding (ASCII, binary bitmap or packed BCD) follows the
+ * parser; with a length header the request is read by its header and the
+ * response is framed the same way, otherwise the request runs to end of
+ * stream and the response ends with a newline.</li>
  * <li>All PCI-sensitive data (e.g., PAN, CVV) is tokenized before any further
  * processing, logging, or outbound flow.</li>
  * <li>This class is designed for DEV/QA/AUDIT environments, not for
- * production/high-load use.</li>
+ * production/high-load use; {@link NioTcpServer} is the default listener and
+ * serves many persistent connections. Both share
+ * {@link Iso8583RequestHandler}.</li>
  * </ul>
  *
  * <b>Usage:</b>
@@ -51,17 +63,63 @@ import com.floss83.javaswitch.tokenization.TokenizationService;
 public class TcpServer implements Runnable {
 
     private final int port;
-    private final TokenizationService tokenizationService;
+    private final Iso8583LengthHeader lengthHeader;
+    private final Iso8583RequestHandler handler;
+
+    /** Reused response buffer; the accept loop is single-threaded. */
+    private final ByteBuffer responseBuffer = ByteBuffer.allocate(8192);
+
+    /** Reused request buffer; grows to the largest message seen. */
+    private byte[] requestBuffer = new byte[8192];
+
+    /** Recycled request messages, owned by the accept-loop thread. */
+    private final Iso8583MessagePool messagePool = new Iso8583MessagePool(1);
 
     /**
-     * Create a new ISO8583 TCP server.
+     * Create a new ISO8583 TCP server using the base ISO 8583:1987 field spec.
      *
      * @param port                The TCP port to listen on (e.g., 5000).
      * @param tokenizationService The PCI-compliant tokenization service to use.
      */
     public TcpServer(int port, TokenizationService tokenizationService) {
+        this(port, new Iso8583Parser(), tokenizationService);
+    }
+
+    /**
+     * Create a new ISO8583 TCP server.
+     *
+     * @param port                The TCP port to listen on (e.g., 5000).
+     * @param parser              Shared parser compiled for the active dialect.
+     * @param tokenizationService The PCI-compliant tokenization service to use.
+     */
+    public TcpServer(int port, Iso8583Parser parser, TokenizationService tokenizationService) {
+        this(port, parser, Iso8583LengthHeader.NONE, tokenizationService);
+    }
+
+    /**
+     * Create a new ISO8583 TCP server with message framing.
+     *
+     * @param port                The TCP port to listen on (e.g., 5000).
+     * @param parser              Shared parser compiled for the active dialect and wire encoding.
+     * @param lengthHeader        Length header framing requests and responses.
+     * @param tokenizationService The PCI-compliant tokenization service to use.
+     */
+    public TcpServer(int port, Iso8583Parser parser, Iso8583LengthHeader lengthHeader,
+            TokenizationService tokenizationService) {
+        this(port, new Iso8583RequestHandler(parser, tokenizationService, true), lengthHeader);
+    }
+
+    /**
+     * Create a new ISO8583 TCP server around a shared request handler.
+     *
+     * @param port         The TCP port to listen on (e.g., 5000).
+     * @param handler      Parse/tokenize/respond pipeline.
+     * @param lengthHeader Length header framing requests and responses.
+     */
+    public TcpServer(int port, Iso8583RequestHandler handler, Iso8583LengthHeader lengthHeader) {
         this.port = port;
-        this.tokenizationService = tokenizationService;
+        this.handler = handler;
+        this.lengthHeader = lengthHeader;
     }
 
     /**
@@ -72,7 +130,6 @@ public class TcpServer implements Runnable {
     @Override
     public void run() {
         System.out.println("[TCP] Server starting on port " + port + " ...");
-        Iso8583Parser parser = new Iso8583Parser();
 
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             while (true) {
@@ -80,56 +137,45 @@ public class TcpServer implements Runnable {
                     System.out.println("[TCP] Connection from " + clientSocket.getRemoteSocketAddress());
 
                     try (
-                            BufferedReader in = new BufferedReader(
-                                    new InputStreamReader(clientSocket.getInputStream()));
-                            PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
-                        // 1. Read full message until client closes connection
-                        StringBuilder sb = new StringBuilder();
-                        int ch;
-                        while ((ch = in.read()) != -1) {
-                            sb.append((char) ch);
+                            InputStream in = clientSocket.getInputStream();
+                            OutputStream rawOut = clientSocket.getOutputStream()) {
+                        // 1. Read one framed message, or the full stream until client closes connection
+                        int start = 0;
+                        int length;
+                        if (lengthHeader != Iso8583LengthHeader.NONE) {
+                            length = readFramed(in);
+                            if (length < 0) {
+                                System.err.println("[TCP] Framing Error: bad or truncated " + lengthHeader.getName()
+                                        + " length header");
+                                continue;
+                            }
+                        } else {
+                            length = readFully(in);
+                            if (handler.getParser().getEncoding() == Iso8583Encoding.ASCII) {
+                                while (start < length && requestBuffer[start] <= ' ') {
+                                    start++;
+                                }
+                                while (length > start && requestBuffer[length - 1] <= ' ') {
+                                    length--;
+                                }
+                            }
                         }
-                        String message = sb.toString().trim();
-
-                        System.out.println("[TCP] Message length: " + message.length());
-                        System.out.println("[TCP] Received: " + message);
 
+                        // 2. Parse, tokenize and answer the client
+                        Iso8583Message parsed = messagePool.acquire();
                         try {
-                            // 2. Parse ISO8583 message structure
-                            Iso8583Message parsed = parser.parse(message);
-
-                            // 3a. Tokenize PAN (Field 2) for PCI compliance
-                            String pan = parsed.getDataElement(2);
-                            if (pan != null) {
-                                String panToken = tokenizationService.tokenizePan(pan);
-                                parsed.getMutableDataElements().put(2, panToken);
-                                System.out.println("[AUDIT] TOKENIZE_PAN       | IN: "
-                                        + tokenizationService.mask(pan)
-                                        + " -> OUT: " + tokenizationService.mask(panToken));
-                            }
-
-                            // 3b. Tokenize PIN/CVV (Field 52) for PCI compliance
-                            String cvv = parsed.getDataElement(52);
-                            if (cvv != null) {
-                                String cvvToken = tokenizationService.tokenizeCvv(cvv);
-                                parsed.getMutableDataElements().put(52, cvvToken);
-                                System.out.println("[AUDIT] TOKENIZE_CVV       | IN: "
-                                        + tokenizationService.mask(cvv)
-                                        + " -> OUT: " + tokenizationService.mask(cvvToken));
+                            responseBuffer.clear().position(lengthHeader.getLength());
+                            int responseLength = handler.handle(parsed,
+                                    ByteBuffer.wrap(requestBuffer, start, length - start), responseBuffer);
+                            if (lengthHeader == Iso8583LengthHeader.NONE) {
+                                responseBuffer.put((byte) '\n');
+                            } else {
+                                lengthHeader.write(responseLength, responseBuffer.duplicate().position(0));
                             }
-
-                            // 4. Print all fields (post-tokenization)
-                            System.out.println("[TCP] Parsed MTI: " + parsed.getMti());
-                            parsed.getMutableDataElements().forEach((field, value) -> {
-                                System.out.println("[TCP] Field " + field + ": " + value);
-                            });
-
-                            // 5. Acknowledge client
-                            out.println("ACK: Message parsed and tokenized successfully");
-                        } catch (Iso8583ParseException ex) {
-                            System.err.println("[TCP] Parse Error: " + ex.getMessage());
-                            ex.printStackTrace();
-                            out.println("ERR: " + ex.getMessage());
+                            rawOut.write(responseBuffer.array(), 0, responseBuffer.position());
+                            rawOut.flush();
+                        } finally {
+                            messagePool.release(parsed);
                         }
                     } catch (Exception e) {
                         System.err.println("[TCP] Client handling error: " + e.getMessage());
@@ -143,4 +189,42 @@ public class TcpServer implements Runnable {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Reads one length header and the message it announces into
+     * {@link #requestBuffer}.
+     *
+     * @return message length, or -1 if the header is malformed or the stream ends early
+     */
+    private int readFramed(InputStream in) throws IOException {
+        int headerLength = lengthHeader.getLength();
+        if (in.readNBytes(requestBuffer, 0, headerLength) != headerLength) {
+            return -1;
+        }
+        int length = lengthHeader.read(requestBuffer, 0);
+        if (length < 0) {
+            return -1;
+        }
+        if (length > requestBuffer.length) {
+            requestBuffer = new byte[length];
+        }
+        return in.readNBytes(requestBuffer, 0, length) == length ? length : -1;
+    }
+
+    /**
+     * Reads until end of stream into {@link #requestBuffer}, growing it as needed.
+     *
+     * @return number of bytes read
+     */
+    private int readFully(InputStream in) throws IOException {
+        int length = 0;
+        int n;
+        while ((n = in.read(requestBuffer, length, requestBuffer.length - length)) != -1) {
+            length += n;
+            if (length == requestBuffer.length) {
+                requestBuffer = Arrays.copyOf(requestBuffer, length * 2);
+            }
+        }
+        return length;
+    }
 }
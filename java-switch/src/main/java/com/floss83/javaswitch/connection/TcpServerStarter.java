@@ -1,28 +1,121 @@
 package com.floss83.javaswitch.connection;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.floss83.javaswitch.audit.AuditLog;
+import com.floss83.javaswitch.iso8583.Iso8583Encoding;
+import com.floss83.javaswitch.iso8583.Iso8583LengthHeader;
+import com.floss83.javaswitch.iso8583.Iso8583Parser;
+import com.floss83.javaswitch.issuer.Authorizer;
 import com.floss83.javaswitch.tokenization.TokenizationService;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 @Component
 public class TcpServerStarter {
 
+    private final Iso8583Parser parser;
     private final TokenizationService tokenizationService;
+    private final MeterRegistry meterRegistry;
+    private final Authorizer authorizer;
+    private final AuditLog auditLog;
+    private final int port;
+    private final String mode;
+    private final Iso8583Encoding encoding;
+    private final Iso8583LengthHeader lengthHeader;
+    private final boolean logMessages;
+    private final int maxInFlight;
+    private final int shards;
+    private final int readBuffer;
+    private final int maxOutbound;
+    private final boolean reusePort;
+    private final AdmissionController admission;
+    private final String rejectCode;
+
+    private ShardedNioTcpServer nioServer;
+    private VirtualThreadTcpServer virtualThreadServer;
 
     @Autowired
-    public TcpServerStarter(TokenizationService tokenizationService) {
+    public TcpServerStarter(Iso8583Parser parser, TokenizationService tokenizationService,
+            MeterRegistry meterRegistry, Authorizer authorizer, AuditLog auditLog,
+            @Value("${iso8583.tcp.port:5000}") int port,
+            @Value("${iso8583.tcp.mode:nio}") String mode,
+            @Value("${iso8583.tcp.encoding:ascii}") String encoding,
+            @Value("${iso8583.tcp.length-header:none}") String lengthHeader,
+            @Value("${iso8583.tcp.log-messages:true}") boolean logMessages,
+            @Value("${iso8583.tcp.max-in-flight:32}") int maxInFlight,
+            @Value("${iso8583.tcp.shards:0}") int shards,
+            @Value("${iso8583.tcp.read-buffer:65536}") int readBuffer,
+            @Value("${iso8583.tcp.max-outbound:262144}") int maxOutbound,
+            @Value("${iso8583.tcp.reuse-port:true}") boolean reusePort,
+            @Value("${iso8583.admission.enabled:true}") boolean admissionEnabled,
+            @Value("${iso8583.admission.max-concurrency:512}") int maxConcurrency,
+            @Value("${iso8583.admission.max-per-terminal:8}") int maxPerTerminal,
+            @Value("${iso8583.admission.adaptive:true}") boolean adaptive,
+            @Value("${iso8583.admission.min-limit:16}") int minLimit,
+            @Value("${iso8583.admission.reject-code:91}") String rejectCode) {
+        this.parser = parser;
         this.tokenizationService = tokenizationService;
+        this.meterRegistry = meterRegistry;
+        this.authorizer = authorizer;
+        this.auditLog = auditLog;
+        this.port = port;
+        this.mode = mode.trim().toLowerCase();
+        this.encoding = Iso8583Encoding.forName(encoding);
+        this.lengthHeader = Iso8583LengthHeader.forName(lengthHeader);
+        this.logMessages = logMessages;
+        this.maxInFlight = maxInFlight;
+        this.shards = shards;
+        this.readBuffer = readBuffer;
+        this.maxOutbound = maxOutbound;
+        this.reusePort = reusePort;
+        this.admission = admissionEnabled
+                ? new AdmissionController("tcp", maxConcurrency, maxPerTerminal, adaptive, minLimit)
+                : null;
+        this.rejectCode = rejectCode.trim();
+        if (!this.mode.equals("nio") && !this.mode.equals("virtual") && !this.mode.equals("blocking")) {
+            throw new IllegalArgumentException("Unknown iso8583.tcp.mode: " + mode);
+        }
     }
 
     @PostConstruct
     public void startTcpServer() {
-        int port = 5000; // Or inject via config
-        Thread tcpThread = new Thread(new TcpServer(port, tokenizationService));
+        Iso8583Parser listenerParser = encoding == parser.getEncoding() ? parser
+                : new Iso8583Parser(parser.getSpec(), encoding);
+        Iso8583RequestHandler handler = new Iso8583RequestHandler(listenerParser, tokenizationService, logMessages,
+                admission, rejectCode, authorizer, auditLog);
+        if (admission != null) {
+            admission.bindTo(meterRegistry);
+        }
+        Runnable server;
+        if (mode.equals("nio")) {
+            nioServer = new ShardedNioTcpServer(port, handler, lengthHeader, maxInFlight, shards, readBuffer,
+                    maxOutbound, reusePort);
+            server = nioServer;
+        } else if (mode.equals("virtual")) {
+            virtualThreadServer = new VirtualThreadTcpServer(port, handler, lengthHeader, maxInFlight);
+            server = virtualThreadServer;
+        } else {
+            server = new TcpServer(port, handler, lengthHeader);
+        }
+        Thread tcpThread = new Thread(server, "iso8583-tcp-" + mode);
         tcpThread.setDaemon(true); // Doesn't block Spring Boot shutdown
         tcpThread.start();
-        System.out.println("[BOOT] TCP Server thread started on port " + port);
+        System.out.println("[BOOT] TCP Server thread started on port " + port + " (" + mode + ", " + encoding
+                + ", " + lengthHeader.getName() + " header)");
+    }
+
+    @PreDestroy
+    public void stopTcpServer() {
+        if (nioServer != null) {
+            nioServer.close();
+        }
+        if (virtualThreadServer != null) {
+            virtualThreadServer.close();
+        }
     }
 }
@@ -0,0 +1,300 @@
+package com.floss83.javaswitch.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.floss83.javaswitch.iso8583.Iso8583Encoding;
+import com.floss83.javaswitch.iso8583.Iso8583LengthHeader;
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+
+/**
+ * ========================================
+ * ISO 8583 Virtual-Thread TCP Server
+ * ========================================
+ *
+ * <b>Purpose:</b>
+ * <ul>
+ * <li>Runs every accepted connection on its own virtual thread (Java 21), so
+ * the straightforward blocking read → parse/tokenize → write code serves many
+ * terminals at once; a thread blocked on a slow client or a slow downstream
+ * call only parks its own connection.</li>
+ * <li>With a length header connections are persistent: the thread loops
+ * over framed requests until the terminal closes the socket. With no header
+ * one request is read to end of stream and answered newline-terminated (the
+ * {@link TcpServer} contract).</li>
+ * <li>With {@code maxInFlight > 1} the connection thread only reads: each
+ * framed request gets a virtual thread of its own and its response is
+ * written as soon as it is ready, so pipelined requests may be answered out
+ * of order (matched by STAN/RRN/terminal ID, see
+ * {@link Iso8583RequestHandler}). Reading pauses while {@code maxInFlight}
+ * requests of the connection are in progress.</li>
+ * <li>A simpler alternative to {@link NioTcpServer}; both share
+ * {@link Iso8583RequestHandler}, which is stateless and safe to call from any
+ * number of threads.</li>
+ * </ul>
+ *
+ * <b>Concurrency notes:</b>
+ * <ul>
+ * <li>Each connection owns its buffers and one {@link Iso8583Message}; no
+ * thread-locals, which virtual threads would multiply per connection.</li>
+ * <li>Nothing on the request path holds a monitor across I/O or crypto, so
+ * virtual threads are not pinned to their carrier; pipelined responses share
+ * the socket under a {@link ReentrantLock}, not {@code synchronized}.</li>
+ * </ul>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class VirtualThreadTcpServer implements Runnable {
+
+    /** Pending connection queue length handed to bind(). */
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    /** Largest unframed (read-to-end-of-stream) request accepted. */
+    private static final int MAX_UNFRAMED_LENGTH = 64 * 1024;
+
+    /** Response bytes allowed beyond the request length (MTI change, fields 38/39, secondary bitmap). */
+    private static final int RESPONSE_HEADROOM = 256;
+
+    private final int port;
+    private final Iso8583RequestHandler handler;
+    private final Iso8583LengthHeader lengthHeader;
+    private final int maxInFlight;
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a server that answers each connection's requests in order.
+     *
+     * @param port         TCP port to listen on (e.g., 5000)
+     * @param handler      parse/tokenize/respond pipeline
+     * @param lengthHeader length header framing requests and responses
+     */
+    public VirtualThreadTcpServer(int port, Iso8583RequestHandler handler, Iso8583LengthHeader lengthHeader) {
+        this(port, handler, lengthHeader, 1);
+    }
+
+    /**
+     * @param port         TCP port to listen on (e.g., 5000)
+     * @param handler      parse/tokenize/respond pipeline
+     * @param lengthHeader length header framing requests and responses
+     * @param maxInFlight  pipelined requests processed concurrently per connection (1 = in order)
+     * @throws IllegalArgumentException if maxInFlight is not positive
+     */
+    public VirtualThreadTcpServer(int port, Iso8583RequestHandler handler, Iso8583LengthHeader lengthHeader,
+            int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.port = port;
+        this.handler = handler;
+        this.lengthHeader = lengthHeader;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Accept loop: starts one virtual thread per connection until {@link #close()}.
+     */
+    @Override
+    public void run() {
+        System.out.println("[TCP] Virtual-thread server starting on port " + port + " (" + lengthHeader.getName()
+                + " framing, " + maxInFlight + " in flight per connection) ...");
+        ThreadFactory connectionThreads = Thread.ofVirtual().name("iso8583-conn-", 0).factory();
+        try (ServerSocket server = new ServerSocket()) {
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            serverSocket = server;
+            while (running) {
+                Socket client = server.accept();
+                connectionThreads.newThread(() -> serve(client)).start();
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("[TCP] Server exception: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting; open connections finish when their clients close them.
+     */
+    public void close() {
+        running = false;
+        ServerSocket server = serverSocket;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println("[TCP] Close error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return connections currently open
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Connection thread body.
+     */
+    private void serve(Socket client) {
+        int open = connections.incrementAndGet();
+        if (handler.isLogMessages()) {
+            System.out.println("[TCP] Connection from " + client.getRemoteSocketAddress() + " (" + open + " open)");
+        }
+        try (client; InputStream in = client.getInputStream(); OutputStream out = client.getOutputStream()) {
+            client.setTcpNoDelay(true);
+            Iso8583Message message = new Iso8583Message();
+            int headerLength = lengthHeader.getLength();
+            byte[] request = new byte[1024];
+            ByteBuffer response = ByteBuffer.allocate(1024);
+
+            if (lengthHeader == Iso8583LengthHeader.NONE) {
+                int length = 0;
+                int n;
+                while ((n = in.read(request, length, request.length - length)) != -1) {
+                    length += n;
+                    if (length > MAX_UNFRAMED_LENGTH) {
+                        System.err.println("[TCP] Framing Error: unframed request exceeds " + MAX_UNFRAMED_LENGTH
+                                + " bytes");
+                        return;
+                    }
+                    if (length == request.length) {
+                        request = Arrays.copyOf(request, Math.min(length * 2, MAX_UNFRAMED_LENGTH + 1));
+                    }
+                }
+                int start = 0;
+                if (handler.getParser().getEncoding() == Iso8583Encoding.ASCII) {
+                    while (start < length && request[start] <= ' ') {
+                        start++;
+                    }
+                    while (length > start && request[length - 1] <= ' ') {
+                        length--;
+                    }
+                }
+                response = ensureCapacity(response, length - start + RESPONSE_HEADROOM);
+                handler.handle(message, ByteBuffer.wrap(request, start, length - start), response);
+                response.put((byte) '\n');
+                out.write(response.array(), 0, response.position());
+                out.flush();
+                return;
+            }
+            if (maxInFlight > 1) {
+                servePipelined(in, out);
+                return;
+            }
+
+            while (true) {
+                int read = in.readNBytes(request, 0, headerLength);
+                if (read == 0) {
+                    return; // clean close between requests
+                }
+                int length = read == headerLength ? lengthHeader.read(request, 0) : -1;
+                if (length < 0) {
+                    System.err.println("[TCP] Framing Error: bad or truncated " + lengthHeader.getName()
+                            + " length header");
+                    return;
+                }
+                if (request.length < length) {
+                    request = new byte[length];
+                }
+                if (in.readNBytes(request, 0, length) != length) {
+                    System.err.println("[TCP] Framing Error: connection closed mid-request");
+                    return;
+                }
+                response = ensureCapacity(response, headerLength + length + RESPONSE_HEADROOM);
+                response.clear().position(headerLength);
+                int responseLength = handler.handle(message, ByteBuffer.wrap(request, 0, length), response);
+                int end = response.position();
+                response.position(0);
+                lengthHeader.write(responseLength, response);
+                out.write(response.array(), 0, end);
+                out.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[TCP] Client handling error: " + e.getMessage());
+        } finally {
+            connections.decrementAndGet();
+        }
+    }
+
+    /**
+     * Pipelined framed connection: reads requests and hands each to a
+     * virtual thread of its own, which writes the response when done. Returns
+     * once the client has closed and every request in progress is answered.
+     */
+    private void servePipelined(InputStream in, OutputStream out) throws IOException {
+        int headerLength = lengthHeader.getLength();
+        byte[] header = new byte[headerLength];
+        Semaphore slots = new Semaphore(maxInFlight);
+        ReentrantLock writeLock = new ReentrantLock();
+        Set<String> inFlightKeys = ConcurrentHashMap.newKeySet();
+        try {
+            while (true) {
+                int read = in.readNBytes(header, 0, headerLength);
+                if (read == 0) {
+                    return; // clean close between requests
+                }
+                int length = read == headerLength ? lengthHeader.read(header, 0) : -1;
+                if (length < 0) {
+                    System.err.println("[TCP] Framing Error: bad or truncated " + lengthHeader.getName()
+                            + " length header");
+                    return;
+                }
+                byte[] request = new byte[length];
+                if (in.readNBytes(request, 0, length) != length) {
+                    System.err.println("[TCP] Framing Error: connection closed mid-request");
+                    return;
+                }
+                slots.acquireUninterruptibly();
+                Thread.startVirtualThread(() -> {
+                    try {
+                        ByteBuffer response = ByteBuffer.allocate(headerLength + length + RESPONSE_HEADROOM);
+                        response.position(headerLength);
+                        int responseLength = handler.handle(new Iso8583Message(), ByteBuffer.wrap(request),
+                                response, inFlightKeys);
+                        int end = response.position();
+                        response.position(0);
+                        lengthHeader.write(responseLength, response);
+                        writeLock.lock();
+                        try {
+                            out.write(response.array(), 0, end);
+                            out.flush();
+                        } finally {
+                            writeLock.unlock();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("[TCP] Client handling error: " + e.getMessage());
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        } finally {
+            // Let requests in progress answer before the socket is closed
+            slots.acquireUninterruptibly(maxInFlight);
+        }
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        return buffer.capacity() >= capacity ? buffer : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,73 @@
+package com.floss83.javaswitch.iso8583;
+
+/**
+ * EMV data objects read on the authorization path, indexed directly by
+ * {@link Iso8583TlvView} so that looking one up costs an array read.
+ * <p>
+ * Any other tag can still be looked up by its number; these are just the
+ * ones fraud and authorization logic ask for on every chip transaction.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public enum EmvTag {
+
+    APPLICATION_CRYPTOGRAM(0x9F26, "Application Cryptogram (ARQC/TC/AAC)"),
+    CRYPTOGRAM_INFORMATION_DATA(0x9F27, "Cryptogram Information Data"),
+    TERMINAL_VERIFICATION_RESULTS(0x95, "Terminal Verification Results"),
+    APPLICATION_TRANSACTION_COUNTER(0x9F36, "Application Transaction Counter"),
+    ISSUER_APPLICATION_DATA(0x9F10, "Issuer Application Data"),
+    UNPREDICTABLE_NUMBER(0x9F37, "Unpredictable Number"),
+    APPLICATION_INTERCHANGE_PROFILE(0x82, "Application Interchange Profile"),
+    AMOUNT_AUTHORISED(0x9F02, "Amount, Authorised (n 12)"),
+    AMOUNT_OTHER(0x9F03, "Amount, Other (n 12)"),
+    TRANSACTION_CURRENCY_CODE(0x5F2A, "Transaction Currency Code (n 3)"),
+    TERMINAL_COUNTRY_CODE(0x9F1A, "Terminal Country Code (n 3)"),
+    TRANSACTION_DATE(0x9A, "Transaction Date (YYMMDD)"),
+    TRANSACTION_TYPE(0x9C, "Transaction Type"),
+    CVM_RESULTS(0x9F34, "Cardholder Verification Method Results"),
+    PAN_SEQUENCE_NUMBER(0x5F34, "Application PAN Sequence Number");
+
+    private static final EmvTag[] VALUES = values();
+
+    private final int tag;
+    private final String description;
+
+    EmvTag(int tag, String description) {
+        this.tag = tag;
+        this.description = description;
+    }
+
+    /**
+     * @return tag number as its BER bytes read big-endian (e.g. {@code 0x9F26})
+     */
+    public int getTag() {
+        return tag;
+    }
+
+    /**
+     * @return EMV name of the data object
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @param tag tag number as its BER bytes read big-endian
+     * @return matching hot tag, or null if the tag is not one of them
+     */
+    public static EmvTag forTag(int tag) {
+        for (EmvTag emvTag : VALUES) {
+            if (emvTag.tag == tag) {
+                return emvTag;
+            }
+        }
+        return null;
+    }
+
+    /** Shared copy of {@link #values()}; callers must not modify it. */
+    static EmvTag[] all() {
+        return VALUES;
+    }
+}
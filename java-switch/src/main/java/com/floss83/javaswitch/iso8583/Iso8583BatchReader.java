@@ -0,0 +1,279 @@
+package com.floss83.javaswitch.iso8583;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parallel reader for batch and clearing files: a sequence of ISO 8583
+ * records, each preceded by an {@link Iso8583LengthHeader}.
+ * <p>
+ * The file is memory-mapped (in windows of up to 1 GiB, so files of any size
+ * work) and never copied onto the heap as a whole. A single scan hops from
+ * header to header and cuts the file into record-aligned chunks of about
+ * {@link #DEFAULT_CHUNK_SIZE} bytes; each chunk is handed to the
+ * {@link ForkJoinPool} as soon as it is cut, so parsing starts while the scan
+ * is still running. A worker parses its chunk record by record into one
+ * reusable {@link Iso8583Message} and passes each to the
+ * {@link RecordHandler}.
+ * </p>
+ * <p>
+ * A record that fails to parse is reported to
+ * {@link RecordHandler#onError(long, long, Iso8583ParseException)} and the
+ * chunk carries on with the next record. A malformed or truncated length
+ * header makes the rest of the file unreadable: it is reported the same way
+ * and the scan stops, while records before it are still delivered.
+ * </p>
+ *
+ * <pre>
+ * Iso8583BatchReader reader = new Iso8583BatchReader(parser, Iso8583LengthHeader.BINARY2);
+ * Iso8583BatchReader.Summary summary = reader.read(Path.of("clearing.bin"), handler);
+ * </pre>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public final class Iso8583BatchReader {
+
+    /** Target chunk size in bytes; a chunk always ends on a record boundary. */
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    /** Largest span mapped at once. */
+    private static final long MAP_WINDOW = 1L << 30;
+
+    /**
+     * Receives records as they are parsed. Called concurrently from pool
+     * threads, in no particular order across chunks (in file order within
+     * one); implementations must be thread-safe.
+     */
+    public interface RecordHandler {
+
+        /**
+         * @param recordNumber zero-based position of the record in the file
+         * @param message      parsed record; valid only until this method returns
+         */
+        void onRecord(long recordNumber, Iso8583Message message);
+
+        /**
+         * @param recordNumber zero-based position of the record in the file
+         * @param fileOffset   offset of the record's length header in the file
+         * @param error        why the record (or, for a framing error, the rest of the file) could not be read
+         */
+        void onError(long recordNumber, long fileOffset, Iso8583ParseException error);
+    }
+
+    /**
+     * Outcome of one {@link #read(Path, RecordHandler)} call.
+     */
+    public static final class Summary {
+
+        private final long records;
+        private final long errors;
+        private final long bytesRead;
+        private final boolean complete;
+
+        Summary(long records, long errors, long bytesRead, boolean complete) {
+            this.records = records;
+            this.errors = errors;
+            this.bytesRead = bytesRead;
+            this.complete = complete;
+        }
+
+        /**
+         * @return records passed to {@link RecordHandler#onRecord(long, Iso8583Message)}
+         */
+        public long getRecords() {
+            return records;
+        }
+
+        /**
+         * @return errors passed to {@link RecordHandler#onError(long, long, Iso8583ParseException)}
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return bytes of well-framed records (length headers included)
+         */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * @return true if the whole file was framed; false if a bad header stopped the scan
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        @Override
+        public String toString() {
+            return "records=" + records + ", errors=" + errors + ", bytes=" + bytesRead + ", complete=" + complete;
+        }
+    }
+
+    private final Iso8583Parser parser;
+    private final Iso8583LengthHeader lengthHeader;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final Iso8583FieldMask eagerFields;
+
+    /**
+     * Creates a reader that validates every field, using the common pool.
+     *
+     * @param parser       parser compiled for the file's dialect and encoding
+     * @param lengthHeader header in front of each record
+     */
+    public Iso8583BatchReader(Iso8583Parser parser, Iso8583LengthHeader lengthHeader) {
+        this(parser, lengthHeader, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE, Iso8583FieldMask.ALL);
+    }
+
+    /**
+     * Creates a reader.
+     *
+     * @param parser       parser compiled for the file's dialect and encoding
+     * @param lengthHeader header in front of each record
+     * @param pool         pool that parses the chunks
+     * @param chunkSize    target chunk size in bytes
+     * @param eagerFields  fields validated during the parse; others on first access
+     * @throws IllegalArgumentException if the header is {@link Iso8583LengthHeader#NONE} or the chunk size is not positive
+     */
+    public Iso8583BatchReader(Iso8583Parser parser, Iso8583LengthHeader lengthHeader, ForkJoinPool pool,
+            int chunkSize, Iso8583FieldMask eagerFields) {
+        if (lengthHeader == Iso8583LengthHeader.NONE) {
+            throw new IllegalArgumentException("Batch files need a length header to frame records");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.parser = parser;
+        this.lengthHeader = lengthHeader;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.eagerFields = eagerFields;
+    }
+
+    /**
+     * Parses every record in a file and waits for the handler to see them all.
+     *
+     * @param file    batch file
+     * @param handler receives records and per-record errors
+     * @return counts for the run
+     * @throws IOException if the file cannot be mapped
+     */
+    public Summary read(Path file, RecordHandler handler) throws IOException {
+        LongAdder records = new LongAdder();
+        LongAdder errors = new LongAdder();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        int headerLength = lengthHeader.getLength();
+        long recordNumber = 0;
+        long position = 0;
+        boolean complete = true;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            scan: while (position < size) {
+                long windowLength = Math.min(size - position, MAP_WINDOW);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowLength);
+                int chunkStart = 0;
+                long chunkFirstRecord = recordNumber;
+                int cursor = 0;
+                while (true) {
+                    if (cursor + headerLength > windowLength) {
+                        break;
+                    }
+                    int length = lengthHeader.read(window, cursor);
+                    if (length < 0) {
+                        complete = false;
+                        errors.increment();
+                        handler.onError(recordNumber, position + cursor,
+                                new Iso8583ParseException("Malformed " + lengthHeader.getName() + " length header"));
+                        break;
+                    }
+                    if (cursor + headerLength + length > windowLength) {
+                        break;
+                    }
+                    cursor += headerLength + length;
+                    recordNumber++;
+                    if (cursor - chunkStart >= chunkSize) {
+                        tasks.add(submit(window, chunkStart, cursor, chunkFirstRecord, position, handler, records,
+                                errors));
+                        chunkStart = cursor;
+                        chunkFirstRecord = recordNumber;
+                    }
+                }
+                if (cursor > chunkStart) {
+                    tasks.add(submit(window, chunkStart, cursor, chunkFirstRecord, position, handler, records,
+                            errors));
+                }
+                if (!complete) {
+                    position += cursor;
+                    break scan;
+                }
+                if (cursor == 0 || position + windowLength == size && cursor < windowLength) {
+                    // The record at the cursor runs past the end of the file
+                    complete = false;
+                    errors.increment();
+                    handler.onError(recordNumber, position + cursor,
+                            new Iso8583ParseException("Truncated record at end of file"));
+                    position += cursor;
+                    break;
+                }
+                position += cursor;
+            }
+        }
+
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        return new Summary(records.sum(), errors.sum(), position, complete);
+    }
+
+    private ForkJoinTask<?> submit(MappedByteBuffer window, int start, int end, long firstRecord, long windowOffset,
+            RecordHandler handler, LongAdder records, LongAdder errors) {
+        ByteBuffer chunk = window.slice(start, end - start);
+        long chunkOffset = windowOffset + start;
+        return pool.submit(() -> parseChunk(chunk, firstRecord, chunkOffset, handler, records, errors));
+    }
+
+    /**
+     * Parses the records of one chunk in order, reusing a single message.
+     */
+    private void parseChunk(ByteBuffer chunk, long firstRecord, long chunkOffset, RecordHandler handler,
+            LongAdder records, LongAdder errors) {
+        Iso8583Message message = new Iso8583Message();
+        int headerLength = lengthHeader.getLength();
+        int limit = chunk.limit();
+        long recordNumber = firstRecord;
+        int cursor = 0;
+        int parsed = 0;
+        int failed = 0;
+        while (cursor < limit) {
+            int length = lengthHeader.read(chunk, cursor);
+            int next = cursor + headerLength + length;
+            chunk.limit(next).position(cursor + headerLength);
+            try {
+                parser.parseInto(message, chunk, eagerFields);
+                handler.onRecord(recordNumber, message);
+                parsed++;
+            } catch (Iso8583ParseException e) {
+                handler.onError(recordNumber, chunkOffset + cursor, e);
+                failed++;
+            }
+            chunk.limit(limit);
+            cursor = next;
+            recordNumber++;
+        }
+        records.add(parsed);
+        errors.add(failed);
+    }
+}
@@ -0,0 +1,154 @@
+package com.floss83.javaswitch.iso8583;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Byte-class checks behind the type-driven {@link Iso8583FieldValidator}s.
+ * <p>
+ * The two classes that cover almost all traffic (numeric and printable
+ * ASCII) are checked eight bytes at a time with SWAR (SIMD-within-a-register)
+ * arithmetic on a {@code long}; the remaining classes use a 256-entry lookup
+ * table. Nothing here allocates.
+ * </p>
+ * <p>
+ * {@link #isLuhnValid(byte[], int, int)} is public: it is the one Luhn check
+ * in the switch, shared with {@link Iso8583Message#isLuhnValid(int)} and the
+ * format-preserving PAN tokens.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public final class Iso8583CharClass {
+
+    static final int DIGIT = 1;
+    static final int ALPHA = 2;
+    /** Space. Allowed in {@code an} values, which are commonly space-padded. */
+    static final int SPACE = 4;
+    /** Printable ASCII other than letters, digits and space. */
+    static final int SPECIAL = 8;
+    static final int HEX = 16;
+    /** Track 2/3 separators and sentinels: 0x3A-0x3F and 'D'. */
+    static final int TRACK = 32;
+
+    private static final byte[] CLASSES = new byte[256];
+
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long HIGH_NIBBLES = 0xF0F0F0F0F0F0F0F0L;
+    private static final long LOW_NIBBLES = 0x0F0F0F0F0F0F0F0FL;
+
+    static {
+        for (int c = 0x21; c < 0x7F; c++) {
+            CLASSES[c] = SPECIAL;
+        }
+        CLASSES[' '] = SPACE;
+        for (int c = '0'; c <= '9'; c++) {
+            CLASSES[c] = DIGIT | HEX;
+        }
+        for (int c = 'A'; c <= 'Z'; c++) {
+            CLASSES[c] = ALPHA;
+            CLASSES[c + 32] = ALPHA;
+        }
+        for (int c = 'A'; c <= 'F'; c++) {
+            CLASSES[c] |= HEX;
+            CLASSES[c + 32] |= HEX;
+        }
+        for (int c = 0x3A; c <= 0x3F; c++) {
+            CLASSES[c] |= TRACK;
+        }
+        CLASSES['D'] |= TRACK;
+    }
+
+    private Iso8583CharClass() {
+    }
+
+    /**
+     * @return true if every byte belongs to one of the classes in {@code allowed}
+     */
+    static boolean allMatch(byte[] buf, int offset, int length, int allowed) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if ((CLASSES[buf[i] & 0xFF] & allowed) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every byte is an ASCII digit (vacuously true when empty)
+     */
+    static boolean isDigits(byte[] buf, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            long word = (long) LONG_VIEW.get(buf, i);
+            // '0'-'9' are 0x30-0x39: high nibble 3, low nibble + 6 must not carry
+            if ((word & HIGH_NIBBLES) != 0x3030303030303030L
+                    || (((word & LOW_NIBBLES) + 0x0606060606060606L) & HIGH_NIBBLES) != 0) {
+                return false;
+            }
+        }
+        for (; i < end; i++) {
+            if (buf[i] < '0' || buf[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every byte is printable ASCII, 0x20-0x7E
+     */
+    static boolean isPrintable(byte[] buf, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            long word = (long) LONG_VIEW.get(buf, i);
+            // With the high bits clear, x - 0x20 borrows into bit 7 only for
+            // bytes below 0x20, and x + 1 carries into bit 7 only for 0x7F.
+            long below = (word - 0x20 * ONES) & ~word;
+            long above = word + ONES;
+            if (((word | below | above) & HIGH_BITS) != 0) {
+                return false;
+            }
+        }
+        for (; i < end; i++) {
+            if (buf[i] < 0x20 || buf[i] > 0x7E) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mod-10 check digit test (ISO/IEC 7812-1) over ASCII digits.
+     *
+     * @param buf    buffer holding the value
+     * @param offset index of its first byte
+     * @param length its length in bytes
+     * @return true if the value is at least two digits, all digits, and its Luhn checksum is zero
+     */
+    public static boolean isLuhnValid(byte[] buf, int offset, int length) {
+        if (length < 2 || !isDigits(buf, offset, length)) {
+            return false;
+        }
+        int sum = 0;
+        boolean doubled = false;
+        for (int i = offset + length - 1; i >= offset; i--) {
+            int digit = buf[i] - '0';
+            if (doubled) {
+                digit = digit < 5 ? digit * 2 : digit * 2 - 9;
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        return sum % 10 == 0;
+    }
+}
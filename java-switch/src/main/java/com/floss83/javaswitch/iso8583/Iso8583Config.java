@@ -0,0 +1,41 @@
+package com.floss83.javaswitch.iso8583;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Spring wiring for ISO 8583 decoding.
+ * <p>
+ * Compiles the field specification once at startup (base fields plus the
+ * dialect named by {@code iso8583.dialect}, if any) and shares a single
+ * stateless {@link Iso8583Parser} between all listeners.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+@Configuration
+public class Iso8583Config {
+
+    /**
+     * @param dialect dialect name from {@code iso8583.dialect}; blank for base ISO 8583:1987
+     * @return compiled field specification
+     */
+    @Bean
+    public Iso8583Spec iso8583Spec(@Value("${iso8583.dialect:}") String dialect) {
+        Iso8583Spec spec = Iso8583Spec.load(dialect);
+        System.out.println("[BOOT] ISO 8583 spec compiled (dialect: "
+                + (spec.getDialect() == null ? "base" : spec.getDialect()) + ")");
+        return spec;
+    }
+
+    /**
+     * @param spec compiled field specification
+     * @return shared, thread-safe parser
+     */
+    @Bean
+    public Iso8583Parser iso8583Parser(Iso8583Spec spec) {
+        return new Iso8583Parser(spec);
+    }
+}
@@ -0,0 +1,56 @@
+package com.floss83.javaswitch.iso8583;
+
+/**
+ * ISO 8583 data element representation classes.
+ * <p>
+ * Mirrors the type codes used by {@link Iso8583Field#getDataType()} and the
+ * field definition files loaded by {@link Iso8583Spec}.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public enum Iso8583DataType {
+
+    /** Numeric digits only. */
+    N("n"),
+    /** Alphanumeric. */
+    AN("an"),
+    /** Alphanumeric and special characters. */
+    ANS("ans"),
+    /** Signed numeric: 'C' (credit) or 'D' (debit) followed by digits. */
+    XN("xn"),
+    /** Track 2/3 code set (digits plus separators). */
+    Z("z"),
+    /** Binary data, carried as hex text in ASCII messages. */
+    B("b");
+
+    private final String code;
+
+    Iso8583DataType(String code) {
+        this.code = code;
+    }
+
+    /**
+     * @return the ISO type code (n, an, ans, xn, z, b)
+     */
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Resolves an ISO type code.
+     *
+     * @param code type code as written in field definitions (case-insensitive)
+     * @return matching data type
+     * @throws IllegalArgumentException if the code is unknown
+     */
+    public static Iso8583DataType fromCode(String code) {
+        for (Iso8583DataType type : values()) {
+            if (type.code.equalsIgnoreCase(code)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown ISO 8583 data type: " + code);
+    }
+}
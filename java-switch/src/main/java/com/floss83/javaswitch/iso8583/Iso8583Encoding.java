@@ -0,0 +1,208 @@
+package com.floss83.javaswitch.iso8583;
+
+import java.util.Arrays;
+
+/**
+ * Wire encoding of an ISO 8583 message, selected per listener.
+ * <ul>
+ * <li>{@link #ASCII} – ASCII MTI, hex-text bitmaps, ASCII length prefixes and
+ * values; binary ({@code b}) fields carried as hex text. The format the
+ * switch has always spoken.</li>
+ * <li>{@link #BINARY_BITMAP} – as {@link #ASCII}, but each bitmap is sent as
+ * 8 raw bytes.</li>
+ * <li>{@link #BCD} – packed: MTI, length prefixes and numeric ({@code n})
+ * values as packed BCD, binary fields as raw bytes and bitmaps as 8 raw
+ * bytes. Other types stay ASCII.</li>
+ * </ul>
+ * <p>
+ * <b>Packed field layout:</b> an LLVAR prefix is one BCD byte and an LLLVAR
+ * prefix two (a leading zero nibble, then three digits). For numeric fields
+ * the prefix counts digits; for binary fields it counts bytes. Odd-length
+ * numeric values are padded to a whole byte with a leading {@code 0} nibble
+ * when fixed-length and a trailing {@code F} nibble when variable-length.
+ * </p>
+ * <p>
+ * Whatever the wire encoding, {@link Iso8583Message} exposes the same logical
+ * values: digits for numeric fields and upper-case hex for binary fields.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public final class Iso8583Encoding {
+
+    /** ASCII throughout, hex-text bitmaps. */
+    public static final Iso8583Encoding ASCII = new Iso8583Encoding("ascii", false, false);
+
+    /** ASCII fields with 8-byte binary bitmaps. */
+    public static final Iso8583Encoding BINARY_BITMAP = new Iso8583Encoding("ascii-binary-bitmap", false, true);
+
+    /** Packed BCD numerics and length prefixes, raw binary fields and bitmaps. */
+    public static final Iso8583Encoding BCD = new Iso8583Encoding("bcd", true, true);
+
+    /** Value of a packed BCD byte (0-99), or -1 if either nibble is not a digit. */
+    private static final byte[] BCD_VALUES = new byte[256];
+
+    static {
+        Arrays.fill(BCD_VALUES, (byte) -1);
+        for (int high = 0; high < 10; high++) {
+            for (int low = 0; low < 10; low++) {
+                BCD_VALUES[(high << 4) | low] = (byte) (high * 10 + low);
+            }
+        }
+    }
+
+    private final String name;
+    private final boolean packed;
+    private final boolean binaryBitmap;
+
+    private Iso8583Encoding(String name, boolean packed, boolean binaryBitmap) {
+        this.name = name;
+        this.packed = packed;
+        this.binaryBitmap = binaryBitmap;
+    }
+
+    /**
+     * Resolves an encoding by its configuration name.
+     *
+     * @param name {@code ascii}, {@code ascii-binary-bitmap} or {@code bcd} (case-insensitive); blank means ASCII
+     * @return matching encoding
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static Iso8583Encoding forName(String name) {
+        if (name == null || name.isBlank()) {
+            return ASCII;
+        }
+        for (Iso8583Encoding encoding : new Iso8583Encoding[] { ASCII, BINARY_BITMAP, BCD }) {
+            if (encoding.name.equalsIgnoreCase(name.trim())) {
+                return encoding;
+            }
+        }
+        throw new IllegalArgumentException("Unknown ISO 8583 encoding: " + name);
+    }
+
+    /**
+     * @return configuration name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if MTI, length prefixes, numeric and binary fields are packed
+     */
+    public boolean isPacked() {
+        return packed;
+    }
+
+    /**
+     * @return true if bitmaps are sent as 8 raw bytes rather than 16 hex characters
+     */
+    public boolean isBinaryBitmap() {
+        return binaryBitmap;
+    }
+
+    /**
+     * @return encoded MTI length in bytes
+     */
+    public int getMtiLength() {
+        return packed ? 2 : 4;
+    }
+
+    /**
+     * @return encoded length of one bitmap in bytes
+     */
+    public int getBitmapLength() {
+        return binaryBitmap ? 8 : 16;
+    }
+
+    /**
+     * @param digits length prefix width in digits (0, 2 or 3)
+     * @return encoded prefix length in bytes
+     */
+    public int getPrefixLength(int digits) {
+        return packed ? (digits + 1) / 2 : digits;
+    }
+
+    /**
+     * @param type field data type
+     * @return true if values of this type are nibble-packed under this encoding
+     */
+    public boolean packs(Iso8583DataType type) {
+        return packed && (type == Iso8583DataType.N || type == Iso8583DataType.B);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Decodes packed BCD digits straight into a long, a byte (two digits) at a
+     * time where aligned.
+     *
+     * @param buf          buffer holding the packed digits
+     * @param nibbleOffset index of the first digit, in nibbles from the start of {@code buf}
+     * @param digits       number of digits (at most 18)
+     * @return the value, or -1 if any nibble is not a decimal digit
+     */
+    static long decodeBcd(byte[] buf, int nibbleOffset, int digits) {
+        long value = 0;
+        int nibble = nibbleOffset;
+        int end = nibbleOffset + digits;
+        if ((nibble & 1) != 0 && nibble < end) {
+            int digit = buf[nibble >> 1] & 0x0F;
+            if (digit > 9) {
+                return -1;
+            }
+            value = digit;
+            nibble++;
+        }
+        for (; nibble + 2 <= end; nibble += 2) {
+            int pair = BCD_VALUES[buf[nibble >> 1] & 0xFF];
+            if (pair < 0) {
+                return -1;
+            }
+            value = value * 100 + pair;
+        }
+        if (nibble < end) {
+            int digit = (buf[nibble >> 1] >> 4) & 0x0F;
+            if (digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @param buf          buffer holding the packed digits
+     * @param nibbleOffset index of the first digit, in nibbles
+     * @param digits       number of digits
+     * @return true if every nibble in the range is a decimal digit
+     */
+    static boolean isBcd(byte[] buf, int nibbleOffset, int digits) {
+        int nibble = nibbleOffset;
+        int end = nibbleOffset + digits;
+        if ((nibble & 1) != 0 && nibble < end) {
+            if ((buf[nibble >> 1] & 0x0F) > 9) {
+                return false;
+            }
+            nibble++;
+        }
+        for (; nibble + 2 <= end; nibble += 2) {
+            if (BCD_VALUES[buf[nibble >> 1] & 0xFF] < 0) {
+                return false;
+            }
+        }
+        return nibble >= end || ((buf[nibble >> 1] >> 4) & 0x0F) <= 9;
+    }
+
+    /**
+     * @return the nibble at {@code index} (in nibbles, high nibble first)
+     */
+    static int nibble(byte[] buf, int index) {
+        int b = buf[index >> 1];
+        return (index & 1) == 0 ? (b >> 4) & 0x0F : b & 0x0F;
+    }
+}
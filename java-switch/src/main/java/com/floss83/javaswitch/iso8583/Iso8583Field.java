@@ -27,7 +27,7 @@ public enum Iso8583Field {
 
     // PAN/Cardholder Data
     PAN(2, "Primary Account Number (PAN)", 19, true, "n",
-            "LLVAR. Cardholder account number (PCI-sensitive, mask for audit)."),
+            "LLVAR. Cardholder account number (PCI-sensitive, mask for audit).", Iso8583Sensitivity.PAN),
     PROCESSING_CODE(3, "Processing Code", 6, false, "n", "Transaction type/subtype. Fixed 6n."),
     TRANSACTION_AMOUNT(4, "Amount, Transaction", 12, false, "n", "Amount authorized in minor units. Fixed 12n."),
     SETTLEMENT_AMOUNT(5, "Amount, Settlement", 12, false, "n", "Amount for settlement. Fixed 12n."),
@@ -70,8 +70,10 @@ public enum Iso8583Field {
     FORWARDING_INSTITUTION_ID(33, "Forwarding Institution ID Code", 11, true, "n",
             "LLVAR. Numeric/forwarder. Up to 11 digits."),
     PAN_EXTENDED(34, "PAN Extended", 28, true, "z", "LLVAR. Track 2 extended data."),
-    TRACK_2_DATA(35, "Track 2 Data", 37, true, "z", "LLVAR. Card magstripe data, PCI-sensitive."),
-    TRACK_3_DATA(36, "Track 3 Data", 104, true, "z", "LLVAR. ISO magstripe, rarely used, PCI-sensitive."),
+    TRACK_2_DATA(35, "Track 2 Data", 37, true, "z", "LLVAR. Card magstripe data, PCI-sensitive.",
+            Iso8583Sensitivity.TRACK_2),
+    TRACK_3_DATA(36, "Track 3 Data", 104, true, "z", "LLVAR. ISO magstripe, rarely used, PCI-sensitive.",
+            Iso8583Sensitivity.TRACK_DATA),
     RETRIEVAL_REFERENCE_NUMBER(37, "Retrieval Reference Number", 12, false, "an", "Fixed 12an. Unique ref (RRN)."),
     AUTHORIZATION_ID_RESPONSE(38, "Authorization ID Response", 6, false, "an", "Fixed 6an. Approval code."),
     RESPONSE_CODE(39, "Response Code", 2, false, "an", "Fixed 2an. E.g. 00=Approved."),
@@ -81,7 +83,8 @@ public enum Iso8583Field {
     CARD_ACCEPTOR_NAME_LOCATION(43, "Card Acceptor Name/Location", 40, false, "ans",
             "Fixed 40ans. Merchant name, city, country."),
     ADDITIONAL_RESPONSE_DATA(44, "Additional Response Data", 25, true, "an", "LLVAR. ISO/processor-specific."),
-    TRACK_1_DATA(45, "Track 1 Data", 76, true, "ans", "LLVAR. Magstripe Track 1 data."),
+    TRACK_1_DATA(45, "Track 1 Data", 76, true, "ans", "LLVAR. Magstripe Track 1 data, PCI-sensitive.",
+            Iso8583Sensitivity.TRACK_DATA),
     ADDITIONAL_DATA(46, "Additional Data – ISO", 999, true, "an", "LLLVAR. ISO reserved."),
     ADDITIONAL_DATA_NATIONAL(47, "Additional Data – National", 999, true, "an", "LLLVAR. Country/region reserved."),
     ADDITIONAL_DATA_PRIVATE(48, "Additional Data – Private", 999, true, "an", "LLLVAR. Private/processor fields."),
@@ -90,7 +93,7 @@ public enum Iso8583Field {
     CURRENCY_CODE_CARDHOLDER_BILLING(51, "Currency Code, Cardholder Billing", 3, false, "n",
             "Fixed 3n. ISO currency code."),
     PERSONAL_ID_NUMBER_DATA(52, "Personal ID Number Data", 16, false, "b",
-            "Fixed 16b. Encrypted PIN block, PCI-sensitive."),
+            "Fixed 16b. Encrypted PIN block, PCI-sensitive.", Iso8583Sensitivity.PIN_OR_CVV),
     SECURITY_RELATED_CONTROL_INFO(53, "Security Related Control Information", 48, false, "an",
             "Fixed 48an. Security features."),
     ADDITIONAL_AMOUNTS(54, "Additional Amounts", 120, true, "an", "LLLVAR. Surcharges/fees."),
@@ -106,24 +109,41 @@ public enum Iso8583Field {
     MAC(64, "Message Authentication Code (MAC)", 16, false, "b",
             "Fixed 16b. HMAC or MAC block, for message integrity."),
 
-    // -- Extend below for fields 65–128 as needed for your use-case
+    // -- Fields 65–128 and network dialects are defined in
+    // -- resources/iso8583/fields.properties (see Iso8583Spec)
     ;
 
+    /** Dense lookup table: field number → definition (null if not defined). */
+    private static final Iso8583Field[] BY_NUMBER = new Iso8583Field[129];
+
+    static {
+        for (Iso8583Field field : values()) {
+            BY_NUMBER[field.fieldNumber] = field;
+        }
+    }
+
     private final int fieldNumber;
     private final String description;
     private final int maxLength;
     private final boolean variableLength;
     private final String dataType;
     private final String notes;
+    private final Iso8583Sensitivity sensitivity;
 
     Iso8583Field(int fieldNumber, String description, int maxLength, boolean variableLength, String dataType,
             String notes) {
+        this(fieldNumber, description, maxLength, variableLength, dataType, notes, Iso8583Sensitivity.NONE);
+    }
+
+    Iso8583Field(int fieldNumber, String description, int maxLength, boolean variableLength, String dataType,
+            String notes, Iso8583Sensitivity sensitivity) {
         this.fieldNumber = fieldNumber;
         this.description = description;
         this.maxLength = maxLength;
         this.variableLength = variableLength;
         this.dataType = dataType;
         this.notes = notes;
+        this.sensitivity = sensitivity;
     }
 
     /**
@@ -169,6 +189,13 @@ public enum Iso8583Field {
         return notes;
     }
 
+    /**
+     * @return How the field must be protected (tokenized) before forwarding.
+     */
+    public Iso8583Sensitivity getSensitivity() {
+        return sensitivity;
+    }
+
     /**
      * Looks up the Iso8583Field by field number.
      * 
@@ -176,12 +203,10 @@ public enum Iso8583Field {
      * @return Corresponding Iso8583Field, or null if not found
      */
     public static Iso8583Field getByFieldNumber(int fieldNumber) {
-        for (Iso8583Field field : values()) {
-            if (field.fieldNumber == fieldNumber) {
-                return field;
-            }
+        if (fieldNumber < 0 || fieldNumber >= BY_NUMBER.length) {
+            return null;
         }
-        return null;
+        return BY_NUMBER[fieldNumber];
     }
 
 }
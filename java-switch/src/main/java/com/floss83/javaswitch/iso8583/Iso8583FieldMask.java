@@ -0,0 +1,85 @@
+package com.floss83.javaswitch.iso8583;
+
+/**
+ * Immutable set of data element numbers (1-128), held as two bitmap words in
+ * wire order.
+ * <p>
+ * Used to select which fields the parser validates eagerly; every other
+ * present field is only length-skipped and checked on first access.
+ * </p>
+ *
+ * Usage example:
+ *
+ * <pre>
+ * Iso8583Message message = parser.parse(buf, 0, len, Iso8583FieldMask.ROUTING);
+ * </pre>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public final class Iso8583FieldMask {
+
+    /** Every field 1-128. */
+    public static final Iso8583FieldMask ALL = new Iso8583FieldMask(-1L, -1L);
+
+    /**
+     * Fields needed for routing and fraud decisions: PAN (2), processing code
+     * (3), amount (4), STAN (11), terminal ID (41) and currency (49).
+     */
+    public static final Iso8583FieldMask ROUTING = of(2, 3, 4, 11, 41, 49);
+
+    private final long primary;
+    private final long secondary;
+
+    private Iso8583FieldMask(long primary, long secondary) {
+        this.primary = primary;
+        this.secondary = secondary;
+    }
+
+    /**
+     * @param fieldNumbers data element numbers (1-128)
+     * @return mask containing exactly those fields
+     * @throws IllegalArgumentException if a field number is out of range
+     */
+    public static Iso8583FieldMask of(int... fieldNumbers) {
+        long primary = 0L;
+        long secondary = 0L;
+        for (int fieldNumber : fieldNumbers) {
+            if (fieldNumber < 1 || fieldNumber > Iso8583Message.MAX_FIELD) {
+                throw new IllegalArgumentException("Field number out of range: " + fieldNumber);
+            }
+            if (fieldNumber <= 64) {
+                primary |= 1L << (64 - fieldNumber);
+            } else {
+                secondary |= 1L << (128 - fieldNumber);
+            }
+        }
+        return new Iso8583FieldMask(primary, secondary);
+    }
+
+    /**
+     * @param fieldNumber data element number
+     * @return true if the field is in the mask
+     */
+    public boolean contains(int fieldNumber) {
+        if (fieldNumber < 1 || fieldNumber > Iso8583Message.MAX_FIELD) {
+            return false;
+        }
+        long bits = fieldNumber <= 64 ? primary : secondary;
+        return (bits & (1L << (63 - ((fieldNumber - 1) & 63)))) != 0;
+    }
+
+    /**
+     * @return fields 1-64 in wire order (field 1 is the MSB)
+     */
+    public long getPrimaryBits() {
+        return primary;
+    }
+
+    /**
+     * @return fields 65-128 in wire order (field 65 is the MSB)
+     */
+    public long getSecondaryBits() {
+        return secondary;
+    }
+}
@@ -0,0 +1,73 @@
+package com.floss83.javaswitch.iso8583;
+
+/**
+ * Format check applied to a raw data element value.
+ * <p>
+ * Validators work on the ASCII bytes of the value in place so that parsing
+ * never has to create a String just to validate it. {@link Iso8583Spec}
+ * assigns every defined field the validator for its declared
+ * {@link Iso8583DataType} (see {@link #forType(Iso8583DataType)}), with
+ * {@link #LUHN} on fields listed under {@code validate.luhn}.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+@FunctionalInterface
+public interface Iso8583FieldValidator {
+
+    /** Accepts any value. */
+    Iso8583FieldValidator ANY = (buf, offset, length) -> true;
+
+    /** Accepts one or more ASCII digits ({@code n}). */
+    Iso8583FieldValidator DIGITS = (buf, offset, length) -> length > 0
+            && Iso8583CharClass.isDigits(buf, offset, length);
+
+    /** Accepts letters, digits and space padding ({@code an}). */
+    Iso8583FieldValidator ALPHANUMERIC = (buf, offset, length) -> Iso8583CharClass.allMatch(buf, offset, length,
+            Iso8583CharClass.DIGIT | Iso8583CharClass.ALPHA | Iso8583CharClass.SPACE);
+
+    /** Accepts printable ASCII, 0x20-0x7E ({@code ans}). */
+    Iso8583FieldValidator PRINTABLE = Iso8583CharClass::isPrintable;
+
+    /** Accepts 'C' (credit) or 'D' (debit) followed by one or more digits ({@code xn}). */
+    Iso8583FieldValidator SIGNED_DIGITS = (buf, offset, length) -> length > 1
+            && (buf[offset] == 'C' || buf[offset] == 'D')
+            && Iso8583CharClass.isDigits(buf, offset + 1, length - 1);
+
+    /** Accepts the track 2/3 code set: digits, 0x3A-0x3F and the 'D' separator ({@code z}). */
+    Iso8583FieldValidator TRACK_DATA = (buf, offset, length) -> Iso8583CharClass.allMatch(buf, offset, length,
+            Iso8583CharClass.DIGIT | Iso8583CharClass.TRACK);
+
+    /** Accepts an even number of hex digits, as binary fields are carried in ASCII messages ({@code b}). */
+    Iso8583FieldValidator HEX = (buf, offset, length) -> (length & 1) == 0
+            && Iso8583CharClass.allMatch(buf, offset, length, Iso8583CharClass.HEX);
+
+    /** Accepts digits with a valid mod-10 check digit (card numbers). */
+    Iso8583FieldValidator LUHN = Iso8583CharClass::isLuhnValid;
+
+    /**
+     * Returns the validator enforcing a data type's character set.
+     *
+     * @param type declared data type
+     * @return shared validator instance
+     */
+    static Iso8583FieldValidator forType(Iso8583DataType type) {
+        return switch (type) {
+            case N -> DIGITS;
+            case AN -> ALPHANUMERIC;
+            case ANS -> PRINTABLE;
+            case XN -> SIGNED_DIGITS;
+            case Z -> TRACK_DATA;
+            case B -> HEX;
+        };
+    }
+
+    /**
+     * @param buf    buffer holding the value
+     * @param offset start of the value
+     * @param length length of the value in bytes
+     * @return true if the value is well formed
+     */
+    boolean isValid(byte[] buf, int offset, int length);
+}
@@ -0,0 +1,149 @@
+package com.floss83.javaswitch.iso8583;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Message framing header placed in front of each ISO 8583 message on a
+ * stream, giving the length of the message that follows (header excluded).
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public enum Iso8583LengthHeader {
+
+    /** No header; a message is delimited by the end of the stream. */
+    NONE("none", 0, 0),
+    /** 2-byte unsigned big-endian binary length. */
+    BINARY2("binary2", 2, 0xFFFF),
+    /** 4 ASCII decimal digits. */
+    ASCII4("ascii4", 4, 9999);
+
+    private final String name;
+    private final int length;
+    private final int maxMessageLength;
+
+    Iso8583LengthHeader(String name, int length, int maxMessageLength) {
+        this.name = name;
+        this.length = length;
+        this.maxMessageLength = maxMessageLength;
+    }
+
+    /**
+     * Resolves a header by its configuration name.
+     *
+     * @param name {@code none}, {@code binary2} or {@code ascii4} (case-insensitive); blank means none
+     * @return matching header type
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static Iso8583LengthHeader forName(String name) {
+        if (name == null || name.isBlank()) {
+            return NONE;
+        }
+        for (Iso8583LengthHeader header : values()) {
+            if (header.name.equalsIgnoreCase(name.trim())) {
+                return header;
+            }
+        }
+        throw new IllegalArgumentException("Unknown ISO 8583 length header: " + name);
+    }
+
+    /**
+     * @return configuration name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return header size in bytes (0 for {@link #NONE})
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return largest message length the header can express
+     */
+    public int getMaxMessageLength() {
+        return maxMessageLength;
+    }
+
+    /**
+     * Decodes a header.
+     *
+     * @param buf    buffer holding at least {@link #getLength()} bytes at {@code offset}
+     * @param offset start of the header
+     * @return message length, or -1 if the header is malformed (or this is {@link #NONE})
+     */
+    public int read(byte[] buf, int offset) {
+        switch (this) {
+            case BINARY2:
+                return ((buf[offset] & 0xFF) << 8) | (buf[offset + 1] & 0xFF);
+            case ASCII4:
+                int value = 0;
+                for (int i = offset; i < offset + 4; i++) {
+                    int digit = buf[i] - '0';
+                    if (digit < 0 || digit > 9) {
+                        return -1;
+                    }
+                    value = value * 10 + digit;
+                }
+                return value;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Decodes a header at an absolute index of a (heap, direct or mapped)
+     * buffer without moving its position.
+     *
+     * @param buf   buffer holding at least {@link #getLength()} bytes at {@code index}
+     * @param index start of the header
+     * @return message length, or -1 if the header is malformed (or this is {@link #NONE})
+     */
+    public int read(ByteBuffer buf, int index) {
+        switch (this) {
+            case BINARY2:
+                return ((buf.get(index) & 0xFF) << 8) | (buf.get(index + 1) & 0xFF);
+            case ASCII4:
+                int value = 0;
+                for (int i = index; i < index + 4; i++) {
+                    int digit = buf.get(i) - '0';
+                    if (digit < 0 || digit > 9) {
+                        return -1;
+                    }
+                    value = value * 10 + digit;
+                }
+                return value;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Encodes a header; no-op for {@link #NONE}.
+     *
+     * @param messageLength length of the message that follows
+     * @param out           destination buffer
+     * @throws IllegalArgumentException if the length does not fit the header
+     */
+    public void write(int messageLength, ByteBuffer out) {
+        if (this == NONE) {
+            return;
+        }
+        if (messageLength < 0 || messageLength > maxMessageLength) {
+            throw new IllegalArgumentException("Message length " + messageLength + " does not fit a " + name
+                    + " header");
+        }
+        if (this == BINARY2) {
+            out.put((byte) (messageLength >>> 8));
+            out.put((byte) messageLength);
+        } else {
+            out.put((byte) ('0' + messageLength / 1000));
+            out.put((byte) ('0' + (messageLength / 100) % 10));
+            out.put((byte) ('0' + (messageLength / 10) % 10));
+            out.put((byte) ('0' + messageLength % 10));
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package com.floss83.javaswitch.iso8583;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * Represents a fully parsed ISO 8583 financial message.
@@ -14,9 +22,39 @@ import java.util.Map;
  * <li>Data Elements mapped by field number</li>
  * </ul>
  * <p>
- * Instances of this class are immutable post parsing to ensure message
- * integrity for audit and compliance.
- * All accessors provide read-only views or copies where necessary.
+ * <b>Mutability:</b> a message is not immutable once parsed. The bitmaps
+ * ({@link #isFieldPresent(int)}) keep recording what was received, but the
+ * current values ({@link #hasDataElement(int)}, {@link #getDataElement(int)})
+ * change when:
+ * </p>
+ * <ul>
+ * <li>{@link #getMutableDataElements()} is written to. It is a write-through
+ * view, used to tokenize fields and to fill in derived messages.</li>
+ * <li>{@link #rewriteInPlace(int, InPlaceRewriter)} rewrites a value inside
+ * the backing buffer, e.g. a PAN replaced by a same-length token.</li>
+ * <li>{@link #reset()} clears the message for reuse.</li>
+ * </ul>
+ * <p>
+ * Instances are not thread-safe. A message must not be used after it has
+ * been handed back to its pool. Use {@link #derive(String, int...)} for an
+ * independent copy, e.g. to keep one for an audit record.
+ * </p>
+ * <p>
+ * <b>Compact layout:</b> when produced by the byte-level parser, the message
+ * keeps the raw ASCII bytes in one backing buffer and records every data
+ * element in a fixed 129-slot table of packed (offset, length) pairs. Bitmaps
+ * and field presence are held as pairs of primitive {@code long}s. Field
+ * values are only turned into Strings when a caller asks for them, and are
+ * then cached in a slot array that survives {@link #reset()}. Fields received
+ * in a packed {@link Iso8583Encoding} stay packed: their slots address nibbles
+ * and numeric accessors decode the BCD digits directly.
+ * </p>
+ * <p>
+ * <b>Pooling:</b> instances can be recycled through an
+ * {@link Iso8583MessagePool} and refilled with
+ * {@link Iso8583Parser#parseInto(Iso8583Message, byte[], int, int, Iso8583FieldMask)},
+ * which copies the input into a buffer owned by the message. Once the pool
+ * and buffers are warm, message handling allocates nothing.
  * </p>
  * <p>
  * <b>Usage:</b> Created and populated by {@link Iso8583Parser} during message
@@ -28,27 +66,125 @@ import java.util.Map;
  */
 public class Iso8583Message {
 
+    /** Highest addressable data element (primary + secondary bitmap). */
+    static final int MAX_FIELD = 128;
+
+    private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C',
+            'D', 'E', 'F' };
+
+    /** Nibble value of each ASCII hex digit; -1 for other characters. */
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toLowerCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
+
     /** ISO 8583 Message Type Indicator (4-digit numeric string). */
     private String mti;
 
-    /** Primary bitmap representing presence of data elements 1-64. */
-    private BitSet primaryBitmap;
+    /**
+     * Primary bitmap representing presence of data elements 1-64.
+     * Field 1 is the most significant bit, as on the wire.
+     */
+    private long primaryBitmap;
+
+    /**
+     * Secondary bitmap representing presence of data elements 65-128; only
+     * meaningful when {@link #secondaryBitmapPresent} is set.
+     */
+    private long secondaryBitmap;
+
+    /** True if a secondary bitmap was present on the wire. */
+    private boolean secondaryBitmapPresent;
+
+    /** Fields 1-64 (wire order) that currently hold a value. */
+    private long valuesPrimary;
+
+    /** Fields 65-128 (wire order) that currently hold a value. */
+    private long valuesSecondary;
+
+    /** Raw message bytes backing the slot table; null for built messages. */
+    private byte[] buffer;
+
+    /** Buffer owned by this instance, reused across {@link #reset()} cycles. */
+    private byte[] ownedBuffer;
+
+    /** Offset of the MTI within {@link #buffer}. */
+    private int mtiOffset;
+
+    /** True if the buffer holds the MTI as 2 packed BCD bytes. */
+    private boolean mtiPacked;
+
+    /** Buffer-backed fields 1-64 (wire order) stored as nibbles (packed BCD or raw binary). */
+    private long packedPrimary;
+
+    /** Buffer-backed fields 65-128 (wire order) stored as nibbles. */
+    private long packedSecondary;
+
+    /** Unpacking area for validating packed fields; allocated on first use. */
+    private byte[] scratch;
+
+    /** Slot table: (offset &lt;&lt; 32 | length) of each data element within the buffer. */
+    private final long[] slots = new long[MAX_FIELD + 1];
+
+    /**
+     * String values by field number: cached conversions of buffer slices or
+     * values set explicitly (which take precedence over the slice). Allocated
+     * on first use.
+     */
+    private String[] values;
 
     /**
-     * Secondary bitmap representing presence of data elements 65-128; may be null
-     * if absent.
+     * Spec the message was parsed with: field types and lengths for the
+     * numeric accessors, validators for deferred fields. Null for a message
+     * built by hand, which is read against {@link Iso8583Spec#defaultSpec()}.
      */
-    private BitSet secondaryBitmap;
+    private Iso8583Spec spec;
+
+    /** Present fields 1-64 (wire order) whose format has not been validated yet. */
+    private long deferredPrimary;
+
+    /** Present fields 65-128 (wire order) whose format has not been validated yet. */
+    private long deferredSecondary;
 
-    /** Map storing parsed data elements: field number → value. */
-    private final Map<Integer, String> dataElements;
+    /** Write-through map view handed out by {@link #getMutableDataElements()}. */
+    private DataElementView view;
 
     /**
      * Constructs an empty Iso8583Message instance.
      * Initializes internal data structures.
      */
     public Iso8583Message() {
-        this.dataElements = new HashMap<>();
+    }
+
+    /**
+     * Clears the message so the instance can be refilled.
+     * <p>
+     * The slot table, String slot array and owned buffer are kept for reuse.
+     * </p>
+     */
+    public void reset() {
+        mti = null;
+        primaryBitmap = 0L;
+        secondaryBitmap = 0L;
+        secondaryBitmapPresent = false;
+        valuesPrimary = 0L;
+        valuesSecondary = 0L;
+        buffer = null;
+        mtiOffset = 0;
+        mtiPacked = false;
+        packedPrimary = 0L;
+        packedSecondary = 0L;
+        spec = null;
+        deferredPrimary = 0L;
+        deferredSecondary = 0L;
+        if (values != null) {
+            Arrays.fill(values, null);
+        }
     }
 
     /**
@@ -57,6 +193,11 @@ public class Iso8583Message {
      * @return the 4-character MTI string
      */
     public String getMti() {
+        if (mti == null && buffer != null) {
+            mti = mtiPacked
+                    ? new String(new char[] { getMtiChar(0), getMtiChar(1), getMtiChar(2), getMtiChar(3) })
+                    : new String(buffer, mtiOffset, 4, StandardCharsets.ISO_8859_1);
+        }
         return mti;
     }
 
@@ -72,10 +213,21 @@ public class Iso8583Message {
 
     /**
      * Returns the primary bitmap indicating present data elements (1-64).
+     * Bit index {@code i} of the returned set corresponds to field {@code i + 1}.
      *
-     * @return the primary bitmap as a BitSet
+     * @return the primary bitmap as a BitSet (a fresh copy)
      */
     public BitSet getPrimaryBitmap() {
+        return toBitSet(primaryBitmap);
+    }
+
+    /**
+     * Returns the primary bitmap as it appears on the wire: field 1 is the
+     * most significant bit.
+     *
+     * @return primary bitmap bits
+     */
+    public long getPrimaryBitmapBits() {
         return primaryBitmap;
     }
 
@@ -83,18 +235,28 @@ public class Iso8583Message {
      * Sets the primary bitmap.
      * Package-private to restrict modification after parsing.
      *
-     * @param primaryBitmap BitSet representing presence of fields 1-64
+     * @param primaryBitmap wire-order bits representing presence of fields 1-64
      */
-    void setPrimaryBitmap(BitSet primaryBitmap) {
+    void setPrimaryBitmapBits(long primaryBitmap) {
         this.primaryBitmap = primaryBitmap;
     }
 
     /**
      * Returns the secondary bitmap indicating present data elements (65-128).
      *
-     * @return the secondary bitmap as a BitSet, or null if absent
+     * @return the secondary bitmap as a BitSet (a fresh copy), or null if absent
      */
     public BitSet getSecondaryBitmap() {
+        return secondaryBitmapPresent ? toBitSet(secondaryBitmap) : null;
+    }
+
+    /**
+     * Returns the secondary bitmap as it appears on the wire: field 65 is the
+     * most significant bit. Zero if absent.
+     *
+     * @return secondary bitmap bits
+     */
+    public long getSecondaryBitmapBits() {
         return secondaryBitmap;
     }
 
@@ -102,38 +264,967 @@ public class Iso8583Message {
      * Sets the secondary bitmap.
      * Package-private to restrict modification after parsing.
      *
-     * @param secondaryBitmap BitSet representing presence of fields 65-128
+     * @param secondaryBitmap wire-order bits representing presence of fields 65-128
      */
-    void setSecondaryBitmap(BitSet secondaryBitmap) {
+    void setSecondaryBitmapBits(long secondaryBitmap) {
         this.secondaryBitmap = secondaryBitmap;
+        this.secondaryBitmapPresent = true;
+    }
+
+    /**
+     * Checks the bitmaps for the presence of a data element.
+     *
+     * @param fieldNumber the data element number (1-128)
+     * @return true if the corresponding bitmap bit is set
+     */
+    public boolean isFieldPresent(int fieldNumber) {
+        if (fieldNumber < 1 || fieldNumber > MAX_FIELD) {
+            return false;
+        }
+        long bits = fieldNumber <= 64 ? primaryBitmap : secondaryBitmap;
+        return (bits & bit(fieldNumber)) != 0;
+    }
+
+    /**
+     * Attaches the raw buffer the slot table points into.
+     * Package-private; used by the parser.
+     *
+     * @param buffer    raw message bytes (not copied)
+     * @param mtiOffset offset of the MTI within the buffer
+     * @param mtiPacked true if the MTI is 2 packed BCD bytes rather than 4 ASCII digits
+     */
+    void setBuffer(byte[] buffer, int mtiOffset, boolean mtiPacked) {
+        this.buffer = buffer;
+        this.mtiOffset = mtiOffset;
+        this.mtiPacked = mtiPacked;
+    }
+
+    /**
+     * Records the spec the message is being parsed with.
+     * Package-private; used by the parser.
+     *
+     * @param spec field definitions of the message
+     */
+    void setSpec(Iso8583Spec spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * Returns this instance's own buffer, grown to at least {@code capacity}.
+     * Package-private; used by the parser to copy input into pooled messages.
+     *
+     * @param capacity minimum size in bytes
+     * @return owned buffer (contents undefined)
+     */
+    byte[] ownedBuffer(int capacity) {
+        if (ownedBuffer == null || ownedBuffer.length < capacity) {
+            ownedBuffer = new byte[Math.max(capacity, 512)];
+        }
+        return ownedBuffer;
+    }
+
+    /**
+     * Records a data element as a slice of the backing buffer.
+     * Package-private; used by the parser.
+     *
+     * @param fieldNumber the ISO 8583 data element number (2-128)
+     * @param offset      start of the value within the buffer; in nibbles for packed fields
+     * @param length      logical length of the value (characters, digits or hex digits)
+     */
+    void setDataElementSlice(int fieldNumber, int offset, int length) {
+        slots[fieldNumber] = ((long) offset << 32) | length;
+    }
+
+    /**
+     * Marks the buffer-backed fields as holding values once their slices are
+     * recorded. Package-private; used by the parser.
+     *
+     * @param primary   fields 2-64 (wire order)
+     * @param secondary fields 65-128 (wire order)
+     */
+    void setSliceFields(long primary, long secondary) {
+        this.valuesPrimary = primary;
+        this.valuesSecondary = secondary;
+    }
+
+    /**
+     * Marks buffer-backed fields whose slots address nibbles rather than bytes.
+     * Package-private; used by the parser.
+     *
+     * @param primary   packed fields 2-64 (wire order)
+     * @param secondary packed fields 65-128 (wire order)
+     */
+    void setPackedFields(long primary, long secondary) {
+        this.packedPrimary = primary;
+        this.packedSecondary = secondary;
+    }
+
+    /**
+     * Returns a scratch area of at least {@code capacity} bytes, reused across
+     * calls. Package-private; used by the parser to unpack fields for validation.
+     *
+     * @param capacity minimum size in bytes
+     * @return scratch buffer (contents undefined)
+     */
+    byte[] scratch(int capacity) {
+        if (scratch == null || scratch.length < capacity) {
+            scratch = new byte[Math.max(capacity, 64)];
+        }
+        return scratch;
+    }
+
+    /**
+     * Expands packed nibbles into upper-case ASCII hex digits.
+     *
+     * @param src          buffer holding the nibbles
+     * @param nibbleOffset index of the first nibble
+     * @param count        number of nibbles
+     * @param dst          destination array
+     */
+    static void unpack(byte[] src, int nibbleOffset, int count, byte[] dst) {
+        for (int i = 0; i < count; i++) {
+            dst[i] = HEX_DIGITS[Iso8583Encoding.nibble(src, nibbleOffset + i)];
+        }
+    }
+
+    /**
+     * Marks present fields whose format check was skipped during a selective
+     * parse; they are validated by the {@link #setSpec spec's} validators on
+     * first access. Package-private; used by the parser.
+     *
+     * @param primary   deferred fields 1-64 (wire order)
+     * @param secondary deferred fields 65-128 (wire order)
+     */
+    void deferValidation(long primary, long secondary) {
+        this.deferredPrimary = primary;
+        this.deferredSecondary = secondary;
+    }
+
+    /**
+     * Validates a deferred field on first access.
+     *
+     * @throws IllegalStateException (caused by {@link Iso8583ParseException}) if the value is malformed
+     */
+    private void validateDeferred(int fieldNumber) {
+        long bit = bit(fieldNumber);
+        long deferred = fieldNumber <= 64 ? deferredPrimary : deferredSecondary;
+        if ((deferred & bit) == 0) {
+            return;
+        }
+        int length = sliceLength(fieldNumber);
+        boolean valid;
+        if (isPacked(fieldNumber)) {
+            byte[] unpacked = scratch(length);
+            unpack(buffer, sliceOffset(fieldNumber), length, unpacked);
+            valid = spec.getValidator(fieldNumber).isValid(unpacked, 0, length);
+        } else {
+            valid = spec.getValidator(fieldNumber).isValid(buffer, sliceOffset(fieldNumber), length);
+        }
+        if (!valid) {
+            throw new IllegalStateException("Invalid format in field " + fieldNumber,
+                    new Iso8583ParseException("Invalid format in field " + fieldNumber));
+        }
+        if (fieldNumber <= 64) {
+            deferredPrimary &= ~bit;
+        } else {
+            deferredSecondary &= ~bit;
+        }
+    }
+
+    /**
+     * Key that matches a response to its request across a link: STAN (11),
+     * RRN (37) and terminal ID (41), which responses echo.
+     *
+     * @return {@code STAN|RRN|TID} (absent fields as empty), or null if none of them is present
+     */
+    public String getCorrelationKey() {
+        String stan = getDataElement(11);
+        String rrn = getDataElement(37);
+        String terminalId = getDataElement(41);
+        if (stan == null && rrn == null && terminalId == null) {
+            return null;
+        }
+        return (stan != null ? stan : "") + '|' + (rrn != null ? rrn : "") + '|'
+                + (terminalId != null ? terminalId : "");
+    }
+
+    /**
+     * Creates a new message of another type from this one, e.g. the 0400
+     * reversal of a 0200: the given MTI plus copies of the listed fields that
+     * are present here. Further fields can be added through
+     * {@link #getMutableDataElements()}.
+     *
+     * @param newMti       MTI of the new message
+     * @param fieldNumbers fields to copy (absent ones are skipped)
+     * @return a new, independent message
+     */
+    public Iso8583Message derive(String newMti, int... fieldNumbers) {
+        Iso8583Message derived = new Iso8583Message();
+        derived.spec = spec;
+        derived.setMti(newMti);
+        for (int fieldNumber : fieldNumbers) {
+            String value = getDataElement(fieldNumber);
+            if (value != null) {
+                derived.setDataElement(fieldNumber, value);
+            }
+        }
+        return derived;
+    }
+
+    /**
+     * Rewrites a data element where it lies in the buffer the message was
+     * parsed from, e.g. to substitute a same-length token for a PAN without
+     * reallocating anything. The buffer is the caller's for
+     * {@code parse(byte[], ...)} and the message's own for {@code parseInto}.
+     * <p>
+     * Only ASCII buffer-backed values qualify: a field that is absent, packed,
+     * or already held as a String (read or set through the map) is left alone
+     * and {@code false} returned, so the caller can fall back to
+     * {@link #getMutableDataElements()}. A deferred field is validated first.
+     * </p>
+     *
+     * @param fieldNumber the data element number
+     * @param rewriter    overwrites the value's bytes, keeping its length
+     * @return true if the rewriter ran and reported success
+     * @throws IllegalStateException if a deferred field turns out to be malformed
+     */
+    public boolean rewriteInPlace(int fieldNumber, InPlaceRewriter rewriter) {
+        if (!hasDataElement(fieldNumber) || buffer == null || isPacked(fieldNumber)
+                || values != null && values[fieldNumber] != null) {
+            return false;
+        }
+        validateDeferred(fieldNumber);
+        return rewriter.rewrite(buffer, sliceOffset(fieldNumber), sliceLength(fieldNumber));
+    }
+
+    /**
+     * Same-length, in-place transformation of a field value; see
+     * {@link #rewriteInPlace(int, InPlaceRewriter)}.
+     */
+    @FunctionalInterface
+    public interface InPlaceRewriter {
+
+        /**
+         * @param buffer backing buffer
+         * @param offset index of the value's first byte
+         * @param length value length in bytes; must not change
+         * @return true if the value was rewritten, false if this rewriter does not apply
+         */
+        boolean rewrite(byte[] buffer, int offset, int length);
     }
 
     /**
      * Returns the mutable data elements map (AUDIT/DEV USE ONLY!).
      * Mutating this map will change the in-memory ISO8583 message!
+     * <p>
+     * The map is a write-through view in ascending field order; reading an
+     * entry converts the underlying slice to a String.
+     * </p>
      */
     public Map<Integer, String> getMutableDataElements() {
-        return dataElements;
+        if (view == null) {
+            view = new DataElementView();
+        }
+        return view;
     }
 
     /**
      * Associates a field number with its parsed value.
      * Package-private to restrict external modification.
      *
-     * @param fieldNumber the ISO 8583 data element number (1-128)
+     * @param fieldNumber the ISO 8583 data element number (2-128)
      * @param value       the string value of the data element
      */
     void setDataElement(int fieldNumber, String value) {
-        dataElements.put(fieldNumber, value);
+        if (values == null) {
+            values = new String[MAX_FIELD + 1];
+        }
+        values[fieldNumber] = value;
+        if (fieldNumber <= 64) {
+            valuesPrimary |= bit(fieldNumber);
+        } else {
+            valuesSecondary |= bit(fieldNumber);
+        }
+    }
+
+    /**
+     * Removes a data element. Package-private; used by the map view.
+     *
+     * @param fieldNumber the ISO 8583 data element number (2-128)
+     */
+    void removeDataElement(int fieldNumber) {
+        if (values != null) {
+            values[fieldNumber] = null;
+        }
+        if (fieldNumber <= 64) {
+            valuesPrimary &= ~bit(fieldNumber);
+        } else {
+            valuesSecondary &= ~bit(fieldNumber);
+        }
     }
 
     /**
      * Retrieves the value for the specified data element number.
+     * Buffer-backed fields are converted to a String on first access; fields
+     * skipped by a selective parse are validated at that point.
      *
      * @param fieldNumber the data element number
      * @return the string value of the data element, or null if not present
+     * @throws IllegalStateException if a deferred field turns out to be malformed
      */
     public String getDataElement(int fieldNumber) {
-        return dataElements.get(fieldNumber);
+        if (!hasDataElement(fieldNumber)) {
+            return null;
+        }
+        String value = values != null ? values[fieldNumber] : null;
+        if (value == null) {
+            validateDeferred(fieldNumber);
+            int length = sliceLength(fieldNumber);
+            if (isPacked(fieldNumber)) {
+                byte[] unpacked = scratch(length);
+                unpack(buffer, sliceOffset(fieldNumber), length, unpacked);
+                value = new String(unpacked, 0, length, StandardCharsets.ISO_8859_1);
+            } else {
+                value = new String(buffer, sliceOffset(fieldNumber), length, StandardCharsets.ISO_8859_1);
+            }
+            if (values == null) {
+                values = new String[MAX_FIELD + 1];
+            }
+            values[fieldNumber] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Checks whether a data element currently holds a value, either
+     * buffer-backed or set explicitly.
+     *
+     * @param fieldNumber the data element number
+     * @return true if the field has a value
+     */
+    public boolean hasDataElement(int fieldNumber) {
+        if (fieldNumber < 2 || fieldNumber > MAX_FIELD) {
+            return false;
+        }
+        long bits = fieldNumber <= 64 ? valuesPrimary : valuesSecondary;
+        return (bits & bit(fieldNumber)) != 0;
+    }
+
+    /**
+     * Decodes a numeric data element (e.g. an amount) directly from its
+     * characters, without creating a String.
+     *
+     * @param field a numeric ({@code n} or {@code xn}) field
+     * @return the value; see {@link #getLong(int)}
+     */
+    public long getLong(Iso8583Field field) {
+        return decodeNumber(field.getFieldNumber(), 18);
+    }
+
+    /**
+     * Decodes a numeric data element directly from its characters.
+     * <p>
+     * Fields defined by the spec the message was parsed with (the base spec
+     * for a message built by hand) must be numeric and match their declared
+     * fixed length (or fit their maximum, for LLVAR fields). Signed {@code xn}
+     * fields (28-31 in the base spec) decode 'C' (credit) as positive and 'D'
+     * (debit) as negative.
+     * </p>
+     *
+     * @param fieldNumber the data element number
+     * @return the value
+     * @throws IllegalArgumentException if the field is declared non-numeric
+     * @throws IllegalStateException    if the field is absent, malformed, or has more than 18 digits
+     */
+    public long getLong(int fieldNumber) {
+        return decodeNumber(fieldNumber, 18);
+    }
+
+    /**
+     * Decodes a numeric data element of at most 9 digits (e.g. the STAN).
+     *
+     * @param field a numeric ({@code n} or {@code xn}) field
+     * @return the value; see {@link #getLong(int)}
+     */
+    public int getInt(Iso8583Field field) {
+        return (int) decodeNumber(field.getFieldNumber(), 9);
+    }
+
+    /**
+     * Decodes a numeric data element of at most 9 digits.
+     *
+     * @param fieldNumber the data element number
+     * @return the value; see {@link #getLong(int)}
+     * @throws IllegalStateException if the value has more than 9 digits
+     */
+    public int getInt(int fieldNumber) {
+        return (int) decodeNumber(fieldNumber, 9);
+    }
+
+    /**
+     * Checks the Luhn (mod 10) check digit of a data element, e.g. the PAN,
+     * reading its characters where they lie.
+     *
+     * @param fieldNumber the data element number
+     * @return true if the value is at least two digits, all digits, and its checksum is zero
+     * @throws IllegalStateException if the field is absent, or is deferred and turns out to be malformed
+     * @see Iso8583CharClass#isLuhnValid(byte[], int, int)
+     */
+    public boolean isLuhnValid(int fieldNumber) {
+        if (!hasDataElement(fieldNumber)) {
+            throw new IllegalStateException("Field " + fieldNumber + " is not present");
+        }
+        String value = values != null ? values[fieldNumber] : null;
+        if (value == null) {
+            validateDeferred(fieldNumber);
+        }
+        boolean packed = value == null && isPacked(fieldNumber);
+        int offset = value != null ? 0 : sliceOffset(fieldNumber);
+        int length = value != null ? value.length() : sliceLength(fieldNumber);
+        if (value == null && !packed) {
+            return Iso8583CharClass.isLuhnValid(buffer, offset, length);
+        }
+        // BCD or a String value: lay the digits out as ASCII first
+        byte[] digits = new byte[length];
+        for (int i = 0; i < length; i++) {
+            int c = charAt(value, packed, offset + i);
+            digits[i] = (byte) (c < 0x80 ? c : '?');
+        }
+        return Iso8583CharClass.isLuhnValid(digits, 0, length);
+    }
+
+    /**
+     * Decodes an ISO 4217 numeric currency code.
+     *
+     * @param fieldNumber 49 (transaction), 50 (settlement) or 51 (cardholder billing)
+     * @return the currency code, e.g. 840 for USD
+     * @throws IllegalArgumentException if the field is not a currency code field
+     * @throws IllegalStateException    if the field is absent or malformed
+     */
+    public int getCurrencyCode(int fieldNumber) {
+        if (fieldNumber < Iso8583Field.CURRENCY_CODE_TRANSACTION.getFieldNumber()
+                || fieldNumber > Iso8583Field.CURRENCY_CODE_CARDHOLDER_BILLING.getFieldNumber()) {
+            throw new IllegalArgumentException("Field " + fieldNumber + " is not a currency code");
+        }
+        return (int) decodeNumber(fieldNumber, 3);
+    }
+
+    /**
+     * Decodes field 7 (transmission date and time, MMDDhhmmss GMT) to epoch
+     * seconds.
+     * <p>
+     * The field carries no year, so the year is taken from whichever of the
+     * reference year and its neighbours puts the timestamp closest to
+     * {@code referenceEpochSecond}; messages sent just before midnight on
+     * 31 December therefore still decode to the old year.
+     * </p>
+     *
+     * @param referenceEpochSecond a time close to the transmission, usually now
+     * @return transmission time in seconds since 1970-01-01T00:00:00Z
+     * @throws IllegalStateException if field 7 is absent or not a valid date and time
+     */
+    public long getTransmissionEpochSecond(long referenceEpochSecond) {
+        int fieldNumber = Iso8583Field.TRANSMISSION_DATE_TIME.getFieldNumber();
+        String value = numericSource(fieldNumber);
+        boolean packed = value == null && isPacked(fieldNumber);
+        int offset = value != null ? 0 : sliceOffset(fieldNumber);
+        int month = twoDigits(fieldNumber, value, packed, offset);
+        int day = twoDigits(fieldNumber, value, packed, offset + 2);
+        int hour = twoDigits(fieldNumber, value, packed, offset + 4);
+        int minute = twoDigits(fieldNumber, value, packed, offset + 6);
+        int second = twoDigits(fieldNumber, value, packed, offset + 8);
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+            throw new IllegalStateException("Invalid date/time in field " + fieldNumber);
+        }
+        long secondOfDay = hour * 3600L + minute * 60L + second;
+
+        int referenceYear = yearOfEpochDay(Math.floorDiv(referenceEpochSecond, 86400L));
+        long best = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int year = referenceYear - 1; year <= referenceYear + 1; year++) {
+            if (day > daysInMonth(year, month)) {
+                continue;
+            }
+            long candidate = epochDay(year, month, day) * 86400L + secondOfDay;
+            long distance = Math.abs(candidate - referenceEpochSecond);
+            if (distance < bestDistance) {
+                best = candidate;
+                bestDistance = distance;
+            }
+        }
+        if (bestDistance == Long.MAX_VALUE) {
+            throw new IllegalStateException("Invalid date/time in field " + fieldNumber);
+        }
+        return best;
+    }
+
+    /**
+     * Returns the String value set explicitly for a field, or null when the
+     * value is buffer-backed, after checking the field is present, validated
+     * and matches its declared length.
+     */
+    private String numericSource(int fieldNumber) {
+        if (!hasDataElement(fieldNumber)) {
+            throw new IllegalStateException("Field " + fieldNumber + " is not present");
+        }
+        String value = values != null ? values[fieldNumber] : null;
+        if (value == null) {
+            validateDeferred(fieldNumber);
+        }
+        Iso8583Spec fields = fieldSpec();
+        if (fields.isDefined(fieldNumber)) {
+            Iso8583DataType type = fields.getDataType(fieldNumber);
+            if (type != Iso8583DataType.N && type != Iso8583DataType.XN) {
+                throw new IllegalArgumentException("Field " + fieldNumber + " is not numeric (type " + type.getCode()
+                        + ")");
+            }
+            int length = value != null ? value.length() : sliceLength(fieldNumber);
+            int declared = fields.getMaxLength(fieldNumber);
+            if (fields.isVariableLength(fieldNumber) ? length > declared : length != declared) {
+                throw new IllegalStateException("Field " + fieldNumber + " length " + length
+                        + " does not match declared length " + declared);
+            }
+        }
+        return value;
+    }
+
+    private Iso8583Spec fieldSpec() {
+        return spec != null ? spec : Iso8583Spec.defaultSpec();
+    }
+
+    private long decodeNumber(int fieldNumber, int maxDigits) {
+        String value = numericSource(fieldNumber);
+        boolean packed = value == null && isPacked(fieldNumber);
+        int offset = value != null ? 0 : sliceOffset(fieldNumber);
+        int end = offset + (value != null ? value.length() : sliceLength(fieldNumber));
+
+        Iso8583Spec fields = fieldSpec();
+        boolean negative = false;
+        if (fields.isDefined(fieldNumber) && fields.getDataType(fieldNumber) == Iso8583DataType.XN) {
+            int sign = charAt(value, packed, offset++);
+            if (sign == 'D') {
+                negative = true;
+            } else if (sign != 'C') {
+                throw new IllegalStateException("Invalid sign in field " + fieldNumber);
+            }
+        }
+        if (end <= offset || end - offset > maxDigits) {
+            throw new IllegalStateException("Field " + fieldNumber + " has " + Math.max(end - offset, 0)
+                    + " digits; expected 1 to " + maxDigits);
+        }
+        long result;
+        if (packed) {
+            result = Iso8583Encoding.decodeBcd(buffer, offset, end - offset);
+            if (result < 0) {
+                throw new IllegalStateException("Invalid format in field " + fieldNumber);
+            }
+        } else {
+            result = 0;
+            for (int i = offset; i < end; i++) {
+                int digit = charAt(value, false, i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new IllegalStateException("Invalid format in field " + fieldNumber);
+                }
+                result = result * 10 + digit;
+            }
+        }
+        return negative ? -result : result;
+    }
+
+    private int twoDigits(int fieldNumber, String value, boolean packed, int index) {
+        int tens = charAt(value, packed, index) - '0';
+        int units = charAt(value, packed, index + 1) - '0';
+        if (tens < 0 || tens > 9 || units < 0 || units > 9) {
+            throw new IllegalStateException("Invalid format in field " + fieldNumber);
+        }
+        return tens * 10 + units;
+    }
+
+    /**
+     * Reads a character from an explicit value, or from the backing buffer when
+     * value is null ({@code index} then counts nibbles if the field is packed).
+     */
+    private int charAt(String value, boolean packed, int index) {
+        if (value != null) {
+            return value.charAt(index);
+        }
+        return packed ? HEX_DIGITS[Iso8583Encoding.nibble(buffer, index)] : buffer[index] & 0xFF;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /** Days since 1970-01-01 for a proleptic Gregorian date (H. Hinnant's days_from_civil). */
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /** Gregorian year containing an epoch day (year part of H. Hinnant's civil_from_days). */
+    private static int yearOfEpochDay(long epochDay) {
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097L);
+        long dayOfEra = z - era * 146097L;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        return (int) (yearOfEra + era * 400 + (monthIndex >= 10 ? 1 : 0));
+    }
+
+    /**
+     * Returns the encoded length of a data element without creating a String.
+     * Package-private; used by the packer.
+     *
+     * @param fieldNumber a field for which {@link #hasDataElement(int)} is true
+     * @return value length in bytes
+     */
+    int getDataElementLength(int fieldNumber) {
+        String value = values != null ? values[fieldNumber] : null;
+        return value != null ? value.length() : sliceLength(fieldNumber);
+    }
+
+    /**
+     * Writes the raw value of a data element (no length prefix) to a buffer.
+     * Buffer-backed values are copied byte for byte. Package-private; used by
+     * the packer.
+     *
+     * @param fieldNumber a field for which {@link #hasDataElement(int)} is true
+     * @param out         destination buffer
+     */
+    void writeDataElement(int fieldNumber, ByteBuffer out) {
+        String value = values != null ? values[fieldNumber] : null;
+        if (value != null) {
+            writeAscii(value, out);
+        } else if (isPacked(fieldNumber)) {
+            int offset = sliceOffset(fieldNumber);
+            int length = sliceLength(fieldNumber);
+            for (int i = 0; i < length; i++) {
+                out.put(HEX_DIGITS[Iso8583Encoding.nibble(buffer, offset + i)]);
+            }
+        } else {
+            out.put(buffer, sliceOffset(fieldNumber), sliceLength(fieldNumber));
+        }
+    }
+
+    /**
+     * Writes the value of a data element as packed nibbles (BCD digits or raw
+     * binary), padding an odd length to a whole byte. Values that are already
+     * packed and byte-aligned are copied byte for byte. Package-private; used
+     * by the packer after {@link #isPackable(int, boolean)}.
+     *
+     * @param fieldNumber a field for which {@link #hasDataElement(int)} is true
+     * @param padLeft     true to pad with a leading 0 nibble, false for a trailing F nibble
+     * @param out         destination buffer
+     */
+    void writePackedDataElement(int fieldNumber, boolean padLeft, ByteBuffer out) {
+        String value = values != null ? values[fieldNumber] : null;
+        boolean packed = value == null && isPacked(fieldNumber);
+        int offset = value != null ? 0 : sliceOffset(fieldNumber);
+        int length = getDataElementLength(fieldNumber);
+        if (packed && (length & 1) == 0 && (offset & 1) == 0) {
+            out.put(buffer, offset >> 1, length >> 1);
+            return;
+        }
+        int i = 0;
+        if ((length & 1) != 0 && padLeft) {
+            out.put((byte) nibbleAt(value, packed, offset));
+            i = 1;
+        }
+        for (; i + 1 < length; i += 2) {
+            out.put((byte) ((nibbleAt(value, packed, offset + i) << 4) | nibbleAt(value, packed, offset + i + 1)));
+        }
+        if (i < length) {
+            out.put((byte) ((nibbleAt(value, packed, offset + i) << 4) | 0x0F));
+        }
+    }
+
+    /**
+     * Checks that a data element can be written packed: its characters must
+     * all be hex digits (or decimal digits when {@code digitsOnly}). Package-private;
+     * used by the packer.
+     *
+     * @param fieldNumber a field for which {@link #hasDataElement(int)} is true
+     * @param digitsOnly  true for numeric fields
+     * @return true if every character has a nibble form
+     */
+    boolean isPackable(int fieldNumber, boolean digitsOnly) {
+        String value = values != null ? values[fieldNumber] : null;
+        boolean packed = value == null && isPacked(fieldNumber);
+        int offset = value != null ? 0 : sliceOffset(fieldNumber);
+        int length = getDataElementLength(fieldNumber);
+        int limit = digitsOnly ? 9 : 15;
+        for (int i = 0; i < length; i++) {
+            int nibble = nibbleAt(value, packed, offset + i);
+            if (nibble < 0 || nibble > limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the bytes a data element stands for into {@code dst}: packed
+     * binary slices as their raw bytes, hex text (when {@code hex}) decoded
+     * two characters per byte, anything else as its Latin-1 characters.
+     * Package-private; used by {@link Iso8583TlvView}.
+     *
+     * @param fieldNumber a field for which {@link #hasDataElement(int)} is true
+     * @param hex         true if a text value is hex-encoded binary
+     * @param dst         destination, at least {@link #getDataElementLength(int)} bytes
+     * @return number of bytes written, or -1 if hex data has an odd length or a non-hex character
+     * @throws IllegalStateException if a deferred field turns out to be malformed
+     */
+    int copyDataElementBytes(int fieldNumber, boolean hex, byte[] dst) {
+        String value = values != null ? values[fieldNumber] : null;
+        if (value == null) {
+            validateDeferred(fieldNumber);
+        }
+        boolean packed = value == null && isPacked(fieldNumber);
+        int offset = value != null ? 0 : sliceOffset(fieldNumber);
+        int length = getDataElementLength(fieldNumber);
+        if (!packed && !hex) {
+            if (value != null) {
+                for (int i = 0; i < length; i++) {
+                    dst[i] = (byte) value.charAt(i);
+                }
+            } else {
+                System.arraycopy(buffer, offset, dst, 0, length);
+            }
+            return length;
+        }
+        if ((length & 1) != 0) {
+            return -1;
+        }
+        if (packed && (offset & 1) == 0) {
+            System.arraycopy(buffer, offset >> 1, dst, 0, length >> 1);
+            return length >> 1;
+        }
+        for (int i = 0; i < length; i += 2) {
+            int high = nibbleAt(value, packed, offset + i);
+            int low = nibbleAt(value, packed, offset + i + 1);
+            if (high < 0 || low < 0) {
+                return -1;
+            }
+            dst[i >> 1] = (byte) ((high << 4) | low);
+        }
+        return length >> 1;
+    }
+
+    /** Nibble value of a character (hex digit), or -1 if it has none. */
+    private int nibbleAt(String value, boolean packed, int index) {
+        if (packed) {
+            return Iso8583Encoding.nibble(buffer, index);
+        }
+        int c = value != null ? value.charAt(index) : buffer[index] & 0xFF;
+        return c < 128 ? HEX_VALUES[c] : -1;
+    }
+
+    /**
+     * @return true if a secondary bitmap was present on the wire (package-private; used by the packer)
+     */
+    boolean isSecondaryBitmapPresent() {
+        return secondaryBitmapPresent;
+    }
+
+    /**
+     * @return true if an MTI has been parsed or set (package-private; used by the packer)
+     */
+    boolean hasMti() {
+        return mti != null || buffer != null;
+    }
+
+    /**
+     * Reads one MTI character without materializing the MTI String.
+     * Package-private; used by the packer.
+     *
+     * @param index position within the MTI (0-3)
+     * @return the ASCII character at that position
+     */
+    char getMtiChar(int index) {
+        if (mti != null) {
+            return mti.charAt(index);
+        }
+        if (mtiPacked) {
+            return (char) HEX_DIGITS[Iso8583Encoding.nibble(buffer, (mtiOffset << 1) + index)];
+        }
+        return (char) (buffer[mtiOffset + index] & 0xFF);
+    }
+
+    private int sliceOffset(int fieldNumber) {
+        return (int) (slots[fieldNumber] >>> 32);
+    }
+
+    private int sliceLength(int fieldNumber) {
+        return (int) slots[fieldNumber];
+    }
+
+    /** True if the field's buffer slice addresses nibbles (explicit values take precedence). */
+    private boolean isPacked(int fieldNumber) {
+        long packed = fieldNumber <= 64 ? packedPrimary : packedSecondary;
+        return (packed & bit(fieldNumber)) != 0;
+    }
+
+    /** Wire-order mask for a field within its bitmap word. */
+    private static long bit(int fieldNumber) {
+        return 1L << (63 - ((fieldNumber - 1) & 63));
+    }
+
+    private static void writeAscii(String value, ByteBuffer out) {
+        for (int i = 0; i < value.length(); i++) {
+            out.put((byte) value.charAt(i));
+        }
+    }
+
+    private static BitSet toBitSet(long wireBits) {
+        // Wire order puts field 1 in the MSB; BitSet index 0 is the LSB.
+        return BitSet.valueOf(new long[] { Long.reverse(wireBits) });
+    }
+
+    /**
+     * Write-through {@code Map<Integer, String>} over the field slots, iterating
+     * in ascending field order.
+     */
+    private final class DataElementView extends AbstractMap<Integer, String> {
+
+        @Override
+        public String get(Object key) {
+            return key instanceof Integer fieldNumber ? getDataElement(fieldNumber) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Integer fieldNumber && hasDataElement(fieldNumber);
+        }
+
+        @Override
+        public String put(Integer key, String value) {
+            if (key < 2 || key > MAX_FIELD) {
+                throw new IllegalArgumentException("Field number out of range: " + key);
+            }
+            if (value == null) {
+                throw new NullPointerException("Data element value must not be null");
+            }
+            String previous = getDataElement(key);
+            setDataElement(key, value);
+            return previous;
+        }
+
+        @Override
+        public String remove(Object key) {
+            if (!(key instanceof Integer fieldNumber) || !hasDataElement(fieldNumber)) {
+                return null;
+            }
+            String previous = getDataElement(fieldNumber);
+            removeDataElement(fieldNumber);
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return Long.bitCount(valuesPrimary) + Long.bitCount(valuesSecondary);
+        }
+
+        @Override
+        public Set<Map.Entry<Integer, String>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<Integer, String>> iterator() {
+                    return new FieldIterator();
+                }
+
+                @Override
+                public int size() {
+                    return DataElementView.this.size();
+                }
+            };
+        }
+
+        /** Ascending iterator over fields holding a value. */
+        private final class FieldIterator implements Iterator<Map.Entry<Integer, String>> {
+            private int next = advance(2);
+            private int last = -1;
+
+            private int advance(int from) {
+                for (int fieldNumber = from; fieldNumber <= MAX_FIELD; fieldNumber++) {
+                    if (hasDataElement(fieldNumber)) {
+                        return fieldNumber;
+                    }
+                }
+                return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != -1;
+            }
+
+            @Override
+            public Map.Entry<Integer, String> next() {
+                if (next == -1) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = advance(next + 1);
+                return new FieldEntry(last);
+            }
+
+            @Override
+            public void remove() {
+                if (last == -1) {
+                    throw new IllegalStateException();
+                }
+                removeDataElement(last);
+                last = -1;
+            }
+        }
+
+        /** Entry whose value reads and writes through to the message. */
+        private final class FieldEntry implements Map.Entry<Integer, String> {
+            private final int fieldNumber;
+
+            FieldEntry(int fieldNumber) {
+                this.fieldNumber = fieldNumber;
+            }
+
+            @Override
+            public Integer getKey() {
+                return fieldNumber;
+            }
+
+            @Override
+            public String getValue() {
+                return getDataElement(fieldNumber);
+            }
+
+            @Override
+            public String setValue(String value) {
+                return put(fieldNumber, value);
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof Map.Entry<?, ?> e && getKey().equals(e.getKey())
+                        && Objects.equals(getValue(), e.getValue());
+            }
+
+            @Override
+            public int hashCode() {
+                return fieldNumber ^ Objects.hashCode(getValue());
+            }
+
+            @Override
+            public String toString() {
+                return fieldNumber + "=" + getValue();
+            }
+        }
     }
 }
@@ -0,0 +1,107 @@
+package com.floss83.javaswitch.iso8583;
+
+/**
+ * Bounded free-list of reusable {@link Iso8583Message} instances.
+ * <p>
+ * A pool is not thread-safe: it is meant to be owned by one I/O thread (or
+ * one event loop), which acquires a message per request, fills it with
+ * {@link Iso8583Parser#parseInto(Iso8583Message, byte[], int, int, Iso8583FieldMask)}
+ * and releases it once the response has been written. Threads without an
+ * obvious owner can use {@link #forCurrentThread()}.
+ * </p>
+ *
+ * Usage example:
+ *
+ * <pre>
+ * Iso8583Message request = pool.acquire();
+ * try {
+ *     parser.parseInto(request, buf, 0, len, Iso8583FieldMask.ALL);
+ *     template.writeResponse(request, "00", out);
+ * } finally {
+ *     pool.release(request);
+ * }
+ * </pre>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public final class Iso8583MessagePool {
+
+    /** Default number of idle instances retained per pool. */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final ThreadLocal<Iso8583MessagePool> PER_THREAD = ThreadLocal
+            .withInitial(() -> new Iso8583MessagePool(DEFAULT_CAPACITY));
+
+    private final Iso8583Message[] free;
+    private int size;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param capacity maximum number of idle instances retained
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public Iso8583MessagePool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Pool capacity must be positive: " + capacity);
+        }
+        this.free = new Iso8583Message[capacity];
+    }
+
+    /**
+     * Returns the pool owned by the calling thread. Not for virtual threads:
+     * each would get (and keep) a pool of its own; a virtual thread serving a
+     * connection should simply hold one message for the connection's life.
+     *
+     * @return thread-confined pool
+     */
+    public static Iso8583MessagePool forCurrentThread() {
+        return PER_THREAD.get();
+    }
+
+    /**
+     * Takes an idle message, or creates one if the pool is empty.
+     *
+     * @return an empty message
+     */
+    public Iso8583Message acquire() {
+        if (size == 0) {
+            return new Iso8583Message();
+        }
+        Iso8583Message message = free[--size];
+        free[size] = null;
+        return message;
+    }
+
+    /**
+     * Resets a message and returns it to the pool. Messages beyond the pool's
+     * capacity are left to the garbage collector. The caller must not use the
+     * message (or any value read from its buffer by reference) afterwards.
+     *
+     * @param message message to recycle; null is ignored
+     */
+    public void release(Iso8583Message message) {
+        if (message == null) {
+            return;
+        }
+        message.reset();
+        if (size < free.length) {
+            free[size++] = message;
+        }
+    }
+
+    /**
+     * @return number of idle instances currently held
+     */
+    public int idleCount() {
+        return size;
+    }
+
+    /**
+     * @return maximum number of idle instances retained
+     */
+    public int capacity() {
+        return free.length;
+    }
+}
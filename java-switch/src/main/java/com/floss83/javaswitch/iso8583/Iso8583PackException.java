@@ -0,0 +1,34 @@
+package com.floss83.javaswitch.iso8583;
+
+/**
+ * Exception thrown when an {@link Iso8583Message} cannot be encoded.
+ * <p>
+ * Signals values that do not fit the field specification (unsupported
+ * fields, wrong fixed lengths, oversized variable fields) or an output buffer
+ * that is too small for the encoded message.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class Iso8583PackException extends Exception {
+
+    /**
+     * Constructs a new Iso8583PackException with the specified detail message.
+     *
+     * @param message the detailed error message explaining the cause
+     */
+    public Iso8583PackException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs a new Iso8583PackException with the specified detail message and cause.
+     *
+     * @param message the detailed error message explaining the cause
+     * @param cause   the underlying cause of this exception
+     */
+    public Iso8583PackException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,355 @@
+package com.floss83.javaswitch.iso8583;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ISO 8583 message packer (encoder).
+ * <p>
+ * Writes an {@link Iso8583Message} into a caller-supplied {@link ByteBuffer}
+ * in the packer's {@link Iso8583Encoding}: MTI, bitmaps computed from the
+ * fields actually present, LLVAR/LLLVAR length prefixes and field values.
+ * Buffer-backed values produced by {@link Iso8583Parser} are copied byte for
+ * byte when the source and target layouts agree, so no intermediate Strings
+ * are created and a parse/pack round trip of a message with upper-case hex
+ * bitmaps is byte-identical. Messages parsed in one encoding can be packed in
+ * another.
+ * </p>
+ * <p>
+ * Field layout comes from the same compiled {@link Iso8583Spec} used for
+ * parsing. Packers hold no per-message state and can be shared between
+ * threads.
+ * </p>
+ *
+ * Usage example:
+ *
+ * <pre>
+ * Iso8583Packer packer = new Iso8583Packer();
+ * int written = packer.pack(message, outBuffer);
+ * </pre>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class Iso8583Packer {
+
+    private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C',
+            'D', 'E', 'F' };
+
+    private final Iso8583Spec spec;
+    private final Iso8583Encoding encoding;
+
+    /** Fields whose values are nibble-packed under {@link #encoding}, indexed by field number. */
+    private final boolean[] packedFields = new boolean[Iso8583Message.MAX_FIELD + 1];
+
+    /**
+     * Creates a packer for the base ISO 8583:1987 specification.
+     */
+    public Iso8583Packer() {
+        this(Iso8583Spec.defaultSpec());
+    }
+
+    /**
+     * Creates an ASCII packer driven by the given compiled specification.
+     *
+     * @param spec field specification (base or dialect)
+     */
+    public Iso8583Packer(Iso8583Spec spec) {
+        this(spec, Iso8583Encoding.ASCII);
+    }
+
+    /**
+     * Creates a packer driven by the given compiled specification and wire
+     * encoding.
+     *
+     * @param spec     field specification (base or dialect)
+     * @param encoding wire encoding of the listener this packer serves
+     */
+    public Iso8583Packer(Iso8583Spec spec, Iso8583Encoding encoding) {
+        this.spec = spec;
+        this.encoding = encoding;
+        for (int fieldNum = 2; fieldNum <= Iso8583Message.MAX_FIELD; fieldNum++) {
+            packedFields[fieldNum] = spec.isDefined(fieldNum) && encoding.packs(spec.getDataType(fieldNum));
+        }
+    }
+
+    /**
+     * @return the field specification this packer encodes with
+     */
+    public Iso8583Spec getSpec() {
+        return spec;
+    }
+
+    /**
+     * @return the wire encoding this packer writes
+     */
+    public Iso8583Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Encodes a message into the buffer at its current position.
+     * <p>
+     * The message is validated and measured before anything is written, so on
+     * failure the buffer is left untouched.
+     * </p>
+     *
+     * @param message message to encode
+     * @param out     destination buffer; its position is advanced past the message
+     * @return number of bytes written
+     * @throws Iso8583PackException if a field does not fit the spec or the buffer is too small
+     */
+    public int pack(Iso8583Message message, ByteBuffer out) throws Iso8583PackException {
+        checkMti(message);
+
+        long primaryBitmap = 0L;
+        long secondaryBitmap = 0L;
+        int size = encoding.getMtiLength() + encoding.getBitmapLength();
+        for (int fieldNum = 2; fieldNum <= Iso8583Message.MAX_FIELD; fieldNum++) {
+            if (!message.hasDataElement(fieldNum)) {
+                continue;
+            }
+            size += measureField(message, fieldNum);
+            if (fieldNum <= 64) {
+                primaryBitmap |= 1L << (64 - fieldNum);
+            } else {
+                secondaryBitmap |= 1L << (128 - fieldNum);
+            }
+        }
+        boolean secondary = secondaryBitmap != 0 || message.isSecondaryBitmapPresent();
+        if (secondary) {
+            primaryBitmap |= Long.MIN_VALUE;
+            size += encoding.getBitmapLength();
+        }
+        if (out.remaining() < size) {
+            throw new Iso8583PackException(
+                    "Output buffer too small: need " + size + " bytes, have " + out.remaining());
+        }
+
+        writeMti(message.getMtiChar(0), message.getMtiChar(1), message.getMtiChar(2), message.getMtiChar(3), out);
+        writeBitmap(primaryBitmap, out);
+        if (secondary) {
+            writeBitmap(secondaryBitmap, out);
+        }
+        writeFields(message, 2, primaryBitmap << 1, out);
+        writeFields(message, 65, secondaryBitmap, out);
+        return size;
+    }
+
+    /**
+     * Encodes a message into a new, exactly sized array.
+     * Convenience for tests and tooling; hot paths should use
+     * {@link #pack(Iso8583Message, ByteBuffer)} with a reusable buffer.
+     *
+     * @param message message to encode
+     * @return encoded message bytes
+     * @throws Iso8583PackException if a field does not fit the spec
+     */
+    public byte[] pack(Iso8583Message message) throws Iso8583PackException {
+        ByteBuffer out = ByteBuffer.allocate(measure(message));
+        pack(message, out);
+        return out.array();
+    }
+
+    /**
+     * Computes the encoded size of a message without writing it.
+     *
+     * @param message message to measure
+     * @return encoded size in bytes
+     * @throws Iso8583PackException if a field does not fit the spec
+     */
+    public int measure(Iso8583Message message) throws Iso8583PackException {
+        checkMti(message);
+        int size = encoding.getMtiLength() + encoding.getBitmapLength();
+        boolean secondary = message.isSecondaryBitmapPresent();
+        for (int fieldNum = 2; fieldNum <= Iso8583Message.MAX_FIELD; fieldNum++) {
+            if (message.hasDataElement(fieldNum)) {
+                size += measureField(message, fieldNum);
+                secondary |= fieldNum > 64;
+            }
+        }
+        return secondary ? size + encoding.getBitmapLength() : size;
+    }
+
+    /**
+     * @throws Iso8583PackException if the message has no MTI, or a packed MTI is not 4 digits
+     */
+    void checkMti(Iso8583Message message) throws Iso8583PackException {
+        if (!message.hasMti()) {
+            throw new Iso8583PackException("Message has no MTI.");
+        }
+        if (encoding.isPacked()) {
+            for (int i = 0; i < 4; i++) {
+                char c = message.getMtiChar(i);
+                if (c < '0' || c > '9') {
+                    throw new Iso8583PackException("MTI must be numeric for " + encoding + " encoding");
+                }
+            }
+        }
+    }
+
+    /**
+     * Validates one message field against the spec and the encoding.
+     *
+     * @return encoded size of the field including its length prefix
+     */
+    int measureField(Iso8583Message message, int fieldNum) throws Iso8583PackException {
+        int size = measureField(fieldNum, message.getDataElementLength(fieldNum));
+        if (packedFields[fieldNum]
+                && !message.isPackable(fieldNum, spec.getDataType(fieldNum) == Iso8583DataType.N)) {
+            throw new Iso8583PackException("Field " + fieldNum + " cannot be packed as "
+                    + spec.getDataType(fieldNum).getCode());
+        }
+        return size;
+    }
+
+    /**
+     * Validates a literal field value against the spec and the encoding.
+     *
+     * @return encoded size of the field including its length prefix
+     */
+    int measureValue(int fieldNum, String value) throws Iso8583PackException {
+        int size = measureField(fieldNum, value.length());
+        if (packedFields[fieldNum]) {
+            int limit = spec.getDataType(fieldNum) == Iso8583DataType.N ? 10 : 16;
+            for (int i = 0; i < value.length(); i++) {
+                if (Character.digit(value.charAt(i), limit) < 0) {
+                    throw new Iso8583PackException("Field " + fieldNum + " cannot be packed as "
+                            + spec.getDataType(fieldNum).getCode());
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Validates one field length against the spec.
+     *
+     * @return encoded size of the field including its length prefix
+     */
+    int measureField(int fieldNum, int length) throws Iso8583PackException {
+        if (!spec.isDefined(fieldNum)) {
+            throw new Iso8583PackException("Unsupported field: " + fieldNum);
+        }
+        int maxLength = spec.getMaxLength(fieldNum);
+        int prefixDigits = spec.getLengthPrefixDigits(fieldNum);
+        if (prefixDigits == 0 && length != maxLength) {
+            throw new Iso8583PackException("Field " + fieldNum + " length " + length +
+                    " does not match fixed length " + maxLength);
+        }
+        if (length > maxLength) {
+            throw new Iso8583PackException("Field " + fieldNum + " length " + length +
+                    " exceeds max allowed " + maxLength);
+        }
+        if (!packedFields[fieldNum]) {
+            return encoding.getPrefixLength(prefixDigits) + length;
+        }
+        if ((length & 1) != 0 && spec.getDataType(fieldNum) == Iso8583DataType.B) {
+            throw new Iso8583PackException("Field " + fieldNum + " binary value has odd hex length " + length);
+        }
+        return encoding.getPrefixLength(prefixDigits) + ((length + 1) >> 1);
+    }
+
+    /**
+     * Writes the length prefix (if any) and value of one field.
+     */
+    void writeField(Iso8583Message message, int fieldNum, ByteBuffer out) {
+        int prefixDigits = spec.getLengthPrefixDigits(fieldNum);
+        writeLengthPrefix(fieldNum, prefixDigits, message.getDataElementLength(fieldNum), out);
+        if (packedFields[fieldNum]) {
+            message.writePackedDataElement(fieldNum, prefixDigits == 0, out);
+        } else {
+            message.writeDataElement(fieldNum, out);
+        }
+    }
+
+    /**
+     * Writes the length prefix (if any) and a literal value for one field,
+     * after {@link #measureValue(int, String)}.
+     */
+    void writeValue(int fieldNum, String value, ByteBuffer out) {
+        int prefixDigits = spec.getLengthPrefixDigits(fieldNum);
+        int length = value.length();
+        writeLengthPrefix(fieldNum, prefixDigits, length, out);
+        if (!packedFields[fieldNum]) {
+            for (int i = 0; i < length; i++) {
+                out.put((byte) value.charAt(i));
+            }
+            return;
+        }
+        int i = 0;
+        if ((length & 1) != 0 && prefixDigits == 0) {
+            out.put((byte) Character.digit(value.charAt(i++), 16));
+        }
+        for (; i + 1 < length; i += 2) {
+            out.put((byte) ((Character.digit(value.charAt(i), 16) << 4) | Character.digit(value.charAt(i + 1), 16)));
+        }
+        if (i < length) {
+            out.put((byte) ((Character.digit(value.charAt(i), 16) << 4) | 0x0F));
+        }
+    }
+
+    /**
+     * Writes a length prefix of the given width; no-op for fixed fields.
+     * Packed prefixes are BCD and count bytes for binary fields.
+     */
+    private void writeLengthPrefix(int fieldNum, int digits, int length, ByteBuffer out) {
+        if (digits == 0) {
+            return;
+        }
+        if (!encoding.isPacked()) {
+            if (digits == 3) {
+                out.put((byte) ('0' + length / 100));
+            }
+            out.put((byte) ('0' + (length / 10) % 10));
+            out.put((byte) ('0' + length % 10));
+            return;
+        }
+        if (packedFields[fieldNum] && spec.getDataType(fieldNum) == Iso8583DataType.B) {
+            length >>= 1;
+        }
+        if (digits == 3) {
+            out.put((byte) (length / 100));
+        }
+        out.put((byte) ((((length / 10) % 10) << 4) | (length % 10)));
+    }
+
+    /**
+     * Writes a 4-digit MTI: 4 ASCII bytes, or 2 BCD bytes when packed.
+     */
+    void writeMti(char c0, char c1, char c2, char c3, ByteBuffer out) {
+        if (encoding.isPacked()) {
+            out.put((byte) (((c0 - '0') << 4) | (c1 - '0')));
+            out.put((byte) (((c2 - '0') << 4) | (c3 - '0')));
+        } else {
+            out.put((byte) c0);
+            out.put((byte) c1);
+            out.put((byte) c2);
+            out.put((byte) c3);
+        }
+    }
+
+    /**
+     * Writes a bitmap as 16 upper-case hex characters, or 8 raw bytes.
+     */
+    void writeBitmap(long bits, ByteBuffer out) {
+        if (encoding.isBinaryBitmap()) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.put((byte) (bits >>> shift));
+            }
+            return;
+        }
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            out.put(HEX_DIGITS[(int) (bits >>> shift) & 0xF]);
+        }
+    }
+
+    private void writeFields(Iso8583Message message, int firstField, long bits, ByteBuffer out) {
+        while (bits != 0) {
+            int skip = Long.numberOfLeadingZeros(bits);
+            int fieldNum = firstField + skip;
+            bits = (bits << skip) << 1;
+            firstField = fieldNum + 1;
+            writeField(message, fieldNum, out);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.floss83.javaswitch.iso8583;
 
-import java.util.BitSet;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Comprehensive ISO 8583 message parser for financial transactions.
@@ -9,166 +10,458 @@ import java.util.BitSet;
  * extraction of fixed length, LLVAR, and LLLVAR data elements.
  * </p>
  * <p>
+ * The parser works directly on ASCII bytes: bitmaps are decoded into
+ * primitive {@code long}s, length prefixes are read digit by digit, and each
+ * data element is recorded as an (offset, length) slice of the input buffer.
+ * No Strings are created unless a caller asks the resulting
+ * {@link Iso8583Message} for one.
+ * </p>
+ * <p>
+ * Field layout and validation come from a compiled {@link Iso8583Spec}
+ * (fields 2–128 plus an optional network dialect). Parsers hold no per-message
+ * state and can be shared between threads.
+ * </p>
+ * <p>
+ * <b>Selective decoding:</b> the {@link Iso8583FieldMask} overloads validate
+ * only the requested fields while parsing. Every other present field is
+ * skipped using its length prefix alone and is validated the first time it
+ * is read from the message.
+ * </p>
+ * <p>
  * Throws {@link Iso8583ParseException} on any message format violations
  * or malformed inputs.
  * </p>
- * 
+ *
  * Usage example:
- * 
+ *
  * <pre>
  * Iso8583Parser parser = new Iso8583Parser();
  * Iso8583Message message = parser.parse(rawIsoMessage);
+ * Iso8583Message fromWire = parser.parse(byteBuffer);
+ * Iso8583Message routing = parser.parse(byteBuffer, Iso8583FieldMask.ROUTING);
  * </pre>
- * 
+ *
  * @author Gracemann365
  * @since 1.0
  */
 public class Iso8583Parser {
 
+    /** ASCII hex digit values; -1 for non-hex bytes. */
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+        }
+    }
+
+    private final Iso8583Spec spec;
+    private final Iso8583Encoding encoding;
+
+    /** Encoded length of one bitmap. */
+    private final int bitmapLength;
+
+    /** Encoded MTI + primary bitmap. */
+    private final int headerLength;
+
+    /** Fields whose values are nibble-packed under {@link #encoding}, indexed by field number. */
+    private final boolean[] packedFields = new boolean[Iso8583Message.MAX_FIELD + 1];
+
+    /** Packed fields 1-64 and 65-128 in wire order. */
+    private final long packedPrimaryMask;
+    private final long packedSecondaryMask;
+
+    /**
+     * Creates a parser for the base ISO 8583:1987 specification.
+     */
+    public Iso8583Parser() {
+        this(Iso8583Spec.defaultSpec());
+    }
+
+    /**
+     * Creates an ASCII parser driven by the given compiled specification.
+     *
+     * @param spec field specification (base or dialect)
+     */
+    public Iso8583Parser(Iso8583Spec spec) {
+        this(spec, Iso8583Encoding.ASCII);
+    }
+
+    /**
+     * Creates a parser driven by the given compiled specification and wire
+     * encoding.
+     *
+     * @param spec     field specification (base or dialect)
+     * @param encoding wire encoding of the listener this parser serves
+     */
+    public Iso8583Parser(Iso8583Spec spec, Iso8583Encoding encoding) {
+        this.spec = spec;
+        this.encoding = encoding;
+        this.bitmapLength = encoding.getBitmapLength();
+        this.headerLength = encoding.getMtiLength() + bitmapLength;
+        long primary = 0L;
+        long secondary = 0L;
+        for (int fieldNum = 2; fieldNum <= Iso8583Message.MAX_FIELD; fieldNum++) {
+            if (spec.isDefined(fieldNum) && encoding.packs(spec.getDataType(fieldNum))) {
+                packedFields[fieldNum] = true;
+                if (fieldNum <= 64) {
+                    primary |= 1L << (64 - fieldNum);
+                } else {
+                    secondary |= 1L << (128 - fieldNum);
+                }
+            }
+        }
+        this.packedPrimaryMask = primary;
+        this.packedSecondaryMask = secondary;
+    }
+
+    /**
+     * @return the field specification this parser decodes with
+     */
+    public Iso8583Spec getSpec() {
+        return spec;
+    }
+
+    /**
+     * @return the wire encoding this parser decodes
+     */
+    public Iso8583Encoding getEncoding() {
+        return encoding;
+    }
+
     /**
      * Parses a raw ISO 8583 message string into an {@link Iso8583Message}.
-     * 
+     * <p>
+     * Lengths count characters, one byte each. A character beyond U+00FF is
+     * carried as the byte 0xFF, which no field type accepts: like any other
+     * invalid character, it fails the format check of the field it is in
+     * rather than the whole string being refused up front.
+     * </p>
+     *
      * @param message raw ISO 8583 message string (ASCII-encoded)
      * @return parsed Iso8583Message object
      * @throws Iso8583ParseException on parse failure
      */
     public Iso8583Message parse(String message) throws Iso8583ParseException {
-        if (message == null || message.length() < 20) {
+        if (message == null || message.length() < headerLength) {
             throw new Iso8583ParseException("Input too short to contain MTI and primary bitmap.");
         }
+        byte[] bytes = new byte[message.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Math.min(message.charAt(i), 0xFF);
+        }
+        return parse(bytes, 0, bytes.length);
+    }
 
-        Iso8583Message isoMessage = new Iso8583Message();
-
-        // MTI
-        isoMessage.setMti(parseMti(message));
-
-        // Primary bitmap
-        BitSet primaryBitmap = parseBitmap(message, 4);
-        isoMessage.setPrimaryBitmap(primaryBitmap);
-
-        int cursor = 20;
+    /**
+     * Parses the remaining bytes of a buffer into an {@link Iso8583Message}.
+     * <p>
+     * Heap buffers are parsed in place: the returned message references the
+     * buffer's backing array, which must not be overwritten while the message
+     * is in use. Direct and read-only buffers are copied once. On success the
+     * buffer position is advanced to its limit.
+     * </p>
+     *
+     * @param buffer buffer positioned at the first MTI byte
+     * @return parsed Iso8583Message object
+     * @throws Iso8583ParseException on parse failure
+     */
+    public Iso8583Message parse(ByteBuffer buffer) throws Iso8583ParseException {
+        return parse(buffer, Iso8583FieldMask.ALL);
+    }
 
-        // Secondary bitmap
-        BitSet secondaryBitmap = null;
-        if (primaryBitmap.get(0)) {
-            if (message.length() < cursor + 16) {
-                throw new Iso8583ParseException("Secondary bitmap indicated but missing.");
-            }
-            secondaryBitmap = parseBitmap(message, cursor);
-            isoMessage.setSecondaryBitmap(secondaryBitmap);
-            cursor += 16;
+    /**
+     * Parses the remaining bytes of a buffer, validating only the fields in
+     * {@code eagerFields}; see {@link #parse(ByteBuffer)} for buffer handling.
+     *
+     * @param buffer      buffer positioned at the first MTI byte
+     * @param eagerFields fields validated during the parse; others are validated on first access
+     * @return parsed Iso8583Message object
+     * @throws Iso8583ParseException on parse failure
+     */
+    public Iso8583Message parse(ByteBuffer buffer, Iso8583FieldMask eagerFields) throws Iso8583ParseException {
+        int length = buffer.remaining();
+        Iso8583Message isoMessage;
+        if (buffer.hasArray()) {
+            isoMessage = parse(buffer.array(), buffer.arrayOffset() + buffer.position(), length, eagerFields);
+        } else {
+            byte[] copy = new byte[length];
+            buffer.get(buffer.position(), copy);
+            isoMessage = parse(copy, 0, length, eagerFields);
         }
+        buffer.position(buffer.limit());
+        return isoMessage;
+    }
 
-        // Combine bitmaps for field presence
-        BitSet fieldsPresent = combineBitmaps(primaryBitmap, secondaryBitmap);
-
-        // Extract data elements
-        cursor = parseDataElements(message, cursor, fieldsPresent, isoMessage);
+    /**
+     * Parses an ASCII-encoded ISO 8583 message held in a byte array.
+     * <p>
+     * The array is not copied; the returned message records slices into it and
+     * therefore must not outlive any reuse of the array by the caller.
+     * </p>
+     *
+     * @param buf    buffer containing the message
+     * @param offset index of the first MTI byte
+     * @param length number of message bytes available
+     * @return parsed Iso8583Message object
+     * @throws Iso8583ParseException on parse failure
+     */
+    public Iso8583Message parse(byte[] buf, int offset, int length) throws Iso8583ParseException {
+        return parse(buf, offset, length, Iso8583FieldMask.ALL);
+    }
 
+    /**
+     * Parses an ASCII-encoded ISO 8583 message, validating only the fields in
+     * {@code eagerFields}.
+     * <p>
+     * Every present field is still located (so the message is fully framed and
+     * length-checked), but fields outside the mask are skipped over using only
+     * their length prefix. Their format is checked the first time they are
+     * read; a malformed value then surfaces as an {@link IllegalStateException}
+     * caused by an {@link Iso8583ParseException}.
+     * </p>
+     *
+     * @param buf         buffer containing the message (not copied)
+     * @param offset      index of the first MTI byte
+     * @param length      number of message bytes available
+     * @param eagerFields fields validated during the parse
+     * @return parsed Iso8583Message object
+     * @throws Iso8583ParseException on parse failure
+     */
+    public Iso8583Message parse(byte[] buf, int offset, int length, Iso8583FieldMask eagerFields)
+            throws Iso8583ParseException {
+        Iso8583Message isoMessage = new Iso8583Message();
+        decode(buf, offset, length, eagerFields, isoMessage);
         return isoMessage;
     }
 
-    private String parseMti(String message) {
-        return message.substring(0, 4);
+    /**
+     * Parses a message into a reusable (typically pooled) instance.
+     * <p>
+     * The target is reset and the input is copied into a buffer owned by the
+     * target, so the caller may reuse {@code buf} immediately. Once the
+     * target's buffer has grown to the largest message seen, this path
+     * allocates nothing. If parsing fails the target is left partially filled
+     * and should be reset or released.
+     * </p>
+     *
+     * @param target      message instance to fill
+     * @param buf         buffer containing the message
+     * @param offset      index of the first MTI byte
+     * @param length      number of message bytes available
+     * @param eagerFields fields validated during the parse
+     * @throws Iso8583ParseException on parse failure
+     */
+    public void parseInto(Iso8583Message target, byte[] buf, int offset, int length, Iso8583FieldMask eagerFields)
+            throws Iso8583ParseException {
+        if (buf == null || length < headerLength) {
+            throw new Iso8583ParseException("Input too short to contain MTI and primary bitmap.");
+        }
+        target.reset();
+        byte[] owned = target.ownedBuffer(length);
+        System.arraycopy(buf, offset, owned, 0, length);
+        decode(owned, 0, length, eagerFields, target);
     }
 
-    private BitSet parseBitmap(String message, int startIndex) throws Iso8583ParseException {
-        String hex = message.substring(startIndex, startIndex + 16);
-        return hexToBitSet(hex);
+    /**
+     * Parses the remaining bytes of a (heap or direct) buffer into a reusable
+     * instance; see {@link #parseInto(Iso8583Message, byte[], int, int, Iso8583FieldMask)}.
+     * The buffer position is advanced to its limit.
+     *
+     * @param target      message instance to fill
+     * @param buffer      buffer positioned at the first MTI byte
+     * @param eagerFields fields validated during the parse
+     * @throws Iso8583ParseException on parse failure
+     */
+    public void parseInto(Iso8583Message target, ByteBuffer buffer, Iso8583FieldMask eagerFields)
+            throws Iso8583ParseException {
+        int length = buffer.remaining();
+        if (length < headerLength) {
+            throw new Iso8583ParseException("Input too short to contain MTI and primary bitmap.");
+        }
+        target.reset();
+        byte[] owned = target.ownedBuffer(length);
+        buffer.get(owned, 0, length);
+        decode(owned, 0, length, eagerFields, target);
     }
 
-    private BitSet hexToBitSet(String hex) throws Iso8583ParseException {
-        if (hex == null || hex.length() != 16) {
-            throw new Iso8583ParseException("Bitmap must be 16 hex characters");
+    /**
+     * Core decoder: fills {@code isoMessage} with slices of {@code buf}.
+     */
+    private void decode(byte[] buf, int offset, int length, Iso8583FieldMask eagerFields,
+            Iso8583Message isoMessage) throws Iso8583ParseException {
+        if (buf == null || length < headerLength) {
+            throw new Iso8583ParseException("Input too short to contain MTI and primary bitmap.");
         }
-        BitSet bits = new BitSet(64);
-        for (int i = 0; i < 16; i++) {
-            int val = Character.digit(hex.charAt(i), 16);
-            if (val == -1)
-                throw new Iso8583ParseException("Invalid hex in bitmap: " + hex.charAt(i));
-            for (int bit = 0; bit < 4; bit++) {
-                if ((val & (1 << (3 - bit))) != 0)
-                    bits.set(i * 4 + bit);
+        int end = offset + length;
+
+        // MTI
+        isoMessage.setBuffer(buf, offset, encoding.isPacked());
+        isoMessage.setSpec(spec);
+
+        // Primary bitmap
+        long primaryBitmap = parseBitmap(buf, offset + encoding.getMtiLength());
+        isoMessage.setPrimaryBitmapBits(primaryBitmap);
+
+        int cursor = offset + headerLength;
+
+        // Secondary bitmap
+        long secondaryBitmap = 0L;
+        if (primaryBitmap < 0) { // bit 1 (MSB) flags a secondary bitmap
+            if (end < cursor + bitmapLength) {
+                throw new Iso8583ParseException("Secondary bitmap indicated but missing.");
             }
+            secondaryBitmap = parseBitmap(buf, cursor);
+            isoMessage.setSecondaryBitmapBits(secondaryBitmap);
+            cursor += bitmapLength;
+        }
+
+        // Extract data elements (bit 1 is the secondary bitmap flag, not a field)
+        long eagerPrimary = eagerFields.getPrimaryBits();
+        long eagerSecondary = eagerFields.getSecondaryBits();
+        cursor = parseDataElements(buf, cursor, end, 2, primaryBitmap << 1, eagerPrimary << 1, isoMessage);
+        parseDataElements(buf, cursor, end, 65, secondaryBitmap, eagerSecondary, isoMessage);
+        isoMessage.setSliceFields(primaryBitmap & Long.MAX_VALUE, secondaryBitmap);
+        if (encoding.isPacked()) {
+            isoMessage.setPackedFields(primaryBitmap & packedPrimaryMask, secondaryBitmap & packedSecondaryMask);
+        }
+
+        long deferredPrimary = primaryBitmap & ~eagerPrimary & Long.MAX_VALUE;
+        long deferredSecondary = secondaryBitmap & ~eagerSecondary;
+        if ((deferredPrimary | deferredSecondary) != 0) {
+            isoMessage.deferValidation(deferredPrimary, deferredSecondary);
         }
-        return bits;
     }
 
-    private BitSet combineBitmaps(BitSet primary, BitSet secondary) {
-        BitSet combined = new BitSet(128);
-        combined.or(primary);
-        if (secondary != null) {
-            for (int i = 0; i < 64; i++) {
-                if (secondary.get(i))
-                    combined.set(i + 64);
+    private long parseBitmap(byte[] buf, int startIndex) throws Iso8583ParseException {
+        long bits = 0L;
+        if (encoding.isBinaryBitmap()) {
+            for (int i = startIndex; i < startIndex + 8; i++) {
+                bits = (bits << 8) | (buf[i] & 0xFF);
             }
+            return bits;
+        }
+        for (int i = startIndex; i < startIndex + bitmapLength; i++) {
+            int val = HEX_VALUES[buf[i] & 0xFF];
+            if (val < 0)
+                throw new Iso8583ParseException("Invalid hex in bitmap: " + (char) (buf[i] & 0xFF));
+            bits = (bits << 4) | val;
         }
-        return combined;
+        return bits;
     }
 
-    private int parseDataElements(String message, int cursor, BitSet fieldsPresent, Iso8583Message isoMessage)
-            throws Iso8583ParseException {
-        for (int fieldNum = 2; fieldNum <= 128; fieldNum++) {
-            if (!fieldsPresent.get(fieldNum - 1))
-                continue;
+    /**
+     * Walks the set bits of one bitmap word, MSB first, extracting each field.
+     *
+     * @param firstField field number represented by the MSB of {@code bits}
+     * @param bits       presence bits, already shifted so the MSB is {@code firstField}
+     * @param eager      fields to validate now, aligned like {@code bits}
+     */
+    private int parseDataElements(byte[] buf, int cursor, int end, int firstField, long bits, long eager,
+            Iso8583Message isoMessage) throws Iso8583ParseException {
+        while (bits != 0) {
+            int skip = Long.numberOfLeadingZeros(bits);
+            int fieldNum = firstField + skip;
+            eager <<= skip;
+            boolean validate = eager < 0;
+            bits = (bits << skip) << 1;
+            eager <<= 1;
+            firstField = fieldNum + 1;
 
-            Iso8583Field fieldDef = Iso8583Field.getByFieldNumber(fieldNum);
-            if (fieldDef == null)
+            if (!spec.isDefined(fieldNum))
                 throw new Iso8583ParseException("Unsupported field: " + fieldNum);
 
+            int maxLength = spec.getMaxLength(fieldNum);
+            int lengthDigits = spec.getLengthPrefixDigits(fieldNum);
+            boolean packed = packedFields[fieldNum];
             int fieldLength;
-            if (fieldDef.isVariableLength()) {
-                int lengthDigits = (fieldDef.getMaxLength() > 99) ? 3 : 2;
-                if (cursor + lengthDigits > message.length())
+            if (lengthDigits != 0) {
+                int prefixLength = encoding.getPrefixLength(lengthDigits);
+                if (cursor + prefixLength > end)
                     throw new Iso8583ParseException("Insufficient data for length of field " + fieldNum);
 
-                String lengthStr = message.substring(cursor, cursor + lengthDigits);
-                try {
-                    fieldLength = Integer.parseInt(lengthStr);
-                } catch (NumberFormatException e) {
-                    throw new Iso8583ParseException("Invalid length format in field " + fieldNum);
+                if (encoding.isPacked()) {
+                    fieldLength = (int) Iso8583Encoding.decodeBcd(buf, cursor << 1, prefixLength << 1);
+                    if (fieldLength < 0)
+                        throw new Iso8583ParseException("Invalid length format in field " + fieldNum);
+                    if (packed && spec.getDataType(fieldNum) == Iso8583DataType.B) {
+                        fieldLength <<= 1; // binary prefixes count bytes; values are hex digits
+                    }
+                } else {
+                    fieldLength = 0;
+                    for (int i = cursor; i < cursor + lengthDigits; i++) {
+                        int digit = buf[i] - '0';
+                        if (digit < 0 || digit > 9)
+                            throw new Iso8583ParseException("Invalid length format in field " + fieldNum);
+                        fieldLength = fieldLength * 10 + digit;
+                    }
                 }
-                cursor += lengthDigits;
+                cursor += prefixLength;
 
-                if (fieldLength > fieldDef.getMaxLength()) {
+                if (fieldLength > maxLength) {
                     throw new Iso8583ParseException("Field " + fieldNum + " length " + fieldLength +
-                            " exceeds max allowed " + fieldDef.getMaxLength());
+                            " exceeds max allowed " + maxLength);
                 }
             } else {
-                fieldLength = fieldDef.getMaxLength();
+                fieldLength = maxLength;
+            }
+
+            if (packed) {
+                cursor = parsePackedValue(buf, cursor, end, fieldNum, fieldLength, lengthDigits == 0, validate,
+                        isoMessage);
+                continue;
             }
 
-            if (cursor + fieldLength > message.length())
+            if (cursor + fieldLength > end)
                 throw new Iso8583ParseException("Insufficient data for field " + fieldNum);
 
-            String value = message.substring(cursor, cursor + fieldLength);
-            if (!validateFieldFormat(fieldNum, value)) {
+            if (validate && !spec.getValidator(fieldNum).isValid(buf, cursor, fieldLength)) {
                 throw new Iso8583ParseException("Invalid format in field " + fieldNum);
             }
 
+            isoMessage.setDataElementSlice(fieldNum, cursor, fieldLength);
             cursor += fieldLength;
-            isoMessage.setDataElement(fieldNum, value);
         }
         return cursor;
     }
 
     /**
-     * Basic validation for common field formats.
-     * Extend as needed with regex or more complex rules.
-     * 
-     * @param fieldNum ISO field number
-     * @param value    Field value string
-     * @return true if format is valid, false otherwise
+     * Records a nibble-packed value (BCD digits or raw binary) as a nibble
+     * slice. Odd-length values carry a leading pad nibble when fixed-length
+     * and a trailing one when variable-length.
+     *
+     * @param fieldLength logical length in digits (hex digits for binary fields)
+     * @return cursor after the value
      */
-    private boolean validateFieldFormat(int fieldNum, String value) {
-        // Example: check numeric fields for digits only
-        return switch (fieldNum) {
-            case 2, 3, 4, 11 -> value.matches("\\d+");
-            default -> true;
-        }; // PAN numeric
-        // Processing code numeric
-        // Amount numeric
-        // System trace audit number numeric
-        // Accept any format by default
+    private int parsePackedValue(byte[] buf, int cursor, int end, int fieldNum, int fieldLength, boolean fixed,
+            boolean validate, Iso8583Message isoMessage) throws Iso8583ParseException {
+        int byteLength = (fieldLength + 1) >> 1;
+        if (cursor + byteLength > end)
+            throw new Iso8583ParseException("Insufficient data for field " + fieldNum);
+
+        int nibbleOffset = (cursor << 1) + ((fieldLength & 1) != 0 && fixed ? 1 : 0);
+        if (validate) {
+            Iso8583FieldValidator validator = spec.getValidator(fieldNum);
+            boolean valid;
+            if (validator == Iso8583FieldValidator.DIGITS) {
+                valid = fieldLength > 0 && Iso8583Encoding.isBcd(buf, nibbleOffset, fieldLength);
+            } else if (validator == Iso8583FieldValidator.HEX) {
+                valid = (fieldLength & 1) == 0; // every nibble is a hex digit
+            } else {
+                byte[] unpacked = isoMessage.scratch(fieldLength);
+                Iso8583Message.unpack(buf, nibbleOffset, fieldLength, unpacked);
+                valid = validator.isValid(unpacked, 0, fieldLength);
+            }
+            if (!valid)
+                throw new Iso8583ParseException("Invalid format in field " + fieldNum);
+        }
+
+        isoMessage.setDataElementSlice(fieldNum, nibbleOffset, fieldLength);
+        return cursor + byteLength;
     }
 }
@@ -1,5 +1,7 @@
 package com.floss83.javaswitch.iso8583;
 
+import java.time.Instant;
+
 /**
  * Quick demo to test Iso8583Parser with a sample ISO 8583 message.
  */
@@ -8,7 +10,7 @@ public class Iso8583ParserDemo {
         // This is exactly 82 chars. It covers:
         // - MTI (4 chars) "0200"
         // - Primary bitmap (16 hex chars) "7238000000000000"
-        // - Field 2 (LLVAR = "16" + "1234567890123456") = 18 chars
+        // - Field 2 (LLVAR = "16" + "4000001234567899") = 18 chars
         // - Field 3 (6 chars) "000000"
         // - Field 4 (12 chars) "000000010000"
         // - Field 7 (10 chars) "0709163030"
@@ -18,7 +20,7 @@ public class Iso8583ParserDemo {
         String sampleMessage = "0200" // MTI
                 + "7238000000000000" // primary bitmap (fields 2,3,4,7,11,12,13)
                 + "16" // LLVAR length prefix for field 2 (PAN)
-                + "1234567890123456" // PAN (16 chars)
+                + "4000001234567899" // PAN (16 chars, Luhn-valid test card)
                 + "000000" // field 3
                 + "000000010000" // field 4
                 + "0709163030" // field 7
@@ -40,6 +42,28 @@ public class Iso8583ParserDemo {
                 System.out.println("Field " + field + ": " + value);
             });
 
+            // Typed accessors decode straight from the message bytes
+            System.out.println("Amount (minor units): " + isoMessage.getLong(Iso8583Field.TRANSACTION_AMOUNT));
+            System.out.println("STAN: " + isoMessage.getInt(Iso8583Field.SYSTEM_TRACE_AUDIT_NUMBER));
+            System.out.println("Transmitted: " + Instant.ofEpochSecond(
+                    isoMessage.getTransmissionEpochSecond(System.currentTimeMillis() / 1000)));
+
+            // EMV chip data (field 55, BER-TLV carried as hex) read tag by tag
+            String emvData = "9F2608" + "1122334455667788" // application cryptogram
+                    + "9F2701" + "80" // cryptogram information data (ARQC)
+                    + "9505" + "0000008000" // terminal verification results
+                    + "9F3602" + "0042" // application transaction counter
+                    + "9F0206" + "000000010000"; // amount, authorised
+            Iso8583Message chipMessage = parser.parse("0100" + "0000000000000200"
+                    + String.format("%03d", emvData.length()) + emvData);
+            Iso8583TlvView emv = new Iso8583TlvView(parser.getSpec());
+            emv.wrap(chipMessage, 55);
+            System.out.println("EMV tags: " + emv.size());
+            System.out.println("ARQC: " + emv.getHex(EmvTag.APPLICATION_CRYPTOGRAM));
+            System.out.println("TVR: " + emv.getHex(EmvTag.TERMINAL_VERIFICATION_RESULTS));
+            System.out.println("ATC: " + emv.getUnsigned(emv.indexOf(EmvTag.APPLICATION_TRANSACTION_COUNTER)));
+            System.out.println("Amount, authorised: " + emv.getNumeric(emv.indexOf(EmvTag.AMOUNT_AUTHORISED)));
+
         } catch (Iso8583ParseException e) {
             System.err.println("Parsing failed: " + e.getMessage());
             e.printStackTrace();
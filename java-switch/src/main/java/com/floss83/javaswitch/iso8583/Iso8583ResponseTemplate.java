@@ -0,0 +1,218 @@
+package com.floss83.javaswitch.iso8583;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Precompiled request-to-response transform.
+ * <p>
+ * A template fixes, once, which request fields are echoed into the response
+ * (as a pair of bitmap masks) and how they are laid out. Building a response
+ * then only rewrites the MTI (0200 → 0210, 0100 → 0110, 0800 → 0810, ...),
+ * inserts field 39 (and optionally 38), and copies the echoed request fields
+ * straight into the output buffer.
+ * </p>
+ *
+ * Usage example:
+ *
+ * <pre>
+ * Iso8583ResponseTemplate template = Iso8583ResponseTemplate.defaultTemplate(spec);
+ * template.writeResponse(request, "00", outBuffer);
+ * </pre>
+ *
+ * Templates are immutable and safe to share between threads.
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public final class Iso8583ResponseTemplate {
+
+    /** Field 38: authorization identification response. */
+    public static final int FIELD_AUTHORIZATION_ID = 38;
+
+    /** Field 39: response code. */
+    public static final int FIELD_RESPONSE_CODE = 39;
+
+    /**
+     * Request fields echoed by {@link #defaultTemplate(Iso8583Spec)}: processing
+     * code, amount, transmission time, STAN, local time/date, POS data,
+     * acquirer, RRN, terminal/merchant IDs, currency and network management code.
+     * Cardholder data (2, 35, 45, 52) is deliberately not echoed.
+     */
+    static final int[] DEFAULT_ECHO_FIELDS = { 3, 4, 7, 11, 12, 13, 22, 25, 32, 37, 41, 42, 49, 70 };
+
+    private final Iso8583Packer packer;
+    private final long echoPrimary;
+    private final long echoSecondary;
+
+    private Iso8583ResponseTemplate(Iso8583Packer packer, long echoPrimary, long echoSecondary) {
+        this.packer = packer;
+        this.echoPrimary = echoPrimary;
+        this.echoSecondary = echoSecondary;
+    }
+
+    /**
+     * Compiles the default response layout for a spec.
+     *
+     * @param spec field specification (base or dialect)
+     * @return compiled template
+     */
+    public static Iso8583ResponseTemplate defaultTemplate(Iso8583Spec spec) {
+        return compile(spec, DEFAULT_ECHO_FIELDS);
+    }
+
+    /**
+     * Compiles the default response layout for a spec and wire encoding.
+     *
+     * @param spec     field specification (base or dialect)
+     * @param encoding wire encoding of the responses
+     * @return compiled template
+     */
+    public static Iso8583ResponseTemplate defaultTemplate(Iso8583Spec spec, Iso8583Encoding encoding) {
+        return compile(spec, encoding, DEFAULT_ECHO_FIELDS);
+    }
+
+    /**
+     * Compiles a response layout echoing the given request fields.
+     *
+     * @param spec       field specification (base or dialect)
+     * @param echoFields request fields copied into the response when present
+     * @return compiled template
+     * @throws IllegalArgumentException if a field is undefined or is 38/39
+     */
+    public static Iso8583ResponseTemplate compile(Iso8583Spec spec, int... echoFields) {
+        return compile(spec, Iso8583Encoding.ASCII, echoFields);
+    }
+
+    /**
+     * Compiles a response layout echoing the given request fields.
+     *
+     * @param spec       field specification (base or dialect)
+     * @param encoding   wire encoding of the responses
+     * @param echoFields request fields copied into the response when present
+     * @return compiled template
+     * @throws IllegalArgumentException if a field is undefined or is 38/39
+     */
+    public static Iso8583ResponseTemplate compile(Iso8583Spec spec, Iso8583Encoding encoding, int... echoFields) {
+        long primary = 0L;
+        long secondary = 0L;
+        for (int fieldNum : echoFields) {
+            if (fieldNum < 2 || !spec.isDefined(fieldNum)) {
+                throw new IllegalArgumentException("Cannot echo undefined field: " + fieldNum);
+            }
+            if (fieldNum == FIELD_AUTHORIZATION_ID || fieldNum == FIELD_RESPONSE_CODE) {
+                throw new IllegalArgumentException("Field " + fieldNum + " is set by the template, not echoed");
+            }
+            if (fieldNum <= 64) {
+                primary |= 1L << (64 - fieldNum);
+            } else {
+                secondary |= 1L << (128 - fieldNum);
+            }
+        }
+        return new Iso8583ResponseTemplate(new Iso8583Packer(spec, encoding), primary, secondary);
+    }
+
+    /**
+     * Writes the response to a request, carrying only a response code.
+     *
+     * @param request      parsed request message
+     * @param responseCode value for field 39 (e.g. "00")
+     * @param out          destination buffer; its position is advanced past the response
+     * @return number of bytes written
+     * @throws Iso8583PackException if the request is not a request MTI or the buffer is too small
+     */
+    public int writeResponse(Iso8583Message request, String responseCode, ByteBuffer out)
+            throws Iso8583PackException {
+        return writeResponse(request, null, responseCode, out);
+    }
+
+    /**
+     * Writes the response to a request.
+     * <p>
+     * The request is validated and the response measured before anything is
+     * written, so on failure the buffer is left untouched.
+     * </p>
+     *
+     * @param request         parsed request message
+     * @param authorizationId value for field 38, or null to omit it
+     * @param responseCode    value for field 39 (e.g. "00")
+     * @param out             destination buffer; its position is advanced past the response
+     * @return number of bytes written
+     * @throws Iso8583PackException if the request is not a request MTI or the buffer is too small
+     */
+    public int writeResponse(Iso8583Message request, String authorizationId, String responseCode,
+            ByteBuffer out) throws Iso8583PackException {
+        if (!request.hasMti()) {
+            throw new Iso8583PackException("Request has no MTI.");
+        }
+        char function = request.getMtiChar(2);
+        if (function < '0' || function > '8' || (function & 1) != 0) {
+            throw new Iso8583PackException("MTI function digit '" + function + "' is not a request");
+        }
+        packer.checkMti(request);
+
+        Iso8583Encoding encoding = packer.getEncoding();
+        int size = encoding.getMtiLength() + encoding.getBitmapLength();
+        long primary = echoedBits(request, echoPrimary, 1);
+        long secondary = echoedBits(request, echoSecondary, 65);
+        size += measureFields(request, primary, 1) + measureFields(request, secondary, 65);
+        if (authorizationId != null) {
+            size += packer.measureValue(FIELD_AUTHORIZATION_ID, authorizationId);
+            primary |= 1L << (64 - FIELD_AUTHORIZATION_ID);
+        }
+        size += packer.measureValue(FIELD_RESPONSE_CODE, responseCode);
+        primary |= 1L << (64 - FIELD_RESPONSE_CODE);
+        if (secondary != 0) {
+            primary |= Long.MIN_VALUE;
+            size += encoding.getBitmapLength();
+        }
+        if (out.remaining() < size) {
+            throw new Iso8583PackException(
+                    "Output buffer too small: need " + size + " bytes, have " + out.remaining());
+        }
+
+        packer.writeMti(request.getMtiChar(0), request.getMtiChar(1), (char) (function + 1), request.getMtiChar(3),
+                out);
+        packer.writeBitmap(primary, out);
+        if (secondary != 0) {
+            packer.writeBitmap(secondary, out);
+        }
+        for (long bits = primary & Long.MAX_VALUE; bits != 0; bits ^= Long.highestOneBit(bits)) {
+            int fieldNum = Long.numberOfLeadingZeros(bits) + 1;
+            if (fieldNum == FIELD_AUTHORIZATION_ID) {
+                packer.writeValue(fieldNum, authorizationId, out);
+            } else if (fieldNum == FIELD_RESPONSE_CODE) {
+                packer.writeValue(fieldNum, responseCode, out);
+            } else {
+                packer.writeField(request, fieldNum, out);
+            }
+        }
+        for (long bits = secondary; bits != 0; bits ^= Long.highestOneBit(bits)) {
+            packer.writeField(request, Long.numberOfLeadingZeros(bits) + 65, out);
+        }
+        return size;
+    }
+
+    /**
+     * Narrows an echo mask to the fields the request actually carries.
+     *
+     * @param firstField field number represented by the MSB of {@code mask}
+     */
+    private static long echoedBits(Iso8583Message request, long mask, int firstField) {
+        long present = 0L;
+        for (long bits = mask; bits != 0; bits ^= Long.highestOneBit(bits)) {
+            if (request.hasDataElement(Long.numberOfLeadingZeros(bits) + firstField)) {
+                present |= Long.highestOneBit(bits);
+            }
+        }
+        return present;
+    }
+
+    private int measureFields(Iso8583Message request, long bits, int firstField) throws Iso8583PackException {
+        int size = 0;
+        for (; bits != 0; bits ^= Long.highestOneBit(bits)) {
+            int fieldNum = Long.numberOfLeadingZeros(bits) + firstField;
+            size += packer.measureField(request, fieldNum);
+        }
+        return size;
+    }
+}
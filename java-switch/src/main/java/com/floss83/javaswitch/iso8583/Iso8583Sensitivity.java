@@ -0,0 +1,40 @@
+package com.floss83.javaswitch.iso8583;
+
+/**
+ * How a data element carrying cardholder data must be protected before the
+ * message goes any further: the field metadata behind the sensitive-field
+ * policy (see {@link Iso8583Spec#getSensitivity(int)}).
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public enum Iso8583Sensitivity {
+
+    /** Not cardholder data; passed on as received. */
+    NONE(null),
+    /** Primary account number: replaced by its PAN token. */
+    PAN("PAN"),
+    /**
+     * Track 2 equivalent data: the PAN before the separator ('=' or 'D') is
+     * replaced by its PAN token, the rest (expiry, service code,
+     * discretionary data) by a token of its own.
+     */
+    TRACK_2("TRACK2"),
+    /** Other magstripe data (tracks 1 and 3): replaced by a token as a whole. */
+    TRACK_DATA("TRACK"),
+    /** PIN block or CVV: replaced by a token. */
+    PIN_OR_CVV("CVV");
+
+    private final String label;
+
+    Iso8583Sensitivity(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return short name for tokenized output (e.g. {@code 2_PAN_tokenized}), or null for {@link #NONE}
+     */
+    public String getLabel() {
+        return label;
+    }
+}
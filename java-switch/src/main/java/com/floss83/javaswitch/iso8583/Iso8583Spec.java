@@ -0,0 +1,324 @@
+package com.floss83.javaswitch.iso8583;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Compiled ISO 8583 field specification (decoding plan).
+ * <p>
+ * Field definitions come from three layers, later layers overriding earlier
+ * ones:
+ * <ol>
+ * <li>{@link Iso8583Field} – the built-in ISO 8583:1987 fields 2–64</li>
+ * <li>{@value #BASE_RESOURCE} – fields 65–128</li>
+ * <li>{@code iso8583/dialects/<name>.properties} – optional per-network
+ * dialect</li>
+ * </ol>
+ * At load time the definitions are compiled into dense arrays indexed by field
+ * number, so parsers and packers resolve length-prefix width, fixed/variable
+ * layout, data type and validator with a single array read per field.
+ * </p>
+ * <p>
+ * Every field is validated against the character set of its data type
+ * ({@link Iso8583FieldValidator#forType(Iso8583DataType)}). Fields listed under
+ * {@code validate.luhn} must also carry a valid check digit, and fields listed
+ * under {@code validate.digits} are restricted to digits whatever their type.
+ * A dialect's lists replace the base lists.
+ * </p>
+ * <p>
+ * Cardholder data fields carry an {@link Iso8583Sensitivity}: the built-in
+ * ones from {@link Iso8583Field}, others by listing them under
+ * {@code sensitive.pan}, {@code sensitive.track2}, {@code sensitive.track} or
+ * {@code sensitive.pin}. A dialect's lists are added to the base ones.
+ * </p>
+ *
+ * <b>Definition file format:</b>
+ *
+ * <pre>
+ * # field.&lt;number&gt; = &lt;type&gt;, &lt;FIXED|LLVAR|LLLVAR&gt;, &lt;max length&gt;, &lt;description&gt;
+ * field.99 = n, LLVAR, 11, Settlement Institution ID Code
+ * # fields carrying a Luhn check digit
+ * validate.luhn = 2
+ * # cardholder data beyond the built-in fields
+ * sensitive.track = 123
+ * </pre>
+ *
+ * Instances are immutable and safe to share between threads.
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public final class Iso8583Spec {
+
+    /** Classpath resource holding the base definitions for fields 65–128. */
+    public static final String BASE_RESOURCE = "iso8583/fields.properties";
+
+    /** Classpath location of dialect overlays; {@code %s} is the dialect name. */
+    public static final String DIALECT_RESOURCE = "iso8583/dialects/%s.properties";
+
+    private static final int FIELD_COUNT = Iso8583Message.MAX_FIELD + 1;
+
+    private final String dialect;
+    private final boolean[] defined = new boolean[FIELD_COUNT];
+    private final int[] maxLengths = new int[FIELD_COUNT];
+    private final int[] lengthPrefixDigits = new int[FIELD_COUNT];
+    private final Iso8583DataType[] dataTypes = new Iso8583DataType[FIELD_COUNT];
+    private final Iso8583FieldValidator[] validators = new Iso8583FieldValidator[FIELD_COUNT];
+    private final String[] descriptions = new String[FIELD_COUNT];
+    private final Iso8583Sensitivity[] sensitivities = new Iso8583Sensitivity[FIELD_COUNT];
+    private int[] sensitiveFields;
+
+    private Iso8583Spec(String dialect) {
+        this.dialect = dialect;
+    }
+
+    /**
+     * Returns the shared base specification (no dialect).
+     *
+     * @return compiled base spec
+     */
+    public static Iso8583Spec defaultSpec() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Loads and compiles the base definitions plus an optional dialect overlay.
+     *
+     * @param dialect dialect name, or null/blank for the base spec only
+     * @return compiled spec
+     * @throws IllegalStateException    if a definition resource cannot be read
+     * @throws IllegalArgumentException if a definition is malformed
+     */
+    public static Iso8583Spec load(String dialect) {
+        String name = (dialect == null || dialect.isBlank()) ? null : dialect.trim();
+        Iso8583Spec spec = new Iso8583Spec(name);
+
+        for (Iso8583Field field : Iso8583Field.values()) {
+            int prefix = field.isVariableLength() ? (field.getMaxLength() > 99 ? 3 : 2) : 0;
+            spec.define(field.getFieldNumber(), Iso8583DataType.fromCode(field.getDataType()), prefix,
+                    field.getMaxLength(), field.getDescription());
+            spec.sensitivities[field.getFieldNumber()] = field.getSensitivity();
+        }
+
+        Properties base = readResource(BASE_RESOURCE);
+        spec.apply(base, BASE_RESOURCE);
+        spec.applySensitivities(base, BASE_RESOURCE);
+        String digitFields = base.getProperty("validate.digits", "");
+        String luhnFields = base.getProperty("validate.luhn", "");
+
+        if (name != null) {
+            String resource = String.format(DIALECT_RESOURCE, name);
+            Properties overlay = readResource(resource);
+            spec.apply(overlay, resource);
+            spec.applySensitivities(overlay, resource);
+            digitFields = overlay.getProperty("validate.digits", digitFields);
+            luhnFields = overlay.getProperty("validate.luhn", luhnFields);
+        }
+
+        spec.compileValidators(digitFields, luhnFields);
+        spec.compileSensitiveFields();
+        return spec;
+    }
+
+    /**
+     * @return dialect name, or null for the base spec
+     */
+    public String getDialect() {
+        return dialect;
+    }
+
+    /**
+     * @param fieldNumber data element number
+     * @return true if the field has a definition in this spec
+     */
+    public boolean isDefined(int fieldNumber) {
+        return fieldNumber > 0 && fieldNumber < FIELD_COUNT && defined[fieldNumber];
+    }
+
+    /**
+     * @param fieldNumber defined data element number
+     * @return fixed length, or maximum length for LLVAR/LLLVAR fields
+     */
+    public int getMaxLength(int fieldNumber) {
+        return maxLengths[fieldNumber];
+    }
+
+    /**
+     * @param fieldNumber defined data element number
+     * @return digits in the length prefix: 0 (fixed), 2 (LLVAR) or 3 (LLLVAR)
+     */
+    public int getLengthPrefixDigits(int fieldNumber) {
+        return lengthPrefixDigits[fieldNumber];
+    }
+
+    /**
+     * @param fieldNumber defined data element number
+     * @return true for LLVAR/LLLVAR fields
+     */
+    public boolean isVariableLength(int fieldNumber) {
+        return lengthPrefixDigits[fieldNumber] != 0;
+    }
+
+    /**
+     * @param fieldNumber defined data element number
+     * @return declared data type
+     */
+    public Iso8583DataType getDataType(int fieldNumber) {
+        return dataTypes[fieldNumber];
+    }
+
+    /**
+     * @param fieldNumber defined data element number
+     * @return format validator for the field (never null)
+     */
+    public Iso8583FieldValidator getValidator(int fieldNumber) {
+        return validators[fieldNumber];
+    }
+
+    /**
+     * @param fieldNumber defined data element number
+     * @return human-readable field name
+     */
+    public String getDescription(int fieldNumber) {
+        return descriptions[fieldNumber];
+    }
+
+    /**
+     * @param fieldNumber data element number
+     * @return how the field must be protected; {@link Iso8583Sensitivity#NONE} for ordinary fields
+     */
+    public Iso8583Sensitivity getSensitivity(int fieldNumber) {
+        if (fieldNumber < 0 || fieldNumber >= FIELD_COUNT || sensitivities[fieldNumber] == null) {
+            return Iso8583Sensitivity.NONE;
+        }
+        return sensitivities[fieldNumber];
+    }
+
+    /**
+     * @return numbers of the fields whose sensitivity is not NONE, ascending (a copy)
+     */
+    public int[] getSensitiveFields() {
+        return sensitiveFields.clone();
+    }
+
+    private void define(int fieldNumber, Iso8583DataType type, int prefixDigits, int maxLength,
+            String description) {
+        defined[fieldNumber] = true;
+        dataTypes[fieldNumber] = type;
+        lengthPrefixDigits[fieldNumber] = prefixDigits;
+        maxLengths[fieldNumber] = maxLength;
+        descriptions[fieldNumber] = description;
+    }
+
+    private void apply(Properties definitions, String source) {
+        for (String key : definitions.stringPropertyNames()) {
+            if (!key.startsWith("field.")) {
+                continue;
+            }
+            int fieldNumber = parseFieldNumber(key.substring("field.".length()), source);
+            if (fieldNumber < 2) {
+                throw new IllegalArgumentException(source + ": field " + fieldNumber + " cannot be redefined");
+            }
+            String[] parts = definitions.getProperty(key).split(",", 4);
+            if (parts.length < 3) {
+                throw new IllegalArgumentException(source + ": malformed definition for " + key);
+            }
+            Iso8583DataType type = Iso8583DataType.fromCode(parts[0].trim());
+            int prefixDigits = switch (parts[1].trim().toUpperCase()) {
+                case "FIXED" -> 0;
+                case "LLVAR" -> 2;
+                case "LLLVAR" -> 3;
+                default -> throw new IllegalArgumentException(
+                        source + ": unknown length format '" + parts[1].trim() + "' for " + key);
+            };
+            int maxLength;
+            try {
+                maxLength = Integer.parseInt(parts[2].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(source + ": invalid max length for " + key, e);
+            }
+            int prefixLimit = prefixDigits == 2 ? 99 : 999;
+            if (maxLength < 1 || (prefixDigits != 0 && maxLength > prefixLimit)) {
+                throw new IllegalArgumentException(source + ": max length " + maxLength + " out of range for " + key);
+            }
+            String description = parts.length > 3 ? parts[3].trim() : "Field " + fieldNumber;
+            define(fieldNumber, type, prefixDigits, maxLength, description);
+        }
+    }
+
+    private void compileValidators(String digitFields, String luhnFields) {
+        for (int fieldNumber = 0; fieldNumber < FIELD_COUNT; fieldNumber++) {
+            validators[fieldNumber] = defined[fieldNumber]
+                    ? Iso8583FieldValidator.forType(dataTypes[fieldNumber])
+                    : Iso8583FieldValidator.ANY;
+        }
+        override(digitFields, "validate.digits", Iso8583FieldValidator.DIGITS);
+        override(luhnFields, "validate.luhn", Iso8583FieldValidator.LUHN);
+    }
+
+    private void applySensitivities(Properties definitions, String source) {
+        markSensitive(definitions.getProperty("sensitive.pan", ""), source, Iso8583Sensitivity.PAN);
+        markSensitive(definitions.getProperty("sensitive.track2", ""), source, Iso8583Sensitivity.TRACK_2);
+        markSensitive(definitions.getProperty("sensitive.track", ""), source, Iso8583Sensitivity.TRACK_DATA);
+        markSensitive(definitions.getProperty("sensitive.pin", ""), source, Iso8583Sensitivity.PIN_OR_CVV);
+    }
+
+    private void markSensitive(String fieldList, String source, Iso8583Sensitivity sensitivity) {
+        for (String token : fieldList.split(",")) {
+            if (!token.isBlank()) {
+                sensitivities[parseFieldNumber(token.trim(), source)] = sensitivity;
+            }
+        }
+    }
+
+    private void compileSensitiveFields() {
+        int[] fields = new int[FIELD_COUNT];
+        int count = 0;
+        for (int fieldNumber = 0; fieldNumber < FIELD_COUNT; fieldNumber++) {
+            if (defined[fieldNumber] && getSensitivity(fieldNumber) != Iso8583Sensitivity.NONE) {
+                fields[count++] = fieldNumber;
+            }
+        }
+        sensitiveFields = Arrays.copyOf(fields, count);
+    }
+
+    private void override(String fieldList, String source, Iso8583FieldValidator validator) {
+        for (String token : fieldList.split(",")) {
+            if (!token.isBlank()) {
+                validators[parseFieldNumber(token.trim(), source)] = validator;
+            }
+        }
+    }
+
+    private static int parseFieldNumber(String text, String source) {
+        try {
+            int fieldNumber = Integer.parseInt(text.trim());
+            if (fieldNumber < 1 || fieldNumber >= FIELD_COUNT) {
+                throw new IllegalArgumentException(source + ": field number out of range: " + fieldNumber);
+            }
+            return fieldNumber;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(source + ": invalid field number '" + text + "'", e);
+        }
+    }
+
+    private static Properties readResource(String resource) {
+        Properties properties = new Properties();
+        try (InputStream in = Iso8583Spec.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("ISO 8583 field definitions not found: " + resource);
+            }
+            properties.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read ISO 8583 field definitions: " + resource, e);
+        }
+        return properties;
+    }
+
+    /** Lazily compiled base spec. */
+    private static final class DefaultHolder {
+        private static final Iso8583Spec INSTANCE = load(null);
+    }
+}
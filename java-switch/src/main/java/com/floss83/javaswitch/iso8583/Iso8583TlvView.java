@@ -0,0 +1,337 @@
+package com.floss83.javaswitch.iso8583;
+
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Indexed BER-TLV view over one data element: field 55 (EMV chip data) or any
+ * TLV-style private field such as 48 or 62.
+ * <p>
+ * {@link #wrap(Iso8583Message, int)} walks the value once and records each
+ * data object's tag, value offset and value length in parallel int arrays;
+ * no per-tag objects are created. Tags listed in {@link EmvTag} are also
+ * indexed by ordinal, so {@link #indexOf(EmvTag)} is an array read; any
+ * other tag is found by a scan of the (short) index. Multi-byte tags (up to
+ * 4 bytes) and 1-4 byte lengths are supported. Constructed data objects
+ * (templates such as 70 or 77) are indexed themselves and their contents
+ * are indexed after them, so nested tags can be looked up directly. 0x00 and
+ * 0xFF padding between data objects is skipped.
+ * </p>
+ * <p>
+ * Binary ({@code b}) fields are decoded from hex text (ASCII messages) or
+ * taken as raw bytes (packed messages); other field types are read as their
+ * characters. A view is reusable but not thread-safe: keep one per thread
+ * (or per connection) and re-wrap it for each message.
+ * </p>
+ *
+ * <pre>
+ * Iso8583TlvView emv = new Iso8583TlvView(parser.getSpec());
+ * if (emv.wrap(message, 55)) {
+ *     String arqc = emv.getHex(EmvTag.APPLICATION_CRYPTOGRAM);
+ *     long atc = emv.getUnsigned(emv.indexOf(EmvTag.APPLICATION_TRANSACTION_COUNTER));
+ * }
+ * </pre>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public final class Iso8583TlvView {
+
+    private static final HexFormat HEX = HexFormat.of().withUpperCase();
+
+    private final Iso8583Spec spec;
+
+    /** Decoded bytes of the wrapped value. */
+    private byte[] data = new byte[256];
+    private int dataLength;
+
+    /** Index: tag, value offset and value length of each data object, in wire order. */
+    private int[] tags = new int[16];
+    private int[] valueOffsets = new int[16];
+    private int[] valueLengths = new int[16];
+    private int size;
+
+    /** Index entry of each {@link EmvTag} by ordinal, or -1 if absent. */
+    private final int[] hot = new int[EmvTag.all().length];
+
+    /**
+     * Creates a view that decodes field values according to a spec.
+     *
+     * @param spec field specification (base or dialect) the messages were parsed with
+     */
+    public Iso8583TlvView(Iso8583Spec spec) {
+        this.spec = spec;
+        Arrays.fill(hot, -1);
+    }
+
+    /**
+     * Indexes the TLV data held in one data element of a message.
+     *
+     * @param message     parsed or built message
+     * @param fieldNumber data element holding BER-TLV data (e.g. 55)
+     * @return true if the field is present and was indexed, false if it is absent
+     * @throws Iso8583ParseException if the value is not well-formed BER-TLV
+     */
+    public boolean wrap(Iso8583Message message, int fieldNumber) throws Iso8583ParseException {
+        clear();
+        if (!message.hasDataElement(fieldNumber)) {
+            return false;
+        }
+        int length = message.getDataElementLength(fieldNumber);
+        if (data.length < length) {
+            data = new byte[Math.max(length, data.length * 2)];
+        }
+        boolean hex = spec.isDefined(fieldNumber) && spec.getDataType(fieldNumber) == Iso8583DataType.B;
+        int decoded = message.copyDataElementBytes(fieldNumber, hex, data);
+        if (decoded < 0) {
+            throw new Iso8583ParseException("Field " + fieldNumber + " is not valid hex binary data");
+        }
+        dataLength = decoded;
+        index(fieldNumber);
+        return true;
+    }
+
+    /**
+     * Indexes raw BER-TLV bytes. The bytes are copied; {@code buf} may be
+     * reused once this returns.
+     *
+     * @param buf    buffer holding the TLV data
+     * @param offset start of the data
+     * @param length length of the data in bytes
+     * @throws Iso8583ParseException if the data is not well-formed BER-TLV
+     */
+    public void wrap(byte[] buf, int offset, int length) throws Iso8583ParseException {
+        clear();
+        if (data.length < length) {
+            data = new byte[Math.max(length, data.length * 2)];
+        }
+        System.arraycopy(buf, offset, data, 0, length);
+        dataLength = length;
+        index(0);
+    }
+
+    /**
+     * @return number of data objects indexed (constructed templates included)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param tag hot tag
+     * @return index entry of the first occurrence of the tag, or -1 if absent
+     */
+    public int indexOf(EmvTag tag) {
+        return hot[tag.ordinal()];
+    }
+
+    /**
+     * @param tag tag number as its BER bytes read big-endian (e.g. {@code 0x9F26})
+     * @return index entry of the first occurrence of the tag, or -1 if absent
+     */
+    public int indexOf(int tag) {
+        for (int i = 0; i < size; i++) {
+            if (tags[i] == tag) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param tag hot tag
+     * @return true if the wrapped data contains the tag
+     */
+    public boolean contains(EmvTag tag) {
+        return hot[tag.ordinal()] >= 0;
+    }
+
+    /**
+     * @param tag tag number as its BER bytes read big-endian
+     * @return true if the wrapped data contains the tag
+     */
+    public boolean contains(int tag) {
+        return indexOf(tag) >= 0;
+    }
+
+    /**
+     * @param index index entry (0 to {@link #size()} - 1)
+     * @return tag number of the entry
+     */
+    public int getTag(int index) {
+        checkIndex(index);
+        return tags[index];
+    }
+
+    /**
+     * @param index index entry
+     * @return value length of the entry in bytes
+     */
+    public int getValueLength(int index) {
+        checkIndex(index);
+        return valueLengths[index];
+    }
+
+    /**
+     * Copies the value of an entry.
+     *
+     * @param index     index entry
+     * @param dst       destination buffer
+     * @param dstOffset start position in {@code dst}
+     * @return number of bytes copied
+     */
+    public int copyValue(int index, byte[] dst, int dstOffset) {
+        checkIndex(index);
+        System.arraycopy(data, valueOffsets[index], dst, dstOffset, valueLengths[index]);
+        return valueLengths[index];
+    }
+
+    /**
+     * @param index index entry
+     * @return the value as upper-case hex
+     */
+    public String getHex(int index) {
+        checkIndex(index);
+        return HEX.formatHex(data, valueOffsets[index], valueOffsets[index] + valueLengths[index]);
+    }
+
+    /**
+     * @param tag hot tag
+     * @return the value as upper-case hex, or null if the tag is absent
+     */
+    public String getHex(EmvTag tag) {
+        int index = hot[tag.ordinal()];
+        return index < 0 ? null : getHex(index);
+    }
+
+    /**
+     * Reads a binary value (e.g. 9F36 ATC, 9F27 CID, 95 TVR) as an unsigned
+     * big-endian number.
+     *
+     * @param index index entry
+     * @return the value
+     * @throws IllegalArgumentException if the value is longer than 8 bytes
+     */
+    public long getUnsigned(int index) {
+        checkIndex(index);
+        int length = valueLengths[index];
+        if (length > 8) {
+            throw new IllegalArgumentException("Tag " + Integer.toHexString(tags[index]).toUpperCase()
+                    + " is " + length + " bytes; too long for a long");
+        }
+        long value = 0;
+        for (int i = valueOffsets[index], end = i + length; i < end; i++) {
+            value = (value << 8) | (data[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Reads a numeric ({@code n}, packed BCD) value such as 9F02 or 5F2A.
+     *
+     * @param index index entry
+     * @return the value
+     * @throws IllegalArgumentException if the value is longer than 9 bytes or is not BCD
+     */
+    public long getNumeric(int index) {
+        checkIndex(index);
+        int length = valueLengths[index];
+        long value = length > 9 ? -1 : Iso8583Encoding.decodeBcd(data, valueOffsets[index] << 1, length << 1);
+        if (value < 0) {
+            throw new IllegalArgumentException("Tag " + Integer.toHexString(tags[index]).toUpperCase()
+                    + " is not a BCD number of at most 18 digits");
+        }
+        return value;
+    }
+
+    private void clear() {
+        if (size > 0) {
+            Arrays.fill(hot, -1);
+        }
+        size = 0;
+        dataLength = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("TLV entry " + index + " of " + size);
+        }
+    }
+
+    /**
+     * Single pass over {@link #data}. A constructed object's value is not
+     * skipped, so the objects nested in it are indexed next.
+     */
+    private void index(int fieldNumber) throws Iso8583ParseException {
+        int pos = 0;
+        while (pos < dataLength) {
+            int first = data[pos] & 0xFF;
+            if (first == 0x00 || first == 0xFF) {
+                pos++;
+                continue;
+            }
+            int start = pos;
+            int tag = first;
+            pos++;
+            if ((first & 0x1F) == 0x1F) {
+                int next;
+                do {
+                    if (pos >= dataLength || pos - start >= 4) {
+                        throw malformed(fieldNumber, start, "tag");
+                    }
+                    next = data[pos++] & 0xFF;
+                    tag = (tag << 8) | next;
+                } while ((next & 0x80) != 0);
+            }
+            if (pos >= dataLength) {
+                throw malformed(fieldNumber, start, "length");
+            }
+            int length = data[pos++] & 0xFF;
+            if (length > 0x80) {
+                int count = length & 0x7F;
+                if (count > 3 || pos + count > dataLength) {
+                    throw malformed(fieldNumber, start, "length");
+                }
+                length = 0;
+                for (int i = 0; i < count; i++) {
+                    length = (length << 8) | (data[pos++] & 0xFF);
+                }
+            } else if (length == 0x80) {
+                throw malformed(fieldNumber, start, "length");
+            }
+            if (length > dataLength - pos) {
+                throw malformed(fieldNumber, start, "value");
+            }
+            add(tag, pos, length);
+            boolean constructed = (first & 0x20) != 0;
+            if (!constructed) {
+                pos += length;
+            }
+        }
+    }
+
+    private void add(int tag, int valueOffset, int valueLength) {
+        if (size == tags.length) {
+            tags = Arrays.copyOf(tags, size * 2);
+            valueOffsets = Arrays.copyOf(valueOffsets, size * 2);
+            valueLengths = Arrays.copyOf(valueLengths, size * 2);
+        }
+        tags[size] = tag;
+        valueOffsets[size] = valueOffset;
+        valueLengths[size] = valueLength;
+        EmvTag[] hotTags = EmvTag.all();
+        for (int i = 0; i < hotTags.length; i++) {
+            if (hotTags[i].getTag() == tag) {
+                if (hot[i] < 0) {
+                    hot[i] = size;
+                }
+                break;
+            }
+        }
+        size++;
+    }
+
+    private static Iso8583ParseException malformed(int fieldNumber, int offset, String part) {
+        return new Iso8583ParseException("Malformed TLV " + part + " in field " + fieldNumber + " at byte " + offset);
+    }
+}
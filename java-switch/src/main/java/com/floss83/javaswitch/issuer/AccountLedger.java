@@ -0,0 +1,260 @@
+package com.floss83.javaswitch.issuer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.floss83.javaswitch.tokenization.TokenStore;
+
+/**
+ * In-memory account balances keyed by PAN token, for the issuer stand-in.
+ * <p>
+ * Each account is a slot in one {@link AtomicLongArray} of balances in minor
+ * currency units; the map only resolves a token to its slot. Debits and
+ * credits are lock-free compare-and-set loops on the primitive balance, so
+ * authorizations against different accounts never contend and those against
+ * one account serialize only for the length of a CAS. A debit never takes a
+ * balance below zero.
+ * </p>
+ * <p>
+ * The ledger holds at most {@code capacity} accounts. With an opening
+ * balance configured, an unknown token opens an account on first use, so
+ * any test card works without seeding; otherwise unknown tokens have no
+ * account.
+ * </p>
+ * <p>
+ * As a {@link TokenStore}, accounts follow their card to its new token when
+ * tokens are re-issued after an HSM key rotation.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public final class AccountLedger implements TokenStore {
+
+    /** Outcome of {@link #debit(String, long)}. */
+    public enum Result {
+        /** Balance was sufficient and has been reduced. */
+        DEBITED,
+        /** Balance was lower than the amount; unchanged. */
+        INSUFFICIENT_FUNDS,
+        /** No account for the token (or the ledger is full). */
+        NO_ACCOUNT
+    }
+
+    /** Returned by {@link #getBalance(String)} for a token without an account. */
+    public static final long NO_ACCOUNT = -1;
+
+    private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<>();
+    /** Slots merged into another by {@link #replaceToken}, and the slot they went to. */
+    private final ConcurrentHashMap<Integer, Integer> merged = new ConcurrentHashMap<>();
+    private final AtomicLongArray balances;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final long openingBalance;
+
+    /**
+     * @param capacity       most accounts the ledger can hold
+     * @param openingBalance balance of accounts opened on first use, in minor units; negative to disable
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public AccountLedger(int capacity, long openingBalance) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Ledger capacity must be positive: " + capacity);
+        }
+        this.balances = new AtomicLongArray(capacity);
+        this.openingBalance = openingBalance;
+    }
+
+    /**
+     * Opens an account, or resets the balance of an existing one.
+     *
+     * @param token   PAN token
+     * @param balance balance in minor units
+     * @throws IllegalArgumentException if the balance is negative
+     * @throws IllegalStateException    if the ledger is full
+     */
+    public void setBalance(String token, long balance) {
+        if (balance < 0) {
+            throw new IllegalArgumentException("Balance must not be negative: " + balance);
+        }
+        int slot = slots.computeIfAbsent(token, t -> allocate(balance));
+        if (slot < 0) {
+            slots.remove(token, slot);
+            throw new IllegalStateException("Ledger full: " + balances.length() + " accounts");
+        }
+        balances.set(slot, balance);
+    }
+
+    /**
+     * @param token PAN token
+     * @return balance in minor units, or {@link #NO_ACCOUNT}
+     */
+    public long getBalance(String token) {
+        Integer slot = slots.get(token);
+        return slot == null || slot < 0 ? NO_ACCOUNT : balances.get(slot);
+    }
+
+    /**
+     * Takes {@code amount} from the account if the balance covers it.
+     *
+     * @param token  PAN token
+     * @param amount amount in minor units; not negative
+     * @return what happened
+     */
+    public Result debit(String token, long amount) {
+        int slot = slotFor(token);
+        return slot < 0 ? Result.NO_ACCOUNT : debit(slot, amount);
+    }
+
+    /**
+     * Adds {@code amount} to the account (refund, reversal).
+     *
+     * @param token  PAN token
+     * @param amount amount in minor units; not negative
+     * @return false if there is no account for the token
+     */
+    public boolean credit(String token, long amount) {
+        int slot = slotFor(token);
+        if (slot < 0) {
+            return false;
+        }
+        credit(slot, amount);
+        return true;
+    }
+
+    /**
+     * Resolves a token to its account, opening it if allowed. Unlike the
+     * token, the account number stays valid when the account is re-keyed by
+     * {@link #replaceToken} (or merged into the card's original account), so
+     * it is what a record of past transactions should keep.
+     *
+     * @param token PAN token
+     * @return the account number, or -1 if there is no account for the token
+     */
+    int accountOf(String token) {
+        return slotFor(token);
+    }
+
+    /**
+     * {@link #debit(String, long)} by account number.
+     *
+     * @param account value of {@link #accountOf(String)}
+     * @param amount  amount in minor units; not negative
+     * @return {@link Result#DEBITED} or {@link Result#INSUFFICIENT_FUNDS}
+     */
+    Result debit(int account, long amount) {
+        int slot = live(account);
+        long balance;
+        do {
+            balance = balances.get(slot);
+            if (balance < amount) {
+                return Result.INSUFFICIENT_FUNDS;
+            }
+        } while (!balances.compareAndSet(slot, balance, balance - amount));
+        return Result.DEBITED;
+    }
+
+    /**
+     * {@link #credit(String, long)} by account number.
+     *
+     * @param account value of {@link #accountOf(String)}
+     * @param amount  amount in minor units; not negative
+     */
+    void credit(int account, long amount) {
+        balances.addAndGet(live(account), amount);
+    }
+
+    @Override
+    public Collection<String> getTokens() {
+        return new ArrayList<>(slots.keySet());
+    }
+
+    /**
+     * Re-keys an account to its card's new token: the new token takes over
+     * the old one's slot, and the old token stops resolving. A card used
+     * under its new token before migration reached it may have opened an
+     * account of its own (with an opening balance configured); only that
+     * account's activity, its balance less the opening balance it was given,
+     * is carried over to the original account (never taking it below zero),
+     * and its slot stays allocated but unreachable. An authorization already
+     * in flight against either token at that moment may still land on the
+     * account it resolved.
+     *
+     * @param oldToken token the account is kept under
+     * @param newToken the card's token under the current key version
+     * @return false if there is no account under {@code oldToken}
+     */
+    @Override
+    public boolean replaceToken(String oldToken, String newToken) {
+        Integer slot = slots.get(oldToken);
+        if (slot == null || slot < 0) {
+            return false;
+        }
+        if (oldToken.equals(newToken)) {
+            return true;
+        }
+        Integer other = slots.put(newToken, slot);
+        if (other != null && other >= 0 && other.intValue() != slot) {
+            merged.put(other, slot);
+            long activity = balances.getAndSet(other, 0) - Math.max(openingBalance, 0);
+            long balance;
+            do {
+                balance = balances.get(slot);
+            } while (!balances.compareAndSet(slot, balance, Math.max(0, balance + activity)));
+        }
+        slots.remove(oldToken, slot);
+        return true;
+    }
+
+    /**
+     * @return accounts open
+     */
+    public int size() {
+        return Math.min(nextSlot.get(), balances.length());
+    }
+
+    /**
+     * @return the slot an account's balance lives in now, following merges
+     */
+    private int live(int slot) {
+        Integer into;
+        while ((into = merged.get(slot)) != null) {
+            slot = into;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the account's slot, opening it if allowed; -1 if there is none
+     */
+    private int slotFor(String token) {
+        Integer slot = slots.get(token);
+        if (slot == null) {
+            if (openingBalance < 0) {
+                return -1;
+            }
+            slot = slots.computeIfAbsent(token, t -> allocate(openingBalance));
+            if (slot < 0) {
+                slots.remove(token, slot); // full: do not let unknown tokens pile up in the map
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Claims the next free slot; -1 once the ledger is full.
+     */
+    private int allocate(long balance) {
+        if (nextSlot.get() >= balances.length()) {
+            return -1;
+        }
+        int slot = nextSlot.getAndIncrement();
+        if (slot >= balances.length()) {
+            return -1;
+        }
+        balances.set(slot, balance);
+        return slot;
+    }
+}
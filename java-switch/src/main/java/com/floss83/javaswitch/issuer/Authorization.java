@@ -0,0 +1,73 @@
+package com.floss83.javaswitch.issuer;
+
+/**
+ * An issuer's answer to one authorization request: the response code for
+ * field 39 and, when approved, the approval code for field 38.
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public final class Authorization {
+
+    /** Approved, no approval code (e.g. network management). */
+    public static final Authorization APPROVED = new Authorization(null, "00");
+
+    /** Declined: invalid transaction (request type the issuer does not authorize). */
+    public static final Authorization INVALID_TRANSACTION = new Authorization(null, "12");
+
+    /** Declined: invalid card number, or no account for it. */
+    public static final Authorization INVALID_CARD = new Authorization(null, "14");
+
+    /** Declined: format error (a required field is missing). */
+    public static final Authorization FORMAT_ERROR = new Authorization(null, "30");
+
+    /** Declined: insufficient funds. */
+    public static final Authorization INSUFFICIENT_FUNDS = new Authorization(null, "51");
+
+    /** Declined: duplicate transmission. */
+    public static final Authorization DUPLICATE_TRANSMISSION = new Authorization(null, "94");
+
+    /** Declined: issuer or switch inoperative. */
+    public static final Authorization ISSUER_UNAVAILABLE = new Authorization(null, "91");
+
+    /** Declined: system malfunction. */
+    public static final Authorization SYSTEM_MALFUNCTION = new Authorization(null, "96");
+
+    private final String authorizationId;
+    private final String responseCode;
+
+    /**
+     * @param authorizationId approval code for field 38 (6 characters), or null
+     * @param responseCode    response code for field 39 (2 characters)
+     */
+    public Authorization(String authorizationId, String responseCode) {
+        this.authorizationId = authorizationId;
+        this.responseCode = responseCode;
+    }
+
+    /**
+     * @return approval code for field 38, or null if the response carries none
+     */
+    public String getAuthorizationId() {
+        return authorizationId;
+    }
+
+    /**
+     * @return response code for field 39
+     */
+    public String getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * @return true for response code 00
+     */
+    public boolean isApproved() {
+        return "00".equals(responseCode);
+    }
+
+    @Override
+    public String toString() {
+        return authorizationId == null ? responseCode : responseCode + "/" + authorizationId;
+    }
+}
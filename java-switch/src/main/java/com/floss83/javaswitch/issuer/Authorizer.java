@@ -0,0 +1,35 @@
+package com.floss83.javaswitch.issuer;
+
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+
+/**
+ * Makes the approve/decline decision for a parsed, tokenized request. The
+ * switch packs the answer into the 0110/0210 response (fields 38 and 39).
+ * <p>
+ * Implementations are shared by every listener and must be thread-safe. They
+ * may block, unless {@link #isBlocking()} says otherwise: listeners then
+ * call them on virtual threads only.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public interface Authorizer {
+
+    /**
+     * @param request parsed request whose PAN (field 2) has already been replaced by its token
+     * @return the decision; never null
+     */
+    Authorization authorize(Iso8583Message request);
+
+    /**
+     * Whether {@link #authorize} may wait, e.g. on a network round trip or a
+     * simulated delay. Listeners never call a blocking authorizer on an event
+     * loop thread.
+     *
+     * @return true unless the decision is always made at once; true by default
+     */
+    default boolean isBlocking() {
+        return true;
+    }
+}
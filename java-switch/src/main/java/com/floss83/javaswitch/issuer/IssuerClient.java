@@ -0,0 +1,538 @@
+package com.floss83.javaswitch.issuer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.floss83.javaswitch.iso8583.Iso8583LengthHeader;
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+import com.floss83.javaswitch.iso8583.Iso8583PackException;
+import com.floss83.javaswitch.iso8583.Iso8583Packer;
+import com.floss83.javaswitch.iso8583.Iso8583ParseException;
+import com.floss83.javaswitch.iso8583.Iso8583Parser;
+
+/**
+ * ========================================
+ * Outbound Issuer Connection Pool
+ * ========================================
+ *
+ * <b>Purpose:</b>
+ * <ul>
+ * <li>Keeps a fixed set of persistent TCP links to one issuer endpoint and
+ * multiplexes requests over them: a request is packed, framed and written
+ * to the next connected link, and the caller gets a
+ * {@link CompletableFuture} at once.</li>
+ * <li>Responses may come back in any order on any link; each is matched to
+ * its request by message class plus STAN, RRN and terminal ID
+ * ({@link Iso8583Message#getCorrelationKey()}), so thousands of requests can
+ * be outstanding per link with no thread waiting on any of them.</li>
+ * <li>Every request has a deadline. When an 01xx/02xx request runs out of
+ * time its future fails with a {@link TimeoutException} and a 0400 reversal
+ * (reason 68, response received too late) is sent for it, so that the issuer
+ * does not keep a hold the acquirer has given up on. The same happens when
+ * the link an 01xx/02xx request was written to is lost before its response:
+ * the issuer may have approved it, and nothing else will tell it the
+ * acquirer never heard back.</li>
+ * <li>A reversal that finds no connected link is parked (up to
+ * {@link #MAX_PARKED_REVERSALS}) and sent when a link reconnects.</li>
+ * </ul>
+ *
+ * <b>Threads:</b>
+ * <ul>
+ * <li>One virtual thread per link connects, reads response frames and
+ * completes futures; after a connection failure it fails that link's
+ * outstanding requests and reconnects after {@link #RECONNECT_DELAY}.</li>
+ * <li>Callers write their own frames under the link's
+ * {@link ReentrantLock}; deadlines run on the shared
+ * {@link CompletableFuture#orTimeout(long, TimeUnit)} timer.</li>
+ * <li>Reversals are built and written on their own virtual thread, never on
+ * that timer's single thread or on a link's reader thread, since the write
+ * may wait for a link's lock or a slow socket.</li>
+ * </ul>
+ *
+ * <b>Usage:</b>
+ *
+ * <pre>
+ * IssuerClient client = new IssuerClient("localhost", 5100, parser, Iso8583LengthHeader.BINARY2, 4,
+ *         Duration.ofSeconds(2));
+ * client.start();
+ * client.send(request).thenAccept(response -&gt; ...);
+ * </pre>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class IssuerClient implements AutoCloseable {
+
+    /** Pause before a lost link is reconnected. */
+    static final Duration RECONNECT_DELAY = Duration.ofSeconds(1);
+
+    /** Reversals kept while no link is connected; beyond this they are dropped and logged. */
+    static final int MAX_PARKED_REVERSALS = 10_000;
+
+    /** Fields a reversal carries over from the original request. */
+    private static final int[] REVERSAL_FIELDS = { 2, 3, 4, 7, 11, 12, 13, 32, 37, 41, 42, 49 };
+
+    private static final int FIELD_RESPONSE_CODE = 39;
+    private static final int FIELD_PIN_DATA = 52;
+    private static final int FIELD_ORIGINAL_DATA = 90;
+
+    /** Reversal reason: response received too late (or, after a lost link, not at all). */
+    private static final String REASON_LATE_RESPONSE = "68";
+
+    private final String host;
+    private final int port;
+    private final Iso8583Parser parser;
+    private final Iso8583Packer packer;
+    private final Iso8583LengthHeader lengthHeader;
+    private final Duration timeout;
+    private final Link[] links;
+    private final AtomicInteger nextLink = new AtomicInteger();
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<Iso8583Message> parkedReversals = new LinkedBlockingQueue<>(
+            MAX_PARKED_REVERSALS);
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder reversals = new LongAdder();
+    private final LongAdder lateResponses = new LongAdder();
+
+    private volatile boolean running;
+
+    /**
+     * A request waiting for its response.
+     */
+    private static final class Pending {
+        final CompletableFuture<Iso8583Message> future = new CompletableFuture<>();
+        final byte[] frame;
+        final Link link;
+        /** Set before the frame goes to the link; a lost link only reverses written requests. */
+        volatile boolean written;
+
+        Pending(byte[] frame, Link link) {
+            this.frame = frame;
+            this.link = link;
+        }
+    }
+
+    /**
+     * One persistent connection. {@link #out} is null while disconnected.
+     */
+    private static final class Link {
+        final int index;
+        final ReentrantLock writeLock = new ReentrantLock();
+        volatile OutputStream out;
+        volatile Socket socket;
+
+        Link(int index) {
+            this.index = index;
+        }
+
+        void write(byte[] frame) throws IOException {
+            writeLock.lock();
+            try {
+                OutputStream stream = out;
+                if (stream == null) {
+                    throw new IOException("Issuer link " + index + " is not connected");
+                }
+                stream.write(frame);
+                stream.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @param host         issuer host
+     * @param port         issuer port
+     * @param parser       parser (and so spec and wire encoding) shared with the issuer
+     * @param lengthHeader length header framing messages on the links
+     * @param connections  links to keep open
+     * @param timeout      default deadline per request
+     * @throws IllegalArgumentException if the header is NONE, connections is not positive or timeout is not
+     *                                  positive
+     */
+    public IssuerClient(String host, int port, Iso8583Parser parser, Iso8583LengthHeader lengthHeader,
+            int connections, Duration timeout) {
+        if (lengthHeader == Iso8583LengthHeader.NONE) {
+            throw new IllegalArgumentException("Issuer links need a length header to multiplex requests");
+        }
+        if (connections < 1) {
+            throw new IllegalArgumentException("Connections must be positive: " + connections);
+        }
+        if (timeout.isZero() || timeout.isNegative()) {
+            throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+        }
+        this.host = host;
+        this.port = port;
+        this.parser = parser;
+        this.packer = new Iso8583Packer(parser.getSpec(), parser.getEncoding());
+        this.lengthHeader = lengthHeader;
+        this.timeout = timeout;
+        this.links = new Link[connections];
+        for (int i = 0; i < connections; i++) {
+            links[i] = new Link(i);
+        }
+    }
+
+    /**
+     * Starts one reader thread per link; each connects and keeps reconnecting
+     * until {@link #close()}.
+     */
+    public void start() {
+        running = true;
+        for (Link link : links) {
+            Thread.ofVirtual().name("issuer-link-" + link.index).start(() -> serve(link));
+        }
+    }
+
+    /**
+     * Sends a request with the default deadline.
+     *
+     * @see #send(Iso8583Message, Duration)
+     */
+    public CompletableFuture<Iso8583Message> send(Iso8583Message request) {
+        return send(request, timeout);
+    }
+
+    /**
+     * Sends a request and returns at once. The message is packed before this
+     * method returns, so the caller may reuse it immediately.
+     * <p>
+     * The future completes with the parsed response, or fails with a
+     * {@link TimeoutException} after {@code deadline} (an 01xx/02xx request
+     * is then reversed), an {@link IOException} if no link is connected or
+     * the link is lost (an 01xx/02xx request already written is then
+     * reversed), an {@link Iso8583PackException} if the request cannot
+     * be packed, or an {@link IllegalStateException} if a request with the
+     * same class and correlation key is already outstanding.
+     * </p>
+     * <p>
+     * PIN data (52) is not forwarded: by now it holds the switch's token of
+     * the PIN block, which means nothing to the issuer and does not fit the
+     * field's fixed 16 hex digits.
+     * </p>
+     *
+     * @param request  request to send; needs at least one of fields 11, 37 and 41
+     * @param deadline time allowed for the response
+     * @return the response future
+     */
+    public CompletableFuture<Iso8583Message> send(Iso8583Message request, Duration deadline) {
+        String key = request.getCorrelationKey();
+        if (key == null) {
+            return CompletableFuture.failedFuture(
+                    new IllegalArgumentException("Request carries none of STAN, RRN and terminal ID"));
+        }
+        byte[] frame;
+        try {
+            frame = frame(request.hasDataElement(FIELD_PIN_DATA) ? withoutPinData(request) : request);
+        } catch (Iso8583PackException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Link link = pickLink();
+        if (link == null) {
+            return CompletableFuture.failedFuture(new IOException("No connection to issuer " + host + ":" + port));
+        }
+        char messageClass = request.getMti().charAt(1);
+        String pendingKey = messageClass + key;
+        Pending outstanding = new Pending(frame, link);
+        if (pending.putIfAbsent(pendingKey, outstanding) != null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Duplicate outstanding request: "
+                    + request.getMti() + " " + key));
+        }
+        outstanding.future.orTimeout(deadline.toNanos(), TimeUnit.NANOSECONDS).whenComplete((response, error) -> {
+            pending.remove(pendingKey, outstanding);
+            if (error instanceof TimeoutException) {
+                timeouts.increment();
+            }
+            boolean unanswered = error instanceof TimeoutException
+                    || (error instanceof IOException && outstanding.written);
+            if (unanswered && (messageClass == '1' || messageClass == '2')) {
+                // Not here: this is the timer's only thread, or a link's reader
+                Thread.ofVirtual().name("issuer-reversal").start(() -> reverse(outstanding.frame));
+            }
+        });
+        try {
+            outstanding.written = true;
+            link.write(frame);
+            sent.increment();
+        } catch (IOException e) {
+            outstanding.written = false;
+            outstanding.future.completeExceptionally(e);
+        }
+        return outstanding.future;
+    }
+
+    /**
+     * @return requests waiting for a response
+     */
+    public int getOutstanding() {
+        return pending.size();
+    }
+
+    /**
+     * @return links currently connected
+     */
+    public int getConnectedLinks() {
+        int connected = 0;
+        for (Link link : links) {
+            if (link.out != null) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * @return requests written to a link so far
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * @return requests that ran past their deadline
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return reversals sent for timed-out requests and requests cut off by a lost link
+     */
+    public long getReversals() {
+        return reversals.sum();
+    }
+
+    /**
+     * @return responses that matched no outstanding request (typically after a timeout)
+     */
+    public long getLateResponses() {
+        return lateResponses.sum();
+    }
+
+    /**
+     * @return reversals waiting for a link to reconnect
+     */
+    public int getParkedReversals() {
+        return parkedReversals.size();
+    }
+
+    /**
+     * Closes every link; outstanding requests fail with an {@link IOException}.
+     * Parked reversals are dropped.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Link link : links) {
+            Socket socket = link.socket;
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    System.err.println("[ISSUER] Close error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Round-robin over connected links.
+     */
+    private Link pickLink() {
+        int start = nextLink.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < links.length; i++) {
+            Link link = links[(start + i) % links.length];
+            if (link.out != null) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    private byte[] frame(Iso8583Message message) throws Iso8583PackException {
+        int length = packer.measure(message);
+        ByteBuffer out = ByteBuffer.allocate(lengthHeader.getLength() + length);
+        lengthHeader.write(length, out);
+        packer.pack(message, out);
+        return out.array();
+    }
+
+    /**
+     * A copy of the request with every field but 52.
+     */
+    private static Iso8583Message withoutPinData(Iso8583Message request) {
+        int[] fields = new int[128];
+        int count = 0;
+        for (int field = 2; field <= 128; field++) {
+            if (field != FIELD_PIN_DATA && request.hasDataElement(field)) {
+                fields[count++] = field;
+            }
+        }
+        return request.derive(request.getMti(), Arrays.copyOf(fields, count));
+    }
+
+    /**
+     * Sends the 0400 reversal of an unanswered request. A reversal that
+     * times out is only logged; one that finds no link, or whose link is
+     * lost, is parked until a link reconnects.
+     */
+    private void reverse(byte[] originalFrame) {
+        Iso8583Message reversal;
+        try {
+            int headerLength = lengthHeader.getLength();
+            Iso8583Message original = parser.parse(originalFrame, headerLength, originalFrame.length - headerLength);
+            reversal = original.derive("0400", REVERSAL_FIELDS);
+            reversal.getMutableDataElements().put(FIELD_RESPONSE_CODE, REASON_LATE_RESPONSE);
+            reversal.getMutableDataElements().put(FIELD_ORIGINAL_DATA, originalData(original));
+        } catch (Iso8583ParseException | RuntimeException e) {
+            System.err.println("[ISSUER] Cannot build reversal: " + e.getMessage());
+            return;
+        }
+        reversals.increment();
+        sendReversal(reversal);
+    }
+
+    private void sendReversal(Iso8583Message reversal) {
+        send(reversal).whenComplete((response, error) -> {
+            if (error instanceof IOException && running) {
+                if (!parkedReversals.offer(reversal)) {
+                    System.err.println("[ISSUER] Reversal " + reversal.getCorrelationKey() + " dropped: "
+                            + MAX_PARKED_REVERSALS + " already waiting for a link");
+                }
+            } else if (error != null) {
+                System.err.println("[ISSUER] Reversal " + reversal.getCorrelationKey() + " failed: " + error);
+            }
+        });
+    }
+
+    /**
+     * Sends the reversals parked when the link came up. Only those parked
+     * before the call: one that fails again is parked for the next link.
+     */
+    private void sendParkedReversals() {
+        for (int i = parkedReversals.size(); i > 0; i--) {
+            Iso8583Message reversal = parkedReversals.poll();
+            if (reversal == null) {
+                return;
+            }
+            sendReversal(reversal);
+        }
+    }
+
+    /**
+     * Field 90: original MTI, STAN and transmission date/time, then zeroed
+     * acquiring and forwarding institution IDs (42 digits).
+     */
+    private static String originalData(Iso8583Message original) {
+        StringBuilder data = new StringBuilder(42).append(original.getMti());
+        String stan = original.getDataElement(11);
+        data.append(stan != null ? stan : "000000");
+        String transmitted = original.getDataElement(7);
+        data.append(transmitted != null ? transmitted : "0000000000");
+        while (data.length() < 42) {
+            data.append('0');
+        }
+        return data.toString();
+    }
+
+    /**
+     * Link thread body: connect, read responses, reconnect.
+     */
+    private void serve(Link link) {
+        while (running) {
+            try (Socket socket = new Socket()) {
+                link.socket = socket;
+                if (!running) {
+                    return; // closed while starting
+                }
+                socket.connect(new InetSocketAddress(host, port),
+                        (int) Math.min(timeout.toMillis(), Integer.MAX_VALUE));
+                socket.setTcpNoDelay(true);
+                link.out = socket.getOutputStream();
+                System.out.println("[ISSUER] Link " + link.index + " connected to " + host + ":" + port);
+                if (!parkedReversals.isEmpty()) {
+                    Thread.ofVirtual().name("issuer-reversal").start(this::sendParkedReversals);
+                }
+                readResponses(socket.getInputStream());
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("[ISSUER] Link " + link.index + " to " + host + ":" + port + ": " + e.getMessage());
+                }
+            } finally {
+                link.out = null;
+                link.socket = null;
+                failOutstanding(link);
+            }
+            if (running) {
+                try {
+                    Thread.sleep(RECONNECT_DELAY);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void readResponses(InputStream in) throws IOException {
+        int headerLength = lengthHeader.getLength();
+        byte[] header = new byte[headerLength];
+        while (true) {
+            int read = in.readNBytes(header, 0, headerLength);
+            if (read == 0) {
+                throw new IOException("closed by issuer");
+            }
+            int length = read == headerLength ? lengthHeader.read(header, 0) : -1;
+            if (length < 0) {
+                throw new IOException("bad or truncated " + lengthHeader.getName() + " length header");
+            }
+            byte[] frame = in.readNBytes(length);
+            if (frame.length != length) {
+                throw new IOException("closed mid-response");
+            }
+            Iso8583Message response;
+            String key;
+            try {
+                response = parser.parse(frame, 0, length);
+                key = response.getCorrelationKey();
+            } catch (Iso8583ParseException | RuntimeException e) {
+                System.err.println("[ISSUER] Unreadable response: " + e.getMessage());
+                continue;
+            }
+            Pending match = key == null ? null : pending.remove(response.getMti().charAt(1) + key);
+            if (match == null) {
+                lateResponses.increment();
+            } else {
+                match.future.complete(response);
+            }
+        }
+    }
+
+    /**
+     * Fails the lost link's requests; the written 01xx/02xx ones are then
+     * reversed by {@link #send(Iso8583Message, Duration)}'s completion.
+     */
+    private void failOutstanding(Link link) {
+        IOException lost = new IOException("Issuer link " + link.index + " lost");
+        for (Pending request : pending.values()) {
+            if (request.link == link) {
+                request.future.completeExceptionally(lost);
+            }
+        }
+    }
+}
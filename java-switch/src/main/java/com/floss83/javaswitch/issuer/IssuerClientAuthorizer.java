@@ -0,0 +1,110 @@
+package com.floss83.javaswitch.issuer;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+
+/**
+ * {@link Authorizer} that forwards each request to a remote issuer through an
+ * {@link IssuerClient} and answers with the issuer's fields 38 and 39.
+ * <p>
+ * {@link #authorizeAsync} maps the response future to a decision without
+ * waiting; {@link #authorize} waits for it, which is cheap on the virtual
+ * threads the listeners hand blocking authorizers to. A request the issuer
+ * does not answer in time (already reversed by the client), or that finds no
+ * connected link, is declined 91; a duplicate of an outstanding request 94.
+ * </p>
+ * <p>
+ * Closing the authorizer closes the client and any resources registered with
+ * it, such as the loopback issuer it talks to in tests.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class IssuerClientAuthorizer implements Authorizer, AutoCloseable {
+
+    private static final int FIELD_AUTHORIZATION_ID = 38;
+    private static final int FIELD_RESPONSE_CODE = 39;
+
+    private final IssuerClient client;
+    private final AutoCloseable[] owned;
+
+    /**
+     * @param client started client to forward requests through
+     * @param owned  further resources to close with it (e.g. a loopback issuer)
+     */
+    public IssuerClientAuthorizer(IssuerClient client, AutoCloseable... owned) {
+        this.client = client;
+        this.owned = owned;
+    }
+
+    /**
+     * Waits for {@link #authorizeAsync}; call it on a virtual thread.
+     */
+    @Override
+    public Authorization authorize(Iso8583Message request) {
+        try {
+            return authorizeAsync(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Authorization.ISSUER_UNAVAILABLE;
+        } catch (ExecutionException e) {
+            System.err.println("[ISSUER] Request failed: " + e.getCause());
+            return Authorization.SYSTEM_MALFUNCTION;
+        }
+    }
+
+    /**
+     * Forwards the request and returns at once.
+     *
+     * @param request parsed request whose PAN (field 2) has already been replaced by its token
+     * @return future of the decision, completed on the client's link thread or deadline timer; it does
+     *         not fail, every failure being mapped to a decline
+     */
+    public CompletableFuture<Authorization> authorizeAsync(Iso8583Message request) {
+        return client.send(request).handle((response, error) -> error != null ? decline(error) : decide(response));
+    }
+
+    private static Authorization decline(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof IllegalStateException) {
+            return Authorization.DUPLICATE_TRANSMISSION;
+        }
+        if (!(cause instanceof TimeoutException) && !(cause instanceof IOException)) {
+            System.err.println("[ISSUER] Request failed: " + cause);
+        }
+        return Authorization.ISSUER_UNAVAILABLE;
+    }
+
+    private static Authorization decide(Iso8583Message response) {
+        String responseCode = response.getDataElement(FIELD_RESPONSE_CODE);
+        if (responseCode == null) {
+            return Authorization.SYSTEM_MALFUNCTION;
+        }
+        return new Authorization(response.getDataElement(FIELD_AUTHORIZATION_ID), responseCode);
+    }
+
+    /**
+     * @return the client requests are forwarded through
+     */
+    public IssuerClient getClient() {
+        return client;
+    }
+
+    @Override
+    public void close() {
+        client.close();
+        for (AutoCloseable resource : owned) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                System.err.println("[ISSUER] Close error: " + e.getMessage());
+            }
+        }
+    }
+}
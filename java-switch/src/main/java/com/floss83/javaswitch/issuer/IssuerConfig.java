@@ -0,0 +1,124 @@
+package com.floss83.javaswitch.issuer;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.floss83.javaswitch.connection.Iso8583RequestHandler;
+import com.floss83.javaswitch.connection.NioTcpServer;
+import com.floss83.javaswitch.iso8583.Iso8583LengthHeader;
+import com.floss83.javaswitch.iso8583.Iso8583Parser;
+
+/**
+ * Spring wiring for the authorization decision.
+ * <p>
+ * Provides the {@link Authorizer} the listeners answer with, chosen by
+ * {@code iso8583.issuer.mode}:
+ * </p>
+ * <ul>
+ * <li>{@code local} (default): the in-process {@link IssuerStandIn}.</li>
+ * <li>{@code loopback}: an {@link IssuerClient} pool to a
+ * {@link IssuerStandIn} served over TCP on {@code iso8583.issuer.port} by
+ * this process, so the full outbound path (framing, multiplexing,
+ * correlation, deadlines, reversals) runs without a real issuer.</li>
+ * <li>{@code remote}: an {@link IssuerClient} pool to
+ * {@code iso8583.issuer.host}:{@code iso8583.issuer.port}.</li>
+ * </ul>
+ * <p>
+ * The stand-in (local and loopback) is shaped by the ledger, latency and
+ * error-rate properties.
+ * </p>
+ * <p>
+ * loopback and remote forward the tokenized request, whose field 2 must
+ * still fit its definition: they need format-preserving PAN tokens
+ * ({@code tokenization.pan-format=ff1}). A Base64 CBC token cannot be packed
+ * into field 2, and such requests are declined 91.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+@Configuration
+public class IssuerConfig {
+
+    /** Requests the loopback issuer processes at once per link. */
+    private static final int LOOPBACK_MAX_IN_FLIGHT = 4096;
+
+    /**
+     * @param capacity       most accounts held
+     * @param openingBalance balance of accounts opened on first use (minor units); negative to disable
+     * @return shared account ledger
+     */
+    @Bean
+    public AccountLedger accountLedger(@Value("${iso8583.issuer.accounts:1048576}") int capacity,
+            @Value("${iso8583.issuer.opening-balance:100000000}") long openingBalance) {
+        return new AccountLedger(capacity, openingBalance);
+    }
+
+    /**
+     * @param ledger      account ledger (local and loopback modes)
+     * @param parser      shared parser; links use its spec and encoding
+     * @param mode        local, loopback or remote
+     * @param latencyMs   stand-in delay per request, in milliseconds
+     * @param jitterMs    upper bound of a random extra stand-in delay, in milliseconds
+     * @param errorRate   fraction of stand-in requests answered 96
+     * @param host        remote issuer host
+     * @param port        remote issuer port, or the loopback issuer's port
+     * @param connections links in the outbound pool
+     * @param timeoutMs   deadline per outbound request, in milliseconds
+     * @param header      length header on the links
+     * @param panFormat   tokenization.pan-format, checked against the outbound modes
+     * @return the authorizer shared by all listeners; closed by Spring on shutdown
+     */
+    @Bean
+    public Authorizer issuerAuthorizer(AccountLedger ledger, Iso8583Parser parser,
+            @Value("${iso8583.issuer.mode:local}") String mode,
+            @Value("${iso8583.issuer.latency-ms:0}") long latencyMs,
+            @Value("${iso8583.issuer.jitter-ms:0}") long jitterMs,
+            @Value("${iso8583.issuer.error-rate:0}") double errorRate,
+            @Value("${iso8583.issuer.host:localhost}") String host,
+            @Value("${iso8583.issuer.port:5100}") int port,
+            @Value("${iso8583.issuer.connections:4}") int connections,
+            @Value("${iso8583.issuer.timeout-ms:2000}") long timeoutMs,
+            @Value("${iso8583.issuer.length-header:binary2}") String header,
+            @Value("${tokenization.pan-format:cbc}") String panFormat) {
+        String issuerMode = mode.trim().toLowerCase();
+        if (!issuerMode.equals("local") && !issuerMode.equals("loopback") && !issuerMode.equals("remote")) {
+            throw new IllegalArgumentException("Unknown iso8583.issuer.mode: " + mode);
+        }
+        IssuerStandIn standIn = new IssuerStandIn(ledger, Duration.ofMillis(latencyMs), Duration.ofMillis(jitterMs),
+                errorRate);
+        if (issuerMode.equals("local")) {
+            System.out.println("[BOOT] Issuer stand-in (in-process): latency " + latencyMs + " ms (+0-" + jitterMs
+                    + " ms), error rate " + errorRate);
+            return standIn;
+        }
+
+        if (!panFormat.trim().toLowerCase().equals("ff1")) {
+            System.err.println("[BOOT] iso8583.issuer.mode=" + issuerMode + " needs tokenization.pan-format=ff1: "
+                    + panFormat.trim() + " tokens do not fit field 2, so requests will be declined 91");
+        }
+        Iso8583LengthHeader lengthHeader = Iso8583LengthHeader.forName(header);
+        NioTcpServer loopback = null;
+        if (issuerMode.equals("loopback")) {
+            host = "localhost";
+            loopback = new NioTcpServer(port,
+                    new Iso8583RequestHandler(parser, null, false, null, null, standIn), lengthHeader,
+                    LOOPBACK_MAX_IN_FLIGHT);
+            Thread thread = new Thread(loopback, "iso8583-loopback-issuer");
+            thread.setDaemon(true);
+            thread.start();
+            System.out.println("[BOOT] Loopback issuer stand-in on port " + port + ": latency " + latencyMs
+                    + " ms (+0-" + jitterMs + " ms), error rate " + errorRate);
+        }
+        IssuerClient client = new IssuerClient(host, port, parser, lengthHeader, connections,
+                Duration.ofMillis(timeoutMs));
+        client.start();
+        System.out.println("[BOOT] Issuer client: " + connections + " link(s) to " + host + ":" + port + ", "
+                + timeoutMs + " ms deadline");
+        return loopback == null ? new IssuerClientAuthorizer(client)
+                : new IssuerClientAuthorizer(client, loopback::close);
+    }
+}
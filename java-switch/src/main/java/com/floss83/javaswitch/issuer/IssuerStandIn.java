@@ -0,0 +1,307 @@
+package com.floss83.javaswitch.issuer;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.floss83.javaswitch.iso8583.Iso8583Field;
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+
+/**
+ * In-process issuer: approves or declines against an {@link AccountLedger},
+ * so that a transaction can be followed end to end without a real issuer.
+ * <p>
+ * <b>Decisions</b> (MTI class, field 3 processing code, field 4 amount):
+ * </p>
+ * <ul>
+ * <li>01xx/02xx, processing code 20xxxx (refund): the amount is credited; 00.</li>
+ * <li>01xx/02xx otherwise: the amount is debited; 00 with a 6-digit approval
+ * code, or 51 if the balance does not cover it.</li>
+ * <li>04xx reversal: looked up by STAN, RRN and terminal ID
+ * ({@link Iso8583Message#getCorrelationKey()}) among the transactions the
+ * stand-in approved, and undone only if found there: a debit is credited
+ * back, a refund debited again (51 if the balance no longer covers it). A
+ * reversal with nothing to undo, e.g. of a request that never got here, is
+ * still answered 00, and remembered: should its original arrive after all,
+ * it is declined 12 instead of being applied. The account is undone by
+ * account number, so a reversal still reaches it after
+ * {@link com.floss83.javaswitch.tokenization.RetokenizationJob} has moved it to
+ * the card's new token.</li>
+ * <li>08xx network management: 00.</li>
+ * <li>No PAN token: 14; no account for it: 14; no amount: 30; any other
+ * class: 12.</li>
+ * </ul>
+ * <p>
+ * <b>Slow-issuer simulation:</b> every request can be delayed by a fixed
+ * latency plus a uniformly random jitter, and a configurable fraction answered
+ * 96 (system malfunction), for tail-latency and failure-path tests. The delay
+ * is a plain sleep, which only parks the caller when it runs on a virtual
+ * thread.
+ * </p>
+ * <p>
+ * The record of approvals is bounded to the most recent
+ * {@link #APPROVAL_HISTORY}; older transactions can no longer be reversed.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class IssuerStandIn implements Authorizer {
+
+    private static final String PROCESSING_CODE_REFUND = "20";
+
+    /** Approved transactions remembered for reversal. */
+    static final int APPROVAL_HISTORY = 1 << 18;
+
+    private static final int APPROVAL_SEGMENTS = 64;
+
+    private final AccountLedger ledger;
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final double errorRate;
+
+    private final Approvals[] approvals = new Approvals[APPROVAL_SEGMENTS];
+    private final AtomicLong approvalCodes = new AtomicLong();
+    private final LongAdder approved = new LongAdder();
+    private final LongAdder declined = new LongAdder();
+
+    /**
+     * Creates a stand-in that answers at once and never fails.
+     *
+     * @param ledger account balances to authorize against
+     */
+    public IssuerStandIn(AccountLedger ledger) {
+        this(ledger, Duration.ZERO, Duration.ZERO, 0);
+    }
+
+    /**
+     * @param ledger    account balances to authorize against
+     * @param latency   fixed delay added to every request
+     * @param jitter    upper bound of a uniformly random delay added on top
+     * @param errorRate fraction of requests (0-1) answered 96 instead of being authorized
+     * @throws IllegalArgumentException if a delay is negative or errorRate is outside 0-1
+     */
+    public IssuerStandIn(AccountLedger ledger, Duration latency, Duration jitter, double errorRate) {
+        if (latency.isNegative() || jitter.isNegative()) {
+            throw new IllegalArgumentException("Latency and jitter must not be negative");
+        }
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("Error rate must be between 0 and 1: " + errorRate);
+        }
+        this.ledger = ledger;
+        this.latencyNanos = latency.toNanos();
+        this.jitterNanos = jitter.toNanos();
+        this.errorRate = errorRate;
+        for (int i = 0; i < APPROVAL_SEGMENTS; i++) {
+            approvals[i] = new Approvals(APPROVAL_HISTORY / APPROVAL_SEGMENTS);
+        }
+    }
+
+    @Override
+    public Authorization authorize(Iso8583Message request) {
+        simulateLatency();
+        Authorization decision = decide(request);
+        if (decision.isApproved()) {
+            approved.increment();
+        } else {
+            declined.increment();
+        }
+        return decision;
+    }
+
+    private Authorization decide(Iso8583Message request) {
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            return Authorization.SYSTEM_MALFUNCTION;
+        }
+        char messageClass = request.getMti().charAt(1);
+        if (messageClass == '8') {
+            return Authorization.APPROVED;
+        }
+        if (messageClass != '1' && messageClass != '2' && messageClass != '4') {
+            return Authorization.INVALID_TRANSACTION;
+        }
+        String token = request.getDataElement(Iso8583Field.PAN.getFieldNumber());
+        if (token == null) {
+            return Authorization.INVALID_CARD;
+        }
+        if (!request.hasDataElement(Iso8583Field.TRANSACTION_AMOUNT.getFieldNumber())) {
+            return Authorization.FORMAT_ERROR;
+        }
+        long amount = request.getLong(Iso8583Field.TRANSACTION_AMOUNT);
+
+        String key = request.getCorrelationKey();
+        if (messageClass == '4') {
+            return key != null ? reverse(key) : Authorization.APPROVED;
+        }
+        String processingCode = request.getDataElement(Iso8583Field.PROCESSING_CODE.getFieldNumber());
+        boolean refund = processingCode != null && processingCode.startsWith(PROCESSING_CODE_REFUND);
+        int account = ledger.accountOf(token);
+        if (account < 0) {
+            return Authorization.INVALID_CARD;
+        }
+        if (key == null) {
+            return apply(account, amount, refund);
+        }
+        Approvals segment = segment(key);
+        segment.lock.lock();
+        try {
+            if (segment.entries.get(key) == Approval.REVERSED) {
+                segment.entries.remove(key);
+                return Authorization.INVALID_TRANSACTION;
+            }
+            Authorization decision = apply(account, amount, refund);
+            if (decision.isApproved()) {
+                segment.entries.put(key, new Approval(account, amount, refund));
+            }
+            return decision;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Credits a refund, or debits anything else.
+     */
+    private Authorization apply(int account, long amount, boolean refund) {
+        if (refund) {
+            ledger.credit(account, amount);
+            return Authorization.APPROVED;
+        }
+        return ledger.debit(account, amount) == AccountLedger.Result.DEBITED
+                ? new Authorization(nextApprovalCode(), "00")
+                : Authorization.INSUFFICIENT_FUNDS;
+    }
+
+    /**
+     * Undoes the approved transaction with this correlation key, if any.
+     */
+    private Authorization reverse(String key) {
+        Approvals segment = segment(key);
+        segment.lock.lock();
+        try {
+            Approval original = segment.entries.remove(key);
+            if (original == null) {
+                segment.entries.put(key, Approval.REVERSED); // in case the original is still on its way
+                return Authorization.APPROVED;
+            }
+            if (original == Approval.REVERSED) {
+                segment.entries.put(key, original); // repeated reversal
+                return Authorization.APPROVED;
+            }
+            if (!original.refund) {
+                ledger.credit(original.account, original.amount);
+                return Authorization.APPROVED;
+            }
+            if (ledger.debit(original.account, original.amount) != AccountLedger.Result.DEBITED) {
+                segment.entries.put(key, original);
+                return Authorization.INSUFFICIENT_FUNDS;
+            }
+            return Authorization.APPROVED;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    private Approvals segment(String key) {
+        return approvals[(key.hashCode() & Integer.MAX_VALUE) % APPROVAL_SEGMENTS];
+    }
+
+    /**
+     * @return true if requests are delayed by a latency or jitter
+     */
+    @Override
+    public boolean isBlocking() {
+        return latencyNanos > 0 || jitterNanos > 0;
+    }
+
+    /**
+     * @return requests approved so far
+     */
+    public long getApproved() {
+        return approved.sum();
+    }
+
+    /**
+     * @return requests declined so far (any code other than 00)
+     */
+    public long getDeclined() {
+        return declined.sum();
+    }
+
+    /**
+     * @return the ledger authorized against
+     */
+    public AccountLedger getLedger() {
+        return ledger;
+    }
+
+    private void simulateLatency() {
+        long delay = latencyNanos;
+        if (jitterNanos > 0) {
+            delay += ThreadLocalRandom.current().nextLong(jitterNanos + 1);
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(Duration.ofNanos(delay));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * What an approved transaction moved, for its reversal. The account is
+     * kept by number rather than token, so that a reversal still finds it
+     * after key rotation has re-issued the card's token.
+     */
+    private static final class Approval {
+
+        /** Marks a reversal that arrived before (or without) its original. */
+        static final Approval REVERSED = new Approval(-1, 0, false);
+
+        final int account;
+        final long amount;
+        final boolean refund;
+
+        Approval(int account, long amount, boolean refund) {
+            this.account = account;
+            this.amount = amount;
+            this.refund = refund;
+        }
+    }
+
+    /**
+     * One lock-guarded slice of the approval record, evicting its oldest
+     * entry once full.
+     */
+    private static final class Approvals {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<String, Approval> entries;
+
+        Approvals(int capacity) {
+            entries = new LinkedHashMap<>(capacity * 4 / 3 + 1) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Approval> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+    }
+
+    /**
+     * Six-digit approval code from a wrapping counter, written without String.format.
+     */
+    private String nextApprovalCode() {
+        long n = approvalCodes.incrementAndGet() % 1_000_000;
+        char[] code = new char[6];
+        for (int i = 5; i >= 0; i--) {
+            code[i] = (char) ('0' + n % 10);
+            n /= 10;
+        }
+        return new String(code);
+    }
+}
@@ -0,0 +1,197 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+
+/**
+ * FF1 format-preserving encryption (NIST SP 800-38G) over decimal digits:
+ * a 10-round Feistel network whose round function is AES-CBC-MAC, mapping a
+ * digit string to another of the same length.
+ * <p>
+ * Specialized for radix 10 and short inputs: both Feistel halves fit in a
+ * long, so the NUM/STR conversions and the modular additions are plain
+ * arithmetic rather than BigInteger. Digits are rewritten in place, as ASCII.
+ * Tweaks longer than 10 bytes make every round's MAC span more than one
+ * block, which is supported but slower.
+ * </p>
+ * <p>
+ * Not thread-safe (scratch buffers and the Cipher are reused);
+ * {@link HsmSimulator} pools instances.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+final class Ff1 {
+
+    /** Shortest input: FF1 requires radix^minlen of at least one million. */
+    static final int MIN_LENGTH = 6;
+
+    /** Longest input: keeps each half (and the round arithmetic) within a long. */
+    static final int MAX_LENGTH = 28;
+
+    private static final int ROUNDS = 10;
+    private static final int BLOCK = 16;
+    private static final long[] POW10 = new long[19];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private final Cipher aes;
+    private final byte[] p = new byte[BLOCK];
+    private final byte[] pMac = new byte[BLOCK];
+    private final byte[] mac = new byte[BLOCK];
+    private final byte[] block = new byte[BLOCK];
+    private byte[] q = new byte[BLOCK];
+
+    /**
+     * @param aes AES/ECB/NoPadding, initialized for encryption: CIPH_K of the spec
+     */
+    Ff1(Cipher aes) {
+        this.aes = aes;
+    }
+
+    /**
+     * Encrypts ASCII digits in place.
+     *
+     * @param digits buffer holding the digits
+     * @param offset index of the first digit
+     * @param length number of digits, {@value #MIN_LENGTH}-{@value #MAX_LENGTH}
+     * @param tweak  public per-value input (may be empty)
+     * @throws IllegalArgumentException if the range is not all digits or its length is out of range
+     */
+    void encrypt(byte[] digits, int offset, int length, byte[] tweak) throws GeneralSecurityException {
+        crypt(true, digits, offset, length, tweak);
+    }
+
+    /**
+     * Decrypts ASCII digits in place; the inverse of {@link #encrypt}.
+     */
+    void decrypt(byte[] digits, int offset, int length, byte[] tweak) throws GeneralSecurityException {
+        crypt(false, digits, offset, length, tweak);
+    }
+
+    private void crypt(boolean encrypt, byte[] digits, int offset, int n, byte[] tweak)
+            throws GeneralSecurityException {
+        if (n < MIN_LENGTH || n > MAX_LENGTH) {
+            throw new IllegalArgumentException("FF1 input must be " + MIN_LENGTH + "-" + MAX_LENGTH + " digits: " + n);
+        }
+        int u = n / 2;
+        int v = n - u;
+        long a = num(digits, offset, u);
+        long b = num(digits, offset + u, v);
+
+        // b: bytes to hold a v-digit number; d: bytes of each round's MAC used
+        int numBytes = (64 - Long.numberOfLeadingZeros(POW10[v]) + 7) >>> 3;
+        int d = 4 * ((numBytes + 3) / 4) + 4;
+
+        // P = [1][2][1][radix]^3 [10][u mod 256][n]^4 [t]^4, and its MAC state
+        int t = tweak.length;
+        p[0] = 1;
+        p[1] = 2;
+        p[2] = 1;
+        p[3] = 0;
+        p[4] = 0;
+        p[5] = 10;
+        p[6] = 10;
+        p[7] = (byte) u;
+        writeInt(p, 8, n);
+        writeInt(p, 12, t);
+        aes.update(p, 0, BLOCK, pMac, 0);
+
+        // Q = T || zero pad || [round] || [NUM(B)]^b, a whole number of blocks
+        int qLength = t + Math.floorMod(-t - numBytes - 1, BLOCK) + 1 + numBytes;
+        if (q.length < qLength) {
+            q = new byte[qLength];
+        }
+        System.arraycopy(tweak, 0, q, 0, t);
+        for (int i = t; i < qLength - numBytes - 1; i++) {
+            q[i] = 0;
+        }
+
+        for (int r = 0; r < ROUNDS; r++) {
+            int round = encrypt ? r : ROUNDS - 1 - r;
+            long modulus = POW10[(round & 1) == 0 ? u : v];
+            q[qLength - numBytes - 1] = (byte) round;
+            long half = encrypt ? b : a;
+            for (int i = qLength - 1; i >= qLength - numBytes; i--) {
+                q[i] = (byte) half;
+                half >>>= 8;
+            }
+            long y = prf(qLength, d, modulus);
+            if (encrypt) {
+                long c = (a + y) % modulus;
+                a = b;
+                b = c;
+            } else {
+                long c = Math.floorMod(b - y, modulus);
+                b = a;
+                a = c;
+            }
+        }
+        str(a, digits, offset, u);
+        str(b, digits, offset + u, v);
+    }
+
+    /**
+     * CBC-MAC of P || Q (P's part precomputed), then NUM of its first d
+     * bytes reduced mod the round's modulus.
+     */
+    private long prf(int qLength, int d, long modulus) throws GeneralSecurityException {
+        System.arraycopy(pMac, 0, mac, 0, BLOCK);
+        for (int j = 0; j < qLength; j += BLOCK) {
+            for (int k = 0; k < BLOCK; k++) {
+                block[k] = (byte) (mac[k] ^ q[j + k]);
+            }
+            aes.update(block, 0, BLOCK, mac, 0);
+        }
+        if (d == 8) {
+            return Long.remainderUnsigned(readLong(mac, 0), modulus);
+        }
+        // d == 12: 96 bits, reduced 16 bits at a time (modulus < 2^47, so no overflow)
+        long y = ((mac[0] & 0xFF) << 8 | (mac[1] & 0xFF)) % modulus;
+        for (int k = 2; k < d; k += 2) {
+            y = ((y << 16) | (mac[k] & 0xFF) << 8 | (mac[k + 1] & 0xFF)) % modulus;
+        }
+        return y;
+    }
+
+    private static long num(byte[] digits, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = digits[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("FF1 input must be decimal digits");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static void str(long value, byte[] digits, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            digits[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static void writeInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+    }
+
+    private static long readLong(byte[] buf, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = value << 8 | (buf[i] & 0xFF);
+        }
+        return value;
+    }
+}
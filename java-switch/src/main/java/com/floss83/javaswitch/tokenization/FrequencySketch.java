@@ -0,0 +1,90 @@
+package com.floss83.javaswitch.tokenization;
+
+/**
+ * Approximate access counts for TinyLFU admission: a count-min sketch of
+ * 4-bit counters (16 per long), four per key, capped at 15.
+ * <p>
+ * After {@code 10 x capacity} increments every counter is halved, so the
+ * sketch tracks recent popularity rather than all-time totals. Estimates may
+ * be high (collisions) but never low, apart from that ageing.
+ * </p>
+ * <p>
+ * Not thread-safe: each {@link TokenCache} segment uses its own under its lock.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+final class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+    private static final long[] SEEDS = {
+            0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L };
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param capacity entries the owning cache holds; sizes the table and the ageing period
+     */
+    FrequencySketch(int capacity) {
+        int size = Integer.highestOneBit(Math.max(8, capacity - 1) << 1);
+        this.table = new long[size];
+        this.tableMask = size - 1;
+        this.sampleSize = 10 * Math.max(1, capacity);
+    }
+
+    /**
+     * @param hash key hash
+     * @return estimated recent accesses, 0-15
+     */
+    int frequency(int hash) {
+        int frequency = 15;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = rehash(hash, i);
+            int shift = counterShift(h);
+            frequency = Math.min(frequency, (int) (table[index(h)] >>> shift) & 0xF);
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts one access, ageing the whole sketch once a sample period is full.
+     *
+     * @param hash key hash
+     */
+    void increment(int hash) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = rehash(hash, i);
+            int index = index(h);
+            int shift = counterShift(h);
+            if (((table[index] >>> shift) & 0xF) != 0xF) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions /= 2;
+        }
+    }
+
+    private int index(long h) {
+        return (int) h & tableMask;
+    }
+
+    /** Bit offset of one of the long's 16 nibbles, from the hash's top bits. */
+    private static int counterShift(long h) {
+        return (int) (h >>> 60) << 2;
+    }
+
+    private static long rehash(int hash, int row) {
+        long h = (hash + SEEDS[row]) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
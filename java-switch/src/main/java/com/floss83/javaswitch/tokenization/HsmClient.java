@@ -0,0 +1,558 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * ========================================
+ * Network HSM Client
+ * ========================================
+ *
+ * <b>Purpose:</b>
+ * <ul>
+ * <li>{@link HsmProvider} for an HSM across the network (in dev, the
+ * {@link HsmStandInServer}): keeps a fixed set of persistent TCP links and
+ * returns a {@link CompletableFuture} for every request at once.</li>
+ * <li>Coalesces: requests from all callers go to one queue, and each link
+ * sends whatever has queued up as one batch command ({@link HsmWire}), up to
+ * {@code maxBatch} items. A link keeps at most {@code maxInFlight} batches
+ * outstanding, so while the HSM is busy requests accumulate and the next
+ * batch is larger: batches stay small when the HSM keeps up and grow by
+ * themselves when it does not, with no timer adding latency. The items of
+ * one {@link #encryptBatch} call are queued as one unit and go out in the
+ * same command.</li>
+ * <li>Every request has a deadline and fails with a
+ * {@link TimeoutException} when it passes; one that times out while still
+ * queued is never sent.</li>
+ * </ul>
+ *
+ * <b>Threads:</b> per connected link, one virtual thread reads responses
+ * and completes futures, and one takes batches off the queue and writes
+ * them. After a connection failure the link's outstanding requests fail with
+ * an {@link IOException} and it reconnects after {@link #RECONNECT_DELAY}.
+ *
+ * <b>Usage:</b>
+ *
+ * <pre>
+ * HsmClient client = new HsmClient("localhost", 5200, 2, 64, 4, Duration.ofSeconds(1));
+ * client.start();
+ * client.encrypt(pan, format).thenAccept(token -&gt; ...);
+ * </pre>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class HsmClient implements HsmProvider, MeterBinder {
+
+    /** Pause before a lost link is reconnected. */
+    static final Duration RECONNECT_DELAY = Duration.ofSeconds(1);
+
+    /** Queue entries allowed to wait for a link before new ones are refused. */
+    private static final int MAX_QUEUED = 65536;
+
+    private final String host;
+    private final int port;
+    private final int maxBatch;
+    private final int maxInFlight;
+    private final Duration timeout;
+    private final Link[] links;
+    private final AutoCloseable[] owned;
+    /** Units sent together: one request, or the items of one batch call. */
+    private final BlockingQueue<Request[]> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private final AtomicInteger queued = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, Batch> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextBatchId = new AtomicInteger();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedItems = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder lateResponses = new LongAdder();
+
+    private volatile boolean running;
+
+    /**
+     * One value to encrypt or decrypt, and its caller's future.
+     */
+    private static final class Request {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        final byte command;
+        final byte format;
+        final byte[] value;
+
+        Request(byte command, PanTokenFormat format, byte[] value) {
+            this.command = command;
+            this.format = (byte) format.toFlags();
+            this.value = value;
+        }
+    }
+
+    /**
+     * A batch command waiting for its response.
+     */
+    private static final class Batch {
+        final Request[] requests;
+        final Link link;
+        final Semaphore window;
+
+        Batch(Request[] requests, Link link, Semaphore window) {
+            this.requests = requests;
+            this.link = link;
+            this.window = window;
+        }
+    }
+
+    /**
+     * One persistent connection. {@link #socket} is null while disconnected.
+     */
+    private static final class Link {
+        final int index;
+        volatile Socket socket;
+        volatile Thread sender;
+
+        Link(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * @param host        HSM host
+     * @param port        HSM port
+     * @param connections links to keep open
+     * @param maxBatch    most requests per batch command
+     * @param maxInFlight batch commands outstanding per link
+     * @param timeout     deadline per request, from submission
+     * @param owned       further resources to close with the client (e.g. a loopback HSM)
+     * @throws IllegalArgumentException if a count is out of range or timeout is not positive
+     */
+    public HsmClient(String host, int port, int connections, int maxBatch, int maxInFlight, Duration timeout,
+            AutoCloseable... owned) {
+        if (connections < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Connections and in-flight batches must be positive");
+        }
+        if (maxBatch < 1 || maxBatch > HsmWire.MAX_BATCH) {
+            throw new IllegalArgumentException("Batch size must be 1-" + HsmWire.MAX_BATCH + ": " + maxBatch);
+        }
+        if (timeout.isZero() || timeout.isNegative()) {
+            throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+        }
+        this.host = host;
+        this.port = port;
+        this.maxBatch = maxBatch;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+        this.owned = owned;
+        this.links = new Link[connections];
+        for (int i = 0; i < connections; i++) {
+            links[i] = new Link(i);
+        }
+    }
+
+    /**
+     * Starts one thread per link; each connects and keeps reconnecting until
+     * {@link #close()}.
+     */
+    public void start() {
+        running = true;
+        for (Link link : links) {
+            Thread.ofVirtual().name("hsm-link-" + link.index).start(() -> serve(link));
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> encrypt(String plaintext, PanTokenFormat format) {
+        return submit(HsmWire.ENCRYPT, plaintext, format);
+    }
+
+    @Override
+    public CompletableFuture<String> decrypt(String token, PanTokenFormat format) {
+        return submit(HsmWire.DECRYPT, token, format);
+    }
+
+    /**
+     * Queues the values as one unit (split every {@code maxBatch} items), so
+     * that they share a batch command rather than racing other callers' into
+     * several.
+     */
+    @Override
+    public CompletableFuture<List<String>> encryptBatch(List<String> plaintexts, List<PanTokenFormat> formats) {
+        for (String plaintext : plaintexts) {
+            Exception refused = refusal(plaintext);
+            if (refused != null) {
+                return CompletableFuture.failedFuture(refused);
+            }
+        }
+        Request[] batch = new Request[plaintexts.size()];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = newRequest(HsmWire.ENCRYPT, plaintexts.get(i), formats.get(i));
+        }
+        for (int from = 0; from < batch.length; from += maxBatch) {
+            enqueue(Arrays.copyOfRange(batch, from, Math.min(batch.length, from + maxBatch)));
+        }
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[batch.length];
+        for (int i = 0; i < batch.length; i++) {
+            futures[i] = batch[i].future;
+        }
+        return CompletableFuture.allOf(futures).thenApply(done -> {
+            List<String> tokens = new ArrayList<>(batch.length);
+            for (Request request : batch) {
+                tokens.add(request.future.join());
+            }
+            return tokens;
+        });
+    }
+
+    /**
+     * @return requests submitted so far
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return batch commands sent so far
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return mean requests per batch command sent
+     */
+    public double getAverageBatchSize() {
+        long sent = batches.sum();
+        return sent == 0 ? 0 : (double) batchedItems.sum() / sent;
+    }
+
+    /**
+     * @return requests that ran past their deadline
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return batch responses that matched no outstanding batch (its link was lost meanwhile)
+     */
+    public long getLateResponses() {
+        return lateResponses.sum();
+    }
+
+    /**
+     * @return requests waiting for a link
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return links currently connected
+     */
+    public int getConnectedLinks() {
+        int connected = 0;
+        for (Link link : links) {
+            if (link.socket != null) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * Publishes the counters under {@code tokenization.hsm.*}.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("tokenization.hsm.requests", this, HsmClient::getRequests)
+                .description("Requests submitted to the network HSM")
+                .register(registry);
+        FunctionCounter.builder("tokenization.hsm.batches", this, HsmClient::getBatches)
+                .description("Batch commands sent to the network HSM")
+                .register(registry);
+        FunctionCounter.builder("tokenization.hsm.timeouts", this, HsmClient::getTimeouts)
+                .description("Network HSM requests that ran past their deadline")
+                .register(registry);
+        Gauge.builder("tokenization.hsm.batch.size", this, HsmClient::getAverageBatchSize)
+                .description("Mean requests per network HSM batch command")
+                .register(registry);
+        Gauge.builder("tokenization.hsm.queued", this, HsmClient::getQueued)
+                .description("Network HSM requests waiting for a link")
+                .register(registry);
+    }
+
+    /**
+     * Closes every link and anything registered with the client; queued and
+     * outstanding requests fail with an {@link IOException}.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Link link : links) {
+            Socket socket = link.socket;
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    System.err.println("[HSM] Close error: " + e.getMessage());
+                }
+            }
+            Thread sender = link.sender;
+            if (sender != null) {
+                sender.interrupt();
+            }
+        }
+        IOException closed = new IOException("HSM client closed");
+        Request[] unit;
+        while ((unit = queue.poll()) != null) {
+            queued.addAndGet(-unit.length);
+            fail(unit, closed);
+        }
+        for (AutoCloseable resource : owned) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                System.err.println("[HSM] Close error: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HsmClient: " + links.length + " link(s) to " + host + ":" + port + ", batches of up to " + maxBatch
+                + ", " + maxInFlight + " in flight per link, " + timeout.toMillis() + " ms deadline";
+    }
+
+    private CompletableFuture<String> submit(byte command, String value, PanTokenFormat format) {
+        Exception refused = refusal(value);
+        if (refused != null) {
+            return CompletableFuture.failedFuture(refused);
+        }
+        Request request = newRequest(command, value, format);
+        enqueue(new Request[] { request });
+        return request.future;
+    }
+
+    /**
+     * @return why the value cannot be sent now, or null if it can
+     */
+    private Exception refusal(String value) {
+        if (value.length() > HsmWire.MAX_VALUE_LENGTH) {
+            return new IllegalArgumentException("Value exceeds " + HsmWire.MAX_VALUE_LENGTH + " characters");
+        }
+        if (!running || getConnectedLinks() == 0) {
+            return new IOException("No connection to HSM " + host + ":" + port);
+        }
+        return null;
+    }
+
+    private Request newRequest(byte command, String value, PanTokenFormat format) {
+        Request request = new Request(command, format, value.getBytes(StandardCharsets.US_ASCII));
+        requests.increment();
+        request.future.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS).whenComplete((result, error) -> {
+            if (error instanceof TimeoutException) {
+                timeouts.increment();
+            }
+        });
+        return request;
+    }
+
+    private void enqueue(Request[] unit) {
+        queued.addAndGet(unit.length);
+        if (!queue.offer(unit)) {
+            queued.addAndGet(-unit.length);
+            fail(unit, new RejectedExecutionException("HSM request queue full"));
+        }
+    }
+
+    /**
+     * Link thread body: connect, start the sender, read responses, reconnect.
+     */
+    private void serve(Link link) {
+        while (running) {
+            Semaphore window = new Semaphore(maxInFlight);
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port),
+                        (int) Math.min(timeout.toMillis(), Integer.MAX_VALUE));
+                socket.setTcpNoDelay(true);
+                link.socket = socket;
+                if (!running) {
+                    return; // closed while connecting
+                }
+                OutputStream out = socket.getOutputStream();
+                link.sender = Thread.ofVirtual().name("hsm-send-" + link.index)
+                        .start(() -> sendBatches(link, out, window));
+                System.out.println("[HSM] Link " + link.index + " connected to " + host + ":" + port);
+                readResponses(socket.getInputStream());
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("[HSM] Link " + link.index + " to " + host + ":" + port + ": " + e.getMessage());
+                }
+            } finally {
+                link.socket = null;
+                Thread sender = link.sender;
+                if (sender != null) {
+                    sender.interrupt();
+                    link.sender = null;
+                }
+                failOutstanding(link);
+            }
+            if (running) {
+                try {
+                    Thread.sleep(RECONNECT_DELAY);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sender thread body: waits for a window slot and a queued request, then
+     * sends everything queued (up to maxBatch) as one command. A unit that
+     * would overflow the command is carried over whole to the next one.
+     */
+    private void sendBatches(Link link, OutputStream out, Semaphore window) {
+        List<Request> drained = new ArrayList<>(maxBatch);
+        Request[] carried = null;
+        try {
+            while (running) {
+                window.acquire();
+                Request[] unit = carried != null ? carried : queue.take();
+                carried = null;
+                do {
+                    if (drained.size() + unit.length > maxBatch) {
+                        carried = unit;
+                        break;
+                    }
+                    queued.addAndGet(-unit.length);
+                    Collections.addAll(drained, unit);
+                } while (drained.size() < maxBatch && (unit = queue.poll()) != null);
+                drained.removeIf(request -> request.future.isDone()); // timed out while queued
+                if (drained.isEmpty()) {
+                    window.release();
+                    continue;
+                }
+                Request[] batch = drained.toArray(new Request[0]);
+                drained.clear();
+                int batchId = nextBatchId.incrementAndGet();
+                pending.put(batchId, new Batch(batch, link, window));
+                try {
+                    out.write(frame(batchId, batch));
+                    out.flush();
+                } catch (IOException e) {
+                    if (pending.remove(batchId) != null) {
+                        fail(batch, e);
+                    }
+                    return; // the reader sees the broken link and reconnects
+                }
+                batches.increment();
+                batchedItems.add(batch.length);
+            }
+        } catch (InterruptedException e) {
+            // link torn down while waiting; nothing was taken off the queue
+        } finally {
+            if (carried != null && !queue.offer(carried)) { // back for another link
+                queued.addAndGet(-carried.length);
+                fail(carried, new RejectedExecutionException("HSM request queue full"));
+            }
+        }
+    }
+
+    private static byte[] frame(int batchId, Request[] batch) {
+        int length = 4 + HsmWire.BATCH_HEADER;
+        for (Request request : batch) {
+            length += 3 + request.value.length;
+        }
+        byte[] frame = new byte[length];
+        HsmWire.writeInt(frame, 0, length - 4);
+        HsmWire.writeInt(frame, 4, batchId);
+        HsmWire.writeShort(frame, 8, batch.length);
+        int position = 4 + HsmWire.BATCH_HEADER;
+        for (Request request : batch) {
+            frame[position] = request.command;
+            frame[position + 1] = request.format;
+            frame[position + 2] = (byte) request.value.length;
+            System.arraycopy(request.value, 0, frame, position + 3, request.value.length);
+            position += 3 + request.value.length;
+        }
+        return frame;
+    }
+
+    private void readResponses(InputStream in) throws IOException {
+        byte[] frame;
+        while ((frame = HsmWire.readFrame(in)) != null) {
+            Batch batch = pending.remove(HsmWire.readInt(frame, 0));
+            if (batch == null) {
+                lateResponses.increment();
+                continue;
+            }
+            batch.window.release();
+            int count = HsmWire.readShort(frame, 4);
+            if (count != batch.requests.length) {
+                fail(batch.requests, new IOException("HSM answered " + count + " of " + batch.requests.length
+                        + " items"));
+                continue;
+            }
+            int position = HsmWire.BATCH_HEADER;
+            for (Request request : batch.requests) {
+                int length = position + 2 <= frame.length ? frame[position + 1] & 0xFF : -1;
+                if (length < 0 || position + 2 + length > frame.length) {
+                    IOException malformed = new IOException("malformed HSM response");
+                    fail(batch.requests, malformed);
+                    throw malformed;
+                }
+                byte status = frame[position];
+                String value = new String(frame, position + 2, length, StandardCharsets.US_ASCII);
+                position += 2 + length;
+                if (status == HsmWire.STATUS_OK) {
+                    request.future.complete(value);
+                } else if (status == HsmWire.STATUS_REJECTED) {
+                    request.future.completeExceptionally(new IllegalArgumentException(value));
+                } else {
+                    request.future.completeExceptionally(new IllegalStateException("HSM failure: " + value));
+                }
+            }
+        }
+        throw new IOException("closed by HSM");
+    }
+
+    private void failOutstanding(Link link) {
+        IOException lost = new IOException("HSM link " + link.index + " lost");
+        for (Integer batchId : pending.keySet()) {
+            Batch batch = pending.get(batchId);
+            if (batch != null && batch.link == link && pending.remove(batchId, batch)) {
+                fail(batch.requests, lost);
+            }
+        }
+    }
+
+    private static void fail(Request[] batch, Throwable error) {
+        for (Request request : batch) {
+            request.future.completeExceptionally(error);
+        }
+    }
+}
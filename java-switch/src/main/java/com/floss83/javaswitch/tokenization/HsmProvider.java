@@ -0,0 +1,94 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The HSM operations {@link TokenizationService} needs, asynchronously: a
+ * real HSM sits across a network round trip, so callers get a future rather
+ * than block inside the provider.
+ * <p>
+ * Implementations:
+ * </p>
+ * <ul>
+ * <li>{@link HsmSimulator}: in-process; futures are complete on return.</li>
+ * <li>{@link HsmClient}: a pooled client to a network HSM (or the
+ * {@link HsmStandInServer}); concurrent requests are coalesced into batch
+ * commands.</li>
+ * </ul>
+ * <p>
+ * Futures fail with an {@link IllegalArgumentException} when the HSM rejects
+ * the value (e.g. not a token of that format), and with an
+ * {@link java.io.IOException} or {@link java.util.concurrent.TimeoutException}
+ * when the HSM cannot be reached in time.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public interface HsmProvider extends AutoCloseable {
+
+    /**
+     * @param plaintext value to encrypt (PAN, CVV or PIN block digits)
+     * @param format    token format; {@link PanTokenFormat#CBC_BASE64} for anything but PANs
+     * @return the token
+     */
+    CompletableFuture<String> encrypt(String plaintext, PanTokenFormat format);
+
+    /**
+     * @param token  token issued by {@link #encrypt(String, PanTokenFormat)}
+     * @param format the format it was issued in
+     * @return the clear value
+     */
+    CompletableFuture<String> decrypt(String token, PanTokenFormat format);
+
+    /**
+     * Encrypts several values, each in its own format, as one unit of work.
+     * By default each value is submitted on its own; a network client queues
+     * them back to back, so they leave in the same batch command.
+     *
+     * @param plaintexts values to encrypt
+     * @param formats    token format of each value
+     * @return the tokens, in input order; fails as a whole if any value fails
+     */
+    default CompletableFuture<List<String>> encryptBatch(List<String> plaintexts, List<PanTokenFormat> formats) {
+        List<CompletableFuture<String>> tokens = new ArrayList<>(plaintexts.size());
+        for (int i = 0; i < plaintexts.size(); i++) {
+            tokens.add(encrypt(plaintexts.get(i), formats.get(i)));
+        }
+        return CompletableFuture.allOf(tokens.toArray(CompletableFuture[]::new))
+                .thenApply(done -> tokens.stream().map(CompletableFuture::join).toList());
+    }
+
+    /**
+     * @param format token format
+     * @return true if {@link #encryptInPlace} succeeds for this format, without a round trip
+     */
+    default boolean canEncryptInPlace(PanTokenFormat format) {
+        return false;
+    }
+
+    /**
+     * Tokenizes a PAN where it lies, synchronously, if this provider can do
+     * so without the PAN leaving the buffer (an in-process HSM with a
+     * format-preserving format). Others return false and the caller takes
+     * the String path.
+     *
+     * @param buf    buffer holding the PAN as ASCII digits
+     * @param offset index of its first digit
+     * @param length its length
+     * @param format token format
+     * @return true if the PAN was replaced by its token
+     */
+    default boolean encryptInPlace(byte[] buf, int offset, int length, PanTokenFormat format) {
+        return false;
+    }
+
+    /**
+     * Releases connections and threads; nothing by default.
+     */
+    @Override
+    default void close() {
+    }
+}
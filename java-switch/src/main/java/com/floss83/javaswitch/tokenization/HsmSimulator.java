@@ -1,12 +1,22 @@
 package com.floss83.javaswitch.tokenization;
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 /**
  * HsmSimulator
@@ -47,43 +57,270 @@ import javax.crypto.spec.IvParameterSpec;
  * <b>NOTE:</b> Never expose raw keys or full sensitive data in logs, commits,
  * or documentation!
  * 
+ * <b>Hot path:</b> Cipher instances are pooled per direction and kept
+ * initialized, so a call costs one doFinal() (CBC resets to its init state
+ * after each one). The byte-array and batch variants skip the String/Base64
+ * round trips and the per-call pool access respectively; all variants
+ * produce the same bytes. encryptDigits/decryptDigits offer format-preserving
+ * encryption (FF1) under a separate key, for tokens that must stay numeric.
+ * 
+ * <b>Key rotation:</b> CBC keys are versioned. {@link #rotateKeys()} swaps
+ * in a new key ring atomically, so calls in flight never block; tokens carry
+ * their key version (version 1 tokens keep the original, unversioned
+ * layout), and every version not yet retired still decrypts. The FF1 key is
+ * fixed: a same-length numeric token has no room for a version. Every
+ * version's key derives from the same seed, so one not seen by this
+ * instance, e.g. issued before a restart, is derived when a token needs it.
+ * Which version is current and which are retired is not persisted: after a
+ * restart version 1 is current again and retirements must be repeated.
+ * 
+ * <b>As an {@link HsmProvider}:</b> the in-process option. Its futures are
+ * complete on return, and format-preserving PAN tokens are written straight
+ * into the caller's buffer. {@link HsmStandInServer} serves the same
+ * operations over TCP for latency tests.
+ * 
  * -----
  * For security reviews: this is a simulation layer only; all sensitive flows
  * must migrate to real HSM-backed crypto before live/PCI usage.
  */
 
-public class HsmSimulator {
+public class HsmSimulator implements HsmProvider {
 
     private static final String ALGORITHM = "AES";
     private static final String CIPHER = "AES/CBC/PKCS5Padding";
+    private static final String FF1_CIPHER = "AES/ECB/NoPadding"; // FF1's block function, not used on data directly
     private static final int KEY_SIZE = 128; // 128-bit for demo
+    private static final int BLOCK_SIZE = 16;
+    private static final String KEY_SEED = "Floss83-Tokenization-Demo-Seed";
+
+    /** Highest key version: a CBC token carries its version in one byte. */
+    public static final int MAX_KEY_VERSION = 255;
+
+    /** Idle Cipher instances kept for reuse, per direction (and per key version for decryption). */
+    private static final int MAX_IDLE_CIPHERS = 64;
+
+    /** Pool key for FF1 contexts (Cipher's own mode constants start at 1). */
+    private static final int FF1_MODE = 0;
+
+    /** Key ring entry of a retired version (null is a version not derived yet). */
+    private static final KeyMaterial RETIRED = new KeyMaterial(0, null, null);
+
+    private static final Base64.Encoder BASE64_ENCODER = Base64.getEncoder();
+    private static final Base64.Decoder BASE64_DECODER = Base64.getDecoder();
+
+    /**
+     * Current key ring; null until {@link #initializeKeys()}. Rings are
+     * immutable and replaced by compare-and-set, so an encryption or
+     * decryption reads one consistent ring without taking a lock, and a
+     * rotation never waits for (or holds up) calls in flight.
+     */
+    private final AtomicReference<KeyRing> ring = new AtomicReference<>();
 
-    private SecretKey secretKey;
-    private byte[] iv; // Initialization Vector
+    /**
+     * Idle, already initialized Cipher instances. Cipher.getInstance() walks
+     * the provider list under monitors, which pins virtual threads, and init()
+     * re-expands the AES key schedule; keeping initialized instances takes
+     * both off the per-request path. Encryptors are shared and re-initialized
+     * once after a rotation; decryptors are pooled per key version (in its
+     * {@link KeyMaterial}), as a CBC Cipher returns to its init key and IV
+     * after each doFinal(). The queues' lock is a ReentrantLock, so virtual
+     * threads are not pinned either.
+     */
+    private final BlockingQueue<CipherContext> idleEncryptors = new ArrayBlockingQueue<>(MAX_IDLE_CIPHERS);
+    private final BlockingQueue<CipherContext> idleFf1 = new ArrayBlockingQueue<>(MAX_IDLE_CIPHERS);
 
     /**
-     * Initializes deterministic AES key and IV for local development/testing.
+     * Initializes deterministic AES key and IV (key version 1) for local
+     * development/testing. Does nothing once keys exist, so a second call
+     * cannot undo a rotation.
      */
     public void initializeKeys() {
+        if (ring.get() != null) {
+            return;
+        }
         try {
             // Deterministic key generation for repeatable tests
-            byte[] seed = "Floss83-Tokenization-Demo-Seed".getBytes();
-            SecureRandom secureRandom = SecureRandom.getInstance("SHA1PRNG");
-            secureRandom.setSeed(seed);
-            KeyGenerator keyGen = KeyGenerator.getInstance(ALGORITHM);
-            keyGen.init(KEY_SIZE, secureRandom);
-            this.secretKey = keyGen.generateKey();
-
-            // Deterministic IV as well
-            this.iv = new byte[16];
-            secureRandom.nextBytes(this.iv);
-
-            System.out.println("[AUDIT] HSM keys initialized (deterministic, dev only).");
+            SecureRandom secureRandom = seededRandom(1);
+            KeyMaterial first = keyMaterial(1, secureRandom);
+
+            // Separate key for format-preserving encryption: never one key for two modes
+            byte[] ff1Key = new byte[KEY_SIZE / 8];
+            secureRandom.nextBytes(ff1Key);
+
+            KeyMaterial[] versions = new KeyMaterial[2];
+            versions[1] = first;
+            if (ring.compareAndSet(null, new KeyRing(first, versions, new SecretKeySpec(ff1Key, ALGORITHM)))) {
+                System.out.println("[AUDIT] HSM keys initialized (deterministic, dev only).");
+            }
         } catch (Exception e) {
             throw new RuntimeException("Failed to initialize HSM keys", e);
         }
     }
 
+    /**
+     * Makes a new CBC key version current. Tokens are issued under it from
+     * the next call on; tokens of earlier versions still decrypt until their
+     * version is {@link #retireKeyVersion(int) retired}. Lock-free: calls in
+     * flight finish under the ring they started with.
+     * <p>
+     * The FF1 key is not rotated: a format-preserving token has no room for
+     * a version, so a PAN token could not say which key to decrypt it with.
+     * </p>
+     *
+     * @return the new current version
+     * @throws IllegalStateException if keys are not initialized or {@link #MAX_KEY_VERSION} is reached
+     */
+    public int rotateKeys() {
+        while (true) {
+            KeyRing current = requireRing();
+            int version = current.current.version + 1;
+            while (version < current.versions.length && current.versions[version] == RETIRED) {
+                version++;
+            }
+            if (version > MAX_KEY_VERSION) {
+                throw new IllegalStateException("Key versions exhausted: " + MAX_KEY_VERSION);
+            }
+            KeyMaterial next = version < current.versions.length ? current.versions[version] : null;
+            if (next == null) {
+                next = deriveKeyMaterial(version);
+            }
+            KeyMaterial[] versions = Arrays.copyOf(current.versions, Math.max(current.versions.length, version + 1));
+            versions[version] = next;
+            if (ring.compareAndSet(current, new KeyRing(next, versions, current.ff1Key))) {
+                System.out.println("[AUDIT] HSM key version " + version + " is now current (deterministic, dev only).");
+                return version;
+            }
+        }
+    }
+
+    /**
+     * Drops an old key version: its tokens no longer decrypt. Retire a
+     * version only once no stored token uses it.
+     *
+     * @param version key version to retire
+     * @return false if the version was retired already or is out of range
+     * @throws IllegalArgumentException if it is the current version
+     */
+    public boolean retireKeyVersion(int version) {
+        while (true) {
+            KeyRing current = requireRing();
+            if (version == current.current.version) {
+                throw new IllegalArgumentException("Cannot retire the current key version " + version);
+            }
+            if (version <= 0 || version > MAX_KEY_VERSION
+                    || version < current.versions.length && current.versions[version] == RETIRED) {
+                return false;
+            }
+            KeyMaterial[] versions = Arrays.copyOf(current.versions, Math.max(current.versions.length, version + 1));
+            versions[version] = RETIRED;
+            if (ring.compareAndSet(current, new KeyRing(current.current, versions, current.ff1Key))) {
+                System.out.println("[AUDIT] HSM key version " + version + " retired.");
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the version new CBC tokens are issued under
+     */
+    public int getKeyVersion() {
+        return requireRing().current.version;
+    }
+
+    /**
+     * @return the versions in use since start that still decrypt, ascending
+     */
+    public int[] getKeyVersions() {
+        KeyMaterial[] versions = requireRing().versions;
+        int[] live = new int[versions.length];
+        int count = 0;
+        for (KeyMaterial material : versions) {
+            if (material != null && material != RETIRED) {
+                live[count++] = material.version;
+            }
+        }
+        return Arrays.copyOf(live, count);
+    }
+
+    /**
+     * Reads the key version a Base64 CBC token was issued under, without
+     * decrypting it. Version 1 tokens are bare ciphertext (a multiple of the
+     * AES block size, as before versioning); later ones carry the version in
+     * a leading byte.
+     *
+     * @param token token from {@link #encrypt(String)}
+     * @return its key version
+     * @throws IllegalArgumentException if the token is not Base64
+     */
+    public static int keyVersionOf(String token) {
+        return keyVersion(BASE64_DECODER.decode(token));
+    }
+
+    @Override
+    public CompletableFuture<String> encrypt(String plaintext, PanTokenFormat format) {
+        try {
+            return CompletableFuture.completedFuture(format.tokenize(this, plaintext));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> decrypt(String token, PanTokenFormat format) {
+        try {
+            return CompletableFuture.completedFuture(format.detokenize(this, token));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * One pass over the batch: CBC values share one pooled Cipher, FF1
+     * values are enciphered as they come.
+     */
+    @Override
+    public CompletableFuture<List<String>> encryptBatch(List<String> plaintexts, List<PanTokenFormat> formats) {
+        List<String> tokens = new ArrayList<>(plaintexts.size());
+        CipherContext context = null;
+        try {
+            for (int i = 0; i < plaintexts.size(); i++) {
+                PanTokenFormat format = formats.get(i);
+                if (format.isFormatPreserving()) {
+                    tokens.add(format.tokenize(this, plaintexts.get(i)));
+                    continue;
+                }
+                if (context == null) {
+                    context = borrowEncryptor();
+                }
+                byte[] encrypted = seal(context, plaintexts.get(i).getBytes(StandardCharsets.UTF_8));
+                tokens.add(BASE64_ENCODER.encodeToString(encrypted));
+            }
+        } catch (GeneralSecurityException e) {
+            return CompletableFuture.failedFuture(
+                    new RuntimeException("HSM encryption failed at item " + tokens.size(), e));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (context != null) {
+            release(context);
+        }
+        return CompletableFuture.completedFuture(tokens);
+    }
+
+    @Override
+    public boolean canEncryptInPlace(PanTokenFormat format) {
+        return format.isFormatPreserving();
+    }
+
+    @Override
+    public boolean encryptInPlace(byte[] buf, int offset, int length, PanTokenFormat format) {
+        if (!canEncryptInPlace(format)) {
+            return false;
+        }
+        format.tokenize(this, buf, offset, length);
+        return true;
+    }
+
     /**
      * Encrypts plaintext string with AES/CBC.
      * 
@@ -91,15 +328,7 @@ public class HsmSimulator {
      * @return Base64-encoded ciphertext
      */
     public String encrypt(String plaintext) {
-        try {
-            Cipher cipher = Cipher.getInstance(CIPHER);
-            IvParameterSpec ivSpec = new IvParameterSpec(iv);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, ivSpec);
-            byte[] encrypted = cipher.doFinal(plaintext.getBytes());
-            return Base64.getEncoder().encodeToString(encrypted);
-        } catch (Exception e) {
-            throw new RuntimeException("HSM encryption failed", e);
-        }
+        return BASE64_ENCODER.encodeToString(encrypt(plaintext.getBytes(StandardCharsets.UTF_8)));
     }
 
     /**
@@ -109,15 +338,350 @@ public class HsmSimulator {
      * @return Decrypted plaintext string
      */
     public String decrypt(String encryptedData) {
+        return new String(decrypt(BASE64_DECODER.decode(encryptedData)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encrypts raw bytes with AES/CBC, without the String/Base64 round trip.
+     * 
+     * @param plaintext bytes to encrypt (e.g., ASCII PAN digits)
+     * @return raw token: ciphertext, after a version byte from key version 2 on (the bytes
+     *         {@link #encrypt(String)} Base64-encodes)
+     */
+    public byte[] encrypt(byte[] plaintext) {
+        CipherContext context = borrowEncryptor();
+        byte[] encrypted;
         try {
-            Cipher cipher = Cipher.getInstance(CIPHER);
-            IvParameterSpec ivSpec = new IvParameterSpec(iv);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, ivSpec);
-            byte[] decoded = Base64.getDecoder().decode(encryptedData);
-            byte[] decrypted = cipher.doFinal(decoded);
-            return new String(decrypted);
+            encrypted = seal(context, plaintext);
         } catch (Exception e) {
-            throw new RuntimeException("HSM decryption failed", e);
+            throw new RuntimeException("HSM encryption failed", e); // context dropped: state unknown
+        }
+        release(context);
+        return encrypted;
+    }
+
+    /**
+     * Decrypts raw ciphertext bytes, without the String/Base64 round trip.
+     * 
+     * @param ciphertext raw token from {@link #encrypt(byte[])}
+     * @return decrypted bytes
+     * @throws IllegalArgumentException if the token's key version is retired or unknown
+     */
+    public byte[] decrypt(byte[] ciphertext) {
+        CipherContext context = borrowDecryptor(keyVersion(ciphertext));
+        byte[] decrypted;
+        try {
+            decrypted = open(context, ciphertext);
+        } catch (Exception e) {
+            throw new RuntimeException("HSM decryption failed", e); // context dropped: state unknown
+        }
+        release(context);
+        return decrypted;
+    }
+
+    /**
+     * Encrypts a batch of plaintexts with one pooled Cipher.
+     * 
+     * @param plaintexts raw strings to encrypt
+     * @return Base64-encoded ciphertexts, in input order
+     */
+    public List<String> encrypt(List<String> plaintexts) {
+        List<String> tokens = new ArrayList<>(plaintexts.size());
+        CipherContext context = borrowEncryptor();
+        try {
+            for (String plaintext : plaintexts) {
+                byte[] encrypted = seal(context, plaintext.getBytes(StandardCharsets.UTF_8));
+                tokens.add(BASE64_ENCODER.encodeToString(encrypted));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("HSM encryption failed at item " + tokens.size(), e);
+        }
+        release(context);
+        return tokens;
+    }
+
+    /**
+     * Decrypts a batch of Base64 ciphertexts, one pooled Cipher per run of
+     * tokens under the same key version. Fails as a whole on the first bad
+     * item.
+     * 
+     * @param encryptedData Base64 strings
+     * @return decrypted plaintexts, in input order
+     * @throws IllegalArgumentException if a token's key version is retired or unknown
+     */
+    public List<String> decrypt(List<String> encryptedData) {
+        List<String> plaintexts = new ArrayList<>(encryptedData.size());
+        CipherContext context = null;
+        try {
+            for (String encrypted : encryptedData) {
+                byte[] token = BASE64_DECODER.decode(encrypted);
+                int version = keyVersion(token);
+                if (context == null || context.material.version != version) {
+                    if (context != null) {
+                        release(context);
+                    }
+                    context = borrowDecryptor(version);
+                }
+                plaintexts.add(new String(open(context, token), StandardCharsets.UTF_8));
+            }
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("HSM decryption failed at item " + plaintexts.size(), e);
+        }
+        if (context != null) {
+            release(context);
+        }
+        return plaintexts;
+    }
+
+    /**
+     * Format-preserving encryption (FF1, NIST SP 800-38G) of ASCII digits, in
+     * place: the same number of digits comes out. Uses its own key.
+     * 
+     * @param digits buffer holding the digits
+     * @param offset index of the first digit
+     * @param length number of digits (6-28)
+     * @param tweak  public value bound into the result (e.g. the digits left in clear); may be empty
+     * @throws IllegalArgumentException if the range is not all digits or its length is out of range
+     */
+    public void encryptDigits(byte[] digits, int offset, int length, byte[] tweak) {
+        CipherContext context = borrowFf1();
+        try {
+            context.ff1.encrypt(digits, offset, length, tweak);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("HSM FPE encryption failed", e); // context dropped: state unknown
+        }
+        release(context);
+    }
+
+    /**
+     * Inverse of {@link #encryptDigits(byte[], int, int, byte[])}, in place.
+     * 
+     * @param digits buffer holding the digits
+     * @param offset index of the first digit
+     * @param length number of digits (6-28)
+     * @param tweak  the tweak given to encryptDigits
+     * @throws IllegalArgumentException if the range is not all digits or its length is out of range
+     */
+    public void decryptDigits(byte[] digits, int offset, int length, byte[] tweak) {
+        CipherContext context = borrowFf1();
+        try {
+            context.ff1.decrypt(digits, offset, length, tweak);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("HSM FPE decryption failed", e);
+        }
+        release(context);
+    }
+
+    /**
+     * CBC-encrypts into the token layout of the context's key version:
+     * version 1 is bare ciphertext, as tokens were before versioning; later
+     * versions prefix one version byte, which makes the length one more than
+     * a multiple of the block size.
+     */
+    private static byte[] seal(CipherContext context, byte[] plaintext) throws GeneralSecurityException {
+        int version = context.material.version;
+        if (version == 1) {
+            return context.cipher.doFinal(plaintext);
+        }
+        byte[] token = new byte[1 + context.cipher.getOutputSize(plaintext.length)];
+        token[0] = (byte) version;
+        int length = context.cipher.doFinal(plaintext, 0, plaintext.length, token, 1);
+        return length == token.length - 1 ? token : Arrays.copyOf(token, 1 + length);
+    }
+
+    /** Inverse of {@link #seal}, with a decryptor of the token's key version. */
+    private static byte[] open(CipherContext context, byte[] token) throws GeneralSecurityException {
+        int header = token.length % BLOCK_SIZE == 1 ? 1 : 0;
+        return context.cipher.doFinal(token, header, token.length - header);
+    }
+
+    /** Key version of a raw token; see {@link #seal}. */
+    private static int keyVersion(byte[] token) {
+        return token.length % BLOCK_SIZE == 1 ? token[0] & 0xFF : 1;
+    }
+
+    private KeyRing requireRing() {
+        KeyRing current = ring.get();
+        if (current == null) {
+            throw new IllegalStateException("HSM keys not initialized");
+        }
+        return current;
+    }
+
+    /**
+     * Takes an idle encryptor, re-initializing it if it predates the current
+     * key version, or creates one if none is idle.
+     */
+    private CipherContext borrowEncryptor() {
+        KeyMaterial current = requireRing().current;
+        CipherContext context = idleEncryptors.poll();
+        try {
+            if (context == null) {
+                context = new CipherContext(Cipher.getInstance(CIPHER), Cipher.ENCRYPT_MODE);
+            }
+            if (context.material != current) {
+                context.cipher.init(Cipher.ENCRYPT_MODE, current.secretKey, current.ivSpec);
+                context.material = current;
+            }
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("HSM encryption failed", e);
+        }
+        return context;
+    }
+
+    /**
+     * Takes an idle decryptor for a key version, or creates one if none is
+     * idle.
+     *
+     * @throws IllegalArgumentException if the version is retired or unknown
+     */
+    private CipherContext borrowDecryptor(int version) {
+        KeyMaterial material = decryptionKey(version);
+        CipherContext context = material.idleDecryptors.poll();
+        if (context == null) {
+            try {
+                context = new CipherContext(Cipher.getInstance(CIPHER), Cipher.DECRYPT_MODE);
+                context.cipher.init(Cipher.DECRYPT_MODE, material.secretKey, material.ivSpec);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("HSM decryption failed", e);
+            }
+            context.material = material;
+        }
+        return context;
+    }
+
+    /**
+     * Key material of a version, derived and added to the ring if this
+     * instance has not used it yet (a token issued before a restart).
+     *
+     * @throws IllegalArgumentException if the version is retired or out of range
+     */
+    private KeyMaterial decryptionKey(int version) {
+        while (true) {
+            KeyRing current = requireRing();
+            if (version <= 0 || version > MAX_KEY_VERSION) {
+                throw new IllegalArgumentException("Token key version " + version + " is unknown");
+            }
+            KeyMaterial material = version < current.versions.length ? current.versions[version] : null;
+            if (material == RETIRED) {
+                throw new IllegalArgumentException("Token key version " + version + " is retired");
+            }
+            if (material != null) {
+                return material;
+            }
+            material = deriveKeyMaterial(version);
+            KeyMaterial[] versions = Arrays.copyOf(current.versions, Math.max(current.versions.length, version + 1));
+            versions[version] = material;
+            if (ring.compareAndSet(current, new KeyRing(current.current, versions, current.ff1Key))) {
+                System.out.println("[AUDIT] HSM key version " + version
+                        + " derived for decryption (deterministic, dev only).");
+                return material;
+            }
+        }
+    }
+
+    /**
+     * Takes an idle FF1 context, or creates one if none is idle. The FF1 key
+     * never changes, so idle ones are always current.
+     */
+    private CipherContext borrowFf1() {
+        SecretKey ff1Key = requireRing().ff1Key;
+        CipherContext context = idleFf1.poll();
+        if (context == null) {
+            try {
+                context = new CipherContext(Cipher.getInstance(FF1_CIPHER), FF1_MODE);
+                context.cipher.init(Cipher.ENCRYPT_MODE, ff1Key);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("HSM FPE encryption failed", e);
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Returns a Cipher for reuse; dropped if enough are idle already, or
+     * with its key version once that is retired.
+     */
+    private void release(CipherContext context) {
+        if (context.mode == Cipher.ENCRYPT_MODE) {
+            idleEncryptors.offer(context);
+        } else if (context.mode == Cipher.DECRYPT_MODE) {
+            context.material.idleDecryptors.offer(context);
+        } else {
+            idleFf1.offer(context);
+        }
+    }
+
+    private static SecureRandom seededRandom(int version) throws GeneralSecurityException {
+        // Version 1 keeps the original seed, so tokens issued before versioning still decrypt
+        String seed = version == 1 ? KEY_SEED : KEY_SEED + "/v" + version;
+        SecureRandom secureRandom = SecureRandom.getInstance("SHA1PRNG");
+        secureRandom.setSeed(seed.getBytes());
+        return secureRandom;
+    }
+
+    private static KeyMaterial deriveKeyMaterial(int version) {
+        try {
+            return keyMaterial(version, seededRandom(version));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to generate HSM key version " + version, e);
+        }
+    }
+
+    private static KeyMaterial keyMaterial(int version, SecureRandom secureRandom) throws GeneralSecurityException {
+        KeyGenerator keyGen = KeyGenerator.getInstance(ALGORITHM);
+        keyGen.init(KEY_SIZE, secureRandom);
+        SecretKey secretKey = keyGen.generateKey();
+
+        // Deterministic IV as well
+        byte[] iv = new byte[BLOCK_SIZE];
+        secureRandom.nextBytes(iv);
+        return new KeyMaterial(version, secretKey, new IvParameterSpec(iv));
+    }
+
+    /**
+     * CBC key versions (index = version; {@link #RETIRED}, or null if not derived yet),
+     * the current one and the FF1 key. Never modified once published.
+     */
+    private static final class KeyRing {
+        final KeyMaterial current;
+        final KeyMaterial[] versions;
+        final SecretKey ff1Key;
+
+        KeyRing(KeyMaterial current, KeyMaterial[] versions, SecretKey ff1Key) {
+            this.current = current;
+            this.versions = versions;
+            this.ff1Key = ff1Key;
+        }
+    }
+
+    /** One CBC key version: key and IV, and decryptors initialized with them. */
+    private static final class KeyMaterial {
+        final int version;
+        final SecretKey secretKey;
+        final IvParameterSpec ivSpec;
+        final BlockingQueue<CipherContext> idleDecryptors = new ArrayBlockingQueue<>(MAX_IDLE_CIPHERS);
+
+        KeyMaterial(int version, SecretKey secretKey, IvParameterSpec ivSpec) {
+            this.version = version;
+            this.secretKey = secretKey;
+            this.ivSpec = ivSpec;
+        }
+    }
+
+    /** A pooled Cipher and the key version it was last initialized with (CBC only). */
+    private static final class CipherContext {
+        final Cipher cipher;
+        final int mode;
+        final Ff1 ff1; // FF1 contexts only
+        KeyMaterial material;
+
+        CipherContext(Cipher cipher, int mode) {
+            this.cipher = cipher;
+            this.mode = mode;
+            this.ff1 = mode == FF1_MODE ? new Ff1(cipher) : null;
         }
     }
 }
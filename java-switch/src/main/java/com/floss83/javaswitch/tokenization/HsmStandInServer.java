@@ -0,0 +1,248 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Network HSM stand-in: serves {@link HsmSimulator} operations over TCP in
+ * the batch format of {@link HsmWire}, so that {@link HsmClient} and
+ * everything above it can be run against an HSM that is a round trip away.
+ * <p>
+ * <b>Latency:</b> every batch command is delayed by a fixed latency plus a
+ * uniformly random jitter before it is executed, as a network HSM would be.
+ * The delay is per command, not per item, which is what makes batching pay.
+ * Commands pipelined on one connection run concurrently, each on its own
+ * virtual thread, and are answered in completion order.
+ * </p>
+ * <p>
+ * Dev/test only: the values cross the loopback interface in clear.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class HsmStandInServer implements Runnable, AutoCloseable {
+
+    /** Pending connection queue length handed to bind(). */
+    private static final int ACCEPT_BACKLOG = 128;
+
+    private final int port;
+    private final HsmSimulator hsm;
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder items = new LongAdder();
+
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running = true;
+
+    /**
+     * @param port    TCP port to listen on
+     * @param hsm     HSM holding the keys, already initialized
+     * @param latency fixed delay added to every batch command
+     * @param jitter  upper bound of a uniformly random delay added on top
+     * @throws IllegalArgumentException if a delay is negative
+     */
+    public HsmStandInServer(int port, HsmSimulator hsm, Duration latency, Duration jitter) {
+        if (latency.isNegative() || jitter.isNegative()) {
+            throw new IllegalArgumentException("Latency and jitter must not be negative");
+        }
+        this.port = port;
+        this.hsm = hsm;
+        this.latencyNanos = latency.toNanos();
+        this.jitterNanos = jitter.toNanos();
+    }
+
+    /**
+     * Accept loop: one virtual thread per connection until {@link #close()}.
+     */
+    @Override
+    public void run() {
+        ThreadFactory connectionThreads = Thread.ofVirtual().name("hsm-conn-", 0).factory();
+        try (ServerSocket server = new ServerSocket()) {
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            serverSocket = server;
+            while (running) {
+                Socket client = server.accept();
+                connectionThreads.newThread(() -> serve(client)).start();
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("[HSM] Server exception: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops accepting and closes open connections; their clients see the
+     * links drop.
+     */
+    @Override
+    public void close() {
+        running = false;
+        closeQuietly(serverSocket);
+        for (Socket connection : connections) {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * @return batch commands executed so far
+     */
+    public long getCommands() {
+        return commands.sum();
+    }
+
+    /**
+     * @return items executed so far, over all commands
+     */
+    public long getItems() {
+        return items.sum();
+    }
+
+    /**
+     * Connection thread body: reads commands and hands each to a virtual
+     * thread of its own.
+     */
+    private void serve(Socket client) {
+        connections.add(client);
+        ReentrantLock writeLock = new ReentrantLock();
+        try (client; InputStream in = client.getInputStream(); OutputStream out = client.getOutputStream()) {
+            client.setTcpNoDelay(true);
+            if (!running) {
+                return; // accepted while closing
+            }
+            byte[] frame;
+            while ((frame = HsmWire.readFrame(in)) != null) {
+                byte[] command = frame;
+                Thread.startVirtualThread(() -> execute(command, out, writeLock, client));
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("[HSM] Connection " + client.getRemoteSocketAddress() + ": " + e.getMessage());
+            }
+        } finally {
+            connections.remove(client);
+        }
+    }
+
+    /**
+     * Waits out the simulated latency, runs every item and writes the
+     * response frame. A malformed command closes the connection.
+     */
+    private void execute(byte[] frame, OutputStream out, ReentrantLock writeLock, Socket client) {
+        simulateLatency();
+        byte[] response;
+        try {
+            response = respond(frame);
+        } catch (IndexOutOfBoundsException e) {
+            System.err.println("[HSM] Malformed command from " + client.getRemoteSocketAddress());
+            closeQuietly(client);
+            return;
+        }
+        writeLock.lock();
+        try {
+            out.write(response);
+            out.flush();
+        } catch (IOException e) {
+            // connection gone; its reader thread reports it
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private byte[] respond(byte[] frame) {
+        int count = HsmWire.readShort(frame, 4);
+        String[] results = new String[count];
+        byte[] statuses = new byte[count];
+        int length = 4 + HsmWire.BATCH_HEADER;
+        int position = HsmWire.BATCH_HEADER;
+        for (int i = 0; i < count; i++) {
+            byte command = frame[position];
+            PanTokenFormat format = PanTokenFormat.fromFlags(frame[position + 1]);
+            int valueLength = frame[position + 2] & 0xFF;
+            if (position + 3 + valueLength > frame.length) {
+                throw new IndexOutOfBoundsException("item " + i + " overruns the frame");
+            }
+            String value = new String(frame, position + 3, valueLength, StandardCharsets.US_ASCII);
+            position += 3 + valueLength;
+            try {
+                if (command == HsmWire.ENCRYPT) {
+                    results[i] = format.tokenize(hsm, value);
+                } else if (command == HsmWire.DECRYPT) {
+                    results[i] = format.detokenize(hsm, value);
+                } else {
+                    throw new IllegalArgumentException("Unknown HSM command: " + (char) command);
+                }
+                statuses[i] = HsmWire.STATUS_OK;
+            } catch (IllegalArgumentException e) {
+                statuses[i] = HsmWire.STATUS_REJECTED;
+                results[i] = String.valueOf(e.getMessage());
+            } catch (RuntimeException e) {
+                statuses[i] = HsmWire.STATUS_FAILED;
+                results[i] = String.valueOf(e.getMessage());
+            }
+            if (results[i].length() > HsmWire.MAX_VALUE_LENGTH) {
+                results[i] = results[i].substring(0, HsmWire.MAX_VALUE_LENGTH);
+            }
+            length += 2 + results[i].length();
+        }
+        commands.increment();
+        items.add(count);
+
+        byte[] response = new byte[length];
+        HsmWire.writeInt(response, 0, length - 4);
+        System.arraycopy(frame, 0, response, 4, HsmWire.BATCH_HEADER); // batch id and count
+        position = 4 + HsmWire.BATCH_HEADER;
+        for (int i = 0; i < count; i++) {
+            String result = results[i];
+            response[position] = statuses[i];
+            response[position + 1] = (byte) result.length();
+            for (int c = 0; c < result.length(); c++) {
+                char ch = result.charAt(c);
+                response[position + 2 + c] = ch < 0x80 ? (byte) ch : (byte) '?';
+            }
+            position += 2 + result.length();
+        }
+        return response;
+    }
+
+    private void simulateLatency() {
+        long delay = latencyNanos;
+        if (jitterNanos > 0) {
+            delay += ThreadLocalRandom.current().nextLong(jitterNanos + 1);
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(Duration.ofNanos(delay));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource != null) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                System.err.println("[HSM] Close error: " + e.getMessage());
+            }
+        }
+    }
+}
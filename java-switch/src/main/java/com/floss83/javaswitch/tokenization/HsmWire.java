@@ -0,0 +1,93 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Framing of the batch commands {@link HsmClient} sends and
+ * {@link HsmStandInServer} answers. All integers are big-endian.
+ *
+ * <pre>
+ * frame    = length:int32 (of what follows) batchId:int32 count:uint16 item*count
+ * request  = command:byte ('E' encrypt, 'D' decrypt) format:byte valueLength:uint8 value:ASCII
+ * response = status:byte ('0' ok, '1' rejected, '2' failed) valueLength:uint8 value:ASCII
+ * </pre>
+ * <p>
+ * The format byte is {@link PanTokenFormat#toFlags()}; a response value is
+ * the result, or the reason when the status is not '0'. Responses come back
+ * one frame per batch, with the batch's id, in any order.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+final class HsmWire {
+
+    static final byte ENCRYPT = 'E';
+    static final byte DECRYPT = 'D';
+
+    static final byte STATUS_OK = '0';
+    /** The value was refused, e.g. not a valid token: {@link IllegalArgumentException} on the client. */
+    static final byte STATUS_REJECTED = '1';
+    /** The HSM failed: {@link IllegalStateException} on the client. */
+    static final byte STATUS_FAILED = '2';
+
+    /** Longest value (and reason) an item carries. */
+    static final int MAX_VALUE_LENGTH = 255;
+
+    /** Most items in one batch. */
+    static final int MAX_BATCH = 4096;
+
+    /** Bytes before the first item: batch id and count. */
+    static final int BATCH_HEADER = 6;
+
+    /** Largest frame accepted, after its length. */
+    static final int MAX_FRAME = BATCH_HEADER + MAX_BATCH * (3 + MAX_VALUE_LENGTH);
+
+    private HsmWire() {
+    }
+
+    /**
+     * Reads one frame, without its length prefix.
+     *
+     * @return the frame, or null if the stream ended cleanly before it
+     * @throws IOException if the stream fails, ends mid-frame or announces a bad length
+     */
+    static byte[] readFrame(InputStream in) throws IOException {
+        byte[] prefix = new byte[4];
+        int read = in.readNBytes(prefix, 0, 4);
+        if (read == 0) {
+            return null;
+        }
+        int length = read == 4 ? readInt(prefix, 0) : -1;
+        if (length < BATCH_HEADER || length > MAX_FRAME) {
+            throw new IOException("bad or truncated HSM frame length");
+        }
+        byte[] frame = in.readNBytes(length);
+        if (frame.length != length) {
+            throw new IOException("closed mid-frame");
+        }
+        return frame;
+    }
+
+    static int readInt(byte[] buf, int offset) {
+        return (buf[offset] & 0xFF) << 24 | (buf[offset + 1] & 0xFF) << 16 | (buf[offset + 2] & 0xFF) << 8
+                | buf[offset + 3] & 0xFF;
+    }
+
+    static int readShort(byte[] buf, int offset) {
+        return (buf[offset] & 0xFF) << 8 | buf[offset + 1] & 0xFF;
+    }
+
+    static void writeInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+    }
+
+    static void writeShort(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 8);
+        buf[offset + 1] = (byte) value;
+    }
+}
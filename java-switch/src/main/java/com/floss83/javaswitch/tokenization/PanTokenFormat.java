@@ -0,0 +1,203 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.nio.charset.StandardCharsets;
+
+import com.floss83.javaswitch.iso8583.Iso8583CharClass;
+
+/**
+ * Shape of the PAN tokens {@link TokenizationService} issues.
+ * <ul>
+ * <li>{@link #CBC_BASE64}: AES-CBC ciphertext in Base64 (the original
+ * format). Longer than field 2 allows and not numeric.</li>
+ * <li>{@link #ff1(boolean, boolean, boolean)}: format-preserving. A 13-19
+ * digit PAN becomes a numeric token of the same length, optionally keeping
+ * the BIN (first 6) and last 4 digits in clear, so the token can replace the
+ * PAN inside the message buffer and be forwarded as it is.</li>
+ * </ul>
+ * <p>
+ * In FF1 mode the middle digits are enciphered with the clear digits as the
+ * tweak, so two PANs differing only in BIN or last 4 do not share a middle.
+ * At least 6 digits are always enciphered (FF1's minimum domain): on PANs
+ * shorter than 16 digits the kept BIN shrinks accordingly. With {@code luhn}
+ * the token also passes the Luhn check, so it survives field 2 validation
+ * downstream; encryption cycle-walks (re-encrypts until the result is
+ * Luhn-valid, about ten FF1 passes on average), which keeps the mapping a
+ * bijection on Luhn-valid PANs. That mode only accepts Luhn-valid PANs.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public final class PanTokenFormat {
+
+    /** Base64 AES-CBC tokens. */
+    public static final PanTokenFormat CBC_BASE64 = new PanTokenFormat(false, false, false, false);
+
+    // Wire flags, for HSM commands that carry the format
+    private static final int FLAG_FORMAT_PRESERVING = 1;
+    private static final int FLAG_PRESERVE_BIN = 2;
+    private static final int FLAG_PRESERVE_LAST4 = 4;
+    private static final int FLAG_LUHN = 8;
+
+    private static final int BIN_LENGTH = 6;
+    private static final int LAST_DIGITS = 4;
+    private static final byte[] NO_TWEAK = new byte[0];
+
+    private final boolean formatPreserving;
+    private final boolean preserveBin;
+    private final boolean preserveLast4;
+    private final boolean luhn;
+
+    private PanTokenFormat(boolean formatPreserving, boolean preserveBin, boolean preserveLast4, boolean luhn) {
+        this.formatPreserving = formatPreserving;
+        this.preserveBin = preserveBin;
+        this.preserveLast4 = preserveLast4;
+        this.luhn = luhn;
+    }
+
+    /**
+     * @param preserveBin   keep the first 6 digits in clear (fewer on PANs under 16 digits)
+     * @param preserveLast4 keep the last 4 digits in clear
+     * @param luhn          issue Luhn-valid tokens (and accept only Luhn-valid PANs)
+     * @return an FF1 format-preserving token format
+     */
+    public static PanTokenFormat ff1(boolean preserveBin, boolean preserveLast4, boolean luhn) {
+        return new PanTokenFormat(true, preserveBin, preserveLast4, luhn);
+    }
+
+    /**
+     * @return true if tokens have the PAN's length and are all digits
+     */
+    public boolean isFormatPreserving() {
+        return formatPreserving;
+    }
+
+    /**
+     * @param token token issued in this format
+     * @return the HSM key version it was issued under; 0 for FF1 tokens, which carry no version
+     * @throws IllegalArgumentException if a CBC token is not Base64
+     */
+    public int keyVersion(String token) {
+        return formatPreserving ? 0 : HsmSimulator.keyVersionOf(token);
+    }
+
+    /**
+     * @return this format as one byte of flags, for a network HSM command
+     */
+    int toFlags() {
+        return (formatPreserving ? FLAG_FORMAT_PRESERVING : 0) | (preserveBin ? FLAG_PRESERVE_BIN : 0)
+                | (preserveLast4 ? FLAG_PRESERVE_LAST4 : 0) | (luhn ? FLAG_LUHN : 0);
+    }
+
+    /**
+     * @param flags value of {@link #toFlags()}
+     * @return the format they describe
+     */
+    static PanTokenFormat fromFlags(int flags) {
+        if ((flags & FLAG_FORMAT_PRESERVING) == 0) {
+            return CBC_BASE64;
+        }
+        return ff1((flags & FLAG_PRESERVE_BIN) != 0, (flags & FLAG_PRESERVE_LAST4) != 0, (flags & FLAG_LUHN) != 0);
+    }
+
+    /**
+     * @param hsm HSM holding the keys
+     * @param pan validated 13-19 digit PAN
+     * @return the token
+     */
+    String tokenize(HsmSimulator hsm, String pan) {
+        if (!formatPreserving) {
+            return hsm.encrypt(pan);
+        }
+        byte[] digits = pan.getBytes(StandardCharsets.US_ASCII);
+        tokenize(hsm, digits, 0, digits.length);
+        return new String(digits, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param hsm   HSM holding the keys
+     * @param token token issued in this format
+     * @return the PAN
+     */
+    String detokenize(HsmSimulator hsm, String token) {
+        if (!formatPreserving) {
+            return hsm.decrypt(token);
+        }
+        byte[] digits = token.getBytes(StandardCharsets.US_ASCII);
+        detokenize(hsm, digits, 0, digits.length);
+        return new String(digits, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Replaces PAN digits with the token's, in place. FF1 formats only.
+     *
+     * @param hsm    HSM holding the keys
+     * @param buf    buffer holding the PAN as ASCII digits
+     * @param offset index of its first digit
+     * @param length its length (13-19)
+     * @throws IllegalArgumentException if {@code luhn} is set and the PAN fails the Luhn check
+     */
+    void tokenize(HsmSimulator hsm, byte[] buf, int offset, int length) {
+        if (luhn && !Iso8583CharClass.isLuhnValid(buf, offset, length)) {
+            throw new IllegalArgumentException("PAN fails the Luhn check; cannot issue a Luhn-valid token");
+        }
+        int head = head(length);
+        int middle = length - head - tail();
+        byte[] tweak = tweak(buf, offset, length, head);
+        do {
+            hsm.encryptDigits(buf, offset + head, middle, tweak);
+        } while (luhn && !Iso8583CharClass.isLuhnValid(buf, offset, length));
+    }
+
+    /**
+     * Replaces token digits with the PAN's, in place. FF1 formats only.
+     *
+     * @param hsm    HSM holding the keys
+     * @param buf    buffer holding the token as ASCII digits
+     * @param offset index of its first digit
+     * @param length its length (13-19)
+     * @throws IllegalArgumentException if {@code luhn} is set and the value fails the Luhn check
+     *                                  (it cannot be a token of this format)
+     */
+    void detokenize(HsmSimulator hsm, byte[] buf, int offset, int length) {
+        if (luhn && !Iso8583CharClass.isLuhnValid(buf, offset, length)) {
+            throw new IllegalArgumentException("Token fails the Luhn check");
+        }
+        int head = head(length);
+        int middle = length - head - tail();
+        byte[] tweak = tweak(buf, offset, length, head);
+        do {
+            hsm.decryptDigits(buf, offset + head, middle, tweak);
+        } while (luhn && !Iso8583CharClass.isLuhnValid(buf, offset, length));
+    }
+
+    /** Digits kept in clear at the front: the BIN, shortened to leave 6 to encipher. */
+    private int head(int length) {
+        return preserveBin ? Math.max(0, Math.min(BIN_LENGTH, length - tail() - Ff1.MIN_LENGTH)) : 0;
+    }
+
+    private int tail() {
+        return preserveLast4 ? LAST_DIGITS : 0;
+    }
+
+    /** The clear digits, front then back. */
+    private byte[] tweak(byte[] buf, int offset, int length, int head) {
+        int tail = tail();
+        if (head + tail == 0) {
+            return NO_TWEAK;
+        }
+        byte[] tweak = new byte[head + tail];
+        System.arraycopy(buf, offset, tweak, 0, head);
+        System.arraycopy(buf, offset + length - tail, tweak, head, tail);
+        return tweak;
+    }
+
+    @Override
+    public String toString() {
+        if (!formatPreserving) {
+            return "CBC/Base64";
+        }
+        return "FF1" + (preserveBin ? ", BIN kept" : "") + (preserveLast4 ? ", last 4 kept" : "")
+                + (luhn ? ", Luhn-valid" : "");
+    }
+}
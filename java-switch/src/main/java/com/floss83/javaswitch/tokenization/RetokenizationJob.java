@@ -0,0 +1,183 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background migration of stored PAN tokens to the current HSM key version,
+ * after a rotation: every token in the given {@link TokenStore}s that was
+ * issued under an older version is re-issued
+ * ({@link TokenizationService#retokenizePan(String)}) and replaced in its
+ * store.
+ * <p>
+ * <b>Foreground first:</b> the job is one virtual thread making one HSM call
+ * at a time, paced to at most {@code tokensPerSecond}. Behind a network HSM
+ * its requests queue with the switch's own and are coalesced into the same
+ * batches, so the rate bounds the share of HSM capacity it takes. Tokens
+ * already current, and FF1 tokens (which carry no version), cost no HSM call
+ * and are not paced.
+ * </p>
+ * <p>
+ * A token that fails (HSM rejected or unreachable) is counted and left as it
+ * is; running the job again picks it up.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class RetokenizationJob implements Runnable {
+
+    private final TokenizationService service;
+    private final List<TokenStore> stores;
+    private final int targetVersion;
+    private final long intervalNanos;
+
+    private final LongAdder migrated = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private volatile boolean running;
+    private volatile boolean stopped;
+    private Thread thread;
+
+    /**
+     * @param service         tokenization service whose HSM holds the keys
+     * @param stores          stores to migrate, one after the other
+     * @param targetVersion   key version to migrate to; tokens at or above it are left alone
+     * @param tokensPerSecond most tokens re-issued per second
+     * @throws IllegalArgumentException if the rate is not positive
+     */
+    public RetokenizationJob(TokenizationService service, List<TokenStore> stores, int targetVersion,
+            double tokensPerSecond) {
+        if (!(tokensPerSecond > 0)) {
+            throw new IllegalArgumentException("Re-tokenization rate must be positive: " + tokensPerSecond);
+        }
+        this.service = service;
+        this.stores = List.copyOf(stores);
+        this.targetVersion = targetVersion;
+        this.intervalNanos = (long) (1e9 / tokensPerSecond);
+    }
+
+    /**
+     * Runs the job on a virtual thread of its own.
+     *
+     * @return this job
+     */
+    public RetokenizationJob start() {
+        running = true;
+        thread = Thread.ofVirtual().name("retokenize-v" + targetVersion).start(this);
+        return this;
+    }
+
+    /**
+     * Asks the job to stop after the token in hand.
+     */
+    public void stop() {
+        stopped = true;
+        Thread current = thread;
+        if (current != null) {
+            current.interrupt(); // cuts a pacing sleep short
+        }
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        long start = System.nanoTime();
+        long nextCall = start;
+        try {
+            for (TokenStore store : stores) {
+                for (String token : store.getTokens()) {
+                    if (stopped) {
+                        return;
+                    }
+                    if (!needsMigration(token)) {
+                        skipped.increment();
+                        continue;
+                    }
+                    nextCall = pace(nextCall);
+                    if (stopped) {
+                        return;
+                    }
+                    try {
+                        if (store.replaceToken(token, service.retokenizePan(token))) {
+                            migrated.increment();
+                        } else {
+                            skipped.increment(); // removed meanwhile
+                        }
+                    } catch (RuntimeException e) {
+                        failed.increment();
+                    }
+                }
+            }
+        } finally {
+            running = false;
+            System.out.printf("[HSM] Re-tokenization to key version %d %s: %d migrated, %d skipped, %d failed in %.1f s%n",
+                    targetVersion, stopped ? "stopped" : "finished", getMigrated(), getSkipped(), getFailed(),
+                    (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    /**
+     * @return true while the job runs
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return key version tokens are migrated to
+     */
+    public int getTargetVersion() {
+        return targetVersion;
+    }
+
+    /**
+     * @return tokens re-issued and replaced so far
+     */
+    public long getMigrated() {
+        return migrated.sum();
+    }
+
+    /**
+     * @return tokens left alone: already current, unversioned, or gone from their store
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * @return tokens that could not be re-issued
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    private boolean needsMigration(String token) {
+        int version;
+        try {
+            version = service.getTokenKeyVersion(token);
+        } catch (IllegalArgumentException e) {
+            return false; // not a token of this format
+        }
+        return version > 0 && version < targetVersion;
+    }
+
+    /**
+     * Sleeps until the next call is due; a late call does not earn a burst.
+     *
+     * @return when the call after this one is due
+     */
+    private long pace(long due) {
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            try {
+                Thread.sleep(Duration.ofNanos(wait));
+            } catch (InterruptedException e) {
+                stopped = true;
+            }
+        }
+        return Math.max(due, System.nanoTime()) + intervalNanos;
+    }
+}
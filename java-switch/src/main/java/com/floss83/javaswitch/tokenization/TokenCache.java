@@ -0,0 +1,566 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Bounded PAN-to-token and token-to-PAN cache for {@link TokenizationService}.
+ * The HSM's IV is fixed, so a PAN always maps to the same token and a repeat
+ * cardholder can skip the AES operation in either direction.
+ * <p>
+ * <b>Eviction</b> is W-TinyLFU: new entries land in a small LRU window (1%);
+ * an entry leaving the window is admitted to the main space only if a
+ * {@link FrequencySketch} says it has been asked for more often than the
+ * entry it would displace. The main space is a segmented LRU (probation, and
+ * protected for entries hit again). One-off PANs therefore pass through
+ * without flushing regular cardholders, which is what plain LRU gets wrong.
+ * Entries also expire a fixed time after they were written.
+ * </p>
+ * <p>
+ * <b>No clear PAN Strings are kept.</b> Entries are looked up by a 128-bit
+ * keyed fingerprint of the PAN or token, with a random per-instance key, so
+ * the maps hold two longs instead of the value. The one place a PAN is held is
+ * the token-to-PAN value, as a byte array that is zeroed when the entry is
+ * evicted, expires or is cleared. The fingerprint is not encryption: it keeps
+ * PANs out of heap dumps of the map keys, nothing more.
+ * </p>
+ * <p>
+ * The cache is split into segments, each with its own lock, sketch and
+ * queues, chosen by fingerprint. Locks are ReentrantLocks, so virtual threads
+ * are not pinned. CVVs must never be cached and have no API here.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class TokenCache implements MeterBinder {
+
+    private static final int SEGMENTS = 16;
+
+    /** Share of each segment given to the admission window. */
+    private static final double WINDOW_SHARE = 0.01;
+
+    /** Share of the main space reserved for entries hit at least twice. */
+    private static final double PROTECTED_SHARE = 0.8;
+
+    /** Stand-in TTL for "no expiry" (~146 years); expiry checks compare by difference, so it cannot overflow. */
+    private static final long NO_EXPIRY = Long.MAX_VALUE / 2;
+
+    /** Queue an entry is on. */
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final Segment<String>[] tokensByPan;
+    private final Segment<byte[]>[] pansByToken;
+    private final long ttlNanos;
+    private final long seedLow;
+    private final long seedHigh;
+    private final int maximumSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maximumSize most entries per direction (PAN-to-token and token-to-PAN are bounded separately)
+     * @param ttl         time an entry lives after being written; zero for no expiry
+     * @throws IllegalArgumentException if maximumSize is not positive or ttl is negative
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public TokenCache(int maximumSize, Duration ttl) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+        }
+        if (ttl.isNegative()) {
+            throw new IllegalArgumentException("TTL must not be negative: " + ttl);
+        }
+        this.maximumSize = maximumSize;
+        this.ttlNanos = ttl.isZero() ? NO_EXPIRY : Math.min(NO_EXPIRY, ttl.toNanos());
+        SecureRandom random = new SecureRandom();
+        this.seedLow = random.nextLong();
+        this.seedHigh = random.nextLong();
+
+        int segments = Math.min(SEGMENTS, Integer.highestOneBit(maximumSize));
+        this.tokensByPan = new Segment[segments];
+        this.pansByToken = new Segment[segments];
+        for (int i = 0; i < segments; i++) {
+            int perSegment = maximumSize / segments + (i < maximumSize % segments ? 1 : 0);
+            tokensByPan[i] = new Segment<>(perSegment, null);
+            pansByToken[i] = new Segment<>(perSegment, pan -> Arrays.fill(pan, (byte) 0));
+        }
+    }
+
+    /**
+     * @param pan clear PAN
+     * @return its cached token, or null on a miss
+     */
+    public String getToken(String pan) {
+        Fingerprint key = fingerprint(pan);
+        return count(segment(tokensByPan, key).get(key, System.nanoTime(), Function.identity()));
+    }
+
+    /**
+     * Looks a PAN up without making a String of it.
+     *
+     * @param pan    buffer holding the clear PAN as ASCII digits
+     * @param offset index of its first digit
+     * @param length its length
+     * @return its cached token, or null on a miss
+     */
+    public String getToken(byte[] pan, int offset, int length) {
+        Fingerprint key = fingerprint(pan, offset, length);
+        return count(segment(tokensByPan, key).get(key, System.nanoTime(), Function.identity()));
+    }
+
+    /**
+     * @param token token
+     * @return its cached clear PAN, or null on a miss
+     */
+    public String getPan(String token) {
+        Fingerprint key = fingerprint(token);
+        // Copied under the segment lock: the array is zeroed as soon as the entry leaves
+        return count(segment(pansByToken, key).get(key, System.nanoTime(),
+                pan -> new String(pan, StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Caches a PAN/token pair in both directions.
+     *
+     * @param pan   clear PAN (ASCII digits)
+     * @param token its token
+     */
+    public void put(String pan, String token) {
+        put(pan.getBytes(StandardCharsets.US_ASCII), token);
+    }
+
+    /**
+     * Caches a PAN/token pair in both directions, without a String of the PAN.
+     *
+     * @param pan   clear PAN as ASCII digits; the cache keeps this array and zeroes it when the entry leaves
+     * @param token its token
+     */
+    public void put(byte[] pan, String token) {
+        long expiresAt = System.nanoTime() + ttlNanos;
+        Fingerprint panKey = fingerprint(pan, 0, pan.length);
+        segment(tokensByPan, panKey).put(panKey, token, expiresAt);
+        Fingerprint tokenKey = fingerprint(token);
+        segment(pansByToken, tokenKey).put(tokenKey, pan, expiresAt);
+    }
+
+    /**
+     * Caches the token-to-PAN direction only, for a token that need not be
+     * the one the PAN tokenizes to now (e.g. issued under an older key
+     * version): the PAN's entry, if any, is left alone.
+     *
+     * @param token token
+     * @param pan   its clear PAN (ASCII digits)
+     */
+    public void putPan(String token, String pan) {
+        Fingerprint tokenKey = fingerprint(token);
+        segment(pansByToken, tokenKey).put(tokenKey, pan.getBytes(StandardCharsets.US_ASCII),
+                System.nanoTime() + ttlNanos);
+    }
+
+    /**
+     * Drops every entry (zeroing cached PANs), e.g. after a key change.
+     */
+    public void invalidateAll() {
+        for (Segment<String> segment : tokensByPan) {
+            segment.clear();
+        }
+        for (Segment<byte[]> segment : pansByToken) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return lookups not answered from the cache (absent or expired)
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return fraction of lookups answered from the cache, 0 before the first lookup
+     */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return entries removed to stay within the size bound, or refused admission
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return entries removed because their TTL passed
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * @return entries cached across both directions
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<String> segment : tokensByPan) {
+            size += segment.size();
+        }
+        for (Segment<byte[]> segment : pansByToken) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Publishes the counters as {@code tokenization.cache.*} meters for
+     * {@code /actuator/metrics}.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("tokenization.cache.gets", this, TokenCache::getHits)
+                .tag("result", "hit")
+                .description("Token cache lookups answered from the cache")
+                .register(registry);
+        FunctionCounter.builder("tokenization.cache.gets", this, TokenCache::getMisses)
+                .tag("result", "miss")
+                .description("Token cache lookups that went to the HSM")
+                .register(registry);
+        FunctionCounter.builder("tokenization.cache.evictions", this, TokenCache::getEvictions)
+                .tag("cause", "size")
+                .description("Token cache entries evicted or refused admission by the size bound")
+                .register(registry);
+        FunctionCounter.builder("tokenization.cache.evictions", this, TokenCache::getExpirations)
+                .tag("cause", "expired")
+                .description("Token cache entries removed after their TTL")
+                .register(registry);
+        Gauge.builder("tokenization.cache.hit.ratio", this, TokenCache::getHitRatio)
+                .description("Share of token cache lookups answered from the cache")
+                .register(registry);
+        Gauge.builder("tokenization.cache.size", this, TokenCache::size)
+                .description("Token cache entries, both directions")
+                .register(registry);
+    }
+
+    @Override
+    public String toString() {
+        return "TokenCache: maximumSize=" + maximumSize + ", size=" + size() + ", hits=" + hits.sum()
+                + ", misses=" + misses.sum() + ", evictions=" + evictions.sum() + ", expirations="
+                + expirations.sum();
+    }
+
+    private <V> V count(V value) {
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    private static <V> Segment<V> segment(Segment<V>[] segments, Fingerprint key) {
+        return segments[(int) (key.high >>> 32) & (segments.length - 1)];
+    }
+
+    /**
+     * Two independently seeded 64-bit lanes over the value's characters, four
+     * per round, each finished with the MurmurHash3 mixer.
+     */
+    private Fingerprint fingerprint(String value) {
+        long low = seedLow;
+        long high = seedHigh;
+        int length = value.length();
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            long block = value.charAt(i) | (long) value.charAt(i + 1) << 16 | (long) value.charAt(i + 2) << 32
+                    | (long) value.charAt(i + 3) << 48;
+            low = Long.rotateLeft(low ^ block * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+            high = Long.rotateLeft(high ^ block * 0x52DCE729L, 27) * 0x38495AB5L + 0x9E3779B97F4A7C15L;
+        }
+        for (; i < length; i++) {
+            long c = value.charAt(i);
+            low = Long.rotateLeft(low ^ c * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+            high = Long.rotateLeft(high ^ c * 0x52DCE729L, 27) * 0x38495AB5L + 0x9E3779B97F4A7C15L;
+        }
+        return new Fingerprint(mix(low ^ length), mix(high ^ length));
+    }
+
+    /**
+     * Byte-array twin of {@link #fingerprint(String)}: equal for ASCII
+     * content, so either form finds the other's entries.
+     */
+    private Fingerprint fingerprint(byte[] value, int offset, int length) {
+        long low = seedLow;
+        long high = seedHigh;
+        int i = offset;
+        int end = offset + length;
+        for (; i + 4 <= end; i += 4) {
+            long block = (value[i] & 0xFF) | (long) (value[i + 1] & 0xFF) << 16 | (long) (value[i + 2] & 0xFF) << 32
+                    | (long) (value[i + 3] & 0xFF) << 48;
+            low = Long.rotateLeft(low ^ block * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+            high = Long.rotateLeft(high ^ block * 0x52DCE729L, 27) * 0x38495AB5L + 0x9E3779B97F4A7C15L;
+        }
+        for (; i < end; i++) {
+            long c = value[i] & 0xFF;
+            low = Long.rotateLeft(low ^ c * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+            high = Long.rotateLeft(high ^ c * 0x52DCE729L, 27) * 0x38495AB5L + 0x9E3779B97F4A7C15L;
+        }
+        return new Fingerprint(mix(low ^ length), mix(high ^ length));
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    /** Map key standing in for a PAN or token. */
+    private static final class Fingerprint {
+        final long low;
+        final long high;
+
+        Fingerprint(long low, long high) {
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Fingerprint other && other.low == low && other.high == high;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (low ^ (low >>> 32));
+        }
+    }
+
+    private static final class Node<V> {
+        final Fingerprint key;
+        V value;
+        long expiresAt;
+        int queue;
+        Node<V> prev;
+        Node<V> next;
+
+        Node(Fingerprint key, V value, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /** Doubly linked LRU list, head = least recently used. */
+    private static final class Queue<V> {
+        Node<V> head;
+        Node<V> tail;
+        int size;
+
+        void addLast(Node<V> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        void remove(Node<V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToLast(Node<V> node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    /**
+     * One lock's worth of cache: a hash map over three LRU queues and a sketch.
+     */
+    private final class Segment<V> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final HashMap<Fingerprint, Node<V>> nodes = new HashMap<>();
+        private final Queue<V> window = new Queue<>();
+        private final Queue<V> probation = new Queue<>();
+        private final Queue<V> protectedQueue = new Queue<>();
+        private final FrequencySketch sketch;
+        private final Consumer<V> eraser;
+        private final int maximum;
+        private final int maxWindow;
+        private final int maxProtected;
+
+        Segment(int maximum, Consumer<V> eraser) {
+            this.maximum = maximum;
+            this.maxWindow = Math.max(1, (int) (maximum * WINDOW_SHARE));
+            this.maxProtected = (int) ((maximum - maxWindow) * PROTECTED_SHARE);
+            this.sketch = new FrequencySketch(maximum);
+            this.eraser = eraser;
+        }
+
+        /**
+         * @param reader applied to the value under the lock
+         */
+        <R> R get(Fingerprint key, long now, Function<V, R> reader) {
+            lock.lock();
+            try {
+                sketch.increment(key.hashCode());
+                Node<V> node = nodes.get(key);
+                if (node == null) {
+                    return null;
+                }
+                if (node.expiresAt - now < 0) {
+                    remove(node);
+                    expirations.increment();
+                    return null;
+                }
+                onHit(node);
+                return reader.apply(node.value);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(Fingerprint key, V value, long expiresAt) {
+            lock.lock();
+            try {
+                Node<V> node = nodes.get(key);
+                if (node != null) {
+                    if (eraser != null && node.value != value) {
+                        eraser.accept(node.value);
+                    }
+                    node.value = value;
+                    node.expiresAt = expiresAt;
+                    return;
+                }
+                node = new Node<>(key, value, expiresAt);
+                nodes.put(key, node);
+                node.queue = WINDOW;
+                window.addLast(node);
+                if (window.size > maxWindow) {
+                    Node<V> candidate = window.head;
+                    window.remove(candidate);
+                    candidate.queue = PROBATION;
+                    probation.addLast(candidate);
+                    if (nodes.size() > maximum) {
+                        evict(candidate);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * TinyLFU admission: the window's leaving entry against the main
+         * space's least recently used one; the less frequent loses.
+         */
+        private void evict(Node<V> candidate) {
+            Node<V> victim = probation.head != candidate ? probation.head : protectedQueue.head;
+            if (victim == null || sketch.frequency(candidate.key.hashCode()) <= sketch.frequency(
+                    victim.key.hashCode())) {
+                victim = candidate;
+            }
+            remove(victim);
+            evictions.increment();
+        }
+
+        private void onHit(Node<V> node) {
+            if (node.queue == WINDOW) {
+                window.moveToLast(node);
+            } else if (node.queue == PROTECTED) {
+                protectedQueue.moveToLast(node);
+            } else {
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedQueue.addLast(node);
+                if (protectedQueue.size > maxProtected) {
+                    Node<V> demoted = protectedQueue.head;
+                    protectedQueue.remove(demoted);
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+            }
+        }
+
+        private void remove(Node<V> node) {
+            nodes.remove(node.key);
+            (node.queue == WINDOW ? window : node.queue == PROBATION ? probation : protectedQueue).remove(node);
+            if (eraser != null) {
+                eraser.accept(node.value);
+            }
+            node.value = null;
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                while (window.head != null) {
+                    remove(window.head);
+                }
+                while (probation.head != null) {
+                    remove(probation.head);
+                }
+                while (protectedQueue.head != null) {
+                    remove(protectedQueue.head);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return nodes.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
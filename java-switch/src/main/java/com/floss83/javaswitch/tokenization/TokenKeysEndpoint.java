@@ -0,0 +1,146 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+
+/**
+ * Actuator endpoint for online HSM key rotation, without a restart (so
+ * without dropping terminal connections):
+ * <ul>
+ * <li>{@code GET /actuator/tokenkeys}: current and live key versions, and
+ * the progress of the last re-tokenization.</li>
+ * <li>{@code POST /actuator/tokenkeys}: makes a new key version current,
+ * clears the token cache (it would keep handing out old tokens) and starts
+ * a {@link RetokenizationJob} over the {@link TokenStore}s, replacing any
+ * job still running.</li>
+ * <li>{@code DELETE /actuator/tokenkeys/{version}}: retires an old version;
+ * its tokens stop decrypting, and the cache, which could still answer for
+ * them, is cleared. Refused while a migration runs.</li>
+ * </ul>
+ * <p>
+ * Keys can only be rotated here with the in-process {@link HsmSimulator}; a
+ * network HSM's keys are managed on the HSM.
+ * </p>
+ * <p>
+ * The endpoint has no authentication of its own, so it is not web-exposed
+ * by default: add {@code tokenkeys} to
+ * {@code management.endpoints.web.exposure.include} only where the
+ * actuator is reachable from trusted hosts alone.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+@Endpoint(id = "tokenkeys")
+public class TokenKeysEndpoint {
+
+    private final HsmProvider hsm;
+    private final TokenizationService service;
+    private final List<TokenStore> stores;
+    private final double tokensPerSecond;
+
+    /** Serializes rotations and retirements; status reads go without. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile RetokenizationJob job;
+
+    /**
+     * @param hsm             HSM provider behind the service
+     * @param service         tokenization service
+     * @param stores          token stores to migrate after a rotation
+     * @param tokensPerSecond re-tokenization rate
+     */
+    public TokenKeysEndpoint(HsmProvider hsm, TokenizationService service, List<TokenStore> stores,
+            double tokensPerSecond) {
+        this.hsm = hsm;
+        this.service = service;
+        this.stores = List.copyOf(stores);
+        this.tokensPerSecond = tokensPerSecond;
+    }
+
+    @ReadOperation
+    public Map<String, Object> keys() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("panFormat", service.getFormat().toString());
+        if (hsm instanceof HsmSimulator simulator) {
+            status.put("currentVersion", simulator.getKeyVersion());
+            status.put("liveVersions", simulator.getKeyVersions());
+        } else {
+            status.put("keys", "managed by the network HSM");
+        }
+        RetokenizationJob current = job;
+        if (current != null) {
+            Map<String, Object> migration = new LinkedHashMap<>();
+            migration.put("targetVersion", current.getTargetVersion());
+            migration.put("running", current.isRunning());
+            migration.put("migrated", current.getMigrated());
+            migration.put("skipped", current.getSkipped());
+            migration.put("failed", current.getFailed());
+            status.put("retokenization", migration);
+        }
+        return status;
+    }
+
+    @WriteOperation
+    public WebEndpointResponse<Map<String, Object>> rotate() {
+        if (!(hsm instanceof HsmSimulator simulator)) {
+            return error("Keys are managed by the network HSM");
+        }
+        lock.lock();
+        try {
+            int version;
+            try {
+                version = simulator.rotateKeys();
+            } catch (IllegalStateException e) {
+                return error(e.getMessage());
+            }
+            if (service.getCache() != null) {
+                service.getCache().invalidateAll();
+            }
+            if (job != null) {
+                job.stop();
+            }
+            job = new RetokenizationJob(service, stores, version, tokensPerSecond).start();
+        } finally {
+            lock.unlock();
+        }
+        return new WebEndpointResponse<>(keys());
+    }
+
+    @DeleteOperation
+    public WebEndpointResponse<Map<String, Object>> retire(@Selector int version) {
+        if (!(hsm instanceof HsmSimulator simulator)) {
+            return error("Keys are managed by the network HSM");
+        }
+        lock.lock();
+        try {
+            if (job != null && job.isRunning()) {
+                return error("Re-tokenization to key version " + job.getTargetVersion() + " is still running");
+            }
+            if (!simulator.retireKeyVersion(version)) {
+                return error("Key version " + version + " is not live");
+            }
+            // Cached PANs of retired tokens would still detokenize them
+            if (service.getCache() != null) {
+                service.getCache().invalidateAll();
+            }
+        } catch (IllegalArgumentException e) {
+            return error(e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+        return new WebEndpointResponse<>(keys());
+    }
+
+    private static WebEndpointResponse<Map<String, Object>> error(String message) {
+        return new WebEndpointResponse<>(Map.of("error", message), WebEndpointResponse.STATUS_BAD_REQUEST);
+    }
+}
@@ -0,0 +1,28 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.util.Collection;
+
+/**
+ * Something that keeps PAN tokens, e.g. accounts keyed by token, and so has
+ * to follow when tokens are re-issued under a new HSM key version. See
+ * {@link RetokenizationJob}.
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public interface TokenStore {
+
+    /**
+     * @return the tokens stored now; tokens added while the caller iterates may be missing
+     */
+    Collection<String> getTokens();
+
+    /**
+     * Moves what is stored under {@code oldToken} to {@code newToken}.
+     *
+     * @param oldToken token being migrated
+     * @param newToken the same PAN's token under the current key version
+     * @return false if nothing is stored under {@code oldToken} (any more)
+     */
+    boolean replaceToken(String oldToken, String newToken);
+}
@@ -1,8 +1,16 @@
 package com.floss83.javaswitch.tokenization;
 
+import java.time.Duration;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import com.floss83.javaswitch.audit.AuditLog;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
 /**
  * ===============================
  * TokenizationConfig
@@ -74,17 +82,129 @@ import org.springframework.context.annotation.Configuration;
 public class TokenizationConfig {
 
     /**
-     * Provides a singleton TokenizationService with an in-memory HSM simulator for
-     * dev/test use.
+     * The HSM behind tokenization, chosen by {@code tokenization.hsm.mode}:
+     * <ul>
+     * <li>{@code local} (default): the in-process {@link HsmSimulator}.</li>
+     * <li>{@code loopback}: an {@link HsmClient} pool to an
+     * {@link HsmStandInServer} run by this process on
+     * {@code tokenization.hsm.port}, with the configured latency and jitter
+     * per batch command, to see the switch with crypto a round trip away.</li>
+     * <li>{@code remote}: an {@link HsmClient} pool to
+     * {@code tokenization.hsm.host}:{@code tokenization.hsm.port}.</li>
+     * </ul>
+     *
+     * @param meterRegistry registry for the client's {@code tokenization.hsm.*} meters
+     * @param mode          local, loopback or remote
+     * @param host          remote HSM host
+     * @param port          remote HSM port, or the loopback HSM's port
+     * @param connections   links in the client pool
+     * @param maxBatch      most requests coalesced into one batch command
+     * @param maxInFlight   batch commands outstanding per link
+     * @param timeoutMs     deadline per HSM request, in milliseconds
+     * @param latencyMs     loopback HSM delay per batch command, in milliseconds
+     * @param jitterMs      upper bound of a random extra loopback delay, in milliseconds
+     * @return the HSM provider; closed by Spring on shutdown
+     */
+    @Bean
+    public HsmProvider hsmProvider(MeterRegistry meterRegistry,
+            @Value("${tokenization.hsm.mode:local}") String mode,
+            @Value("${tokenization.hsm.host:localhost}") String host,
+            @Value("${tokenization.hsm.port:5200}") int port,
+            @Value("${tokenization.hsm.connections:2}") int connections,
+            @Value("${tokenization.hsm.max-batch:64}") int maxBatch,
+            @Value("${tokenization.hsm.max-in-flight:4}") int maxInFlight,
+            @Value("${tokenization.hsm.timeout-ms:1000}") long timeoutMs,
+            @Value("${tokenization.hsm.latency-ms:2}") long latencyMs,
+            @Value("${tokenization.hsm.jitter-ms:1}") long jitterMs) {
+        String hsmMode = mode.trim().toLowerCase();
+        if (!hsmMode.equals("local") && !hsmMode.equals("loopback") && !hsmMode.equals("remote")) {
+            throw new IllegalArgumentException("Unknown tokenization.hsm.mode: " + mode);
+        }
+        if (hsmMode.equals("local")) {
+            HsmSimulator hsm = new HsmSimulator();
+            hsm.initializeKeys(); // Optional: for deterministic dev runs
+            System.out.println("[BOOT] HSM: in-process simulator");
+            return hsm;
+        }
+
+        HsmStandInServer loopback = null;
+        if (hsmMode.equals("loopback")) {
+            host = "localhost";
+            HsmSimulator hsm = new HsmSimulator();
+            hsm.initializeKeys();
+            loopback = new HsmStandInServer(port, hsm, Duration.ofMillis(latencyMs), Duration.ofMillis(jitterMs));
+            Thread thread = new Thread(loopback, "hsm-loopback");
+            thread.setDaemon(true);
+            thread.start();
+            System.out.println("[BOOT] Loopback HSM stand-in on port " + port + ": latency " + latencyMs
+                    + " ms (+0-" + jitterMs + " ms) per command");
+        }
+        HsmClient client = loopback == null
+                ? new HsmClient(host, port, connections, maxBatch, maxInFlight, Duration.ofMillis(timeoutMs))
+                : new HsmClient(host, port, connections, maxBatch, maxInFlight, Duration.ofMillis(timeoutMs),
+                        loopback);
+        client.bindTo(meterRegistry);
+        client.start();
+        System.out.println("[BOOT] " + client);
+        return client;
+    }
+
+    /**
+     * Provides a singleton TokenizationService over the {@link HsmProvider}
+     * above (the in-memory HSM simulator by default) for dev/test use.
      * All crypto keys are ephemeral and should be replaced by production-grade key
      * management before live use.
      *
-     * @return TokenizationService configured with HsmSimulator
+     * With {@code tokenization.cache.enabled} a bounded W-TinyLFU
+     * {@link TokenCache} sits in front of the HSM for repeat PANs, its
+     * counters published under {@code tokenization.cache.*}.
+     *
+     * {@code tokenization.pan-format=ff1} issues FF1 format-preserving PAN
+     * tokens (see {@link PanTokenFormat}) instead of Base64 AES-CBC ones.
+     *
+     * Every operation is audited through the {@link AuditLog}.
+     *
+     * @return TokenizationService configured with the {@link #hsmProvider HSM provider}
+     */
+    @Bean
+    public TokenizationService tokenizationService(MeterRegistry meterRegistry, HsmProvider hsm, AuditLog auditLog,
+            @Value("${tokenization.cache.enabled:false}") boolean cacheEnabled,
+            @Value("${tokenization.cache.maximum-size:100000}") int cacheMaximumSize,
+            @Value("${tokenization.cache.ttl-seconds:600}") long cacheTtlSeconds,
+            @Value("${tokenization.pan-format:cbc}") String panFormat,
+            @Value("${tokenization.ff1.preserve-bin:true}") boolean ff1PreserveBin,
+            @Value("${tokenization.ff1.preserve-last4:true}") boolean ff1PreserveLast4,
+            @Value("${tokenization.ff1.luhn:true}") boolean ff1Luhn) {
+        TokenCache cache = null;
+        if (cacheEnabled) {
+            cache = new TokenCache(cacheMaximumSize, Duration.ofSeconds(cacheTtlSeconds));
+            cache.bindTo(meterRegistry);
+            System.out.println("[BOOT] Token cache: up to " + cacheMaximumSize + " entries per direction, TTL "
+                    + cacheTtlSeconds + " s");
+        }
+        PanTokenFormat format = switch (panFormat.trim().toLowerCase()) {
+            case "cbc" -> PanTokenFormat.CBC_BASE64;
+            case "ff1" -> PanTokenFormat.ff1(ff1PreserveBin, ff1PreserveLast4, ff1Luhn);
+            default -> throw new IllegalArgumentException("Unknown tokenization.pan-format: " + panFormat);
+        };
+        System.out.println("[BOOT] PAN token format: " + format);
+        return new TokenizationService(hsm, cache, format, auditLog);
+    }
+
+    /**
+     * Actuator endpoint {@code tokenkeys} for online key rotation; see
+     * {@link TokenKeysEndpoint}. Stored tokens (the issuer ledger's accounts)
+     * are migrated at {@code tokenization.keys.retokenize-per-second}.
+     *
+     * @param hsm             HSM provider; rotation needs the in-process simulator
+     * @param service         tokenization service
+     * @param stores          every {@link TokenStore} bean
+     * @param tokensPerSecond re-tokenization rate
+     * @return the endpoint
      */
     @Bean
-    public TokenizationService tokenizationService() {
-        HsmSimulator hsm = new HsmSimulator();
-        hsm.initializeKeys(); // Optional: for deterministic dev runs
-        return new TokenizationService(hsm);
+    public TokenKeysEndpoint tokenKeysEndpoint(HsmProvider hsm, TokenizationService service, List<TokenStore> stores,
+            @Value("${tokenization.keys.retokenize-per-second:200}") double tokensPerSecond) {
+        return new TokenKeysEndpoint(hsm, service, stores, tokensPerSecond);
     }
 }
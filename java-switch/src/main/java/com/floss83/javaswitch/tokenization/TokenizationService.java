@@ -1,6 +1,17 @@
 package com.floss83.javaswitch.tokenization;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import com.floss83.javaswitch.audit.AuditLog;
 
 /**
  * TokenizationService
@@ -38,14 +49,49 @@ import java.time.Instant;
  * tokenized before further handling.
  * - Card Issuing: Tokenized card details are safely routed and only detokenized
  * when strictly required (e.g., outgoing ISO 8583 message, PIN verification).
+ *
+ * <b>Sync and async:</b> every operation has an {@code ...Async} form
+ * returning the {@link HsmProvider}'s future, so that callers can overlap
+ * HSM round trips (and let {@link HsmClient} batch them). The plain forms
+ * wait for it; an HSM that cannot be reached in time surfaces there as an
+ * {@link IllegalStateException}.
+ *
+ * <b>Batches:</b> {@link #tokenizeBatch(List, List)} tokenizes every
+ * sensitive value of a message in one HSM round trip, with one audit line.
+ *
+ * <b>Audit trail:</b> with an {@link AuditLog}, every operation is published
+ * to it as a JSONL event (masked values only) and written by its own
+ * thread; without one, it is printed to stdout as an {@code [AUDIT]} line.
  */
 public class TokenizationService {
 
+    /** What a value given to {@link #tokenizeBatch(List, List)} is. */
+    public enum ValueType {
+        /** A PAN: tokenized in the service's {@link PanTokenFormat}, through the cache. */
+        PAN,
+        /** A CVV or PIN block: validated as one, then a Base64 AES-CBC token; never cached. */
+        PIN_OR_CVV,
+        /** Any other secret, e.g. track data: a Base64 AES-CBC token; never cached. */
+        SECRET
+    }
+
+    /**
+     * HSM (Hardware Security Module) – handles encryption/decryption: the
+     * in-process simulator, or a client to a network HSM.
+     */
+    private final HsmProvider hsm;
+
     /**
-     * Simulated HSM (Hardware Security Module) – handles encryption/decryption.
-     * In prod, replace with real HSM integration.
+     * Optional PAN/token cache (null = every call goes to the HSM). CVVs are
+     * never cached.
      */
-    private final HsmSimulator hsm;
+    private final TokenCache cache;
+
+    /** Shape of PAN tokens: Base64 CBC, or same-length digits (FF1). */
+    private final PanTokenFormat format;
+
+    /** Audit trail (null = {@code [AUDIT]} lines on stdout). */
+    private final AuditLog auditLog;
 
     /**
      * Initializes the tokenization service with an HSM (simulator for dev).
@@ -53,8 +99,59 @@ public class TokenizationService {
      * @param hsm Instance of HsmSimulator or HSM integration.
      */
     public TokenizationService(HsmSimulator hsm) {
+        this(hsm, null);
+    }
+
+    /**
+     * Initializes the tokenization service with an HSM and a PAN/token cache
+     * in front of it.
+     * 
+     * @param hsm   Instance of HsmSimulator or HSM integration.
+     * @param cache Bounded PAN/token cache; null to disable caching.
+     */
+    public TokenizationService(HsmSimulator hsm, TokenCache cache) {
+        this(hsm, cache, PanTokenFormat.CBC_BASE64);
+    }
+
+    /**
+     * Initializes the tokenization service with an HSM, an optional cache and
+     * the PAN token format.
+     * 
+     * @param hsm    Instance of HsmSimulator or HSM integration.
+     * @param cache  Bounded PAN/token cache; null to disable caching.
+     * @param format PAN token format, e.g. {@link PanTokenFormat#ff1} for numeric tokens that fit field 2.
+     */
+    public TokenizationService(HsmSimulator hsm, TokenCache cache, PanTokenFormat format) {
+        this((HsmProvider) hsm, cache, format);
+        hsm.initializeKeys();
+    }
+
+    /**
+     * Initializes the tokenization service with any HSM provider; its keys
+     * are its own business.
+     * 
+     * @param hsm    In-process simulator or network HSM client.
+     * @param cache  Bounded PAN/token cache; null to disable caching.
+     * @param format PAN token format.
+     */
+    public TokenizationService(HsmProvider hsm, TokenCache cache, PanTokenFormat format) {
+        this(hsm, cache, format, null);
+    }
+
+    /**
+     * Initializes the tokenization service with any HSM provider and an
+     * asynchronous audit trail.
+     * 
+     * @param hsm      In-process simulator or network HSM client.
+     * @param cache    Bounded PAN/token cache; null to disable caching.
+     * @param format   PAN token format.
+     * @param auditLog Audit trail for every operation; null to print {@code [AUDIT]} lines to stdout.
+     */
+    public TokenizationService(HsmProvider hsm, TokenCache cache, PanTokenFormat format, AuditLog auditLog) {
         this.hsm = hsm;
-        this.hsm.initializeKeys();
+        this.cache = cache;
+        this.format = format;
+        this.auditLog = auditLog;
     }
 
     /**
@@ -64,10 +161,32 @@ public class TokenizationService {
      * @return Token (encrypted string); NEVER the real PAN.
      */
     public String tokenizePan(String pan) {
-        validatePan(pan);
-        String token = hsm.encrypt(pan);
-        auditLog("TOKENIZE_PAN", pan, token, "SUCCESS");
-        return token;
+        return await(tokenizePanAsync(pan));
+    }
+
+    /**
+     * Asynchronous {@link #tokenizePan(String)}; complete at once on a cache
+     * hit.
+     * 
+     * @param pan Raw card PAN (should be 13–19 digits).
+     * @return future of the token; fails with IllegalArgumentException on an invalid PAN.
+     */
+    public CompletableFuture<String> tokenizePanAsync(String pan) {
+        if (!isPan(pan)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid PAN: Must be 13-19 digits."));
+        }
+        String cached = cache != null ? cache.getToken(pan) : null;
+        if (cached != null) {
+            auditLog("TOKENIZE_PAN", pan, cached, "SUCCESS");
+            return CompletableFuture.completedFuture(cached);
+        }
+        return hsm.encrypt(pan, format).thenApply(token -> {
+            if (cache != null) {
+                cache.put(pan, token);
+            }
+            auditLog("TOKENIZE_PAN", pan, token, "SUCCESS");
+            return token;
+        });
     }
 
     /**
@@ -77,14 +196,122 @@ public class TokenizationService {
      * @return Decrypted PAN if valid.
      */
     public String detokenizePan(String token) {
-        try {
-            String pan = hsm.decrypt(token);
-            auditLog("DETOKENIZE_PAN", token, pan, "SUCCESS");
+        return await(detokenizePanAsync(token));
+    }
+
+    /**
+     * Asynchronous {@link #detokenizePan(String)}; complete at once on a
+     * cache hit.
+     * 
+     * @param token Encrypted token value.
+     * @return future of the PAN; fails with IllegalArgumentException if the HSM rejects the token.
+     */
+    public CompletableFuture<String> detokenizePanAsync(String token) {
+        String cached = cache != null && token != null ? cache.getPan(token) : null;
+        if (cached != null) {
+            auditLog("DETOKENIZE_PAN", token, cached, "SUCCESS");
+            return CompletableFuture.completedFuture(cached);
+        }
+        return detokenize("DETOKENIZE_PAN", "PAN detokenization failed.", token, format).thenApply(pan -> {
+            // Never cache a detokenized CVV. The token may predate a key rotation, so it
+            // must not become the PAN's cached token: only tokenization writes that way
+            if (cache != null && isPan(pan)) {
+                cache.putPan(token, pan);
+            }
             return pan;
-        } catch (Exception e) {
-            auditLog("DETOKENIZE_PAN", token, null, "FAIL: " + e.getMessage());
-            throw new IllegalArgumentException("PAN detokenization failed.", e);
+        });
+    }
+
+    /**
+     * Tokenizes a PAN where it lies, e.g. inside a received message buffer:
+     * the PAN's digits are overwritten with the token's, and no String of the
+     * PAN is made. Only possible with a format-preserving
+     * {@link PanTokenFormat}; returns false otherwise, for the caller to
+     * take the String path instead.
+     * 
+     * @param buf    buffer holding the PAN as ASCII digits
+     * @param offset index of its first digit
+     * @param length its length
+     * @return true if the PAN was replaced by its token, false if the format is not length-preserving
+     * @throws IllegalArgumentException if the range is not a 13-19 digit PAN (or fails Luhn when
+     *                                  the format requires it); the buffer is then unchanged
+     * @throws IllegalStateException    if the HSM cannot be reached in time
+     */
+    public boolean tokenizePanInPlace(byte[] buf, int offset, int length) {
+        if (!format.isFormatPreserving()) {
+            return false;
         }
+        if (length < 13 || length > 19 || !isDigits(buf, offset, length)) {
+            throw new IllegalArgumentException("Invalid PAN: Must be 13-19 digits.");
+        }
+        String maskedPan = maskDigits(buf, offset, length);
+        String token = cache != null ? cache.getToken(buf, offset, length) : null;
+        if (token == null) {
+            byte[] pan = cache != null ? Arrays.copyOfRange(buf, offset, offset + length) : null;
+            if (hsm.encryptInPlace(buf, offset, length, format)) {
+                if (cache != null) {
+                    cache.put(pan, new String(buf, offset, length, StandardCharsets.US_ASCII));
+                }
+            } else {
+                // A network HSM needs the PAN on the wire anyway
+                token = await(hsm.encrypt(new String(buf, offset, length, StandardCharsets.US_ASCII), format));
+                if (cache != null) {
+                    cache.put(pan, token);
+                }
+            }
+        }
+        if (token != null) {
+            for (int i = 0; i < length; i++) {
+                buf[offset + i] = (byte) token.charAt(i);
+            }
+        }
+        auditLogMasked("TOKENIZE_PAN", maskedPan, maskDigits(buf, offset, length), "SUCCESS");
+        return true;
+    }
+
+    /**
+     * Re-issues a PAN token under the HSM's current key version: the token is
+     * detokenized and the PAN tokenized again, past the cache (which may still
+     * hold the old token), and the new pair is cached. For migrating stored
+     * tokens after a key rotation; FF1 tokens come back unchanged, as the FF1
+     * key is not rotated.
+     * 
+     * @param token PAN token issued under any live key version
+     * @return the token under the current key version
+     * @throws IllegalArgumentException if the HSM rejects the token (e.g. its version is retired)
+     * @throws IllegalStateException    if the HSM cannot be reached in time
+     */
+    public String retokenizePan(String token) {
+        String pan = detokenizePan(token);
+        String current = await(hsm.encrypt(pan, format));
+        if (cache != null) {
+            cache.put(pan, current);
+        }
+        auditLog("RETOKENIZE_PAN", token, current, "SUCCESS");
+        return current;
+    }
+
+    /**
+     * @param token PAN token
+     * @return the HSM key version it was issued under; 0 if the format carries none (FF1)
+     * @throws IllegalArgumentException if the token is malformed for the format
+     */
+    public int getTokenKeyVersion(String token) {
+        return format.keyVersion(token);
+    }
+
+    /**
+     * @return the PAN token format in use
+     */
+    public PanTokenFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the PAN/token cache, or null if caching is off
+     */
+    public TokenCache getCache() {
+        return cache;
     }
 
     /**
@@ -94,10 +321,25 @@ public class TokenizationService {
      * @return Token (encrypted string).
      */
     public String tokenizeCvv(String cvv) {
-        validateCvv(cvv);
-        String token = hsm.encrypt(cvv);
-        auditLog("TOKENIZE_CVV", cvv, token, "SUCCESS");
-        return token;
+        return await(tokenizeCvvAsync(cvv));
+    }
+
+    /**
+     * Asynchronous {@link #tokenizeCvv(String)}.
+     * 
+     * @param cvv Raw CVV (usually 3 or 4 digits) or PIN block.
+     * @return future of the token; fails with IllegalArgumentException on an invalid value.
+     */
+    public CompletableFuture<String> tokenizeCvvAsync(String cvv) {
+        try {
+            validateCvv(cvv);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return hsm.encrypt(cvv, PanTokenFormat.CBC_BASE64).thenApply(token -> {
+            auditLog("TOKENIZE_CVV", cvv, token, "SUCCESS");
+            return token;
+        });
     }
 
     /**
@@ -107,14 +349,155 @@ public class TokenizationService {
      * @return Decrypted CVV if valid.
      */
     public String detokenizeCvv(String token) {
+        return await(detokenizeCvvAsync(token));
+    }
+
+    /**
+     * Asynchronous {@link #detokenizeCvv(String)}.
+     * 
+     * @param token Encrypted token value.
+     * @return future of the CVV; fails with IllegalArgumentException if the HSM rejects the token.
+     */
+    public CompletableFuture<String> detokenizeCvvAsync(String token) {
+        return detokenize("DETOKENIZE_CVV", "CVV detokenization failed.", token, PanTokenFormat.CBC_BASE64);
+    }
+
+    /**
+     * Tokenizes several values in one HSM batch, e.g. every sensitive field
+     * of a message. PANs are looked up in the cache first, and a PAN given
+     * twice (field 2 and the one inside track 2) goes to the HSM once. The
+     * batch is audited as one line.
+     * 
+     * @param values values to tokenize
+     * @param types  what each value is
+     * @return the tokens, in input order
+     * @throws IllegalArgumentException if a value is invalid for its type or the HSM rejects one;
+     *                                  nothing is tokenized then
+     * @throws IllegalStateException    if the HSM cannot be reached in time
+     */
+    public List<String> tokenizeBatch(List<String> values, List<ValueType> types) {
+        return await(tokenizeBatchAsync(values, types));
+    }
+
+    /**
+     * Asynchronous {@link #tokenizeBatch(List, List)}; complete at once if
+     * every value is a cached PAN.
+     * 
+     * @param values values to tokenize
+     * @param types  what each value is
+     * @return future of the tokens; fails with IllegalArgumentException on an invalid value.
+     */
+    public CompletableFuture<List<String>> tokenizeBatchAsync(List<String> values, List<ValueType> types) {
+        int count = values.size();
+        String[] tokens = new String[count];
+        int[] item = new int[count]; // index of the HSM item each value's token comes from; -1 if cached
+        List<String> plaintexts = new ArrayList<>(count);
+        List<PanTokenFormat> formats = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String value = values.get(i);
+            ValueType type = types.get(i);
+            try {
+                validate(value, type);
+            } catch (IllegalArgumentException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            item[i] = -1;
+            if (type == ValueType.PAN) {
+                tokens[i] = cache != null ? cache.getToken(value) : null;
+                for (int j = 0; j < i && tokens[i] == null && item[i] < 0; j++) {
+                    if (types.get(j) == ValueType.PAN && value.equals(values.get(j))) {
+                        tokens[i] = tokens[j];
+                        item[i] = item[j];
+                    }
+                }
+                if (tokens[i] != null || item[i] >= 0) {
+                    continue;
+                }
+            }
+            item[i] = plaintexts.size();
+            plaintexts.add(value);
+            formats.add(type == ValueType.PAN ? format : PanTokenFormat.CBC_BASE64);
+        }
+        if (plaintexts.isEmpty()) {
+            auditBatch(values, tokens, "SUCCESS");
+            return CompletableFuture.completedFuture(List.of(tokens));
+        }
+        return hsm.encryptBatch(plaintexts, formats).handle((results, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error;
+                auditBatch(values, null, "FAIL: " + cause.getMessage());
+                throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+            }
+            for (int i = 0; i < count; i++) {
+                if (item[i] >= 0) {
+                    tokens[i] = results.get(item[i]);
+                    if (cache != null && types.get(i) == ValueType.PAN) {
+                        cache.put(values.get(i), tokens[i]);
+                    }
+                }
+            }
+            auditBatch(values, tokens, "SUCCESS");
+            return List.of(tokens);
+        });
+    }
+
+    /**
+     * @return true if PANs are tokenized inside their buffer without an HSM round trip (in-process HSM,
+     *         format-preserving tokens), so there is nothing to gain from batching them
+     */
+    public boolean canTokenizePanInPlace() {
+        return hsm.canEncryptInPlace(format);
+    }
+
+    /**
+     * HSM decryption with the audit trail: a rejected token fails with
+     * IllegalArgumentException, an unreachable HSM with IllegalStateException.
+     */
+    private CompletableFuture<String> detokenize(String event, String failure, String token,
+            PanTokenFormat tokenFormat) {
+        CompletableFuture<String> decrypted;
         try {
-            String cvv = hsm.decrypt(token);
-            auditLog("DETOKENIZE_CVV", token, cvv, "SUCCESS");
-            return cvv;
-        } catch (Exception e) {
-            auditLog("DETOKENIZE_CVV", token, null, "FAIL: " + e.getMessage());
-            throw new IllegalArgumentException("CVV detokenization failed.", e);
+            decrypted = hsm.decrypt(token, tokenFormat);
+        } catch (RuntimeException e) { // e.g. a null token
+            decrypted = CompletableFuture.failedFuture(e);
         }
+        return decrypted.handle((value, error) -> {
+            if (error == null) {
+                auditLog(event, token, value, "SUCCESS");
+                return value;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                    : error;
+            auditLog(event, token, null, "FAIL: " + cause.getMessage());
+            if (isUnavailable(cause)) {
+                throw new CompletionException(cause);
+            }
+            throw new IllegalArgumentException(failure, cause);
+        });
+    }
+
+    /**
+     * Waits for an HSM future, rethrowing its failure: runtime exceptions as
+     * they are, an unreachable HSM as IllegalStateException.
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RuntimeException runtime && !isUnavailable(cause)) {
+                throw runtime;
+            }
+            throw new IllegalStateException("HSM unavailable: " + cause, cause);
+        }
+    }
+
+    /** True for failures reaching the HSM, as opposed to the HSM rejecting a value. */
+    private static boolean isUnavailable(Throwable cause) {
+        return cause instanceof IOException || cause instanceof TimeoutException
+                || cause instanceof RejectedExecutionException;
     }
 
     /**
@@ -122,15 +505,48 @@ public class TokenizationService {
      * Never exposes full PAN/CVV—only last 4 digits or masked.
      */
     private void auditLog(String event, String input, String output, String status) {
+        auditLogMasked(event, mask(input), mask(output), status);
+    }
+
+    /** One audit event for a batch: masked values and tokens. */
+    private void auditBatch(List<String> values, String[] tokens, String status) {
+        String[] in = new String[values.size()];
+        String[] out = tokens != null ? new String[tokens.length] : null;
+        for (int i = 0; i < in.length; i++) {
+            in[i] = mask(values.get(i));
+            if (out != null) {
+                out[i] = mask(tokens[i]);
+            }
+        }
+        if (auditLog != null) {
+            auditLog.publish("TOKENIZE_BATCH", null, in, out, status);
+        } else {
+            auditLogMasked("TOKENIZE_BATCH", String.join(",", in), out != null ? String.join(",", out) : null,
+                    status);
+        }
+    }
+
+    private void auditLogMasked(String event, String maskedInput, String maskedOutput, String status) {
+        if (auditLog != null) {
+            auditLog.publish(event, null, maskedInput, maskedOutput, status);
+            return;
+        }
         System.out.printf(
                 "[AUDIT] %-18s | %s | IN: %s | OUT: %s | %s%n",
                 event,
                 Instant.now(),
-                mask(input),
-                mask(output),
+                maskedInput,
+                maskedOutput,
                 status);
     }
 
+    /**
+     * {@link #mask(String)} for a PAN held as ASCII digits: last 4 only.
+     */
+    private static String maskDigits(byte[] buf, int offset, int length) {
+        return "***" + new String(buf, offset + length - 4, 4, StandardCharsets.US_ASCII);
+    }
+
     /**
      * Masks input for logging: shows only last 4 characters for PAN/CVV.
      * If the value is a token (usually much longer), shows as "***".
@@ -138,10 +554,12 @@ public class TokenizationService {
     public String mask(String val) {
         if (val == null)
             return null;
-        if (val.matches("\\d{6,19}")) // Looks like a PAN
-            return "***" + val.substring(val.length() - 4);
-        if (val.matches("\\d{3,4}")) // Looks like a CVV
-            return "***" + val.substring(val.length() - 1);
+        int length = val.length();
+        boolean digits = isDigits(val);
+        if (digits && length >= 6 && length <= 19) // Looks like a PAN
+            return "***" + val.substring(length - 4);
+        if (digits && (length == 3 || length == 4)) // Looks like a CVV
+            return "***" + val.substring(length - 1);
         if (val.length() > 10) // Probably a token
             return "***";
         return val;
@@ -150,9 +568,23 @@ public class TokenizationService {
     /**
      * Domain validation: PAN must be 13–19 digits (ISO 7812).
      */
-    private void validatePan(String pan) {
-        if (pan == null || !pan.matches("\\d{13,19}")) {
-            throw new IllegalArgumentException("Invalid PAN: Must be 13-19 digits.");
+    private static boolean isPan(String pan) {
+        return pan != null && pan.length() >= 13 && pan.length() <= 19 && isDigits(pan);
+    }
+
+    private void validate(String value, ValueType type) {
+        switch (type) {
+            case PAN -> {
+                if (!isPan(value)) {
+                    throw new IllegalArgumentException("Invalid PAN: Must be 13-19 digits.");
+                }
+            }
+            case PIN_OR_CVV -> validateCvv(value);
+            case SECRET -> {
+                if (value == null || value.isEmpty()) {
+                    throw new IllegalArgumentException("Nothing to tokenize.");
+                }
+            }
         }
     }
 
@@ -161,9 +593,33 @@ public class TokenizationService {
      * Accepts 3–4 digit CVV or 16-digit PIN block (ISO 8583 Field 52).
      */
     private void validateCvv(String cvv) {
-        if (cvv == null || !cvv.matches("\\d{3,4}|\\d{16}")) {
+        if (cvv == null || !(cvv.length() == 3 || cvv.length() == 4 || cvv.length() == 16) || !isDigits(cvv)) {
             throw new IllegalArgumentException(
                     "Invalid PIN/CVV: Must be 3–4 digits for CVV or 16 digits for PIN block.");
         }
     }
+
+    private static boolean isDigits(byte[] buf, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buf[i] < '0' || buf[i] > '9')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * True if the value is non-empty and ASCII digits only. Replaces the
+     * per-call regex matches, which compiled a Pattern every time.
+     */
+    private static boolean isDigits(String val) {
+        int length = val.length();
+        if (length == 0)
+            return false;
+        for (int i = 0; i < length; i++) {
+            char c = val.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return true;
+    }
 }
@@ -0,0 +1,108 @@
+package com.floss83.javaswitch.audit;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Manual benchmark: many threads auditing at once, through the synchronous
+ * {@code [AUDIT]} printf that tokenization used to do (stdout redirected to a
+ * file) vs {@link AuditLog} with fsync every 100 ms and after every batch.
+ * <p>
+ * Reports events per second as seen by the publishing threads, then checks
+ * that every event reached the segments exactly once and in sequence.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class AuditLogBenchmark {
+
+    private static final int THREADS = 64;
+    private static final int EVENTS_PER_THREAD = 20000;
+    private static final int EVENTS = THREADS * EVENTS_PER_THREAD;
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("audit-bench");
+
+        // 1. Synchronous printf, as TokenizationService did without an AuditLog
+        try (PrintStream out = new PrintStream(new BufferedOutputStream(
+                Files.newOutputStream(root.resolve("stdout.log"))), true)) {
+            report("printf (synchronous)", run(id -> out.printf("[AUDIT] %-18s | %s | IN: %s | OUT: %s | %s%n",
+                    "TOKENIZE_PAN", Instant.now(), "***" + id % 10000, "***", "SUCCESS")), null);
+        }
+
+        // 2. AuditLog, group commit with a bounded fsync interval and with an fsync per batch
+        for (long fsyncMs : new long[] { 100, 0 }) {
+            Path directory = root.resolve("fsync-" + fsyncMs);
+            AuditLog audit = new AuditLog(directory, 16 << 20, Duration.ofMillis(fsyncMs), 65536,
+                    AuditOverflowPolicy.BLOCK);
+            audit.start();
+            long elapsed = run(id -> audit.publish("TOKENIZE_PAN", null, "***" + id % 10000, "***", "SUCCESS"));
+            audit.close();
+            report("AuditLog, fsync " + (fsyncMs == 0 ? "every batch" : "every " + fsyncMs + " ms"), elapsed, audit);
+            System.out.println("    " + verify(directory));
+        }
+    }
+
+    private interface Publisher {
+        void publish(long id);
+    }
+
+    private static long run(Publisher publisher) throws Exception {
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            List<Future<?>> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                long first = (long) t * EVENTS_PER_THREAD;
+                threads.add(executor.submit(() -> {
+                    for (long id = first; id < first + EVENTS_PER_THREAD; id++) {
+                        publisher.publish(id);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> thread : threads) {
+                thread.get();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long elapsed, AuditLog audit) {
+        System.out.printf("  %-28s: %10.0f events/s on %d threads%s%n", name, EVENTS * 1e9 / elapsed, THREADS,
+                audit == null ? ""
+                        : ", " + audit.getWritten() + " written, " + audit.getFsyncs() + " fsyncs, "
+                                + audit.getDropped() + " dropped");
+    }
+
+    /** Reads the segments back: every sequence once, in order. */
+    private static String verify(Path directory) throws IOException {
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.sorted(Comparator.comparing(Path::toString)).toList();
+        }
+        long expected = 0;
+        for (Path segment : segments) {
+            for (String line : Files.readAllLines(segment)) {
+                if (!line.startsWith("{\"seq\":" + expected + ",") || !line.endsWith("}")) {
+                    return "Out of sequence at " + expected + " in " + segment.getFileName() + ": " + line;
+                }
+                expected++;
+            }
+        }
+        return segments.size() + " segment(s), " + expected + " events in sequence"
+                + (expected == EVENTS ? "" : ", expected " + EVENTS);
+    }
+}
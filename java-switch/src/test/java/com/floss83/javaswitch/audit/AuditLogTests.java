@@ -0,0 +1,112 @@
+package com.floss83.javaswitch.audit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AuditLogTests {
+
+    /** Small enough that publishers lap the ring many times. */
+    private static final int CAPACITY = 8;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void blockingPublishersWrapTheRingWithoutLosingOrReorderingEvents() throws Exception {
+        int threads = 8;
+        int eventsPerThread = 2000;
+        AuditLog audit = new AuditLog(directory, 16 * 1024, Duration.ZERO, CAPACITY, AuditOverflowPolicy.BLOCK);
+        audit.start();
+
+        List<Future<?>> publishers = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                publishers.add(executor.submit(() -> {
+                    for (int i = 0; i < eventsPerThread; i++) {
+                        assertTrue(audit.publish("TOKENIZE_PAN", null, "***7899", "***", "SUCCESS"));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> publisher : publishers) {
+                publisher.get();
+            }
+        }
+        audit.close();
+
+        long events = (long) threads * eventsPerThread;
+        assertEquals(events, audit.getWritten());
+        assertEquals(0, audit.getDropped());
+        List<Path> segments = segments();
+        assertTrue(segments.size() > 1, "segments rolled");
+        assertEquals(events, checkSequence(segments));
+    }
+
+    @Test
+    void dropPolicyDiscardsEventsOnceTheRingIsFull() throws Exception {
+        AuditLog audit = new AuditLog(directory, 1 << 20, Duration.ZERO, CAPACITY, AuditOverflowPolicy.DROP);
+
+        // Not started: nothing frees slots, so the ring fills after CAPACITY events
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(audit.publish("DETOKENIZE_PAN", "ref-" + i, "***", "***7899", "SUCCESS"));
+        }
+        assertFalse(audit.publish("DETOKENIZE_PAN", "ref-overflow", "***", "***7899", "SUCCESS"));
+        assertEquals(1, audit.getDropped());
+
+        audit.start();
+        audit.close();
+
+        assertEquals(CAPACITY, audit.getWritten());
+        assertEquals(CAPACITY, checkSequence(segments()));
+    }
+
+    @Test
+    void restartContinuesWithTheNextSegment() throws Exception {
+        for (int run = 0; run < 2; run++) {
+            AuditLog audit = new AuditLog(directory, 1 << 20, Duration.ZERO, CAPACITY, AuditOverflowPolicy.BLOCK);
+            audit.start();
+            audit.publish("TOKENIZE_PAN", null, "***7899", "***", "SUCCESS");
+            audit.close();
+        }
+
+        List<Path> segments = segments();
+        assertEquals(2, segments.size());
+        assertEquals("audit-000001.jsonl", segments.get(0).getFileName().toString());
+        assertEquals("audit-000002.jsonl", segments.get(1).getFileName().toString());
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted(Comparator.comparing(Path::toString)).toList();
+        }
+    }
+
+    /** @return events read back, after checking every sequence appears once, in order */
+    private static long checkSequence(List<Path> segments) throws IOException {
+        long expected = 0;
+        for (Path segment : segments) {
+            for (String line : Files.readAllLines(segment)) {
+                assertTrue(line.startsWith("{\"seq\":" + expected + ","), segment.getFileName() + ": " + line);
+                assertTrue(line.endsWith("}"), line);
+                expected++;
+            }
+        }
+        return expected;
+    }
+}
@@ -0,0 +1,113 @@
+package com.floss83.javaswitch.connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class AdmissionControllerTests {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    void refusesAtTheLimitWithoutWaiting() {
+        AdmissionController controller = new AdmissionController("test", 2, 0, false, 1);
+
+        assertTrue(controller.tryAcquire("TERM0001"));
+        assertTrue(controller.tryAcquire("TERM0002"));
+        assertFalse(controller.tryAcquire("TERM0003"));
+        controller.release("TERM0001", SLOW);
+        assertTrue(controller.tryAcquire("TERM0003"));
+
+        assertEquals(2, controller.getInFlight());
+        assertEquals(3, controller.getAdmitted());
+        assertEquals(1, controller.getShedCapacity());
+        assertEquals(0, controller.getShedTerminal());
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    void boundsEachTerminalSeparately() {
+        AdmissionController controller = new AdmissionController("test", 10, 2, false, 1);
+
+        assertTrue(controller.tryAcquire("TERM0001"));
+        assertTrue(controller.tryAcquire("TERM0001"));
+        assertFalse(controller.tryAcquire("TERM0001"));
+        assertTrue(controller.tryAcquire("TERM0002"));
+        assertTrue(controller.tryAcquire(null)); // no field 41: only the listener limit applies
+        assertTrue(controller.tryAcquire(null));
+        assertTrue(controller.tryAcquire(null));
+
+        assertEquals(6, controller.getInFlight(), "the refused request holds no slot");
+        assertEquals(1, controller.getShedTerminal());
+        assertEquals(0, controller.getShedCapacity());
+
+        controller.release("TERM0001", FAST);
+
+        assertTrue(controller.tryAcquire("TERM0001"));
+    }
+
+    @Test
+    void slowerRequestsShrinkTheLimitDownToItsFloor() throws InterruptedException {
+        AdmissionController controller = new AdmissionController("test", 100, 0, true, 85);
+        window(controller, 10, FAST); // sets the baseline; underused, so the limit stays
+        assertEquals(100, controller.getLimit());
+
+        window(controller, 10, SLOW); // ten times the baseline: halved target, smoothed
+        assertEquals(90, controller.getLimit());
+
+        window(controller, 10, SLOW);
+        assertEquals(85, controller.getLimit());
+    }
+
+    @Test
+    void busyListenerAtSteadyLatencyRegainsItsLimit() throws InterruptedException {
+        AdmissionController controller = new AdmissionController("test", 100, 0, true, 10);
+        window(controller, 10, FAST);
+        window(controller, 10, SLOW);
+        assertEquals(90, controller.getLimit());
+
+        window(controller, 10, FAST); // healthy again, but too few in flight to justify more
+        assertEquals(90, controller.getLimit());
+
+        window(controller, 60, FAST); // more than half the limit in use
+        assertEquals(91, controller.getLimit());
+    }
+
+    @Test
+    void fixedLimitIgnoresLatency() throws InterruptedException {
+        AdmissionController controller = new AdmissionController("test", 100, 0, false, 10);
+        window(controller, 10, FAST);
+        window(controller, 10, SLOW);
+
+        assertEquals(100, controller.getLimit());
+    }
+
+    @Test
+    void rejectsLimitsOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController("test", 0, 0, false, 1));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController("test", 10, -1, false, 1));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController("test", 10, 0, true, 0));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController("test", 10, 0, true, 11));
+    }
+
+    /**
+     * Admits {@code requests} at once, lets a limit window pass and releases
+     * them all with the given latency; the tenth release closes the window.
+     */
+    private static void window(AdmissionController controller, int requests, long latencyNanos)
+            throws InterruptedException {
+        for (int i = 0; i < requests; i++) {
+            assertTrue(controller.tryAcquire(null));
+        }
+        Thread.sleep(120);
+        for (int i = 0; i < requests; i++) {
+            controller.release(null, latencyNanos);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.floss83.javaswitch.connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.floss83.javaswitch.iso8583.Iso8583LengthHeader;
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+import com.floss83.javaswitch.iso8583.Iso8583Parser;
+import com.floss83.javaswitch.issuer.Authorization;
+import com.floss83.javaswitch.issuer.Authorizer;
+
+class NioTcpServerTests {
+
+    private final Iso8583Parser parser = new Iso8583Parser();
+    private NioTcpServer server;
+    private Thread loop;
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        if (server != null) {
+            server.close();
+            loop.join(5000);
+        }
+    }
+
+    @Test
+    void framedRequestsShareOnePersistentConnection() throws Exception {
+        try (Socket client = connect(Iso8583LengthHeader.BINARY2, 1, request -> Authorization.APPROVED)) {
+            OutputStream out = client.getOutputStream();
+            DataInputStream in = new DataInputStream(client.getInputStream());
+
+            for (int stan = 1; stan <= 3; stan++) {
+                out.write(binary2(request(stan)));
+                assertResponse(stan, "00", readBinary2(in));
+            }
+        }
+    }
+
+    @Test
+    void framesSplitAcrossReadsOrSharingOneAreEachAnswered() throws Exception {
+        try (Socket client = connect(Iso8583LengthHeader.ASCII4, 1, request -> Authorization.APPROVED)) {
+            OutputStream out = client.getOutputStream();
+            DataInputStream in = new DataInputStream(client.getInputStream());
+
+            // One frame a byte at a time, header included
+            for (byte b : ascii4(request(1))) {
+                out.write(b);
+                out.flush();
+                Thread.sleep(1);
+            }
+            assertResponse(1, "00", readAscii4(in));
+
+            // Two frames and the first half of a third in one write, then the rest
+            byte[] third = ascii4(request(4));
+            byte[] burst = concat(ascii4(request(2)), ascii4(request(3)), slice(third, 0, 20));
+            out.write(burst);
+            out.flush();
+            assertResponse(2, "00", readAscii4(in));
+            assertResponse(3, "00", readAscii4(in));
+            Thread.sleep(50);
+            out.write(slice(third, 20, third.length));
+            assertResponse(4, "00", readAscii4(in));
+        }
+    }
+
+    @Test
+    void unframedConnectionCarriesOneRequestAndIsClosed() throws Exception {
+        try (Socket client = connect(Iso8583LengthHeader.NONE, 1, request -> Authorization.APPROVED)) {
+            client.getOutputStream().write(request(7).getBytes(StandardCharsets.US_ASCII));
+            client.shutdownOutput();
+
+            String response = new String(client.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+
+            assertEquals('\n', response.charAt(response.length() - 1));
+            assertResponse(7, "00", response.trim());
+        }
+    }
+
+    @Test
+    void pipelinedResponsesOvertakeASlowRequest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Authorizer slowFirst = request -> {
+            if ("000001".equals(request.getDataElement(11))) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return Authorization.APPROVED;
+        };
+        try (Socket client = connect(Iso8583LengthHeader.BINARY2, 8, slowFirst)) {
+            OutputStream out = client.getOutputStream();
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            for (int stan = 1; stan <= 5; stan++) {
+                out.write(binary2(request(stan)));
+            }
+            out.write(binary2(request(1))); // same STAN, RRN and terminal while the first is in flight
+            out.flush();
+
+            Set<String> overtaking = new HashSet<>();
+            for (int i = 0; i < 5; i++) {
+                Iso8583Message response = parser.parse(readBinary2(in));
+                overtaking.add(response.getDataElement(11) + "/" + response.getDataElement(39));
+            }
+            release.countDown();
+
+            assertEquals(Set.of("000001/94", "000002/00", "000003/00", "000004/00", "000005/00"), overtaking);
+            assertResponse(1, "00", readBinary2(in));
+        }
+    }
+
+    @Test
+    void everyPipelinedRequestIsAnsweredEvenWhenTheHandlerThrows() throws Exception {
+        Iso8583RequestHandler failing = new Iso8583RequestHandler(parser, null, false) {
+            @Override
+            public int handle(Iso8583Message message, ByteBuffer request, ByteBuffer out, Set<String> inFlight) {
+                throw new IllegalStateException("handler failure");
+            }
+        };
+        try (Socket client = connect(Iso8583LengthHeader.BINARY2, 4, failing)) {
+            OutputStream out = client.getOutputStream();
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            for (int stan = 1; stan <= 6; stan++) {
+                out.write(binary2(request(stan)));
+            }
+            out.flush();
+
+            for (int i = 0; i < 6; i++) {
+                assertTrue(readBinary2(in).startsWith("ERR"));
+            }
+        }
+    }
+
+    private Socket connect(Iso8583LengthHeader header, int maxInFlight, Authorizer authorizer) throws IOException {
+        return connect(header, maxInFlight, new Iso8583RequestHandler(parser, null, false, null, null, authorizer));
+    }
+
+    /**
+     * Starts a server on adopted connections only and hands it one, so no
+     * fixed port is needed.
+     */
+    private Socket connect(Iso8583LengthHeader header, int maxInFlight, Iso8583RequestHandler handler)
+            throws IOException {
+        server = new NioTcpServer(NioTcpServer.NO_LISTENER, handler, header, maxInFlight,
+                NioTcpServer.DEFAULT_READ_BUFFER, NioTcpServer.DEFAULT_MAX_OUTBOUND, false);
+        loop = new Thread(server, "nio-test-loop");
+        loop.start();
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress("localhost", 0));
+            Socket client = new Socket("localhost", ((InetSocketAddress) listener.getLocalAddress()).getPort());
+            server.adopt(listener.accept());
+            client.setSoTimeout(5000);
+            return client;
+        }
+    }
+
+    /** 0200 with fields 3, 4, 11 and 41. */
+    private static String request(int stan) {
+        return "0200" + "3020000000800000" + "000000" + "000000001000" + String.format("%06d", stan) + "TERM0001";
+    }
+
+    private void assertResponse(int stan, String responseCode, String response) throws Exception {
+        Iso8583Message message = parser.parse(response);
+        assertEquals("0210", message.getMti());
+        assertEquals(String.format("%06d", stan), message.getDataElement(11));
+        assertEquals(responseCode, message.getDataElement(39));
+    }
+
+    private static byte[] binary2(String message) {
+        byte[] body = message.getBytes(StandardCharsets.US_ASCII);
+        return concat(new byte[] { (byte) (body.length >> 8), (byte) body.length }, body);
+    }
+
+    private static byte[] ascii4(String message) {
+        return (String.format("%04d", message.length()) + message).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String readBinary2(DataInputStream in) throws IOException {
+        byte[] body = new byte[in.readUnsignedShort()];
+        in.readFully(body);
+        return new String(body, StandardCharsets.US_ASCII);
+    }
+
+    private static String readAscii4(DataInputStream in) throws IOException {
+        byte[] header = new byte[4];
+        in.readFully(header);
+        byte[] body = new byte[Integer.parseInt(new String(header, StandardCharsets.US_ASCII))];
+        in.readFully(body);
+        return new String(body, StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] joined = new byte[length];
+        int at = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, joined, at, part.length);
+            at += part.length;
+        }
+        return joined;
+    }
+
+    private static byte[] slice(byte[] bytes, int from, int to) {
+        byte[] part = new byte[to - from];
+        System.arraycopy(bytes, from, part, 0, part.length);
+        return part;
+    }
+}
@@ -0,0 +1,95 @@
+package com.floss83.javaswitch.connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+import com.floss83.javaswitch.iso8583.Iso8583Packer;
+import com.floss83.javaswitch.iso8583.Iso8583Parser;
+import com.floss83.javaswitch.tokenization.HsmSimulator;
+import com.floss83.javaswitch.tokenization.PanTokenFormat;
+import com.floss83.javaswitch.tokenization.TokenizationService;
+
+class SensitiveFieldPolicyTests {
+
+    private static final String PAN = "4000001234567899";
+    private static final String TRACK_2 = PAN + "=25121011234567890";
+    private static final String TRACK_1 = "B" + PAN + "^DOE/JOHN^2512101";
+
+    /** 0200 with fields 2, 3, 4, 7, 11, 35, 41, 45 and 49. */
+    private static final String REQUEST = "0200" + "7220000020888000"
+            + "16" + PAN + "000000" + "000000010000" + "0709163030" + "123450"
+            + TRACK_2.length() + TRACK_2 + "TERM0001" + TRACK_1.length() + TRACK_1 + "840";
+
+    private final Iso8583Parser parser = new Iso8583Parser();
+
+    @Test
+    void formatPreservingTokensKeepEveryFieldPackable() throws Exception {
+        TokenizationService tokenization = tokenization(PanTokenFormat.ff1(true, true, true));
+        Iso8583Message message = parser.parse(REQUEST);
+
+        assertEquals(3, new SensitiveFieldPolicy(parser.getSpec(), tokenization).apply(message));
+
+        String panToken = message.getDataElement(2);
+        assertNotEquals(PAN, panToken);
+        assertEquals(PAN, tokenization.detokenizePan(panToken));
+        assertEquals(panToken + "=2512101", message.getDataElement(35), "discretionary data dropped");
+        assertFalse(message.hasDataElement(45), "track 1 removed");
+
+        byte[] packed = new Iso8583Packer(parser.getSpec(), parser.getEncoding()).pack(message);
+        Iso8583Message forwarded = parser.parse(packed, 0, packed.length);
+        assertEquals(panToken, forwarded.getDataElement(2));
+        assertEquals(panToken + "=2512101", forwarded.getDataElement(35));
+        assertFalse(forwarded.hasDataElement(45));
+        assertEquals("TERM0001", forwarded.getDataElement(41));
+    }
+
+    @Test
+    void base64TokensRemoveTrackData() throws Exception {
+        TokenizationService tokenization = tokenization(PanTokenFormat.CBC_BASE64);
+        Iso8583Message message = parser.parse(REQUEST);
+
+        assertEquals(3, new SensitiveFieldPolicy(parser.getSpec(), tokenization).apply(message));
+
+        assertEquals(PAN, tokenization.detokenizePan(message.getDataElement(2)));
+        assertFalse(message.hasDataElement(35));
+        assertFalse(message.hasDataElement(45));
+        assertTrue(message.hasDataElement(41));
+    }
+
+    @Test
+    void failedBatchLeavesThePanInPlace() throws Exception {
+        HsmSimulator hsm = new HsmSimulator() {
+            @Override
+            public CompletableFuture<List<String>> encryptBatch(List<String> plaintexts,
+                    List<PanTokenFormat> formats) {
+                return CompletableFuture.failedFuture(new IllegalArgumentException("rejected by HSM"));
+            }
+        };
+        hsm.initializeKeys();
+        TokenizationService tokenization = new TokenizationService(hsm, null, PanTokenFormat.ff1(true, true, true));
+        Iso8583Message message = parser.parse(REQUEST);
+
+        assertTrue(tokenization.canTokenizePanInPlace());
+        assertThrows(IllegalArgumentException.class,
+                () -> new SensitiveFieldPolicy(parser.getSpec(), tokenization).apply(message));
+
+        assertEquals(PAN, message.getDataElement(2));
+        assertEquals(TRACK_2, message.getDataElement(35));
+        assertEquals(TRACK_1, message.getDataElement(45));
+    }
+
+    private static TokenizationService tokenization(PanTokenFormat format) {
+        HsmSimulator hsm = new HsmSimulator();
+        hsm.initializeKeys();
+        return new TokenizationService(hsm, null, format);
+    }
+}
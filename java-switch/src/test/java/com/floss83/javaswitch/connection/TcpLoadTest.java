@@ -0,0 +1,113 @@
+package com.floss83.javaswitch.connection;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.floss83.javaswitch.iso8583.Iso8583LengthHeader;
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+import com.floss83.javaswitch.iso8583.Iso8583Parser;
+import com.floss83.javaswitch.tokenization.HsmSimulator;
+import com.floss83.javaswitch.tokenization.TokenizationService;
+
+/**
+ * Manual load test: NIO event loop vs virtual thread per connection, at
+ * increasing numbers of concurrent terminals.
+ * <p>
+ * Both listeners run in-process on persistent {@code binary2}-framed
+ * connections; each terminal sends requests back to back and waits for each
+ * response. Every request also waits {@code LATENCY_MS} on a simulated
+ * downstream (issuer/HSM) call, which is where a thread-per-connection design
+ * pays off: the virtual-thread server overlaps those waits, the single event
+ * loop serializes them.
+ * </p>
+ */
+public class TcpLoadTest {
+
+    private static final int LATENCY_MS = 2;
+    private static final int SECONDS_PER_RUN = 3;
+    private static final int[] TERMINALS = { 1, 16, 128, 1024 };
+
+    public static void main(String[] args) throws Exception {
+        PrintStream console = System.out;
+        // Tokenization audit lines would dominate the measurement
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        TokenizationService tokenizationService = new TokenizationService(new HsmSimulator());
+        Iso8583RequestHandler handler = new Iso8583RequestHandler(new Iso8583Parser(), tokenizationService, false) {
+            @Override
+            public int handle(Iso8583Message message, ByteBuffer request, ByteBuffer out) {
+                try {
+                    Thread.sleep(LATENCY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.handle(message, request, out);
+            }
+        };
+
+        String request = "0200" + "7238000000C08000" + "16" + "4000001234567899" + "000000" + "000000010000"
+                + "0709163030" + "123456" + "163030" + "0709" + "TERM0001" + "MERCHANT0000001" + "840";
+        byte[] body = request.getBytes(StandardCharsets.US_ASCII);
+        byte[] frame = new byte[body.length + 2];
+        frame[0] = (byte) (body.length >>> 8);
+        frame[1] = (byte) body.length;
+        System.arraycopy(body, 0, frame, 2, body.length);
+
+        NioTcpServer nio = new NioTcpServer(5701, handler, Iso8583LengthHeader.BINARY2);
+        VirtualThreadTcpServer virtual = new VirtualThreadTcpServer(5702, handler, Iso8583LengthHeader.BINARY2);
+        Thread.ofPlatform().daemon().start(nio);
+        Thread.ofPlatform().daemon().start(virtual);
+        Thread.sleep(500);
+
+        console.printf("Simulated downstream latency: %d ms per request%n", LATENCY_MS);
+        for (int terminals : TERMINALS) {
+            for (int port : new int[] { 5701, 5702 }) {
+                long completed = drive(port, terminals, frame);
+                console.printf("%-8s %5d terminals: %,9.0f requests/s%n", port == 5701 ? "nio" : "virtual",
+                        terminals, (double) completed / SECONDS_PER_RUN);
+            }
+        }
+        nio.close();
+        virtual.close();
+    }
+
+    /**
+     * Runs {@code terminals} clients for {@link #SECONDS_PER_RUN} seconds.
+     *
+     * @return responses received
+     */
+    private static long drive(int port, int terminals, byte[] frame) throws InterruptedException {
+        AtomicLong completed = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(terminals);
+        long deadline = System.nanoTime() + SECONDS_PER_RUN * 1_000_000_000L;
+        for (int i = 0; i < terminals; i++) {
+            Thread.ofVirtual().start(() -> {
+                try (Socket socket = new Socket("localhost", port)) {
+                    socket.setTcpNoDelay(true);
+                    OutputStream out = socket.getOutputStream();
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    byte[] response = new byte[1024];
+                    while (System.nanoTime() < deadline) {
+                        out.write(frame);
+                        out.flush();
+                        in.readFully(response, 0, in.readUnsignedShort());
+                        completed.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    System.err.println("[LOAD] Terminal error: " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return completed.get();
+    }
+}
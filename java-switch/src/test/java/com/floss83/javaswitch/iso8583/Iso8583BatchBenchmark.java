@@ -0,0 +1,80 @@
+package com.floss83.javaswitch.iso8583;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Manual benchmark: {@link Iso8583BatchReader} over a generated clearing
+ * file, on one worker and on every core.
+ * <p>
+ * Writes a temporary file of length-prefixed records (one in every 1000
+ * deliberately corrupt, so the error path is exercised), then reads it
+ * three times per pool size and reports records per second.
+ * </p>
+ */
+public class Iso8583BatchBenchmark {
+
+    private static final int RECORDS = 2_000_000;
+
+    public static void main(String[] args) throws IOException {
+        String valid = "0200" + "7238000000C08000" + "16" + "4000001234567899" + "000000" + "000000010000"
+                + "0709163030" + "123456" + "163030" + "0709" + "TERM0001" + "MERCHANT0000001" + "840";
+        String corrupt = valid.replace("000000010000", "00000001000X");
+        Path file = Files.createTempFile("iso8583-batch", ".bin");
+        try {
+            writeFile(file, valid.getBytes(StandardCharsets.US_ASCII), corrupt.getBytes(StandardCharsets.US_ASCII));
+            System.out.printf("File: %d records, %d MiB%n", RECORDS, Files.size(file) >> 20);
+
+            Iso8583Parser parser = new Iso8583Parser();
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (int threads : new int[] { 1, cores }) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                Iso8583BatchReader reader = new Iso8583BatchReader(parser, Iso8583LengthHeader.BINARY2, pool,
+                        Iso8583BatchReader.DEFAULT_CHUNK_SIZE, Iso8583FieldMask.ALL);
+                for (int round = 0; round < 3; round++) {
+                    LongAdder amountSum = new LongAdder();
+                    long start = System.nanoTime();
+                    Iso8583BatchReader.Summary summary = reader.read(file, new Iso8583BatchReader.RecordHandler() {
+                        @Override
+                        public void onRecord(long recordNumber, Iso8583Message message) {
+                            amountSum.add(message.getLong(Iso8583Field.TRANSACTION_AMOUNT));
+                        }
+
+                        @Override
+                        public void onError(long recordNumber, long fileOffset, Iso8583ParseException error) {
+                            // counted in the summary
+                        }
+                    });
+                    long nanos = System.nanoTime() - start;
+                    double perSecond = (summary.getRecords() + summary.getErrors()) * 1e9 / nanos;
+                    System.out.printf("%d thread(s), %s: %s%n", threads, round < 2 ? "warm-up " : "measured", summary);
+                    System.out.printf("  %,.0f records/s (%,.0f per thread), amount sum %d%n", perSecond,
+                            perSecond / threads, amountSum.sum());
+                }
+                pool.shutdown();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void writeFile(Path file, byte[] valid, byte[] corrupt) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Iso8583LengthHeader.BINARY2.getLength());
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            for (int i = 0; i < RECORDS; i++) {
+                byte[] record = i % 1000 == 999 ? corrupt : valid;
+                header.clear();
+                Iso8583LengthHeader.BINARY2.write(record.length, header);
+                out.write(header.array());
+                out.write(record);
+            }
+        }
+    }
+}
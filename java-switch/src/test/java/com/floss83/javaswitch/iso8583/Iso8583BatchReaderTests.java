@@ -0,0 +1,172 @@
+package com.floss83.javaswitch.iso8583;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class Iso8583BatchReaderTests {
+
+    private static final int RECORDS = 1000;
+
+    @TempDir
+    Path directory;
+
+    private final Iso8583Parser parser = new Iso8583Parser();
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    void shutDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void smallChunksDeliverEveryRecordOnceWithItsFileNumber() throws Exception {
+        Path file = write(Iso8583LengthHeader.BINARY2, RECORDS, -1, 0);
+        Collector collector = new Collector();
+
+        // About two records per chunk: every chunk boundary is exercised
+        Iso8583BatchReader.Summary summary = reader(Iso8583LengthHeader.BINARY2, 100).read(file, collector);
+
+        assertTrue(summary.isComplete());
+        assertEquals(RECORDS, summary.getRecords());
+        assertEquals(0, summary.getErrors());
+        assertEquals(Files.size(file), summary.getBytesRead());
+        assertEquals(RECORDS, collector.stans.size());
+        for (int i = 0; i < RECORDS; i++) {
+            assertEquals(String.format("%06d", i), collector.stans.get((long) i), "record " + i);
+        }
+    }
+
+    @Test
+    void badRecordIsReportedAndTheChunkCarriesOn() throws Exception {
+        Path file = write(Iso8583LengthHeader.ASCII4, RECORDS, 500, 0);
+        Collector collector = new Collector();
+
+        Iso8583BatchReader.Summary summary = reader(Iso8583LengthHeader.ASCII4, 4096).read(file, collector);
+
+        assertTrue(summary.isComplete());
+        assertEquals(RECORDS - 1, summary.getRecords());
+        assertEquals(1, summary.getErrors());
+        assertEquals(Map.of(500L, offsetOf(Iso8583LengthHeader.ASCII4, 500)), collector.errorOffsets);
+        assertEquals(String.format("%06d", 501), collector.stans.get(501L));
+    }
+
+    @Test
+    void truncatedTailIsReportedAfterTheWholeRecordsBeforeIt() throws Exception {
+        Path file = write(Iso8583LengthHeader.BINARY2, RECORDS, -1, 5);
+        Collector collector = new Collector();
+
+        Iso8583BatchReader.Summary summary = reader(Iso8583LengthHeader.BINARY2, 256).read(file, collector);
+
+        assertFalse(summary.isComplete());
+        assertEquals(RECORDS - 1, summary.getRecords());
+        assertEquals(1, summary.getErrors());
+        long lastOffset = offsetOf(Iso8583LengthHeader.BINARY2, RECORDS - 1);
+        assertEquals(lastOffset, summary.getBytesRead());
+        assertEquals(Map.of((long) RECORDS - 1, lastOffset), collector.errorOffsets);
+    }
+
+    @Test
+    void malformedHeaderStopsTheScan() throws Exception {
+        Path file = write(Iso8583LengthHeader.ASCII4, 10, -1, 0);
+        byte[] bytes = Files.readAllBytes(file);
+        int offset = (int) offsetOf(Iso8583LengthHeader.ASCII4, 7);
+        bytes[offset] = 'X';
+        Files.write(file, bytes);
+        Collector collector = new Collector();
+
+        Iso8583BatchReader.Summary summary = reader(Iso8583LengthHeader.ASCII4, 64).read(file, collector);
+
+        assertFalse(summary.isComplete());
+        assertEquals(7, summary.getRecords());
+        assertEquals(Map.of(7L, (long) offset), collector.errorOffsets);
+        assertEquals(offset, summary.getBytesRead());
+    }
+
+    @Test
+    void emptyFileIsComplete() throws Exception {
+        Path file = Files.createFile(directory.resolve("empty.bin"));
+
+        Iso8583BatchReader.Summary summary = reader(Iso8583LengthHeader.BINARY2, 64).read(file, new Collector());
+
+        assertTrue(summary.isComplete());
+        assertEquals(0, summary.getRecords());
+        assertEquals(0, summary.getBytesRead());
+    }
+
+    private Iso8583BatchReader reader(Iso8583LengthHeader header, int chunkSize) {
+        return new Iso8583BatchReader(parser, header, pool, chunkSize, Iso8583FieldMask.ALL);
+    }
+
+    /**
+     * 0200s with fields 11 (the record number) and 48 (0-49 characters, so
+     * records differ in length).
+     */
+    private static String record(int i) {
+        String text = "x".repeat(i % 50);
+        return "0200" + "0020000000010000" + String.format("%06d", i) + String.format("%03d", text.length()) + text;
+    }
+
+    private static long offsetOf(Iso8583LengthHeader header, int record) {
+        long offset = 0;
+        for (int i = 0; i < record; i++) {
+            offset += header.getLength() + record(i).length();
+        }
+        return offset;
+    }
+
+    /**
+     * @param bad      record whose STAN is made non-numeric, or -1
+     * @param cutShort bytes cut off the end of the file
+     */
+    private Path write(Iso8583LengthHeader header, int records, int bad, int cutShort) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < records; i++) {
+            String record = record(i);
+            if (i == bad) {
+                record = record.replace(String.format("%06d", i), "00A000");
+            }
+            if (header == Iso8583LengthHeader.BINARY2) {
+                out.write(record.length() >> 8);
+                out.write(record.length());
+            } else {
+                out.writeBytes(String.format("%04d", record.length()).getBytes(StandardCharsets.US_ASCII));
+            }
+            out.writeBytes(record.getBytes(StandardCharsets.US_ASCII));
+        }
+        byte[] bytes = out.toByteArray();
+        Path file = directory.resolve("batch-" + header.getName() + ".bin");
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - cutShort));
+        return file;
+    }
+
+    private static final class Collector implements Iso8583BatchReader.RecordHandler {
+        final Map<Long, String> stans = new ConcurrentHashMap<>();
+        final Map<Long, Long> errorOffsets = new ConcurrentHashMap<>();
+
+        @Override
+        public void onRecord(long recordNumber, Iso8583Message message) {
+            if (stans.put(recordNumber, message.getDataElement(11)) != null) {
+                throw new AssertionError("record " + recordNumber + " delivered twice");
+            }
+        }
+
+        @Override
+        public void onError(long recordNumber, long fileOffset, Iso8583ParseException error) {
+            errorOffsets.put(recordNumber, fileOffset);
+        }
+    }
+}
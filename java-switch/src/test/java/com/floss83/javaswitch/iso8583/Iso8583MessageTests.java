@@ -0,0 +1,50 @@
+package com.floss83.javaswitch.iso8583;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class Iso8583MessageTests {
+
+    /** 0200 with field 48 only, as n..12 (numeric-private dialect) and as an...999 (base spec). */
+    private static final String NUMERIC_48 = "0200" + "0000000000010000" + "05" + "12345";
+    private static final String TEXT_48 = "0200" + "0000000000010000" + "005" + "12345";
+
+    /** 0200 with field 2 only. */
+    private static final String PAN_ONLY = "0200" + "4000000000000000" + "16" + "4000001234567899";
+
+    @Test
+    void numericAccessorsFollowTheParsingSpec() throws Exception {
+        Iso8583Message message = new Iso8583Parser(Iso8583Spec.load("numeric-private")).parse(NUMERIC_48);
+
+        assertEquals(12345, message.getLong(48));
+        assertEquals(12345, message.getInt(48));
+        assertEquals(12345, message.derive("0210", 48).getLong(48));
+    }
+
+    @Test
+    void numericAccessorsRejectFieldsTheSpecDeclaresNonNumeric() throws Exception {
+        Iso8583Message message = new Iso8583Parser().parse(TEXT_48);
+
+        assertThrows(IllegalArgumentException.class, () -> message.getLong(48));
+    }
+
+    @Test
+    void luhnCheckReadsBufferSlicesPackedDigitsAndSetValuesAlike() throws Exception {
+        Iso8583Spec spec = Iso8583Spec.defaultSpec();
+        Iso8583Message ascii = new Iso8583Parser(spec).parse(PAN_ONLY);
+        byte[] packed = new Iso8583Packer(spec, Iso8583Encoding.BCD).pack(ascii);
+        Iso8583Message bcd = new Iso8583Parser(spec, Iso8583Encoding.BCD).parse(packed, 0, packed.length);
+
+        assertTrue(ascii.isLuhnValid(2));
+        assertTrue(bcd.isLuhnValid(2));
+        ascii.getMutableDataElements().put(2, "4000001234567898");
+        assertFalse(ascii.isLuhnValid(2));
+        ascii.getMutableDataElements().put(2, "4000001234567899");
+        assertTrue(ascii.isLuhnValid(2));
+        assertThrows(IllegalStateException.class, () -> ascii.isLuhnValid(35));
+    }
+}
@@ -0,0 +1,88 @@
+package com.floss83.javaswitch.iso8583;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class Iso8583PackerTests {
+
+    private static final String PAN = "4000001234567890123";
+    private static final String TRACK_2 = PAN + "=2512101";
+
+    /** 0200 with fields 2 (odd length), 3, 4, 7, 11, 35, 41, 49 and, in the secondary bitmap, 70. */
+    private static final String REQUEST = "0200" + "F220000020808000" + "0400000000000000"
+            + "19" + PAN + "000000" + "000000010000" + "0709163030" + "123450"
+            + TRACK_2.length() + TRACK_2 + "TERM0001" + "840" + "301";
+
+    private static final int[] FIELDS = { 2, 3, 4, 7, 11, 35, 41, 49, 70 };
+
+    private final Iso8583Spec spec = Iso8583Spec.defaultSpec();
+
+    @Test
+    void asciiRoundTripIsByteIdentical() throws Exception {
+        byte[] request = REQUEST.getBytes(StandardCharsets.US_ASCII);
+        Iso8583Message message = new Iso8583Parser(spec).parse(request, 0, request.length);
+
+        byte[] packed = new Iso8583Packer(spec).pack(message);
+
+        assertArrayEquals(request, packed);
+    }
+
+    @Test
+    void binaryBitmapRoundTrip() throws Exception {
+        roundTrip(Iso8583Encoding.BINARY_BITMAP, REQUEST.length() - 16);
+    }
+
+    @Test
+    void bcdRoundTrip() throws Exception {
+        roundTrip(Iso8583Encoding.BCD, -1);
+    }
+
+    @Test
+    void responseTemplateEchoesRequestFieldsButNotCardholderData() throws Exception {
+        Iso8583Message request = new Iso8583Parser(spec).parse(REQUEST);
+        ByteBuffer out = ByteBuffer.allocate(512);
+
+        int written = Iso8583ResponseTemplate.defaultTemplate(spec).writeResponse(request, "123456", "00", out);
+
+        assertEquals(out.position(), written);
+        Iso8583Message response = new Iso8583Parser(spec).parse(out.array(), 0, written);
+        assertEquals("0210", response.getMti());
+        assertEquals("123456", response.getDataElement(38));
+        assertEquals("00", response.getDataElement(39));
+        for (int field : new int[] { 3, 4, 7, 11, 41, 49, 70 }) {
+            assertEquals(request.getDataElement(field), response.getDataElement(field), "field " + field);
+        }
+        assertFalse(response.hasDataElement(2));
+        assertFalse(response.hasDataElement(35));
+    }
+
+    /**
+     * Packs the ASCII request in another encoding, parses it back in that
+     * encoding and repacks it as ASCII.
+     */
+    private void roundTrip(Iso8583Encoding encoding, int expectedLength) throws Exception {
+        Iso8583Message ascii = new Iso8583Parser(spec).parse(REQUEST);
+
+        byte[] packed = new Iso8583Packer(spec, encoding).pack(ascii);
+        if (expectedLength >= 0) {
+            assertEquals(expectedLength, packed.length);
+        } else {
+            assertTrue(packed.length < REQUEST.length(), "packed " + packed.length + " bytes");
+        }
+        Iso8583Message parsed = new Iso8583Parser(spec, encoding).parse(packed, 0, packed.length);
+
+        assertEquals("0200", parsed.getMti());
+        for (int field : FIELDS) {
+            assertEquals(ascii.getDataElement(field), parsed.getDataElement(field), "field " + field);
+        }
+        assertArrayEquals(new Iso8583Packer(spec, encoding).pack(parsed), packed);
+        assertEquals(REQUEST, new String(new Iso8583Packer(spec).pack(parsed), StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,33 @@
+package com.floss83.javaswitch.iso8583;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class Iso8583ParserTests {
+
+    /** 0200 with field 48 only (ans...999). */
+    private static final String HEADER_48 = "0200" + "0000000000010000" + "005";
+
+    @Test
+    void parsesStringInput() throws Exception {
+        Iso8583Message message = new Iso8583Parser().parse(HEADER_48 + "12345");
+
+        assertEquals("0200", message.getMti());
+        assertEquals("12345", message.getDataElement(48));
+    }
+
+    @Test
+    void charactersBeyondLatin1FailTheirFieldLikeAnyInvalidCharacter() {
+        Iso8583Parser parser = new Iso8583Parser();
+
+        Iso8583ParseException latin1 = assertThrows(Iso8583ParseException.class,
+                () -> parser.parse(HEADER_48 + "12é45"));
+        Iso8583ParseException euro = assertThrows(Iso8583ParseException.class,
+                () -> parser.parse(HEADER_48 + "12€45"));
+
+        assertEquals("Invalid format in field 48", latin1.getMessage());
+        assertEquals(latin1.getMessage(), euro.getMessage());
+    }
+}
@@ -0,0 +1,107 @@
+package com.floss83.javaswitch.iso8583;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HexFormat;
+
+import org.junit.jupiter.api.Test;
+
+class Iso8583TlvViewTests {
+
+    private static final HexFormat HEX = HexFormat.of().withUpperCase();
+
+    /** Field 55 as it arrives in an ASCII message: BER-TLV in hex text. */
+    private static final String EMV_DATA = "9F2608" + "1122334455667788"
+            + "9F2701" + "80"
+            + "9505" + "0000008000"
+            + "9F3602" + "0042"
+            + "9F0206" + "000000010000"
+            + "5F2A02" + "0840";
+
+    private final Iso8583Parser parser = new Iso8583Parser();
+    private final Iso8583TlvView view = new Iso8583TlvView(parser.getSpec());
+
+    @Test
+    void readsHexEncodedField55() throws Exception {
+        Iso8583Message message = parser.parse("0100" + "0000000000000200"
+                + String.format("%03d", EMV_DATA.length()) + EMV_DATA);
+
+        assertTrue(view.wrap(message, 55));
+
+        assertEquals(6, view.size());
+        assertEquals("1122334455667788", view.getHex(EmvTag.APPLICATION_CRYPTOGRAM));
+        assertEquals(0x80, view.getUnsigned(view.indexOf(EmvTag.CRYPTOGRAM_INFORMATION_DATA)));
+        assertEquals(0x42, view.getUnsigned(view.indexOf(EmvTag.APPLICATION_TRANSACTION_COUNTER)));
+        assertEquals(10000, view.getNumeric(view.indexOf(EmvTag.AMOUNT_AUTHORISED)));
+        assertEquals(840, view.getNumeric(view.indexOf(0x5F2A)));
+        assertNull(view.getHex(EmvTag.UNPREDICTABLE_NUMBER));
+        assertFalse(view.wrap(message, 48));
+        assertEquals(0, view.size());
+    }
+
+    @Test
+    void readsMultiByteTagsAndLongFormLengths() throws Exception {
+        String longValue = "AB".repeat(0x90);
+        String longerValue = "CD".repeat(0x100);
+        byte[] tlv = HEX.parseHex("DF810103" + "010203" // three-byte tag
+                + "9F1081" + "90" + longValue // one length byte after 0x81
+                + "DF2082" + "0100" + longerValue // two length bytes after 0x82
+                + "9A03" + "260709");
+
+        view.wrap(tlv, 0, tlv.length);
+
+        assertEquals(4, view.size());
+        assertEquals(0xDF8101, view.getTag(0));
+        assertEquals("010203", view.getHex(view.indexOf(0xDF8101)));
+        assertEquals(0x90, view.getValueLength(view.indexOf(EmvTag.ISSUER_APPLICATION_DATA)));
+        assertEquals(longValue, view.getHex(EmvTag.ISSUER_APPLICATION_DATA));
+        assertEquals(0x100, view.getValueLength(view.indexOf(0xDF20)));
+        assertEquals(longerValue, view.getHex(view.indexOf(0xDF20)));
+        assertEquals(260709, view.getNumeric(view.indexOf(EmvTag.TRANSACTION_DATE)));
+    }
+
+    @Test
+    void indexesTemplateContentsAndSkipsPadding() throws Exception {
+        byte[] tlv = HEX.parseHex("00" + "7709" + "9F360200" + "2A" + "9F2701" + "40" + "FFFF");
+
+        view.wrap(tlv, 0, tlv.length);
+
+        assertEquals(3, view.size());
+        assertEquals(0x77, view.getTag(0));
+        assertEquals(9, view.getValueLength(0));
+        assertEquals(42, view.getUnsigned(view.indexOf(EmvTag.APPLICATION_TRANSACTION_COUNTER)));
+        assertEquals(0x40, view.getUnsigned(view.indexOf(EmvTag.CRYPTOGRAM_INFORMATION_DATA)));
+    }
+
+    @Test
+    void rejectsMalformedData() {
+        assertMalformed("9F", "tag"); // tag cut off
+        assertMalformed("DF81818101" + "0100", "tag"); // tag longer than 4 bytes
+        assertMalformed("9F26", "length"); // no length
+        assertMalformed("9F2680" + "00", "length"); // indefinite length
+        assertMalformed("9F2684" + "00000001" + "00", "length"); // 4 length bytes
+        assertMalformed("9F2682" + "01", "length"); // length bytes cut off
+        assertMalformed("9F2608" + "11223344", "value"); // value cut off
+    }
+
+    @Test
+    void rejectsValuesThatAreNotHex() throws Exception {
+        Iso8583Message message = parser.parse("0100" + "0000000000000200" + "004" + "9F27");
+        message.getMutableDataElements().put(55, "9F2G"); // set values skip the parser's checks
+
+        Iso8583ParseException e = assertThrows(Iso8583ParseException.class, () -> view.wrap(message, 55));
+
+        assertEquals("Field 55 is not valid hex binary data", e.getMessage());
+    }
+
+    private void assertMalformed(String hex, String part) {
+        byte[] tlv = HEX.parseHex(hex);
+        Iso8583ParseException e = assertThrows(Iso8583ParseException.class, () -> view.wrap(tlv, 0, tlv.length),
+                hex);
+        assertTrue(e.getMessage().startsWith("Malformed TLV " + part), hex + ": " + e.getMessage());
+    }
+}
@@ -0,0 +1,140 @@
+package com.floss83.javaswitch.iso8583;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import com.floss83.javaswitch.tokenization.HsmSimulator;
+import com.floss83.javaswitch.tokenization.TokenizationService;
+
+/**
+ * Manual benchmark: type-driven byte validators vs the regex checks they
+ * replace.
+ * <p>
+ * First cross-checks both paths on a random corpus (any disagreement is
+ * printed and counted), then times them.
+ * </p>
+ */
+public class Iso8583ValidationBenchmark {
+
+    private static final int CORPUS_SIZE = 4096;
+    private static final int ROUNDS = 1000;
+
+    public static void main(String[] args) {
+        Random random = new Random(8583);
+        String[] corpus = new String[CORPUS_SIZE];
+        byte[][] bytes = new byte[CORPUS_SIZE][];
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            corpus[i] = randomValue(random);
+            bytes[i] = corpus[i].getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        TokenizationService service = new TokenizationService(new HsmSimulator());
+
+        // 1. Equivalence: the new checks must reject everything the regexes reject
+        int mismatches = 0;
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            String value = corpus[i];
+            byte[] raw = bytes[i];
+            if (value.matches("\\d+") != Iso8583FieldValidator.DIGITS.isValid(raw, 0, raw.length)) {
+                mismatches++;
+                System.out.println("DIGITS mismatch: '" + value + "'");
+            }
+            if (value.matches("[\\x20-\\x7E]*") != Iso8583FieldValidator.PRINTABLE.isValid(raw, 0, raw.length)) {
+                mismatches++;
+                System.out.println("PRINTABLE mismatch: '" + value + "'");
+            }
+            if (value.matches("[CD]\\d+") != Iso8583FieldValidator.SIGNED_DIGITS.isValid(raw, 0, raw.length)) {
+                mismatches++;
+                System.out.println("SIGNED_DIGITS mismatch: '" + value + "'");
+            }
+            if (!regexMask(value).equals(service.mask(value))) {
+                mismatches++;
+                System.out.println("mask mismatch: '" + value + "'");
+            }
+        }
+        System.out.println("Corpus: " + CORPUS_SIZE + " values, mismatches: " + mismatches);
+
+        // 2. Timing (two warm-up rounds, then one measured round)
+        long sink = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (String value : corpus) {
+                    sink += value.matches("\\d+") ? 1 : 0;
+                }
+            }
+            long regexNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (byte[] raw : bytes) {
+                    sink += Iso8583FieldValidator.DIGITS.isValid(raw, 0, raw.length) ? 1 : 0;
+                }
+            }
+            long digitNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (byte[] raw : bytes) {
+                    sink += Iso8583FieldValidator.PRINTABLE.isValid(raw, 0, raw.length) ? 1 : 0;
+                }
+            }
+            long printableNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (String value : corpus) {
+                    sink += regexMask(value).length();
+                }
+            }
+            long regexMaskNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (String value : corpus) {
+                    sink += service.mask(value).length();
+                }
+            }
+            long maskNanos = System.nanoTime() - start;
+
+            long checks = (long) ROUNDS * CORPUS_SIZE;
+            System.out.printf("%s round%n", round < 2 ? "Warm-up" : "Measured");
+            System.out.printf("  String.matches(\\d+) : %8.1f ns/value%n", (double) regexNanos / checks);
+            System.out.printf("  DIGITS (SWAR)       : %8.1f ns/value%n", (double) digitNanos / checks);
+            System.out.printf("  PRINTABLE (SWAR)    : %8.1f ns/value%n", (double) printableNanos / checks);
+            System.out.printf("  regex mask()        : %8.1f ns/value%n", (double) regexMaskNanos / checks);
+            System.out.printf("  mask()              : %8.1f ns/value%n", (double) maskNanos / checks);
+        }
+        System.out.println("(sink " + sink + ")");
+    }
+
+    /** The regex-based TokenizationService.mask() this change replaced. */
+    private static String regexMask(String val) {
+        if (val.matches("\\d{6,19}"))
+            return "***" + val.substring(val.length() - 4);
+        if (val.matches("\\d{3,4}"))
+            return "***" + val.substring(val.length() - 1);
+        if (val.length() > 10)
+            return "***";
+        return val;
+    }
+
+    /** Mostly well-formed field values with occasional corruption. */
+    private static String randomValue(Random random) {
+        int length = random.nextInt(20);
+        StringBuilder sb = new StringBuilder(length + 1);
+        int kind = random.nextInt(4);
+        if (kind == 3) {
+            sb.append(random.nextBoolean() ? 'C' : 'D');
+        }
+        for (int i = 0; i < length; i++) {
+            char c = kind == 2 ? (char) (0x20 + random.nextInt(0x5F)) : (char) ('0' + random.nextInt(10));
+            sb.append(c);
+        }
+        if (length > 0 && random.nextInt(8) == 0) {
+            // Corrupt one position with an arbitrary Latin-1 character
+            sb.setCharAt(random.nextInt(length), (char) random.nextInt(256));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package com.floss83.javaswitch.issuer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class AccountLedgerTests {
+
+    @Test
+    void debitsOnlyWhatTheBalanceCovers() {
+        AccountLedger ledger = new AccountLedger(16, -1);
+        ledger.setBalance("card", 10000);
+
+        assertEquals(AccountLedger.Result.DEBITED, ledger.debit("card", 2500));
+        assertEquals(AccountLedger.Result.INSUFFICIENT_FUNDS, ledger.debit("card", 7501));
+        assertEquals(7500, ledger.getBalance("card"));
+        assertTrue(ledger.credit("card", 500));
+        assertEquals(8000, ledger.getBalance("card"));
+    }
+
+    @Test
+    void unknownTokensHaveNoAccountWithoutAnOpeningBalance() {
+        AccountLedger ledger = new AccountLedger(16, -1);
+
+        assertEquals(AccountLedger.Result.NO_ACCOUNT, ledger.debit("unknown", 1));
+        assertFalse(ledger.credit("unknown", 1));
+        assertEquals(AccountLedger.NO_ACCOUNT, ledger.getBalance("unknown"));
+        assertEquals(0, ledger.size());
+    }
+
+    @Test
+    void opensAccountsOnFirstUseUntilFull() {
+        AccountLedger ledger = new AccountLedger(2, 1000);
+
+        assertEquals(AccountLedger.Result.DEBITED, ledger.debit("a", 100));
+        assertEquals(900, ledger.getBalance("a"));
+        assertTrue(ledger.credit("b", 100));
+        assertEquals(1100, ledger.getBalance("b"));
+
+        assertEquals(AccountLedger.Result.NO_ACCOUNT, ledger.debit("c", 100));
+        assertEquals(AccountLedger.NO_ACCOUNT, ledger.getBalance("c"));
+        assertThrows(IllegalStateException.class, () -> ledger.setBalance("d", 0));
+        assertEquals(2, ledger.size());
+    }
+
+    @Test
+    void concurrentDebitsNeverOverdraw() throws Exception {
+        AccountLedger ledger = new AccountLedger(16, -1);
+        ledger.setBalance("card", 1000);
+        List<Future<Integer>> threads = new ArrayList<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int t = 0; t < 64; t++) {
+                threads.add(executor.submit(() -> {
+                    int debited = 0;
+                    for (int i = 0; i < 100; i++) {
+                        if (ledger.debit("card", 1) == AccountLedger.Result.DEBITED) {
+                            debited++;
+                        }
+                    }
+                    return debited;
+                }));
+            }
+        }
+        int debited = 0;
+        for (Future<Integer> thread : threads) {
+            debited += thread.get();
+        }
+
+        assertEquals(1000, debited);
+        assertEquals(0, ledger.getBalance("card"));
+    }
+
+    @Test
+    void replaceTokenMovesTheAccountToTheNewToken() {
+        AccountLedger ledger = new AccountLedger(16, -1);
+        ledger.setBalance("old", 5000);
+
+        assertTrue(ledger.replaceToken("old", "new"));
+
+        assertEquals(5000, ledger.getBalance("new"));
+        assertEquals(AccountLedger.NO_ACCOUNT, ledger.getBalance("old"));
+        assertEquals(List.of("new"), List.copyOf(ledger.getTokens()));
+        assertFalse(ledger.replaceToken("old", "newer"));
+    }
+
+    @Test
+    void replaceTokenMergesOnlyTheActivityOfAnAccountOpenedUnderTheNewToken() {
+        AccountLedger ledger = new AccountLedger(16, 1_000_000);
+        ledger.setBalance("old", 5000);
+        ledger.setBalance("spent", 5000);
+        assertEquals(AccountLedger.Result.DEBITED, ledger.debit("new", 300));
+        assertTrue(ledger.credit("refunded", 200));
+        assertEquals(AccountLedger.Result.DEBITED, ledger.debit("overspent", 8000));
+
+        assertTrue(ledger.replaceToken("old", "new"));
+        assertTrue(ledger.replaceToken("spent", "refunded"));
+        assertTrue(ledger.replaceToken("refunded", "overspent"));
+
+        assertEquals(4700, ledger.getBalance("new"));
+        assertEquals(0, ledger.getBalance("overspent"), "5200 less 8000, floored at zero");
+    }
+}
@@ -0,0 +1,248 @@
+package com.floss83.javaswitch.issuer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.floss83.javaswitch.iso8583.Iso8583LengthHeader;
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+import com.floss83.javaswitch.iso8583.Iso8583Packer;
+import com.floss83.javaswitch.iso8583.Iso8583Parser;
+
+class IssuerClientTests {
+
+    private static final Iso8583LengthHeader HEADER = Iso8583LengthHeader.BINARY2;
+
+    private final Iso8583Parser parser = new Iso8583Parser();
+    private FakeIssuer issuer;
+    private IssuerClient client;
+
+    @AfterEach
+    void close() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        if (issuer != null) {
+            issuer.close();
+        }
+    }
+
+    @Test
+    void responsesAnsweredOutOfOrderFindTheirRequests() throws Exception {
+        issuer = new FakeIssuer(Behaviour.SWAP_PAIRS);
+        client = started(Duration.ofSeconds(5));
+
+        CompletableFuture<Iso8583Message> first = client.send(purchase(1));
+        CompletableFuture<Iso8583Message> second = client.send(purchase(2));
+
+        assertEquals("000001", first.get(5, TimeUnit.SECONDS).getDataElement(11));
+        assertEquals("000000000001", first.get().getDataElement(37));
+        assertEquals("000002", second.get(5, TimeUnit.SECONDS).getDataElement(11));
+        assertEquals("0210", second.get().getMti());
+        assertEquals(0, client.getOutstanding());
+        assertEquals(0, client.getLateResponses());
+    }
+
+    @Test
+    void duplicateOutstandingRequestIsRefused() throws Exception {
+        issuer = new FakeIssuer(Behaviour.SILENT);
+        client = started(Duration.ofSeconds(5));
+
+        CompletableFuture<Iso8583Message> original = client.send(purchase(3));
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> client.send(purchase(3)).get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(IllegalStateException.class, failure.getCause());
+        assertFalse(original.isDone());
+        assertEquals(1, client.getOutstanding());
+    }
+
+    @Test
+    void timedOutRequestIsReversed() throws Exception {
+        issuer = new FakeIssuer(Behaviour.SILENT);
+        client = started(Duration.ofMillis(100));
+
+        CompletableFuture<Iso8583Message> response = client.send(purchase(42));
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, failure.getCause());
+        assertEquals("0200", issuer.next().getMti());
+        assertReversalOf(42, issuer.next());
+        assertEquals(1, client.getTimeouts());
+    }
+
+    @Test
+    void requestCutOffByALostLinkIsReversedOnceTheLinkIsBack() throws Exception {
+        issuer = new FakeIssuer(Behaviour.HANG_UP);
+        client = started(Duration.ofSeconds(10));
+
+        CompletableFuture<Iso8583Message> response = client.send(purchase(43));
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, failure.getCause());
+        assertEquals("0200", issuer.next().getMti());
+        issuer.behaviour = Behaviour.SILENT;
+        assertReversalOf(43, issuer.next());
+        assertEquals(0, client.getTimeouts());
+        assertEquals(1, client.getReversals());
+    }
+
+    @Test
+    void requestThatNeverReachedALinkIsNotReversed() throws Exception {
+        issuer = new FakeIssuer(Behaviour.SILENT);
+        client = new IssuerClient("localhost", issuer.getPort(), parser, HEADER, 1, Duration.ofMillis(100));
+
+        // Not started: no link is connected
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> client.send(purchase(44)).get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(IOException.class, failure.getCause());
+        assertEquals(0, client.getReversals());
+    }
+
+    private IssuerClient started(Duration timeout) throws InterruptedException {
+        IssuerClient started = new IssuerClient("localhost", issuer.getPort(), parser, HEADER, 1, timeout);
+        started.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (started.getConnectedLinks() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, started.getConnectedLinks());
+        return started;
+    }
+
+    private Iso8583Message purchase(int stan) throws Exception {
+        return parser.parse("0200" + "7220000008800000" + "16" + "4000001234567899" + "000000" + "000000002500"
+                + "0709163030" + String.format("%06d", stan) + String.format("%012d", stan) + "TERM0001");
+    }
+
+    private static void assertReversalOf(int stan, Iso8583Message reversal) {
+        assertEquals("0400", reversal.getMti());
+        assertEquals(String.format("%06d", stan), reversal.getDataElement(11));
+        assertEquals("68", reversal.getDataElement(39));
+        assertTrue(reversal.getDataElement(90).startsWith("0200" + String.format("%06d", stan) + "0709163030"));
+    }
+
+    private enum Behaviour {
+        /** Answers every request with 00, in order. */
+        APPROVE,
+        /** Holds each odd request until the next one arrives, then approves both, newest first. */
+        SWAP_PAIRS,
+        /** Reads requests and never answers. */
+        SILENT,
+        /** Closes the connection after reading a request. */
+        HANG_UP
+    }
+
+    /**
+     * Issuer end of the links: records every request it reads.
+     */
+    private final class FakeIssuer implements AutoCloseable {
+        final ServerSocket server = new ServerSocket(0);
+        final BlockingQueue<Iso8583Message> received = new LinkedBlockingQueue<>();
+        final Iso8583Packer packer = new Iso8583Packer(parser.getSpec(), parser.getEncoding());
+        volatile Behaviour behaviour;
+
+        FakeIssuer(Behaviour behaviour) throws IOException {
+            this.behaviour = behaviour;
+            Thread.ofVirtual().start(this::accept);
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        Iso8583Message next() throws InterruptedException {
+            Iso8583Message request = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(request, "issuer received nothing");
+            return request;
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread.ofVirtual().start(() -> serve(socket));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (socket) {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                Iso8583Message held = null;
+                while (true) {
+                    byte[] header = in.readNBytes(HEADER.getLength());
+                    if (header.length < HEADER.getLength()) {
+                        return;
+                    }
+                    byte[] frame = in.readNBytes(HEADER.read(header, 0));
+                    Iso8583Message request = parser.parse(frame, 0, frame.length);
+                    received.add(request);
+                    if (behaviour == Behaviour.HANG_UP) {
+                        return;
+                    }
+                    if (behaviour == Behaviour.APPROVE) {
+                        out.write(frame(approve(request)));
+                        out.flush();
+                    } else if (behaviour == Behaviour.SWAP_PAIRS) {
+                        if (held == null) {
+                            held = request;
+                            continue;
+                        }
+                        out.write(frame(approve(request)));
+                        out.write(frame(approve(held)));
+                        out.flush();
+                        held = null;
+                    }
+                }
+            } catch (Exception e) {
+                // connection closed by either end
+            }
+        }
+
+        Iso8583Message approve(Iso8583Message request) {
+            String mti = request.getMti();
+            Iso8583Message response = request.derive(mti.substring(0, 2) + (char) (mti.charAt(2) + 1) + mti.charAt(3),
+                    11, 37, 41);
+            response.getMutableDataElements().put(39, "00");
+            return response;
+        }
+
+        byte[] frame(Iso8583Message message) throws Exception {
+            int length = packer.measure(message);
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER.getLength() + length);
+            HEADER.write(length, buffer);
+            packer.pack(message, buffer);
+            return buffer.array();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.floss83.javaswitch.issuer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import com.floss83.javaswitch.iso8583.Iso8583Message;
+import com.floss83.javaswitch.iso8583.Iso8583Parser;
+
+class IssuerStandInTests {
+
+    private static final String OLD_TOKEN = "4000001234567899";
+    private static final String NEW_TOKEN = "4000009876543219";
+
+    private final Iso8583Parser parser = new Iso8583Parser();
+
+    @Test
+    void reversalAfterMigrationCreditsTheMigratedAccount() throws Exception {
+        AccountLedger ledger = new AccountLedger(16, -1);
+        ledger.setBalance(OLD_TOKEN, 10000);
+        IssuerStandIn standIn = new IssuerStandIn(ledger);
+        Iso8583Message purchase = purchase(OLD_TOKEN, 2500);
+
+        assertEquals("00", standIn.authorize(purchase).getResponseCode());
+        ledger.replaceToken(OLD_TOKEN, NEW_TOKEN);
+        assertEquals("00", standIn.authorize(reversal(purchase)).getResponseCode());
+
+        assertEquals(10000, ledger.getBalance(NEW_TOKEN));
+        assertEquals(AccountLedger.NO_ACCOUNT, ledger.getBalance(OLD_TOKEN));
+    }
+
+    @Test
+    void reversalOfATransactionOnAMergedAccountCreditsTheCardsAccount() throws Exception {
+        AccountLedger ledger = new AccountLedger(16, 1_000_000);
+        ledger.setBalance(OLD_TOKEN, 10000);
+        IssuerStandIn standIn = new IssuerStandIn(ledger);
+        Iso8583Message purchase = purchase(NEW_TOKEN, 2500);
+
+        // Used under its new token before migration reached the card
+        assertEquals("00", standIn.authorize(purchase).getResponseCode());
+        ledger.replaceToken(OLD_TOKEN, NEW_TOKEN);
+        assertEquals(7500, ledger.getBalance(NEW_TOKEN));
+
+        assertEquals("00", standIn.authorize(reversal(purchase)).getResponseCode());
+        assertEquals(10000, ledger.getBalance(NEW_TOKEN));
+    }
+
+    /** 0200 with fields 2, 3, 4, 11, 37 and 41. */
+    private Iso8583Message purchase(String token, long amount) throws Exception {
+        return parser.parse("0200" + "7020000008800000" + "16" + token + "000000"
+                + String.format("%012d", amount) + "123450" + "000000000001" + "TERM0001");
+    }
+
+    private static Iso8583Message reversal(Iso8583Message purchase) {
+        return purchase.derive("0400", 2, 3, 4, 11, 37, 41);
+    }
+}
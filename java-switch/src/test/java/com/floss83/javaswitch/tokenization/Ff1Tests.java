@@ -0,0 +1,55 @@
+package com.floss83.javaswitch.tokenization;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+/** NIST SP 800-38G FF1 sample vectors, radix 10. */
+class Ff1Tests {
+
+    private static final String KEY_128 = "2B7E151628AED2A6ABF7158809CF4F3C";
+    private static final String KEY_192 = KEY_128 + "EF4359D8D580AA4F";
+    private static final String KEY_256 = KEY_192 + "7F036D6F04FC6A94";
+    private static final String TWEAK = "39383736353433323130";
+    private static final String PLAINTEXT = "0123456789";
+
+    @Test
+    void sample1Aes128NoTweak() throws Exception {
+        check(KEY_128, "", "2433477484");
+    }
+
+    @Test
+    void sample2Aes128WithTweak() throws Exception {
+        check(KEY_128, TWEAK, "6124200773");
+    }
+
+    @Test
+    void sample4Aes192NoTweak() throws Exception {
+        check(KEY_192, "", "2830668132");
+    }
+
+    @Test
+    void sample8Aes256WithTweak() throws Exception {
+        check(KEY_256, TWEAK, "1001623463");
+    }
+
+    private static void check(String key, String tweak, String ciphertext) throws Exception {
+        Cipher aes = Cipher.getInstance("AES/ECB/NoPadding");
+        aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(HexFormat.of().parseHex(key), "AES"));
+        Ff1 ff1 = new Ff1(aes);
+        byte[] tweakBytes = HexFormat.of().parseHex(tweak);
+        byte[] digits = PLAINTEXT.getBytes(StandardCharsets.US_ASCII);
+
+        ff1.encrypt(digits, 0, digits.length, tweakBytes);
+        assertEquals(ciphertext, new String(digits, StandardCharsets.US_ASCII));
+
+        ff1.decrypt(digits, 0, digits.length, tweakBytes);
+        assertEquals(PLAINTEXT, new String(digits, StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,175 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Manual benchmark: FF1 format-preserving PAN tokens vs the Base64 AES-CBC
+ * tokens, through {@link TokenizationService} with the cache off (every call
+ * reaches the HSM).
+ * <p>
+ * First checks each FF1 variant on a Luhn-valid PAN corpus: tokens keep the
+ * PAN's length and digits, the clear BIN/last 4 and (in Luhn mode) a valid
+ * check digit, no two PANs share a token, and every token detokenizes back.
+ * Then times tokenization on one thread. The service's per-call audit lines
+ * are discarded so they do not swamp the crypto being compared.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class FpeBenchmark {
+
+    private static final int CORPUS_SIZE = 4096;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) {
+        Random random = new Random(8583);
+        String[] pans = new String[CORPUS_SIZE];
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            pans[i] = randomPan(random, i % 4 == 0 ? 19 : 16);
+        }
+
+        HsmSimulator hsm = new HsmSimulator();
+        hsm.initializeKeys();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        TokenizationService cbc = new TokenizationService(hsm, null, PanTokenFormat.CBC_BASE64);
+        TokenizationService ff1Luhn = new TokenizationService(hsm, null, PanTokenFormat.ff1(true, true, true));
+        TokenizationService ff1 = new TokenizationService(hsm, null, PanTokenFormat.ff1(true, true, false));
+
+        // 1. Correctness of both FF1 variants
+        console.println("Corpus: " + CORPUS_SIZE + " PANs (16 and 19 digits), failures: "
+                + check(ff1Luhn, pans, true, console) + " (" + ff1Luhn.getFormat() + "), "
+                + check(ff1, pans, false, console) + " (" + ff1.getFormat() + ")");
+
+        // 2. Single-thread timing (two warm-up rounds, then one measured round)
+        byte[][] buffers = new byte[CORPUS_SIZE][];
+        long sink = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (String pan : pans) {
+                    sink += cbc.tokenizePan(pan).length();
+                }
+            }
+            long cbcNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (String pan : pans) {
+                    sink += ff1.tokenizePan(pan).length();
+                }
+            }
+            long ff1Nanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (String pan : pans) {
+                    sink += ff1Luhn.tokenizePan(pan).length();
+                }
+            }
+            long ff1LuhnNanos = System.nanoTime() - start;
+
+            long inPlaceNanos = 0;
+            for (int r = 0; r < ROUNDS; r++) {
+                for (int i = 0; i < CORPUS_SIZE; i++) {
+                    buffers[i] = pans[i].getBytes(StandardCharsets.US_ASCII);
+                }
+                start = System.nanoTime();
+                for (byte[] buffer : buffers) {
+                    ff1Luhn.tokenizePanInPlace(buffer, 0, buffer.length);
+                    sink += buffer[buffer.length - 1];
+                }
+                inPlaceNanos += System.nanoTime() - start;
+            }
+
+            // The HSM work alone, without validation and audit logging
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (String pan : pans) {
+                    sink += hsm.encrypt(pan).length();
+                }
+            }
+            long cbcHsmNanos = System.nanoTime() - start;
+
+            long ff1HsmNanos = 0;
+            for (int r = 0; r < ROUNDS; r++) {
+                for (int i = 0; i < CORPUS_SIZE; i++) {
+                    buffers[i] = pans[i].getBytes(StandardCharsets.US_ASCII);
+                }
+                start = System.nanoTime();
+                for (byte[] buffer : buffers) {
+                    ff1.getFormat().tokenize(hsm, buffer, 0, buffer.length);
+                    sink += buffer[buffer.length - 1];
+                }
+                ff1HsmNanos += System.nanoTime() - start;
+            }
+
+            long ops = (long) ROUNDS * CORPUS_SIZE;
+            console.printf("%s round%n", round < 2 ? "Warm-up" : "Measured");
+            console.printf("  tokenizePan, CBC/Base64        : %8.1f ns/op%n", (double) cbcNanos / ops);
+            console.printf("  tokenizePan, FF1               : %8.1f ns/op%n", (double) ff1Nanos / ops);
+            console.printf("  tokenizePan, FF1 Luhn-valid    : %8.1f ns/op%n", (double) ff1LuhnNanos / ops);
+            console.printf("  tokenizePanInPlace, FF1 Luhn   : %8.1f ns/op%n", (double) inPlaceNanos / ops);
+            console.printf("  HSM only, CBC/Base64           : %8.1f ns/op%n", (double) cbcHsmNanos / ops);
+            console.printf("  HSM only, FF1 (one pass)       : %8.1f ns/op%n", (double) ff1HsmNanos / ops);
+        }
+        console.println("(sink " + sink + ")");
+    }
+
+    /** @return PANs whose token is malformed, collides or does not round-trip */
+    private static int check(TokenizationService service, String[] pans, boolean luhn, PrintStream console) {
+        int failures = 0;
+        Set<String> tokens = new HashSet<>();
+        for (String pan : pans) {
+            String token = service.tokenizePan(pan);
+            byte[] inPlace = pan.getBytes(StandardCharsets.US_ASCII);
+            service.tokenizePanInPlace(inPlace, 0, inPlace.length);
+            boolean ok = token.length() == pan.length()
+                    && token.chars().allMatch(Character::isDigit)
+                    && token.startsWith(pan.substring(0, 6))
+                    && token.endsWith(pan.substring(pan.length() - 4))
+                    && (!luhn || luhnCheckDigit(token.substring(0, token.length() - 1)) == token.charAt(token.length() - 1))
+                    && !token.equals(pan)
+                    && tokens.add(token)
+                    && token.equals(new String(inPlace, StandardCharsets.US_ASCII))
+                    && pan.equals(service.detokenizePan(token));
+            if (!ok) {
+                failures++;
+                console.println("Failure for PAN " + service.mask(pan) + " -> " + token);
+            }
+        }
+        return failures;
+    }
+
+    /** Test-range PANs with a valid Luhn check digit, as field 2 validation requires. */
+    private static String randomPan(Random random, int length) {
+        StringBuilder pan = new StringBuilder(length).append('4');
+        for (int i = 1; i < length - 1; i++) {
+            pan.append((char) ('0' + random.nextInt(10)));
+        }
+        return pan.append(luhnCheckDigit(pan)).toString();
+    }
+
+    private static char luhnCheckDigit(CharSequence payload) {
+        int sum = 0;
+        boolean doubled = true;
+        for (int i = payload.length() - 1; i >= 0; i--) {
+            int digit = payload.charAt(i) - '0';
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        return (char) ('0' + (10 - sum % 10) % 10);
+    }
+}
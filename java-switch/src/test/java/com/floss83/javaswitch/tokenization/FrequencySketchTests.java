@@ -0,0 +1,39 @@
+package com.floss83.javaswitch.tokenization;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class FrequencySketchTests {
+
+    private static final int KEY = 0x4000_1234;
+
+    @Test
+    void estimatesAreNeverBelowTheCountAndCapAt15() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+
+        for (int i = 1; i <= 15; i++) {
+            sketch.increment(KEY);
+            assertTrue(sketch.frequency(KEY) >= i, "after " + i + " increments");
+        }
+        sketch.increment(KEY);
+
+        assertEquals(15, sketch.frequency(KEY));
+    }
+
+    @Test
+    void countersAreHalvedOnceTheSamplePeriodIsFull() {
+        FrequencySketch sketch = new FrequencySketch(8); // ages after 80 additions
+        for (int i = 0; i < 20; i++) {
+            sketch.increment(KEY); // the last 5 add nothing: every counter is at 15
+        }
+        assertEquals(15, sketch.frequency(KEY));
+
+        for (int other = 1; other <= 80 - 15; other++) {
+            sketch.increment(other * 0x9E3779B9);
+        }
+
+        assertEquals(7, sketch.frequency(KEY));
+    }
+}
@@ -0,0 +1,215 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Manual benchmark: pooled, pre-initialized HsmSimulator ciphers vs the
+ * per-call Cipher.getInstance()/init() they replace.
+ * <p>
+ * First cross-checks every API variant against the original code path on a
+ * random PAN corpus (tokens must match byte for byte and decrypt back), then
+ * times them on one thread and on virtual threads.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class HsmBenchmark {
+
+    private static final int CORPUS_SIZE = 4096;
+    private static final int ROUNDS = 50;
+    private static final int BATCH_SIZE = 64;
+    private static final int VIRTUAL_THREADS = 256;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(8583);
+        String[] pans = new String[CORPUS_SIZE];
+        byte[][] panBytes = new byte[CORPUS_SIZE][];
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            pans[i] = randomPan(random);
+            panBytes[i] = pans[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < CORPUS_SIZE; i += BATCH_SIZE) {
+            batches.add(Arrays.asList(pans).subList(i, Math.min(CORPUS_SIZE, i + BATCH_SIZE)));
+        }
+
+        HsmSimulator hsm = new HsmSimulator();
+        hsm.initializeKeys();
+        PerCallHsm baseline = new PerCallHsm();
+
+        // 1. Equivalence: every variant must produce the original tokens
+        int mismatches = 0;
+        List<String> batchTokens = new ArrayList<>();
+        for (List<String> batch : batches) {
+            batchTokens.addAll(hsm.encrypt(batch));
+        }
+        List<String> batchPlain = hsm.decrypt(batchTokens);
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            String expected = baseline.encrypt(pans[i]);
+            byte[] raw = hsm.encrypt(panBytes[i]);
+            if (!expected.equals(hsm.encrypt(pans[i]))
+                    || !expected.equals(Base64.getEncoder().encodeToString(raw))
+                    || !expected.equals(batchTokens.get(i))
+                    || !pans[i].equals(hsm.decrypt(expected))
+                    || !Arrays.equals(panBytes[i], hsm.decrypt(raw))
+                    || !pans[i].equals(batchPlain.get(i))
+                    || !pans[i].equals(baseline.decrypt(expected))) {
+                mismatches++;
+                System.out.println("Mismatch for PAN #" + i);
+            }
+        }
+        System.out.println("Corpus: " + CORPUS_SIZE + " PANs, mismatches: " + mismatches);
+
+        // 2. Single-thread timing (two warm-up rounds, then one measured round)
+        long sink = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (String pan : pans) {
+                    sink += baseline.encrypt(pan).length();
+                }
+            }
+            long perCallNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (String pan : pans) {
+                    sink += hsm.encrypt(pan).length();
+                }
+            }
+            long pooledNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (byte[] pan : panBytes) {
+                    sink += hsm.encrypt(pan).length;
+                }
+            }
+            long bytesNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (List<String> batch : batches) {
+                    sink += hsm.encrypt(batch).size();
+                }
+            }
+            long batchNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (String token : batchTokens) {
+                    sink += baseline.decrypt(token).length();
+                }
+            }
+            long perCallDecryptNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (String token : batchTokens) {
+                    sink += hsm.decrypt(token).length();
+                }
+            }
+            long pooledDecryptNanos = System.nanoTime() - start;
+
+            long ops = (long) ROUNDS * CORPUS_SIZE;
+            System.out.printf("%s round%n", round < 2 ? "Warm-up" : "Measured");
+            System.out.printf("  encrypt, getInstance per call : %8.1f ns/op%n", (double) perCallNanos / ops);
+            System.out.printf("  encrypt(String), pooled       : %8.1f ns/op%n", (double) pooledNanos / ops);
+            System.out.printf("  encrypt(byte[]), pooled       : %8.1f ns/op%n", (double) bytesNanos / ops);
+            System.out.printf("  encrypt(List) x%-3d            : %8.1f ns/op%n", BATCH_SIZE, (double) batchNanos / ops);
+            System.out.printf("  decrypt, getInstance per call : %8.1f ns/op%n", (double) perCallDecryptNanos / ops);
+            System.out.printf("  decrypt(String), pooled       : %8.1f ns/op%n", (double) pooledDecryptNanos / ops);
+        }
+
+        // 3. Contended timing: the corpus split across virtual threads
+        for (int round = 0; round < 3; round++) {
+            long perCallNanos = concurrent(pans, baseline::encrypt);
+            long pooledNanos = concurrent(pans, hsm::encrypt);
+            long ops = (long) ROUNDS * CORPUS_SIZE;
+            System.out.printf("%s round, %d virtual threads%n", round < 2 ? "Warm-up" : "Measured", VIRTUAL_THREADS);
+            System.out.printf("  encrypt, getInstance per call : %8.1f ns/op%n", (double) perCallNanos / ops);
+            System.out.printf("  encrypt(String), pooled       : %8.1f ns/op%n", (double) pooledNanos / ops);
+        }
+        System.out.println("(sink " + sink + ")");
+    }
+
+    private interface Encryptor {
+        String encrypt(String plaintext) throws Exception;
+    }
+
+    /** Wall-clock nanos for ROUNDS passes over the corpus, shared out to virtual threads. */
+    private static long concurrent(String[] pans, Encryptor encryptor) throws Exception {
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int t = 0; t < VIRTUAL_THREADS; t++) {
+                int first = t;
+                results.add(executor.submit(() -> {
+                    long sum = 0;
+                    for (int r = 0; r < ROUNDS; r++) {
+                        for (int i = first; i < pans.length; i += VIRTUAL_THREADS) {
+                            sum += encryptor.encrypt(pans[i]).length();
+                        }
+                    }
+                    return sum;
+                }));
+            }
+            for (Future<Long> result : results) {
+                result.get();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** The HsmSimulator encrypt/decrypt this change replaced: provider lookup and init on every call. */
+    private static final class PerCallHsm {
+        private final SecretKey secretKey;
+        private final byte[] iv = new byte[16];
+
+        PerCallHsm() throws Exception {
+            SecureRandom secureRandom = SecureRandom.getInstance("SHA1PRNG");
+            secureRandom.setSeed("Floss83-Tokenization-Demo-Seed".getBytes());
+            KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+            keyGen.init(128, secureRandom);
+            secretKey = keyGen.generateKey();
+            secureRandom.nextBytes(iv);
+        }
+
+        String encrypt(String plaintext) throws Exception {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv));
+            return Base64.getEncoder().encodeToString(cipher.doFinal(plaintext.getBytes()));
+        }
+
+        String decrypt(String encryptedData) throws Exception {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(iv));
+            return new String(cipher.doFinal(Base64.getDecoder().decode(encryptedData)));
+        }
+    }
+
+    /** 16-digit test-range PANs (no Luhn needed here). */
+    private static String randomPan(Random random) {
+        char[] pan = new char[16];
+        pan[0] = '4';
+        for (int i = 1; i < pan.length; i++) {
+            pan[i] = (char) ('0' + random.nextInt(10));
+        }
+        return new String(pan);
+    }
+}
@@ -0,0 +1,143 @@
+package com.floss83.javaswitch.tokenization;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Manual benchmark: tokenization against a network HSM that is a few
+ * milliseconds away ({@link HsmStandInServer}), through an
+ * {@link HsmClient} that coalesces requests into batch commands vs one that
+ * sends one request per command.
+ * <p>
+ * First checks that tokens and PANs coming back over the wire match the
+ * in-process {@link HsmSimulator}'s. Then runs many virtual threads, each
+ * tokenizing its share of a PAN corpus one call at a time, as connection
+ * threads do, and reports throughput, per-call latency percentiles and the
+ * mean batch size.
+ * </p>
+ *
+ * @author Gracemann365
+ * @since 1.1
+ */
+public class HsmClientBenchmark {
+
+    private static final int PORT = 5290;
+    private static final Duration LATENCY = Duration.ofMillis(2);
+    private static final int CORPUS_SIZE = 20000;
+    private static final int CALLERS = 512;
+    private static final int CONNECTIONS = 2;
+    private static final int MAX_IN_FLIGHT = 4;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(8583);
+        String[] pans = new String[CORPUS_SIZE];
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            pans[i] = randomPan(random);
+        }
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // per-call audit lines
+
+        HsmSimulator local = new HsmSimulator();
+        local.initializeKeys();
+        HsmSimulator remote = new HsmSimulator();
+        remote.initializeKeys();
+        HsmStandInServer server = new HsmStandInServer(PORT, remote, LATENCY, Duration.ZERO);
+        Thread serverThread = new Thread(server, "hsm-stand-in");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        PanTokenFormat ff1 = PanTokenFormat.ff1(true, true, true);
+        for (int maxBatch : new int[] { 64, 1 }) {
+            HsmClient client = new HsmClient("localhost", PORT, CONNECTIONS, maxBatch, MAX_IN_FLIGHT,
+                    Duration.ofSeconds(10));
+            client.start();
+            while (client.getConnectedLinks() < CONNECTIONS) {
+                Thread.sleep(10);
+            }
+            TokenizationService service = new TokenizationService(client, null, ff1);
+
+            // 1. Equivalence with the in-process HSM, for both token formats
+            int mismatches = 0;
+            for (int i = 0; i < 256; i++) {
+                String cbcToken = client.encrypt(pans[i], PanTokenFormat.CBC_BASE64).join();
+                String ff1Token = service.tokenizePan(pans[i]);
+                if (!cbcToken.equals(local.encrypt(pans[i]))
+                        || !ff1Token.equals(ff1.tokenize(local, pans[i]))
+                        || !pans[i].equals(client.decrypt(cbcToken, PanTokenFormat.CBC_BASE64).join())
+                        || !pans[i].equals(service.detokenizePan(ff1Token))) {
+                    mismatches++;
+                }
+            }
+            console.println("maxBatch " + maxBatch + ": 256 PANs checked against the in-process HSM, mismatches: "
+                    + mismatches);
+
+            // 2. Concurrent callers, each waiting for its own token
+            for (int round = 0; round < 2; round++) {
+                long batchesBefore = client.getBatches();
+                long[] latencies = new long[CORPUS_SIZE];
+                long start = System.nanoTime();
+                try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                    List<Future<?>> callers = new ArrayList<>();
+                    for (int t = 0; t < CALLERS; t++) {
+                        int first = t;
+                        callers.add(executor.submit(() -> {
+                            for (int i = first; i < CORPUS_SIZE; i += CALLERS) {
+                                long callStart = System.nanoTime();
+                                service.tokenizePan(pans[i]);
+                                latencies[i] = System.nanoTime() - callStart;
+                            }
+                            return null;
+                        }));
+                    }
+                    for (Future<?> caller : callers) {
+                        caller.get();
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                long batches = client.getBatches() - batchesBefore;
+                Arrays.sort(latencies);
+                console.printf("  %s, %d callers: %8.0f tokens/s, p50 %5.1f ms, p99 %5.1f ms, %5.1f per batch%n",
+                        round == 0 ? "Warm-up " : "Measured", CALLERS, CORPUS_SIZE * 1e9 / elapsed,
+                        latencies[CORPUS_SIZE / 2] / 1e6, latencies[CORPUS_SIZE * 99 / 100] / 1e6,
+                        (double) CORPUS_SIZE / batches);
+            }
+            client.close();
+        }
+        server.close();
+        console.println("Stand-in executed " + server.getCommands() + " commands, " + server.getItems() + " items");
+    }
+
+    /** 16-digit test-range PANs with a valid Luhn check digit. */
+    private static String randomPan(Random random) {
+        int[] digits = new int[16];
+        digits[0] = 4;
+        for (int i = 1; i < 15; i++) {
+            digits[i] = random.nextInt(10);
+        }
+        int sum = 0;
+        for (int i = 14; i >= 0; i--) {
+            int digit = digits[i];
+            if ((14 - i) % 2 == 0) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+        }
+        digits[15] = (10 - sum % 10) % 10;
+        StringBuilder pan = new StringBuilder(16);
+        for (int digit : digits) {
+            pan.append(digit);
+        }
+        return pan.toString();
+    }
+}
@@ -0,0 +1,304 @@
+package com.floss83.javaswitch.tokenization;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class HsmClientTests {
+
+    private static final PanTokenFormat FORMAT = PanTokenFormat.CBC_BASE64;
+
+    private FakeHsm hsm;
+    private HsmClient client;
+
+    @AfterEach
+    void close() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        if (hsm != null) {
+            hsm.close();
+        }
+    }
+
+    @Test
+    void requestsQueuedBehindAnOutstandingBatchShareTheNextOne() throws Exception {
+        hsm = new FakeHsm();
+        client = started(64, 1, Duration.ofSeconds(5));
+        hsm.holding = true;
+
+        CompletableFuture<String> first = client.encrypt("P0", FORMAT);
+        assertEquals(List.of("P0"), hsm.nextCommand());
+        List<CompletableFuture<String>> queued = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            queued.add(client.encrypt("P" + i, FORMAT));
+        }
+        assertEquals(5, client.getQueued(), "the only window slot is taken");
+        hsm.holding = false;
+        hsm.answerHeld();
+
+        assertEquals("T-P0", first.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("P1", "P2", "P3", "P4", "P5"), hsm.nextCommand());
+        for (int i = 1; i <= 5; i++) {
+            assertEquals("T-P" + i, queued.get(i - 1).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(2, client.getBatches());
+        assertEquals(3.0, client.getAverageBatchSize());
+    }
+
+    @Test
+    void batchCallTravelsWholeAndSplitsAtMaxBatch() throws Exception {
+        hsm = new FakeHsm();
+        client = started(4, 1, Duration.ofSeconds(5));
+        hsm.holding = true;
+
+        CompletableFuture<String> single = client.encrypt("S", FORMAT);
+        assertEquals(List.of("S"), hsm.nextCommand());
+        CompletableFuture<String> other = client.encrypt("Z", FORMAT);
+        CompletableFuture<List<String>> whole = client.encryptBatch(List.of("B1", "B2", "B3", "B4"),
+                List.of(FORMAT, FORMAT, FORMAT, FORMAT));
+        hsm.holding = false;
+        hsm.answerHeld();
+
+        // Z and the batch call's four would overflow one command: the four go on together
+        assertEquals(List.of("Z"), hsm.nextCommand());
+        assertEquals(List.of("B1", "B2", "B3", "B4"), hsm.nextCommand());
+        assertEquals(List.of("T-B1", "T-B2", "T-B3", "T-B4"), whole.get(5, TimeUnit.SECONDS));
+        assertEquals("T-S", single.get(5, TimeUnit.SECONDS));
+        assertEquals("T-Z", other.get(5, TimeUnit.SECONDS));
+
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            values.add("V" + i);
+        }
+        List<String> tokens = client.encryptBatch(values, List.of(FORMAT, FORMAT, FORMAT, FORMAT, FORMAT,
+                FORMAT, FORMAT, FORMAT, FORMAT, FORMAT)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("V0", "V1", "V2", "V3"), hsm.nextCommand());
+        assertEquals(List.of("V4", "V5", "V6", "V7"), hsm.nextCommand());
+        assertEquals(List.of("V8", "V9"), hsm.nextCommand());
+        assertEquals("T-V9", tokens.get(9));
+    }
+
+    @Test
+    void rejectedItemFailsAloneWithinItsBatch() throws Exception {
+        hsm = new FakeHsm();
+        client = started(64, 1, Duration.ofSeconds(5));
+        hsm.holding = true;
+
+        CompletableFuture<String> first = client.encrypt("P0", FORMAT);
+        hsm.nextCommand();
+        CompletableFuture<String> good = client.encrypt("P1", FORMAT);
+        CompletableFuture<String> bad = client.decrypt("BAD", FORMAT);
+        hsm.holding = false;
+        hsm.answerHeld();
+
+        assertEquals(List.of("P1", "BAD"), hsm.nextCommand());
+        assertEquals("T-P0", first.get(5, TimeUnit.SECONDS));
+        assertEquals("T-P1", good.get(5, TimeUnit.SECONDS));
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> bad.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, failure.getCause());
+        assertEquals("not a token: BAD", failure.getCause().getMessage());
+    }
+
+    @Test
+    void requestThatTimesOutWhileQueuedIsNeverSent() throws Exception {
+        hsm = new FakeHsm();
+        client = started(64, 1, Duration.ofMillis(200));
+        hsm.holding = true;
+
+        CompletableFuture<String> sent = client.encrypt("P0", FORMAT);
+        assertEquals(List.of("P0"), hsm.nextCommand());
+        CompletableFuture<String> queued = client.encrypt("P1", FORMAT);
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, failure.getCause());
+        assertThrows(ExecutionException.class, () -> sent.get(5, TimeUnit.SECONDS));
+        hsm.holding = false;
+        hsm.answerHeld();
+
+        assertEquals("T-P2", client.encrypt("P2", FORMAT).get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("P2"), hsm.nextCommand());
+        assertNull(hsm.commands.poll(), "P1 was dropped from the queue");
+        assertEquals(2, client.getTimeouts());
+    }
+
+    @Test
+    void lostLinkFailsItsOutstandingBatch() throws Exception {
+        hsm = new FakeHsm();
+        client = started(64, 1, Duration.ofSeconds(5));
+        hsm.holding = true;
+
+        CompletableFuture<String> outstanding = client.encrypt("P0", FORMAT);
+        hsm.nextCommand();
+        hsm.dropConnections();
+
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> outstanding.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, failure.getCause());
+    }
+
+    private HsmClient started(int maxBatch, int maxInFlight, Duration timeout) throws InterruptedException {
+        HsmClient started = new HsmClient("localhost", hsm.getPort(), 1, maxBatch, maxInFlight, timeout);
+        started.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (started.getConnectedLinks() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, started.getConnectedLinks());
+        return started;
+    }
+
+    /**
+     * HSM end of the links: records the values of every command and answers
+     * each with "T-" and the value, or rejects "BAD". While
+     * {@link #holding}, commands are kept unanswered until
+     * {@link #answerHeld()}.
+     */
+    private static final class FakeHsm implements AutoCloseable {
+        final ServerSocket server = new ServerSocket(0);
+        final BlockingQueue<List<String>> commands = new LinkedBlockingQueue<>();
+        final List<byte[]> held = new ArrayList<>();
+        final List<Socket> connections = new ArrayList<>();
+        final ReentrantLock lock = new ReentrantLock();
+        volatile boolean holding;
+        volatile OutputStream out;
+
+        FakeHsm() throws IOException {
+            Thread.ofVirtual().start(this::accept);
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        List<String> nextCommand() throws InterruptedException {
+            List<String> values = commands.poll(5, TimeUnit.SECONDS);
+            assertNotNull(values, "HSM received no command");
+            return values;
+        }
+
+        void answerHeld() throws IOException {
+            lock.lock();
+            try {
+                for (byte[] response : held) {
+                    out.write(response);
+                }
+                out.flush();
+                held.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void dropConnections() throws IOException {
+            lock.lock();
+            try {
+                for (Socket connection : connections) {
+                    connection.close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    lock.lock();
+                    try {
+                        connections.add(socket);
+                    } finally {
+                        lock.unlock();
+                    }
+                    Thread.ofVirtual().start(() -> serve(socket));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (socket; InputStream in = socket.getInputStream()) {
+                out = socket.getOutputStream();
+                byte[] frame;
+                while ((frame = HsmWire.readFrame(in)) != null) {
+                    byte[] response = respond(frame);
+                    lock.lock();
+                    try {
+                        if (holding) {
+                            held.add(response);
+                        } else {
+                            out.write(response);
+                            out.flush();
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } catch (IOException e) {
+                // connection closed by either end
+            }
+        }
+
+        private byte[] respond(byte[] frame) {
+            int count = HsmWire.readShort(frame, 4);
+            List<String> values = new ArrayList<>(count);
+            int length = 4 + HsmWire.BATCH_HEADER;
+            int position = HsmWire.BATCH_HEADER;
+            for (int i = 0; i < count; i++) {
+                int valueLength = frame[position + 2] & 0xFF;
+                values.add(new String(frame, position + 3, valueLength, StandardCharsets.US_ASCII));
+                position += 3 + valueLength;
+                length += 2 + result(values.get(i)).length();
+            }
+            commands.add(values);
+
+            byte[] response = new byte[length];
+            HsmWire.writeInt(response, 0, length - 4);
+            System.arraycopy(frame, 0, response, 4, HsmWire.BATCH_HEADER);
+            position = 4 + HsmWire.BATCH_HEADER;
+            for (String value : values) {
+                byte[] result = result(value).getBytes(StandardCharsets.US_ASCII);
+                response[position] = "BAD".equals(value) ? HsmWire.STATUS_REJECTED : HsmWire.STATUS_OK;
+                response[position + 1] = (byte) result.length;
+                System.arraycopy(result, 0, response, position + 2, result.length);
+                position += 2 + result.length;
+            }
+            return response;
+        }
+
+        private static String result(String value) {
+            return "BAD".equals(value) ? "not a token: " + value : "T-" + value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            dropConnections();
+        }
+    }
+}
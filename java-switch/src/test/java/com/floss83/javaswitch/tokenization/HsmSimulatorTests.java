@@ -0,0 +1,76 @@
+package com.floss83.javaswitch.tokenization;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class HsmSimulatorTests {
+
+    private static final String PAN = "4000001234567899";
+
+    /** What the original single-key, fixed-IV HsmSimulator returned for {@link #PAN}. */
+    private static final String BASELINE_TOKEN = "4Ik3GxnF3CnGR/wxaILQ/kKeHhdBm0hRxL77WSS4nvI=";
+
+    @Test
+    void versionOneTokensAreTheBaselineTokens() {
+        HsmSimulator hsm = started();
+
+        assertEquals(BASELINE_TOKEN, hsm.encrypt(PAN));
+        assertArrayEquals(Base64.getDecoder().decode(BASELINE_TOKEN),
+                hsm.encrypt(PAN.getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(List.of(BASELINE_TOKEN), hsm.encrypt(List.of(PAN)));
+        assertEquals(PAN, hsm.decrypt(BASELINE_TOKEN));
+    }
+
+    @Test
+    void tokensOfRotatedVersionsStillDecryptAfterARestart() {
+        HsmSimulator before = started();
+        before.rotateKeys();
+        assertEquals(3, before.rotateKeys());
+        String token = before.encrypt(PAN);
+        assertEquals(3, HsmSimulator.keyVersionOf(token));
+
+        HsmSimulator restarted = started();
+
+        assertEquals(1, restarted.getKeyVersion());
+        assertEquals(PAN, restarted.decrypt(token));
+        assertArrayEquals(new int[] { 1, 3 }, restarted.getKeyVersions());
+    }
+
+    @Test
+    void rotationAfterARestartReissuesTheSameVersionTwoTokens() {
+        HsmSimulator before = started();
+        before.rotateKeys();
+        HsmSimulator restarted = started();
+
+        assertEquals(2, restarted.rotateKeys());
+        assertEquals(before.encrypt(PAN), restarted.encrypt(PAN));
+    }
+
+    @Test
+    void retiredVersionsStopDecryptingEvenIfNeverUsedSinceStart() {
+        HsmSimulator before = started();
+        before.rotateKeys();
+        String token = before.encrypt(PAN);
+        HsmSimulator restarted = started();
+
+        assertTrue(restarted.retireKeyVersion(2));
+        assertFalse(restarted.retireKeyVersion(2));
+        assertThrows(IllegalArgumentException.class, () -> restarted.decrypt(token));
+        assertEquals(3, restarted.rotateKeys(), "a retired version is not made current again");
+    }
+
+    private static HsmSimulator started() {
+        HsmSimulator hsm = new HsmSimulator();
+        hsm.initializeKeys();
+        return hsm;
+    }
+}
@@ -0,0 +1,74 @@
+package com.floss83.javaswitch.tokenization;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class PanTokenFormatTests {
+
+    private static final int PANS_PER_LENGTH = 500;
+
+    @Test
+    void luhnTokensRoundTripOnEveryPanLength() {
+        HsmSimulator hsm = new HsmSimulator();
+        hsm.initializeKeys();
+        PanTokenFormat format = PanTokenFormat.ff1(true, true, true);
+        Random random = new Random(8583);
+
+        for (int length = 13; length <= 19; length++) {
+            int kept = Math.min(6, length - 4 - 6);
+            Set<String> tokens = new HashSet<>();
+            for (int i = 0; i < PANS_PER_LENGTH; i++) {
+                String pan = randomPan(random, length);
+                String token = format.tokenize(hsm, pan);
+
+                assertEquals(length, token.length(), pan);
+                assertTrue(token.chars().allMatch(Character::isDigit), token);
+                assertTrue(isLuhnValid(token), token);
+                assertEquals(pan.substring(0, kept), token.substring(0, kept));
+                assertEquals(pan.substring(length - 4), token.substring(length - 4));
+                assertNotEquals(pan, token);
+                assertTrue(tokens.add(token), "Duplicate token " + token);
+                assertEquals(pan, format.detokenize(hsm, token));
+            }
+        }
+    }
+
+    /** @return a Luhn-valid PAN of the given length */
+    private static String randomPan(Random random, int length) {
+        StringBuilder pan = new StringBuilder(length);
+        pan.append((char) ('1' + random.nextInt(9)));
+        while (pan.length() < length - 1) {
+            pan.append((char) ('0' + random.nextInt(10)));
+        }
+        for (char check = '0'; check <= '9'; check++) {
+            if (isLuhnValid(pan.toString() + check)) {
+                return pan.append(check).toString();
+            }
+        }
+        throw new AssertionError("No check digit for " + pan);
+    }
+
+    private static boolean isLuhnValid(String digits) {
+        int sum = 0;
+        boolean doubled = false;
+        for (int i = digits.length() - 1; i >= 0; i--) {
+            int digit = digits.charAt(i) - '0';
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        return sum % 10 == 0;
+    }
+}
@@ -0,0 +1,120 @@
+package com.floss83.javaswitch.tokenization;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class TokenCacheTests {
+
+    private static final String PAN = "4000001234567899";
+    private static final String TOKEN = "4Ik3GxnF3CnGR/wxaILQ/kKeHhdBm0hRxL77WSS4nvI=";
+
+    @Test
+    void stringAndByteFormsOfAPanFindTheSameEntry() {
+        TokenCache cache = new TokenCache(100, Duration.ZERO);
+        cache.put(PAN, TOKEN);
+        byte[] message = ("0200" + PAN + "000000").getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(TOKEN, cache.getToken(message, 4, PAN.length()));
+        assertEquals(PAN, cache.getPan(TOKEN));
+
+        TokenCache fromBytes = new TokenCache(100, Duration.ZERO);
+        fromBytes.put(PAN.getBytes(StandardCharsets.US_ASCII), TOKEN);
+
+        assertEquals(TOKEN, fromBytes.getToken(PAN));
+        assertNull(fromBytes.getToken(message, 4, PAN.length() - 1));
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        TokenCache cache = new TokenCache(100, Duration.ZERO);
+        assertEquals(0.0, cache.getHitRatio());
+
+        assertNull(cache.getToken(PAN));
+        cache.put(PAN, TOKEN);
+        assertEquals(TOKEN, cache.getToken(PAN));
+        assertEquals(PAN, cache.getPan(TOKEN));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2.0 / 3, cache.getHitRatio());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void entriesExpireAfterTheirTtl() throws InterruptedException {
+        TokenCache cache = new TokenCache(100, Duration.ofMillis(50));
+        cache.put(PAN, TOKEN);
+        assertEquals(TOKEN, cache.getToken(PAN));
+
+        Thread.sleep(100);
+
+        assertNull(cache.getToken(PAN));
+        assertNull(cache.getPan(TOKEN));
+        assertEquals(2, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void evictedAndClearedPansAreZeroed() {
+        TokenCache cache = new TokenCache(1, Duration.ZERO);
+        byte[] first = PAN.getBytes(StandardCharsets.US_ASCII);
+        byte[] second = "5555555555554444".getBytes(StandardCharsets.US_ASCII);
+
+        cache.put(first, TOKEN);
+        cache.put(second, "second-token");
+
+        assertArrayEquals(new byte[PAN.length()], first);
+        assertNull(cache.getPan(TOKEN));
+        assertEquals(2, cache.getEvictions(), "one per direction");
+        assertEquals("5555555555554444", cache.getPan("second-token"));
+
+        cache.invalidateAll();
+
+        assertArrayEquals(new byte[second.length], second);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void oneOffPansDoNotFlushRegularCardholders() {
+        int capacity = 1000;
+        TokenCache cache = new TokenCache(capacity, Duration.ZERO);
+        int regulars = capacity / 2;
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < regulars; i++) {
+                lookUp(cache, pan(i));
+            }
+        }
+
+        // A scan of twice the capacity in PANs seen once each: plain LRU would keep none of the regulars
+        for (int i = 0; i < 2 * capacity; i++) {
+            lookUp(cache, pan(1_000_000 + i));
+        }
+
+        int kept = 0;
+        for (int i = 0; i < regulars; i++) {
+            if (cache.getToken(pan(i)) != null) {
+                kept++;
+            }
+        }
+        assertTrue(kept > regulars * 9 / 10, kept + " of " + regulars + " regulars kept");
+        assertTrue(cache.size() <= 2 * capacity);
+    }
+
+    /** A lookup as {@link TokenizationService} makes it: on a miss the token is fetched and put. */
+    private static void lookUp(TokenCache cache, String pan) {
+        if (cache.getToken(pan) == null) {
+            cache.put(pan, "token-" + pan);
+        }
+    }
+
+    private static String pan(int i) {
+        return String.format("4%015d", i);
+    }
+}